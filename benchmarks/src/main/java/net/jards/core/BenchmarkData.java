@@ -0,0 +1,71 @@
+package net.jards.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Documents used by benchmarks. Content is generated from index of document, so every run has same data.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param i index of document
+     * @return json of task with top level, nested and array properties
+     */
+    static String task(long i) {
+        return "{\"text\":\"task " + i + "\",\"priority\":" + (i % 10) + ",\"done\":" + (i % 2 == 0)
+                + ",\"owner\":{\"name\":\"user " + (i % 100) + "\",\"address\":{\"city\":\"city " + (i % 7) + "\"}}"
+                + ",\"tags\":[\"tag" + (i % 3) + "\",\"tag" + (i % 5) + "\"],\"estimate\":" + (i % 40) / 4.0 + "}";
+    }
+
+    /**
+     * @param i index of document
+     * @param fields number of additional top level fields
+     * @return json of task with many fields (bigger document)
+     */
+    static String largeTask(long i, int fields) {
+        StringBuilder json = new StringBuilder(task(i));
+        json.setLength(json.length() - 1);
+        for (int f = 0; f < fields; f++) {
+            json.append(",\"field").append(f).append("\":{\"value\":").append(i * f)
+                    .append(",\"label\":\"label ").append(f).append("\"}");
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * @param collection collection of documents
+     * @param count number of documents
+     * @return documents with ids "task-0" ... and task content
+     */
+    static List<Document> tasks(Collection collection, int count) {
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(task(collection, i));
+        }
+        return documents;
+    }
+
+    /**
+     * @param collection collection of document
+     * @param i index of document
+     * @return document with id "task-i" and task content
+     */
+    static Document task(Collection collection, long i) {
+        Document document = new Document(collection, "task-" + i);
+        document.setContent(task(i));
+        return document;
+    }
+
+    /**
+     * @param seed seed
+     * @return random generator with given seed (same sequence in every run)
+     */
+    static Random random(long seed) {
+        return new Random(seed);
+    }
+}
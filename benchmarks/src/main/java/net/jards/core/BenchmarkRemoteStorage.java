@@ -0,0 +1,56 @@
+package net.jards.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remote storage for benchmarks which is connected immediately and confirms every request in thread which
+ * sent it, so only work of Storage and local storage is measured.
+ */
+class BenchmarkRemoteStorage extends RemoteStorage {
+
+    private final AtomicLong ids = new AtomicLong();
+    private RemoteStorageListener listener;
+
+    @Override
+    protected void start(String sessionState) {
+        listener.connectionChanged(new Connection(Connection.STATE.Connected, "benchmark", null, null, true));
+    }
+
+    @Override
+    protected void stop() {
+    }
+
+    @Override
+    protected void setListener(RemoteStorageListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    protected int subscribe(String subscriptionName, ExecutionRequest request) {
+        return 0;
+    }
+
+    @Override
+    protected void unsubscribe(ExecutionRequest request) {
+    }
+
+    @Override
+    protected void call(String method, Object[] arguments, String idSeed, ExecutionRequest request) {
+        listener.requestCompleted(request);
+    }
+
+    @Override
+    protected void applyChanges(DocumentChanges changes, ExecutionRequest request) {
+        listener.requestCompleted(request);
+    }
+
+    @Override
+    public String getSessionState() {
+        return "";
+    }
+
+    @Override
+    protected IdGenerator getIdGenerator(String seed) {
+        return () -> "bench" + ids.incrementAndGet();
+    }
+}
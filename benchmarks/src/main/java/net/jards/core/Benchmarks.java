@@ -0,0 +1,34 @@
+package net.jards.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs benchmarks (JMH command line options can be used). Results are written as json to
+ * target/jmh-result.json unless -rf or -rff option is given, so they can be compared between releases.
+ */
+public final class Benchmarks {
+
+    /**
+     * default file with results
+     */
+    private static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("-rf")){
+            arguments.add(0, "json");
+            arguments.add(0, "-rf");
+        }
+        if (!arguments.contains("-rff")){
+            new java.io.File(DEFAULT_RESULT_FILE).getParentFile().mkdirs();
+            arguments.add(0, DEFAULT_RESULT_FILE);
+            arguments.add(0, "-rff");
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(new String[arguments.size()]));
+    }
+}
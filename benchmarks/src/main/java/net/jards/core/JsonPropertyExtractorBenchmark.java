@@ -0,0 +1,73 @@
+package net.jards.core;
+
+import net.jards.errors.JsonFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of property values from json of document - top level, nested and array properties, and more
+ * properties at once (as when index columns are filled). Streaming extractor is measured for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonPropertyExtractorBenchmark {
+
+    @Param({"default", "streaming"})
+    public String extractor;
+
+    /**
+     * number of additional fields in document (0 - small document)
+     */
+    @Param({"0", "50"})
+    public int fields;
+
+    private JSONPropertyExtractor propertyExtractor;
+    private String json;
+    private List<String> indexPaths;
+
+    @Setup
+    public void setUp() {
+        propertyExtractor = "streaming".equals(extractor)
+                ? new StreamingJSONPropertyExtractor() : new DefaultJSONPropertyExtractor();
+        json = BenchmarkData.largeTask(42, fields);
+        indexPaths = Arrays.asList("text", "priority", "owner.address.city");
+    }
+
+    @Benchmark
+    public Object topLevel() throws JsonFormatException {
+        return propertyExtractor.extractPropertyValue(json, "priority");
+    }
+
+    @Benchmark
+    public Object nested() throws JsonFormatException {
+        return propertyExtractor.extractPropertyValue(json, "owner.address.city");
+    }
+
+    @Benchmark
+    public Object arrayItem() throws JsonFormatException {
+        return propertyExtractor.extractPropertyValue(json, "tags[1]");
+    }
+
+    @Benchmark
+    public Map<String, Object> indexValues() throws JsonFormatException {
+        return propertyExtractor.extractPropertyValues(json, indexPaths);
+    }
+}
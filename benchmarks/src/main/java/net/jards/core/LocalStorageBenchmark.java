@@ -0,0 +1,141 @@
+package net.jards.core;
+
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of create, update, remove and find of SQLiteLocalStorage (in memory and file database).
+ * Collection has text index and int index, so writes maintain index columns and finds can use them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LocalStorageBenchmark {
+
+    /**
+     * documents in collection before benchmark
+     */
+    private static final int DOCUMENTS = 10000;
+    /**
+     * documents removed in one invocation of remove benchmark
+     */
+    private static final int REMOVE_BATCH = 1000;
+
+    @Param({"memory", "file"})
+    public String database;
+
+    private LocalStorage localStorage;
+    private Collection collection;
+    private File databaseFile;
+    private long nextId;
+    private int nextUpdated;
+    private final List<Document> removable = new ArrayList<>();
+    private Predicate byText;
+    private Predicate byPriority;
+    private ResultOptions firstHundred;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        StorageSetup setup = new StorageSetup();
+        setup.setPrefix("bench_");
+        setup.addCollectionSetup("tasks", false, "text");
+        setup.getLocalCollections().get("tasks").addIntIndex("priority");
+        String url = "jdbc:sqlite::memory:";
+        if ("file".equals(database)){
+            databaseFile = File.createTempFile("jards-benchmark", ".db");
+            url = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
+        }
+        localStorage = new SQLiteLocalStorage(setup, url);
+        localStorage.start();
+        collection = new Collection("tasks", false, null);
+        for (nextId = 0; nextId < DOCUMENTS; nextId++) {
+            localStorage.createDocument("tasks", BenchmarkData.task(collection, nextId));
+        }
+        byText = new Predicate.Equals("text", "\"task 4242\"");
+        byPriority = new Predicate.Compare("priority", Predicate.Operator.Smaller, 1);
+        firstHundred = new ResultOptions();
+        firstHundred.setLimit(100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        localStorage.stop(new LinkedList<>());
+        if (databaseFile != null){
+            databaseFile.delete();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareRemovable() throws LocalStorageException {
+        if (!removable.isEmpty()){
+            return;
+        }
+        for (int i = 0; i < REMOVE_BATCH; i++) {
+            Document document = BenchmarkData.task(collection, nextId++);
+            localStorage.createDocument("tasks", document);
+            removable.add(document);
+        }
+    }
+
+    @Benchmark
+    public String create() throws LocalStorageException {
+        return localStorage.createDocument("tasks", BenchmarkData.task(collection, nextId++));
+    }
+
+    @Benchmark
+    public String update() throws LocalStorageException {
+        Document document = new Document(collection, "task-" + nextUpdated);
+        document.setContent(BenchmarkData.task(nextUpdated + DOCUMENTS));
+        nextUpdated = (nextUpdated + 1) % DOCUMENTS;
+        return localStorage.updateDocument("tasks", document);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REMOVE_BATCH)
+    public void remove(Blackhole blackhole) throws LocalStorageException {
+        for (Document document:removable) {
+            blackhole.consume(localStorage.removeDocument("tasks", document));
+        }
+        removable.clear();
+    }
+
+    @Benchmark
+    public List<Map<String, String>> findByIndexedText() throws LocalStorageException {
+        return localStorage.find("tasks", byText, null);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> findByIndexedRange() throws LocalStorageException {
+        return localStorage.find("tasks", byPriority, firstHundred);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> findAllWithLimit() throws LocalStorageException {
+        return localStorage.find("tasks", null, firstHundred);
+    }
+}
@@ -0,0 +1,93 @@
+package net.jards.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicate.match over documents. Cold documents have content set again before matching (property values are
+ * read from json), cached documents have values of properties in their cache already.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PredicateBenchmark {
+
+    /**
+     * documents matched in one invocation
+     */
+    private static final int DOCUMENTS = 1024;
+
+    @Param({"equals", "range", "and", "or", "properties"})
+    public String predicateType;
+
+    @Param({"cold", "cached"})
+    public String cache;
+
+    private Predicate predicate;
+    private List<Document> documents;
+    private String[] contents;
+    private boolean cold;
+
+    @Setup
+    public void setUp() {
+        switch (predicateType){
+            case "equals":
+                predicate = new Predicate.Equals("owner.name", "\"user 42\"");
+                break;
+            case "range":
+                predicate = new Predicate.Compare("estimate", Predicate.Operator.BiggerOrEquals, 5.5);
+                break;
+            case "and":
+                predicate = new Predicate.And(new Predicate.Equals("done", true),
+                        new Predicate.Compare("priority", Predicate.Operator.Smaller, 5),
+                        new Predicate.Equals("tags[0]", "\"tag1\""));
+                break;
+            case "or":
+                predicate = new Predicate.Or(new Predicate.Equals("priority", 9),
+                        new Predicate.Equals("owner.address.city", "\"city 3\""),
+                        new Predicate.Compare("estimate", Predicate.Operator.Smaller, 1));
+                break;
+            default:
+                predicate = new Predicate.EqualProperties("priority", "estimate");
+        }
+        Collection collection = new Collection("tasks", false, null);
+        documents = BenchmarkData.tasks(collection, DOCUMENTS);
+        contents = new String[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            contents[i] = documents.get(i).getContent();
+        }
+        cold = "cold".equals(cache);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public int match() {
+        int matched = 0;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            Document document = documents.get(i);
+            if (cold){
+                document.setContent(contents[i]);
+            }
+            if (predicate.match(document)){
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,102 @@
+package net.jards.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultSet.applyChanges on result sets with 1k, 10k and 100k documents, with and without order. Every change
+ * updates document of result, inserts new document and removes document inserted by previous change, so size
+ * of result stays same.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultSetBenchmark {
+
+    /**
+     * changes applied at once in batch benchmark
+     */
+    private static final int BATCH = 100;
+
+    @Param({"1000", "10000", "100000"})
+    public int documents;
+
+    @Param({"none", "priority"})
+    public String order;
+
+    private Collection collection;
+    private ResultSet resultSet;
+    private Random random;
+    private long nextId;
+    private Document lastInserted;
+
+    @Setup
+    public void setUp() {
+        collection = new Collection("tasks", false, null);
+        ResultOptions resultOptions = new ResultOptions();
+        if ("priority".equals(order)){
+            resultOptions.addOrderByOption("priority", ResultOptions.OrderBy.ASC);
+            resultOptions.addOrderByOption("text", ResultOptions.OrderBy.DESC);
+        }
+        resultSet = new ResultSet(null, collection, resultOptions);
+        resultSet.setResult(BenchmarkData.tasks(collection, documents));
+        random = BenchmarkData.random(42);
+        nextId = documents;
+        lastInserted = null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        resultSet.close();
+    }
+
+    @Benchmark
+    public void singleChange() {
+        DocumentChanges changes = new DocumentChanges();
+        addChange(changes);
+        resultSet.applyChanges(changes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batchOfChanges() {
+        DocumentChanges changes = new DocumentChanges();
+        for (int i = 0; i < BATCH; i++) {
+            addChange(changes);
+        }
+        resultSet.applyChanges(changes);
+    }
+
+    /**
+     * Adds update of random document, insert of new one and remove of previously inserted one.
+     * @param changes changes
+     */
+    private void addChange(DocumentChanges changes) {
+        long updated = random.nextInt(documents);
+        Document document = new Document(collection, "task-" + updated);
+        document.setContent(BenchmarkData.task(updated + random.nextInt(documents)));
+        changes.updateDocument(document);
+        if (lastInserted != null){
+            changes.addRemovedDocument(lastInserted);
+        }
+        lastInserted = BenchmarkData.task(collection, nextId++);
+        changes.addDocument(lastInserted);
+    }
+}
@@ -0,0 +1,75 @@
+package net.jards.core;
+
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency of Storage.execute (local thread runs transaction, writes it to local storage and request
+ * is sent to remote storage) against remote storage which confirms requests immediately.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageExecuteBenchmark {
+
+    private Storage storage;
+    private TransactionRunnable insert;
+    private TransactionRunnable insertTen;
+
+    @Setup
+    public void setUp() throws LocalStorageException {
+        StorageSetup setup = new StorageSetup();
+        setup.setPrefix("bench_");
+        setup.addCollectionSetup("tasks", false, "text");
+        storage = new Storage(setup, new BenchmarkRemoteStorage(),
+                new SQLiteLocalStorage(setup, "jdbc:sqlite::memory:"));
+        storage.start();
+        insert = (context, transaction, arguments) -> {
+            try {
+                context.getCollection("tasks").create(new Document(BenchmarkData.task(0)), transaction);
+            } catch (LocalStorageException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        insertTen = (context, transaction, arguments) -> {
+            try {
+                for (int i = 0; i < 10; i++) {
+                    context.getCollection("tasks").create(new Document(BenchmarkData.task(i)), transaction);
+                }
+            } catch (LocalStorageException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.stop();
+    }
+
+    @Benchmark
+    public ExecutionRequest executeInsert() {
+        return storage.execute(insert);
+    }
+
+    @Benchmark
+    public ExecutionRequest executeTenInserts() {
+        return storage.execute(insertTen);
+    }
+}
@@ -0,0 +1,90 @@
+package net.jards.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter for reconnecting to server. Every attempt waits multiplier times longer than
+ * previous one (up to max delay), random part of delay (jitter) is subtracted, so many clients don't reconnect
+ * at same time after server restart. Reset after successful connection.
+ */
+public class Backoff {
+
+    /**
+     * delay (milliseconds) before first attempt
+     */
+    private final long initialDelayMillis;
+    /**
+     * maximal delay (milliseconds)
+     */
+    private final long maxDelayMillis;
+    /**
+     * growth of delay with every attempt
+     */
+    private final double multiplier;
+    /**
+     * random part of delay (0 - no jitter, 1 - delay can be anything from 0 to computed delay)
+     */
+    private final double jitter;
+
+    /**
+     * number of attempts since last reset
+     */
+    private int attempts = 0;
+
+    /**
+     * @param initialDelayMillis delay (milliseconds) before first attempt
+     * @param maxDelayMillis maximal delay (milliseconds)
+     * @param multiplier growth of delay with every attempt (at least 1)
+     * @param jitter random part of delay (from 0 to 1)
+     */
+    public Backoff(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis || multiplier < 1
+                || jitter < 0 || jitter > 1){
+            throw new IllegalArgumentException("Backoff needs 0 <= initial delay <= max delay, multiplier >= 1 " +
+                    "and jitter from 0 to 1!");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return delay (milliseconds) before next attempt
+     */
+    public synchronized long nextDelayMillis() {
+        double delay = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, attempts));
+        attempts++;
+        return (long) (delay - delay * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Starts from initial delay again (after successful attempt).
+     */
+    public synchronized void reset() {
+        attempts = 0;
+    }
+
+    /**
+     * @return number of attempts since last reset
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+}
@@ -100,6 +100,9 @@ public class Collection {
 		if (!rightThread){
             throw new IllegalStateException("Incorrect way to execute transaction! It should be executed ");
 		}
+        if (!transaction.canWriteTo(name)){
+            throw new IllegalStateException("Collection "+name+" was not declared by transaction!");
+        }
 
 	}
 
@@ -131,16 +134,11 @@ public class Collection {
      */
     public ResultSet find(Predicate predicate, ResultOptions resultOptions) throws LocalStorageException {
         //execute query
-        LocalStorage localStorage = storage.getLocalStorage();
-        List<Map<String, String>> result = localStorage.find(getName(), predicate, resultOptions);
+        List<Document> originalQueryDocuments = findDocuments(predicate, resultOptions);
         //create result set
-        if (result == null){
+        if (originalQueryDocuments == null){
             return null;
         }
-        List<Document> originalQueryDocuments = new ArrayList<>();
-        for (Map<String, String> docMap:result) {
-            originalQueryDocuments.add(new Document(docMap, storage));
-        }
         ResultSet resultSet = new ResultSet(predicate, this, resultOptions);
 
         //add result set to opened result sets in storage
@@ -152,6 +150,26 @@ public class Collection {
         return resultSet;
     }
 
+    /**
+     * Reads documents of this collection from local storage.
+     * @param predicate predicate filtering result (local storage can use only part of it)
+     * @param resultOptions options for result (ie. order...)
+     * @return list of read documents or null
+     * @throws LocalStorageException if error happens while reading documents from local storage
+     */
+    List<Document> findDocuments(Predicate predicate, ResultOptions resultOptions) throws LocalStorageException {
+        LocalStorage localStorage = storage.getLocalStorage();
+        List<Map<String, String>> result = localStorage.find(getName(), predicate, resultOptions);
+        if (result == null){
+            return null;
+        }
+        List<Document> documents = new ArrayList<>(result.size());
+        for (Map<String, String> docMap:result) {
+            documents.add(new Document(docMap, storage));
+        }
+        return documents;
+    }
+
     /**
      * Method to find one (first) document from collection.
      * @return first document read from collection
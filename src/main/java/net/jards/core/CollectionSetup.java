@@ -10,6 +10,97 @@ import java.util.Map;
  */
 public class CollectionSetup {
 
+    /**
+     * type of index with text values (json of value)
+     */
+    public static final String INDEX_TYPE_TEXT = "text";
+    /**
+     * type of index with integer values
+     */
+    public static final String INDEX_TYPE_INT = "int";
+    /**
+     * type of index with real (floating point) values
+     */
+    public static final String INDEX_TYPE_REAL = "real";
+    /**
+     * type of index with boolean values
+     */
+    public static final String INDEX_TYPE_BOOLEAN = "boolean";
+
+    /**
+     * Index over more index columns (properties), can be used for predicates with more properties and
+     * for order of result (query planner of local storage chooses index). Covering index contains also id of
+     * documents (not their content, index stays small).
+     */
+    public static class CompositeIndex {
+
+        /**
+         * name of index
+         */
+        private final String name;
+        /**
+         * true if index contains also id of documents
+         */
+        private final boolean covering;
+        /**
+         * properties (index columns) of index in order
+         */
+        private final List<String> properties = new ArrayList<>();
+        /**
+         * order of corresponding properties
+         */
+        private final List<ResultOptions.OrderBy> orders = new ArrayList<>();
+
+        /**
+         * @param name name of index
+         * @param covering true if index should contain also id of documents
+         */
+        public CompositeIndex(String name, boolean covering) {
+            this.name = name;
+            this.covering = covering;
+        }
+
+        /**
+         * Adds property to index (property has to be index of collection too).
+         * @param property property (index column)
+         * @param order order of property in index
+         * @return this index
+         */
+        public CompositeIndex addProperty(String property, ResultOptions.OrderBy order) {
+            properties.add(property);
+            orders.add(order);
+            return this;
+        }
+
+        /**
+         * @return name of index
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return true if index contains also id of documents
+         */
+        public boolean isCovering() {
+            return covering;
+        }
+
+        /**
+         * @return properties of index in order
+         */
+        public List<String> getProperties() {
+            return properties;
+        }
+
+        /**
+         * @return orders of corresponding properties
+         */
+        public List<ResultOptions.OrderBy> getOrders() {
+            return orders;
+        }
+    }
+
     /**
      * prefix for this user
      */
@@ -24,13 +115,17 @@ public class CollectionSetup {
     private final boolean local;
 
     /**
-     * indexes for this collection (key is name(property name), value is type of index ("text" or "int" only now)
+     * indexes for this collection (key is name(property name), value is type of index (INDEX_TYPE_...)
      */
     private final Map<String, String> indexes = new HashMap<>();
     /**
      * indexes set in order (needed to get same hash in local storage start method)
      */
     private final List<String> indexesOrder = new ArrayList<>();
+    /**
+     * composite indexes (over index columns) in order they were added
+     */
+    private final List<CompositeIndex> compositeIndexes = new ArrayList<>();
 
     /**
      * Public constructor
@@ -44,7 +139,7 @@ public class CollectionSetup {
         this.name = name;
         this.local = local;
         for (String index: indexes){
-            this.indexes.put(index, "text");
+            this.indexes.put(index, INDEX_TYPE_TEXT);
             this.indexesOrder.add(index);
         }
     }
@@ -54,8 +149,7 @@ public class CollectionSetup {
      * @param name name of index/property name from document content
      */
     public void addIndex(String name){
-        this.indexes.put(name, "text");
-        this.indexesOrder.add(name);
+        addIndex(name, INDEX_TYPE_TEXT);
     }
 
     /**
@@ -63,8 +157,23 @@ public class CollectionSetup {
      * @param name name name of index/property name from document content
      */
     public void addIntIndex(String name){
-        this.indexes.put(name, "int");
-        this.indexesOrder.add(name);
+        addIndex(name, INDEX_TYPE_INT);
+    }
+
+    /**
+     * Method to add "real" index (floating point numbers).
+     * @param name name name of index/property name from document content
+     */
+    public void addRealIndex(String name){
+        addIndex(name, INDEX_TYPE_REAL);
+    }
+
+    /**
+     * Method to add "boolean" index.
+     * @param name name name of index/property name from document content
+     */
+    public void addBooleanIndex(String name){
+        addIndex(name, INDEX_TYPE_BOOLEAN);
     }
 
     /**
@@ -72,10 +181,56 @@ public class CollectionSetup {
      * @param name name name of index/property name from document content
      */
     public void addStringIndex(String name){
-        this.indexes.put(name, "text");
+        addIndex(name, INDEX_TYPE_TEXT);
+    }
+
+    /**
+     * Adds index of given type.
+     * @param name name of index/property name from document content
+     * @param type type of index (INDEX_TYPE_...)
+     */
+    private void addIndex(String name, String type){
+        this.indexes.put(name, type);
         this.indexesOrder.add(name);
     }
 
+    /**
+     * Adds composite index with ascending order of properties.
+     * @param name name of index
+     * @param properties properties of index in order (they have to be indexes of this collection)
+     */
+    public void addCompositeIndex(String name, String... properties){
+        CompositeIndex compositeIndex = new CompositeIndex(name, false);
+        for (String property:properties) {
+            compositeIndex.addProperty(property, ResultOptions.OrderBy.ASC);
+        }
+        addCompositeIndex(compositeIndex);
+    }
+
+    /**
+     * Adds composite index.
+     * @param compositeIndex composite index (its properties have to be indexes of this collection)
+     */
+    public void addCompositeIndex(CompositeIndex compositeIndex){
+        if (compositeIndex.getProperties().isEmpty()){
+            throw new IllegalArgumentException("Composite index "+compositeIndex.getName()+" has no properties.");
+        }
+        for (String property:compositeIndex.getProperties()) {
+            if (!hasIndex(property)){
+                throw new IllegalArgumentException("Property "+property+" of composite index "
+                        +compositeIndex.getName()+" has to be index of collection.");
+            }
+        }
+        this.compositeIndexes.add(compositeIndex);
+    }
+
+    /**
+     * @return composite indexes of this collection
+     */
+    public List<CompositeIndex> getCompositeIndexes() {
+        return compositeIndexes;
+    }
+
     /**
      * Check if this collection has specified index.
      * @param name index name to check
@@ -85,6 +240,14 @@ public class CollectionSetup {
         return indexes.containsKey(name);
     }
 
+    /**
+     * @param name index name
+     * @return type of index (INDEX_TYPE_...) or null if collection doesn't have this index
+     */
+    public String getIndexType(String name){
+        return indexes.get(name);
+    }
+
     /**
      * Method to set prefix.
      * @param prefix prefix that will be used
@@ -32,8 +32,10 @@ public class DefaultJSONPropertyExtractor implements JSONPropertyExtractor{
             return values;
         }
 
+        //parse once, all paths use same tree
+        JsonElement jsonElement = (JsonElement) parse(jsonString);
         for (String propertyPath:propertyPaths) {
-            values.put(propertyPath, extractPropertyValueFromJson(new JsonOA(jsonString), propertyPath));
+            values.put(propertyPath, extractPropertyValueFromJson(new JsonOA(jsonElement), propertyPath));
         }
         return values;
     }
@@ -55,6 +57,36 @@ public class DefaultJSONPropertyExtractor implements JSONPropertyExtractor{
         return extractPropertyValueFromJson(jsonOA, propertyPath);
     }
 
+    /**
+     * Parses json string into gson tree.
+     * @param jsonString json string to parse
+     * @return JsonElement with parsed json
+     * @throws JsonFormatException if json string has wrong format
+     */
+    @Override
+    public Object parse(String jsonString) throws JsonFormatException {
+        try{
+            return new JsonParser().parse(jsonString);
+        } catch (Exception e){
+            throw new JsonFormatException("Wrong format of json String.",e);
+        }
+    }
+
+    /**
+     * Extracts single value from gson tree returned by parse (tree is not changed).
+     * @param parsedJson JsonElement returned by parse
+     * @param propertyPath specified name of property which value to extract
+     * @return value of specified property
+     * @throws JsonFormatException throws exception if property path is wrong
+     */
+    @Override
+    public Object extractParsedPropertyValue(Object parsedJson, String propertyPath) throws JsonFormatException {
+        if (!(parsedJson instanceof JsonElement)){
+            return JSONPropertyExtractor.super.extractParsedPropertyValue(parsedJson, propertyPath);
+        }
+        return extractPropertyValueFromJson(new JsonOA((JsonElement) parsedJson), propertyPath);
+    }
+
     /**
      * Private method which executes extracting.
      * @param json JSOn object or array
@@ -67,36 +99,16 @@ public class DefaultJSONPropertyExtractor implements JSONPropertyExtractor{
             return null;
         if (propertyPath.length()== 0)
             return json;
+        JsonElement element;
         try {
-            String[] properties = propertyPath.split("\\.");
-            for (int i = 0; i < properties.length; i++) {
-                String prop = properties[i];
-                if (prop.contains("[")){
-                    String[] arrayProperties = prop.split("\\[");
-                    for (int j = 0; j < arrayProperties.length; j++) {
-                        String arrayElement = arrayProperties[j];
-                        JsonElement element = null;
-                        if (arrayElement.charAt(arrayElement.length()-1)==']'){
-                            int arrayIndex = Integer.parseInt(arrayElement.substring(0, arrayElement.length()-1));
-                            json.getFromJsonArray(arrayIndex);
-                        } else {
-                            json.getFromJsonObject(arrayElement);
-                        }
-                        if (i == properties.length-1 && j == arrayProperties.length-1){
-                            return json.toString();
-                        }
-                    }
-                } else {
-                    if (i == properties.length-1){
-                        return json.getFromJsonObject(prop).toString();
-                    }
-                    json.getFromJsonObject(prop);
-                }
-            }
-            return json;
+            element = JsonPath.compile(propertyPath).resolve(json.getJsonElement());
         } catch (Exception e){
-        throw new JsonFormatException("Wrong format of json String or wrong property path. ",e);
-    }
+            throw new JsonFormatException("Wrong format of json String or wrong property path. ",e);
+        }
+        if (element == null){
+            throw new JsonFormatException("Wrong format of json String or wrong property path. ", null);
+        }
+        return element.toString();
     }
 
     /**
@@ -14,6 +14,17 @@ public class Document {
      */
     private static final JSONPropertyExtractor DEFAULT_PROPERTY_EXTRACTOR = new DefaultJSONPropertyExtractor();
 
+    /**
+     * maximal length of content which parsed form is kept in document (bigger documents are parsed
+     * for each property not found in cache)
+     */
+    static final int MAX_PARSED_CONTENT_LENGTH = 64 * 1024;
+
+    /**
+     * maximal number of property values kept in property cache
+     */
+    static final int MAX_CACHED_PROPERTIES = 32;
+
 	/**
 	 * The collection to which the document belongs.
 	 */
@@ -35,10 +46,21 @@ public class Document {
     private final JSONPropertyExtractor propertyExtractor = DEFAULT_PROPERTY_EXTRACTOR;
 
 	/**
-	 * Map with pre-fetched property values.
+	 * Map with pre-fetched and already read property values (for actual content).
 	 */
 	private Map<String, Object> propertyCache = null;
 
+    /**
+     * content parsed by property extractor (null if it was not parsed yet or content is too big to keep it)
+     */
+    private Object parsedContent = null;
+
+    /**
+     * change of fields which was not merged into content yet (document updated by server, content is set
+     * when local storage merges delta into stored document)
+     */
+    private FieldDelta fieldDelta = null;
+
 	/**
 	 * Constructs a document that is not associated with any collection, neither has id.
 	 */
@@ -109,32 +131,42 @@ public class Document {
      * Sets document content to specified content
      * @param content content for this document
      */
-    void setContent(String content) {
+    synchronized void setContent(String content) {
 		this.content = content;
+		this.parsedContent = null;
 		if (propertyCache != null) {
 			propertyCache.clear();
 		}
 	}
 
     /**
-     * Gets value of specified property from this document content.
+     * @return change of fields waiting for merge into stored document (null if content is whole document)
+     */
+    public FieldDelta getFieldDelta() {
+        return fieldDelta;
+    }
+
+    /**
+     * @param fieldDelta change of fields waiting for merge into stored document (null if content is whole document)
+     */
+    void setFieldDelta(FieldDelta fieldDelta) {
+        this.fieldDelta = fieldDelta;
+    }
+
+    /**
+     * Gets value of specified property from this document content. Content is parsed once and values are cached
+     * until content changes.
      * @param propertyName name of property
      * @return value of specified property
      * @throws JsonFormatException exception thrown if problem with parsing content happens in extractor
      */
-    public Object getPropertyValue(String propertyName) throws JsonFormatException {
-		Object result = null;
-
+    public synchronized Object getPropertyValue(String propertyName) throws JsonFormatException {
 		if ((propertyCache != null) && propertyCache.containsKey(propertyName)) {
-			result = propertyCache.get(propertyName);
-		} else {
-			result = propertyExtractor.extractPropertyValue(content, propertyName);
-		}
-
-		if (propertyCache != null) {
-			propertyCache.put(propertyName, result);
+			return propertyCache.get(propertyName);
 		}
 
+		Object result = propertyExtractor.extractParsedPropertyValue(getParsedContent(), propertyName);
+		cacheProperty(propertyName, result);
 		return result;
 	}
 
@@ -142,29 +174,49 @@ public class Document {
      * Prefetches properties values in this document.
      * @param propertyNames list of property names
      */
-    public void prefetchProperties(List<String> propertyNames) {
-		Set<String> propertyNameSet = new HashSet<>(propertyNames);
-		if (propertyCache != null) {
-			propertyNameSet.removeAll(propertyCache.keySet());
+    public synchronized void prefetchProperties(List<String> propertyNames) {
+		for (String propertyName:propertyNames) {
+			if (propertyCache != null && propertyCache.containsKey(propertyName)) {
+				continue;
+			}
+			try {
+				cacheProperty(propertyName, propertyExtractor.extractParsedPropertyValue(getParsedContent(), propertyName));
+			} catch (JsonFormatException e) {
+				e.printStackTrace();
+			}
 		}
+	}
 
-		if (propertyNameSet.isEmpty()) {
-			return;
+    /**
+     * @return content parsed by property extractor, kept in document only if content is not too big
+     * @throws JsonFormatException exception thrown if problem with parsing content happens in extractor
+     */
+    private Object getParsedContent() throws JsonFormatException {
+		if (parsedContent != null) {
+			return parsedContent;
 		}
-
-        Map<String, Object> extractedProperties = null;
-        try {
-            extractedProperties = propertyExtractor.extractPropertyValues(content,
-                    new ArrayList<>(propertyNameSet));
-        } catch (JsonFormatException e) {
-            e.printStackTrace();
-        }
-
-        if (propertyCache == null) {
-			propertyCache = new HashMap<>();
+		Object parsed = propertyExtractor.parse(content);
+		if (content != null && content.length() <= MAX_PARSED_CONTENT_LENGTH) {
+			parsedContent = parsed;
 		}
+		return parsed;
+	}
 
-		propertyCache.putAll(extractedProperties);
+    /**
+     * Puts value into property cache, the oldest value is removed if cache is full.
+     * @param propertyName name of property
+     * @param value value of property
+     */
+    private void cacheProperty(String propertyName, Object value) {
+		if (propertyCache == null) {
+			propertyCache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+					return size() > MAX_CACHED_PROPERTIES;
+				}
+			};
+		}
+		propertyCache.put(propertyName, value);
 	}
 
     /**
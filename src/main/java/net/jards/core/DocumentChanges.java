@@ -106,6 +106,94 @@ public class DocumentChanges {
         this.removedDocuments.put(document.getId(), document);
     }
 
+    /**
+     * Merges changes made after these changes into this object, so result is same as applying both in order.
+     * Document added and then removed disappears, added and then updated stays added, removed and then
+     * added again is updated.
+     * @param changes later changes to merge into this changes object
+     */
+    void mergeChanges(DocumentChanges changes){
+        for (Document doc:changes.addedDocuments.values()) {
+            mergeAddedDocument(doc);
+        }
+        for (Document doc:changes.updatedDocuments.values()) {
+            mergeUpdatedDocument(doc);
+        }
+        for (Document doc:changes.removedDocuments.values()) {
+            mergeRemovedDocument(doc);
+        }
+    }
+
+    /**
+     * Merges one added document into these changes (same rules as mergeChanges).
+     * @param doc added document
+     */
+    void mergeAddedDocument(Document doc){
+        if (this.removedDocuments.remove(doc.getId()) != null){
+            this.updatedDocuments.put(doc.getId(), doc);
+        } else {
+            this.addedDocuments.put(doc.getId(), doc);
+        }
+    }
+
+    /**
+     * Merges one updated document into these changes (same rules as mergeChanges).
+     * @param doc updated document
+     */
+    void mergeUpdatedDocument(Document doc){
+        Document previous = this.addedDocuments.containsKey(doc.getId()) ? this.addedDocuments.get(doc.getId())
+                : this.updatedDocuments.get(doc.getId());
+        if (previous != null && doc.getFieldDelta() != null){
+            //delta of fields is merged with previous change of document
+            if (previous.getFieldDelta() != null){
+                doc.setFieldDelta(previous.getFieldDelta().then(doc.getFieldDelta()));
+            } else {
+                doc.setContent(doc.getFieldDelta().applyTo(previous.getContent()));
+                doc.setFieldDelta(null);
+            }
+        }
+        if (this.addedDocuments.containsKey(doc.getId())){
+            this.addedDocuments.put(doc.getId(), doc);
+        } else {
+            this.updatedDocuments.put(doc.getId(), doc);
+        }
+    }
+
+    /**
+     * Merges one removed document into these changes (same rules as mergeChanges).
+     * @param doc removed document
+     */
+    void mergeRemovedDocument(Document doc){
+        if (this.addedDocuments.remove(doc.getId()) == null){
+            this.updatedDocuments.remove(doc.getId());
+            this.removedDocuments.put(doc.getId(), doc);
+        }
+    }
+
+    /**
+     * Removes updated documents which still have field delta (local storage didn't merge it, because document
+     * was not stored), they have only changed fields instead of whole content.
+     */
+    void removeUnmergedFieldDeltas(){
+        updatedDocuments.values().removeIf(document -> document.getFieldDelta() != null);
+    }
+
+    /**
+     * Removes all changes (ie. changes of transaction which was rolled back).
+     */
+    void clear(){
+        addedDocuments.clear();
+        updatedDocuments.clear();
+        removedDocuments.clear();
+    }
+
+    /**
+     * @return true if there are no added, updated or removed documents
+     */
+    boolean isEmpty(){
+        return addedDocuments.isEmpty() && updatedDocuments.isEmpty() && removedDocuments.isEmpty();
+    }
+
     /**
      * Removes specified document from these changes.
      * Used to remove changes from overlay when I receive data (that document) from server.
@@ -0,0 +1,122 @@
+package net.jards.core;
+
+import net.jards.errors.JsonFormatException;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Order of documents given by order by options of ResultOptions. Documents are compared by values of order
+ * properties - numbers as numbers, other values as strings. Missing value is smaller than any other value
+ * (same as NULL in sql).
+ */
+class DocumentOrder implements Comparator<Object[]> {
+
+    /**
+     * properties used to order documents
+     */
+    private final String[] properties;
+    /**
+     * true on position of property ordered descending
+     */
+    private final boolean[] descending;
+
+    /**
+     * @param properties properties used to order documents
+     * @param types types of order for corresponding properties
+     */
+    private DocumentOrder(List<String> properties, List<ResultOptions.OrderBy> types) {
+        this.properties = properties.toArray(new String[properties.size()]);
+        this.descending = new boolean[this.properties.length];
+        for (int i = 0; i < descending.length; i++) {
+            descending[i] = i < types.size() && types.get(i) == ResultOptions.OrderBy.DESC;
+        }
+    }
+
+    /**
+     * @param resultOptions options of result (can be null)
+     * @return order given by options or null if options have no order by properties
+     */
+    static DocumentOrder create(ResultOptions resultOptions) {
+        if (resultOptions == null || resultOptions.getOrderByProperties() == null
+                || resultOptions.getOrderByProperties().isEmpty()){
+            return null;
+        }
+        return new DocumentOrder(resultOptions.getOrderByProperties(), resultOptions.getOrderByType());
+    }
+
+    /**
+     * Reads values of order properties from document. Key is a copy, so later changes of document
+     * don't change its position.
+     * @param document document to read
+     * @return key of document (Double for numbers, String for other values, null for missing value)
+     */
+    Object[] key(Document document) {
+        Object[] key = new Object[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            Object value;
+            try {
+                value = document.getPropertyValue(properties[i]);
+            } catch (JsonFormatException | RuntimeException e) {
+                value = null;
+            }
+            key[i] = keyValue(value);
+        }
+        return key;
+    }
+
+    /**
+     * @param value value of property
+     * @return comparable value (Double for numbers)
+     */
+    private static Object keyValue(Object value) {
+        if (value == null){
+            return null;
+        }
+        String string = value.toString();
+        if (string.isEmpty() || string.equals("null")){
+            return null;
+        }
+        char first = string.charAt(0);
+        if ((first >= '0' && first <= '9') || first == '-'){
+            try {
+                return Double.valueOf(string);
+            } catch (NumberFormatException e) {
+                return string;
+            }
+        }
+        return string;
+    }
+
+    @Override
+    public int compare(Object[] key1, Object[] key2) {
+        for (int i = 0; i < properties.length; i++) {
+            int result = compareValues(key1[i], key2[i]);
+            if (result != 0){
+                return descending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param value1 first value
+     * @param value2 second value
+     * @return result of comparison, missing values first, numbers before strings
+     */
+    private static int compareValues(Object value1, Object value2) {
+        if (value1 == null || value2 == null){
+            return value1 == null ? (value2 == null ? 0 : -1) : 1;
+        }
+        if (value1 instanceof Double && value2 instanceof Double){
+            return ((Double) value1).compareTo((Double) value2);
+        }
+        if (value1 instanceof Double){
+            return -1;
+        }
+        if (value2 instanceof Double){
+            return 1;
+        }
+        return ((String) value1).compareTo((String) value2);
+    }
+}
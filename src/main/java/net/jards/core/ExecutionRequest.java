@@ -1,6 +1,9 @@
 package net.jards.core;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * General class used in method calls and operation requests.
@@ -20,11 +23,21 @@ public class ExecutionRequest {
         Unsubscribe
     }
 
+    /**
+     * counter for sequence numbers of requests
+     */
+    private static final AtomicLong sequenceCounter = new AtomicLong();
+
 	/**
 	 * Unique identifier of the request.
 	 */
 	private final String id;
 
+    /**
+     * sequence number of request (order in which requests were created)
+     */
+    private final long sequence = sequenceCounter.incrementAndGet();
+
     /**
      * Name of method that will be called on server (speculation with same name used locally).
      */
@@ -71,21 +84,43 @@ public class ExecutionRequest {
     private RequestType requestType;
 
     /**
-     * boolean variable for await method
+     * completed when execution is done (by ready, await waits for it)
+     */
+    private final CompletableFuture<ExecutionRequest> completion = new CompletableFuture<>();
+    /**
+     * exception thrown by user code of this request (null if execution succeeded)
+     */
+    private volatile Throwable error;
+
+    /**
+     * time (from timing of metrics) when request was added to queue of local thread
      */
-    private boolean waiting = false;
+    private long localQueuedAt;
+    /**
+     * time (from timing of metrics) when request was added to queue of remote thread
+     */
+    private long remoteQueuedAt;
 
     /**
      * Public constructor with transaction (ExecutionRequest should always be created by system)
      * @param transaction transaction for this request
      */
     public ExecutionRequest(Transaction transaction) {
-		this.transaction = transaction;
-		id = UUID.randomUUID().toString();
-		methodName = "";
-        subscriptionName = "";
+		this(transaction, UUID.randomUUID().toString());
 	}
 
+    /**
+     * Constructor with transaction and id (used for requests restored from request log).
+     * @param transaction transaction for this request
+     * @param id id of request
+     */
+    ExecutionRequest(Transaction transaction, String id) {
+        this.transaction = transaction;
+        this.id = id;
+        methodName = "";
+        subscriptionName = "";
+    }
+
     /**
      * @return true if this request is of type ExecuteLocally
      */
@@ -122,18 +157,16 @@ public class ExecutionRequest {
     }
 
 	/**
-	 * Wait for completing execution request.
+	 * Wait for completing execution request. Waiting thread is parked (not blocked in monitor), so virtual
+	 * thread waiting here releases its carrier thread.
 	 */
     void await() {
-        waiting = true;
-        synchronized (this) {
-            try {
-                while (waiting) {
-                    this.wait();
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        try {
+            completion.get();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            //execution failed, error is given by getError
         }
 	}
 
@@ -141,10 +174,44 @@ public class ExecutionRequest {
      * Set ready when execution is done, wake up from waiting.
      */
     void ready(){
-        waiting = false;
-        synchronized (this){
-            this.notify();
+        completion.complete(this);
+    }
+
+    /**
+     * Set failed when user code of request (or its handling) threw exception, wake up from waiting.
+     * Request which is done already is not changed.
+     * @param error exception thrown by user code
+     */
+    void fail(Throwable error){
+        if (completion.isDone()){
+            return;
         }
+        this.error = error;
+        completion.completeExceptionally(error);
+    }
+
+    /**
+     * Completion of this request - completed with this request when execution is done (same moment blocking
+     * methods of Storage return). Use it instead of blocking call when many requests are waited for, no
+     * thread has to wait for each of them. Future completes exceptionally if execution failed (getError).
+     * @return new future completed when execution is done (completing it doesn't affect request)
+     */
+    public CompletableFuture<ExecutionRequest> getCompletion() {
+        return completion.thenApply(request -> request);
+    }
+
+    /**
+     * @return true if execution of this request is done
+     */
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    /**
+     * @return exception thrown by user code of this request, null if execution didn't fail
+     */
+    public Throwable getError() {
+        return error;
     }
 
     /**
@@ -238,6 +305,13 @@ public class ExecutionRequest {
 		return id;
 	}
 
+    /**
+     * @return sequence number of this request (requests created later have higher number)
+     */
+    long getSequence() {
+        return sequence;
+    }
+
     /**
      * @return method name of this request (empty string if it is not call type)
      */
@@ -272,4 +346,32 @@ public class ExecutionRequest {
     public RequestType getRequestType() {
         return requestType;
     }
+
+    /**
+     * @param localQueuedAt time when request was added to queue of local thread
+     */
+    void setLocalQueuedAt(long localQueuedAt) {
+        this.localQueuedAt = localQueuedAt;
+    }
+
+    /**
+     * @return time when request was added to queue of local thread
+     */
+    long getLocalQueuedAt() {
+        return localQueuedAt;
+    }
+
+    /**
+     * @param remoteQueuedAt time when request was added to queue of remote thread
+     */
+    void setRemoteQueuedAt(long remoteQueuedAt) {
+        this.remoteQueuedAt = remoteQueuedAt;
+    }
+
+    /**
+     * @return time when request was added to queue of remote thread
+     */
+    long getRemoteQueuedAt() {
+        return remoteQueuedAt;
+    }
 }
@@ -0,0 +1,322 @@
+package net.jards.core;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Change of top level fields of document (ie. DDP changed message). Changed fields get new values, cleared
+ * fields are removed, other fields of document stay. Delta is merged into stored json by scanning its top
+ * level only - values of untouched fields are copied as they are, without parsing them.
+ */
+public class FieldDelta {
+
+    /**
+     * json object with changed fields and their new values
+     */
+    private final String changedFields;
+    /**
+     * names of cleared (removed) fields
+     */
+    private final List<String> clearedFields;
+    /**
+     * changed fields with raw json values (read from changedFields when needed)
+     */
+    private Map<String, String> changedValues = null;
+
+    /**
+     * @param changedFields json object with changed fields and their new values (null or empty if only clearing)
+     * @param clearedFields names of cleared fields (can be null)
+     */
+    public FieldDelta(String changedFields, List<String> clearedFields) {
+        this.changedFields = changedFields == null || changedFields.isEmpty() ? "{}" : changedFields;
+        this.clearedFields = clearedFields == null ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(clearedFields));
+    }
+
+    /**
+     * @return json object with changed fields and their new values
+     */
+    public String getChangedFields() {
+        return changedFields;
+    }
+
+    /**
+     * @return names of cleared fields
+     */
+    public List<String> getClearedFields() {
+        return clearedFields;
+    }
+
+    /**
+     * @param propertyPath property path (ie. prop1.prop2[0])
+     * @return true if value on path can be changed by this delta (its top level field is changed or cleared)
+     */
+    public boolean affects(String propertyPath) {
+        String field = topLevelField(propertyPath);
+        return getChangedValues().containsKey(field) || clearedFields.contains(field);
+    }
+
+    /**
+     * @param propertyPath property path
+     * @return true if top level field of path is cleared by this delta
+     */
+    public boolean clears(String propertyPath) {
+        String field = topLevelField(propertyPath);
+        return clearedFields.contains(field) && !getChangedValues().containsKey(field);
+    }
+
+    /**
+     * Merges this delta into json of document.
+     * @param json stored json of document (null or empty for missing document)
+     * @return json with changed fields replaced (or added) and cleared fields removed
+     */
+    public String applyTo(String json) {
+        Map<String, String> changed = getChangedValues();
+        List<String[]> members = json == null || json.trim().isEmpty()
+                ? new ArrayList<>() : readMembers(json);
+        if (members == null){
+            return applyToTree(json);
+        }
+        Set<String> written = new LinkedHashSet<>();
+        StringBuilder merged = new StringBuilder(json == null ? 16 : json.length() + changedFields.length());
+        merged.append('{');
+        for (String[] member:members) {
+            String name = member[0];
+            String value;
+            if (changed.containsKey(name)){
+                if (!written.add(name)){
+                    continue;
+                }
+                value = changed.get(name);
+            } else if (clearedFields.contains(name)){
+                continue;
+            } else {
+                value = member[2];
+            }
+            appendMember(merged, member[1], value);
+        }
+        for (Map.Entry<String, String> entry:changed.entrySet()) {
+            if (!written.contains(entry.getKey())){
+                appendMember(merged, new JsonPrimitive(entry.getKey()).toString(), entry.getValue());
+            }
+        }
+        return merged.append('}').toString();
+    }
+
+    /**
+     * Creates delta with same result as applying this delta and later delta after it.
+     * @param later delta applied after this one
+     * @return combined delta
+     */
+    public FieldDelta then(FieldDelta later) {
+        Map<String, String> changed = new LinkedHashMap<>(getChangedValues());
+        Set<String> cleared = new LinkedHashSet<>(clearedFields);
+        for (String field:later.clearedFields) {
+            changed.remove(field);
+            cleared.add(field);
+        }
+        for (Map.Entry<String, String> entry:later.getChangedValues().entrySet()) {
+            changed.put(entry.getKey(), entry.getValue());
+            cleared.remove(entry.getKey());
+        }
+        StringBuilder changedJson = new StringBuilder("{");
+        for (Map.Entry<String, String> entry:changed.entrySet()) {
+            appendMember(changedJson, new JsonPrimitive(entry.getKey()).toString(), entry.getValue());
+        }
+        return new FieldDelta(changedJson.append('}').toString(), new ArrayList<>(cleared));
+    }
+
+    /**
+     * @return changed fields with raw json values
+     */
+    private synchronized Map<String, String> getChangedValues() {
+        if (changedValues == null){
+            changedValues = new LinkedHashMap<>();
+            List<String[]> members = readMembers(changedFields);
+            if (members == null){
+                throw new IllegalArgumentException("Changed fields are not json object: " + changedFields);
+            }
+            for (String[] member:members) {
+                changedValues.put(member[0], member[2]);
+            }
+        }
+        return changedValues;
+    }
+
+    /**
+     * @param propertyPath property path
+     * @return name of top level field of path
+     */
+    private static String topLevelField(String propertyPath) {
+        int end = propertyPath.length();
+        int dot = propertyPath.indexOf('.');
+        int bracket = propertyPath.indexOf('[');
+        if (dot >= 0){
+            end = dot;
+        }
+        if (bracket >= 0 && bracket < end){
+            end = bracket;
+        }
+        return propertyPath.substring(0, end);
+    }
+
+    /**
+     * @param json json
+     * @param member raw json of name
+     * @param value raw json of value
+     */
+    private static void appendMember(StringBuilder json, String member, String value) {
+        if (json.length() > 1){
+            json.append(',');
+        }
+        json.append(member).append(':').append(value);
+    }
+
+    /**
+     * Merge using json tree, used for json which is not read by readMembers (ie. with comments).
+     * @param json stored json of document
+     * @return merged json
+     */
+    @SuppressWarnings("deprecation")
+    private String applyToTree(String json) {
+        JsonObject document = new JsonParser().parse(json).getAsJsonObject();
+        for (String field:clearedFields) {
+            document.remove(field);
+        }
+        JsonObject changed = new JsonParser().parse(changedFields).getAsJsonObject();
+        for (Map.Entry<String, JsonElement> entry:changed.entrySet()) {
+            document.add(entry.getKey(), entry.getValue());
+        }
+        return document.toString();
+    }
+
+    /**
+     * Reads top level members of json object without parsing their values.
+     * @param json json object
+     * @return list of members - decoded name, raw name and raw value; null if json is not plain json object
+     */
+    @SuppressWarnings("deprecation")
+    private static List<String[]> readMembers(String json) {
+        List<String[]> members = new ArrayList<>();
+        int i = skipWhitespace(json, 0);
+        if (i >= json.length() || json.charAt(i) != '{'){
+            return null;
+        }
+        i = skipWhitespace(json, i + 1);
+        if (i < json.length() && json.charAt(i) == '}'){
+            return members;
+        }
+        while (i < json.length()){
+            if (json.charAt(i) != '"'){
+                return null;
+            }
+            int nameEnd = skipString(json, i);
+            if (nameEnd < 0){
+                return null;
+            }
+            String rawName = json.substring(i, nameEnd);
+            String name = rawName.indexOf('\\') < 0 ? rawName.substring(1, rawName.length() - 1)
+                    : new JsonParser().parse(rawName).getAsString();
+            i = skipWhitespace(json, nameEnd);
+            if (i >= json.length() || json.charAt(i) != ':'){
+                return null;
+            }
+            int valueStart = skipWhitespace(json, i + 1);
+            int valueEnd = skipValue(json, valueStart);
+            if (valueEnd < 0 || valueEnd == valueStart){
+                return null;
+            }
+            members.add(new String[]{name, rawName, json.substring(valueStart, valueEnd).trim()});
+            i = skipWhitespace(json, valueEnd);
+            if (i >= json.length()){
+                return null;
+            }
+            if (json.charAt(i) == '}'){
+                return members;
+            }
+            if (json.charAt(i) != ','){
+                return null;
+            }
+            i = skipWhitespace(json, i + 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param json json
+     * @param from position
+     * @return position of first non whitespace character from given position
+     */
+    private static int skipWhitespace(String json, int from) {
+        int i = from;
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))){
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param json json
+     * @param start position of opening quote
+     * @return position after closing quote, -1 if string is not closed
+     */
+    private static int skipString(String json, int start) {
+        for (int i = start + 1; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '\\'){
+                i++;
+            } else if (c == '"'){
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param json json
+     * @param start position of value
+     * @return position after value, -1 if value is not complete
+     */
+    private static int skipValue(String json, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < json.length()){
+            char c = json.charAt(i);
+            if (c == '"'){
+                i = skipString(json, i);
+                if (i < 0){
+                    return -1;
+                }
+                if (depth == 0){
+                    return i;
+                }
+                continue;
+            }
+            if (c == '{' || c == '['){
+                depth++;
+            } else if (c == '}' || c == ']'){
+                if (depth == 0){
+                    return i;
+                }
+                depth--;
+                if (depth == 0){
+                    return i + 1;
+                }
+            } else if (c == ',' && depth == 0){
+                return i;
+            }
+            i++;
+        }
+        return depth == 0 ? i : -1;
+    }
+}
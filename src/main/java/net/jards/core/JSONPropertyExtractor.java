@@ -28,4 +28,27 @@ public interface JSONPropertyExtractor {
      */
     Object extractPropertyValue(String jsonString, String propertyPath) throws JsonFormatException;
 
+    /**
+     * Parses json string into form used by extractParsedPropertyValue. Document parses its content once
+     * and uses parsed form for all its properties. Default implementation doesn't parse (returns json string).
+     * @param jsonString json string to parse
+     * @return parsed json (any object understood by extractParsedPropertyValue)
+     * @throws JsonFormatException exception thrown if parsing error happens
+     */
+    default Object parse(String jsonString) throws JsonFormatException {
+        return jsonString;
+    }
+
+    /**
+     * Extracts single value from json parsed by parse method. Value must be same as value extracted
+     * from json string.
+     * @param parsedJson json returned by parse method
+     * @param propertyPath specified name of property which value to extract
+     * @return value of specified property
+     * @throws JsonFormatException exception thrown if parsing error happens
+     */
+    default Object extractParsedPropertyValue(Object parsedJson, String propertyPath) throws JsonFormatException {
+        return extractPropertyValue((String) parsedJson, propertyPath);
+    }
+
 }
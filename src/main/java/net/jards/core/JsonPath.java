@@ -0,0 +1,161 @@
+package net.jards.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled property path (ie. prop1.prop2.array1[0].prop3). Path is split into segments once, compiled paths
+ * are cached and reused by extractors.
+ */
+final class JsonPath {
+
+    /**
+     * maximal number of cached compiled paths (cache is cleared when it is full)
+     */
+    private static final int MAX_COMPILED_PATHS = 1024;
+
+    /**
+     * cache of compiled paths, key is path
+     */
+    private static final ConcurrentHashMap<String, JsonPath> compiledPaths = new ConcurrentHashMap<>();
+
+    /**
+     * original path
+     */
+    private final String path;
+    /**
+     * segments of path - String for property of object, Integer for index in array
+     */
+    private final Object[] segments;
+
+    /**
+     * @param path original path
+     * @param segments segments of path
+     */
+    private JsonPath(String path, Object[] segments) {
+        this.path = path;
+        this.segments = segments;
+    }
+
+    /**
+     * Returns compiled path (from cache if path was compiled already).
+     * @param path property path
+     * @return compiled path
+     * @throws IllegalArgumentException if path has wrong format (ie. wrong array index)
+     */
+    static JsonPath compile(String path) {
+        JsonPath jsonPath = compiledPaths.get(path);
+        if (jsonPath != null){
+            return jsonPath;
+        }
+        List<Object> segments = new ArrayList<>();
+        if (path.length() > 0){
+            int start = 0;
+            while (start <= path.length()){
+                int end = path.indexOf('.', start);
+                if (end < 0){
+                    end = path.length();
+                }
+                addSegments(path, path.substring(start, end), segments);
+                start = end + 1;
+            }
+        }
+        jsonPath = new JsonPath(path, segments.toArray());
+        if (compiledPaths.size() >= MAX_COMPILED_PATHS){
+            compiledPaths.clear();
+        }
+        compiledPaths.put(path, jsonPath);
+        return jsonPath;
+    }
+
+    /**
+     * Adds segments of one part of path (between dots), ie. array1[0][1] is property and two indexes.
+     * @param path whole path (for error message)
+     * @param part part of path
+     * @param segments list where segments are added
+     */
+    private static void addSegments(String path, String part, List<Object> segments) {
+        int bracket = part.indexOf('[');
+        if (bracket < 0){
+            segments.add(part);
+            return;
+        }
+        if (bracket > 0){
+            segments.add(part.substring(0, bracket));
+        }
+        while (bracket >= 0){
+            int end = part.indexOf(']', bracket);
+            if (end < 0){
+                throw new IllegalArgumentException("Missing ] in property path " + path);
+            }
+            try {
+                segments.add(Integer.parseInt(part.substring(bracket + 1, end)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong array index in property path " + path, e);
+            }
+            bracket = part.indexOf('[', end);
+        }
+    }
+
+    /**
+     * @return original path
+     */
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * @return number of segments
+     */
+    int length() {
+        return segments.length;
+    }
+
+    /**
+     * @param i position of segment
+     * @return String with property name or Integer with array index
+     */
+    Object getSegment(int i) {
+        return segments[i];
+    }
+
+    /**
+     * Finds element on this path in json tree.
+     * @param root root of json tree
+     * @return element on this path or null if there is no such element
+     */
+    JsonElement resolve(JsonElement root) {
+        return resolve(root, 0);
+    }
+
+    /**
+     * Finds element on rest of this path in json tree.
+     * @param element element where rest of path starts
+     * @param from position of first segment of rest of path
+     * @return element on this path or null if there is no such element
+     */
+    JsonElement resolve(JsonElement element, int from) {
+        for (int i = from; i < segments.length && element != null; i++) {
+            Object segment = segments[i];
+            if (segment instanceof Integer){
+                if (!element.isJsonArray()){
+                    return null;
+                }
+                JsonArray array = element.getAsJsonArray();
+                int index = (Integer) segment;
+                element = index >= 0 && index < array.size() ? array.get(index) : null;
+            } else {
+                if (!element.isJsonObject()){
+                    return null;
+                }
+                element = ((JsonObject) element).get((String) segment);
+            }
+        }
+        return element;
+    }
+}
@@ -3,7 +3,12 @@ package net.jards.core;
 import net.jards.core.Predicate.And;
 import net.jards.core.Predicate.Or;
 import net.jards.errors.LocalStorageException;
-import net.jards.local.sqlite.SqliteException;
+import net.jards.metrics.MetricsRegistry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import java.util.*;
 
@@ -25,6 +30,28 @@ public abstract class LocalStorage {
         boolean isAcceptable(Predicate predicate);
 	}
 
+    /**
+     * Listener for progress of migration of collections to changed setup (set in StorageSetup).
+     */
+    public interface MigrationListener {
+        /**
+         * Called while documents of collection are migrated (ie. values of new index are filled).
+         * @param collectionName name of migrated collection
+         * @param migratedDocuments number of documents migrated so far
+         * @param totalDocuments number of all documents of collection
+         */
+        void migrationProgress(String collectionName, long migratedDocuments, long totalDocuments);
+    }
+
+    /**
+     * id of document with setup hash in setup hash collection
+     */
+    private static final String SETUP_HASH_ID = "0";
+    /**
+     * prefix of ids of documents with saved collection setups in setup hash collection
+     */
+    private static final String SAVED_SETUP_ID_PREFIX = "setup:";
+
     /**
      * prefix of this user (local storage)
      */
@@ -41,11 +68,19 @@ public abstract class LocalStorage {
      * hash of this setup
      */
     private final String setupHash;
+    /**
+     * listener for progress of migration (can be null)
+     */
+    private final MigrationListener migrationListener;
     // private final CollectionSetup setupCollection;
     /**
      * property extractor to extract values from JSON fields
      */
 	private final JSONPropertyExtractor jsonPropertyExtractor;
+    /**
+     * registry for metrics of implementation (statement latency...)
+     */
+    private final MetricsRegistry metricsRegistry;
 
     /**
      * Public constructor for Local storage which prepares all settings for local storage
@@ -56,6 +91,7 @@ public abstract class LocalStorage {
             throw new IllegalArgumentException("Specify StorageSetup with prefix!");
         }
 		this.jsonPropertyExtractor = storageSetup.getJsonPropertyExtractor();
+        this.metricsRegistry = storageSetup.getMetricsRegistry();
 		this.prefix = storageSetup.getPrefix();
 		this.collections = storageSetup.getLocalCollections();
 		// createDocument hash from storage setup, read hash from special
@@ -69,6 +105,7 @@ public abstract class LocalStorage {
 		collections.put("setup_hash_table", setupHashCollection);
 		// compute hash to be able to compare
 		setupHash = computeSetupHash();
+		migrationListener = storageSetup.getMigrationListener();
 	}
 
 	/**
@@ -83,6 +120,10 @@ public abstract class LocalStorage {
             for (String index:setup.getOrderedIndexes()){
                 hash.append(index).append(setup.getIndexes().get(index));
             }
+            for (CollectionSetup.CompositeIndex compositeIndex:setup.getCompositeIndexes()){
+                hash.append(compositeIndex.getName()).append(compositeIndex.getProperties())
+                        .append(compositeIndex.getOrders()).append(compositeIndex.isCovering());
+            }
         }
 		return hash.toString();
 	}
@@ -96,29 +137,156 @@ public abstract class LocalStorage {
 	}
 
 	/**
-	 * Local db uses this setup for the first time or user has changed it. Drop
-	 * old collections, add new. Also setup hash collection.
-     * @throws LocalStorageException exception is thrown if problems with write to database happens
-     */
-	private void createCollectionsFromSetup() throws LocalStorageException {
-		try {
-			connectDB();
+	 * User has changed setup (or local db uses this setup for the first time). Only changed collections are
+	 * migrated (data stay), collections without known previous setup are migrated from what is in database
+	 * (created if they don't exist) and collections which are not in setup anymore are removed.
+	 * @param savedSetups previous setups of collections, key is name of collection (empty if not known)
+	 * @throws LocalStorageException exception is thrown if problems with write to database happens
+	 */
+	private void migrateCollectionsFromSetup(Map<String, CollectionSetup> savedSetups) throws LocalStorageException {
+		connectDB();
+		for (CollectionSetup collection : collections.values()) {
+			if (collection == setupHashCollection) {
+				continue;
+			}
+			CollectionSetup savedSetup = savedSetups.get(collection.getName());
+			if (savedSetup == null) {
+				//db created by older version, new collection or interrupted migration - previous setup is unknown
+				this.migrateCollection(null, collection);
+			} else if (!setupToJson(savedSetup).equals(setupToJson(collection))) {
+				this.migrateCollection(savedSetup, collection);
+			}
+		}
+		for (CollectionSetup savedSetup : savedSetups.values()) {
+			if (!collections.containsKey(savedSetup.getName())) {
+				this.removeCollection(savedSetup);
+			}
+		}
+		saveSetup();
+	}
 
-			for (CollectionSetup collection : collections.values()) {
-				this.removeCollection(collection);
-                this.addCollection(collection);
+	/**
+	 * Writes hash of setup and setups of all collections into setup hash collection.
+	 * @throws LocalStorageException exception is thrown if problems with write to database happens
+	 */
+	private void saveSetup() throws LocalStorageException {
+		Collection hashCollection = new Collection(setupHashCollection.getName(), true, null);
+		Document hashDocument = new Document(hashCollection, SETUP_HASH_ID);
+		hashDocument.setContent("" + setupHash);
+		this.removeCollection(setupHashCollection);
+		this.addCollection(setupHashCollection);
+		this.createDocument(setupHashCollection.getName(), hashDocument);
+		for (CollectionSetup collection : collections.values()) {
+			if (collection == setupHashCollection) {
+				continue;
+			}
+			Document setupDocument = new Document(hashCollection, SAVED_SETUP_ID_PREFIX + collection.getName());
+			setupDocument.setContent(setupToJson(collection));
+			this.createDocument(setupHashCollection.getName(), setupDocument);
+		}
+	}
+
+	/**
+	 * @param collection setup of collection
+	 * @return json with name, locality, indexes and composite indexes of collection
+	 */
+	private static String setupToJson(CollectionSetup collection) {
+		JsonObject json = new JsonObject();
+		json.addProperty("name", collection.getName());
+		json.addProperty("local", collection.isLocal());
+		JsonArray indexes = new JsonArray();
+		for (String index : collection.getOrderedIndexes()) {
+			JsonObject indexJson = new JsonObject();
+			indexJson.addProperty("name", index);
+			indexJson.addProperty("type", collection.getIndexType(index));
+			indexes.add(indexJson);
+		}
+		json.add("indexes", indexes);
+		JsonArray compositeIndexes = new JsonArray();
+		for (CollectionSetup.CompositeIndex compositeIndex : collection.getCompositeIndexes()) {
+			JsonObject indexJson = new JsonObject();
+			indexJson.addProperty("name", compositeIndex.getName());
+			indexJson.addProperty("covering", compositeIndex.isCovering());
+			JsonArray properties = new JsonArray();
+			for (int i = 0; i < compositeIndex.getProperties().size(); i++) {
+				JsonObject propertyJson = new JsonObject();
+				propertyJson.addProperty("name", compositeIndex.getProperties().get(i));
+				propertyJson.addProperty("order", compositeIndex.getOrders().get(i).name());
+				properties.add(propertyJson);
+			}
+			indexJson.add("properties", properties);
+			compositeIndexes.add(indexJson);
+		}
+		json.add("compositeIndexes", compositeIndexes);
+		return json.toString();
+	}
+
+	/**
+	 * @param json json created by setupToJson
+	 * @return setup of collection with this storage's prefix
+	 */
+	private CollectionSetup setupFromJson(String json) {
+		JsonObject setupJson = new JsonParser().parse(json).getAsJsonObject();
+		CollectionSetup collection = new CollectionSetup(prefix, setupJson.get("name").getAsString(),
+				setupJson.get("local").getAsBoolean());
+		for (JsonElement indexElement : setupJson.getAsJsonArray("indexes")) {
+			JsonObject indexJson = indexElement.getAsJsonObject();
+			String name = indexJson.get("name").getAsString();
+			switch (indexJson.get("type").getAsString()) {
+				case CollectionSetup.INDEX_TYPE_INT: collection.addIntIndex(name); break;
+				case CollectionSetup.INDEX_TYPE_REAL: collection.addRealIndex(name); break;
+				case CollectionSetup.INDEX_TYPE_BOOLEAN: collection.addBooleanIndex(name); break;
+				default: collection.addIndex(name);
+			}
+		}
+		for (JsonElement indexElement : setupJson.getAsJsonArray("compositeIndexes")) {
+			JsonObject indexJson = indexElement.getAsJsonObject();
+			CollectionSetup.CompositeIndex compositeIndex = new CollectionSetup.CompositeIndex(
+					indexJson.get("name").getAsString(), indexJson.get("covering").getAsBoolean());
+			for (JsonElement propertyElement : indexJson.getAsJsonArray("properties")) {
+				JsonObject propertyJson = propertyElement.getAsJsonObject();
+				compositeIndex.addProperty(propertyJson.get("name").getAsString(),
+						ResultOptions.OrderBy.valueOf(propertyJson.get("order").getAsString()));
 			}
-			Collection hashCollection = new Collection(setupHashCollection.getName(), true, null);
-			Document hashDocument = new Document(hashCollection, "0");
-			hashDocument.setContent("" + setupHash);
-			this.removeCollection(setupHashCollection);
-			this.addCollection(setupHashCollection);
-			this.createDocument(setupHashCollection.getName(), hashDocument);
-		} catch (SqliteException e) {
-			//e.printStackTrace();
-			throw e;
+			collection.addCompositeIndex(compositeIndex);
 		}
+		return collection;
+	}
 
+	/**
+	 * Changes collection in database from old setup to new one (same name). Default implementation removes
+	 * and adds collection again (documents are lost), override it to keep documents.
+	 * @param oldSetup setup used to create collection in database, null if it is not known (collection
+	 *                 may not exist in database yet)
+	 * @param newSetup new setup of collection
+	 * @throws LocalStorageException exception is thrown if problems with write to database happens
+	 */
+	protected void migrateCollection(CollectionSetup oldSetup, CollectionSetup newSetup) throws LocalStorageException {
+		this.removeCollection(oldSetup != null ? oldSetup : newSetup);
+		this.addCollection(newSetup);
+	}
+
+	/**
+	 * Finishes or undoes migration of collection interrupted by end of application. Called on every start
+	 * for every collection, before setup is compared with saved one. Default implementation does nothing.
+	 * @param collectionSetup setup of collection
+	 * @return true if interrupted migration was found (collection is migrated again)
+	 * @throws LocalStorageException exception is thrown if problems with write to database happens
+	 */
+	protected boolean recoverCollection(CollectionSetup collectionSetup) throws LocalStorageException {
+		return false;
+	}
+
+	/**
+	 * Reports progress of migration to listener from StorageSetup.
+	 * @param collectionName name of migrated collection
+	 * @param migratedDocuments number of documents migrated so far
+	 * @param totalDocuments number of all documents of collection
+	 */
+	protected void reportMigrationProgress(String collectionName, long migratedDocuments, long totalDocuments) {
+		if (migrationListener != null) {
+			migrationListener.migrationProgress(collectionName, migratedDocuments, totalDocuments);
+		}
 	}
 
     /**
@@ -141,6 +309,13 @@ public abstract class LocalStorage {
 		return collections.get(collectionName);
 	}
 
+    /**
+     * @return setups of all collections of this LocalStorage (copy)
+     */
+    protected List<CollectionSetup> getCollectionSetups() {
+		return new ArrayList<>(collections.values());
+	}
+
     /**
      * Invalidates all collections that are remote. Can be used after new subscribe call
      * (some servers send all data after subscribe).
@@ -162,66 +337,98 @@ public abstract class LocalStorage {
 		return jsonPropertyExtractor;
 	}
 
+    /**
+     * @return registry for metrics from StorageSetup
+     */
+    protected MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
 	/**
 	 * Checks if collections from storageSetup exists, if no - creates them.
-	 * Starts LocalStorage, if you want to continue, read work that has not been
-	 * saved (unconfirmed/pending requests) and return it. Storage will use it.
-	 * (Using returned requests not implemented yet).
+	 * Starts LocalStorage and reads requests from request log which were not confirmed
+	 * before last stop. Storage sends them again.
      *
-	 * @return List of saved requests
+	 * @return List of records of saved requests
      * @throws LocalStorageException exception is thrown if problems to read or write to database happens
 	 */
-	List<ExecutionRequest> start() throws LocalStorageException {
+	List<RequestRecord> start() throws LocalStorageException {
+		Map<String, CollectionSetup> savedSetups = new LinkedHashMap<>();
+		String savedSetupHash = null;
 		try {
-            /* query for setup_hash_collection to findOne any */
-			Map<String, String> savedSetupHashDocument = findOne(setupHashCollection.getName(), null, null);
-			String savedSetupHash = savedSetupHashDocument.get("jsondata");
-			// compare hashes, if same, done, if different - create new
-			// collections (drop old cause of same prefix)
-            //System.out.println("hashes: "+setupHash+" a "+savedSetupHash);
-            if (!setupHash.equals(savedSetupHash)) {
-				// fillSetupCollections(); not used
-				createCollectionsFromSetup();
+            /* query for setup_hash_collection to find hash and saved setups */
+			for (Map<String, String> savedDocument : find(setupHashCollection.getName(), null, null)) {
+				String id = savedDocument.get("id");
+				if (SETUP_HASH_ID.equals(id)) {
+					savedSetupHash = savedDocument.get("jsondata");
+				} else if (id != null && id.startsWith(SAVED_SETUP_ID_PREFIX)) {
+					CollectionSetup savedSetup = setupFromJson(savedDocument.get("jsondata"));
+					savedSetups.put(savedSetup.getName(), savedSetup);
+				}
 			}
 		} catch (Exception e) {
 			// table does not exist or other error, createDocument new
 			// collections, createDocument into 2 special ones
-			// try in method, if error - throw error, something wrong
-			// fillSetupCollections(); not used
-			createCollectionsFromSetup();
+			savedSetupHash = null;
+			savedSetups.clear();
+		}
+		// migration interrupted before last stop is finished, collection is migrated again (its state is unknown)
+		connectDB();
+		boolean recovered = false;
+		for (CollectionSetup collection : collections.values()) {
+			if (collection != setupHashCollection && recoverCollection(collection)) {
+				savedSetups.remove(collection.getName());
+				recovered = true;
+			}
+		}
+		// compare hashes, if same, done, if different - migrate collections (documents stay, also when
+		// previous setup is not known)
+		if (recovered || !setupHash.equals(savedSetupHash)) {
+			migrateCollectionsFromSetup(savedSetups);
 		}
 
-		// TODO read unfinished work?
-		List<ExecutionRequest> requests = startLocalStorage();
-		return requests;
+		startLocalStorage();
+		//requests sent to remote storage and not confirmed before last stop
+		return readRequestLog();
 	}
 
 	/**
-	 * Stops the execution, saves changes which have been done, but not confirmed by
-	 * server yet and not written into database.
-     * (Saving changes not implemented yet. What should be saved (which queues with work)? All?)
+	 * Stops the execution. Requests waiting for confirmation are in request log already.
 	 * 
 	 * @param unconfirmedRequests queue of unconfirmed requests
 	 */
 	void stop(Queue<ExecutionRequest> unconfirmedRequests) {
-		// TODO save unfinished work???
 		stopLocalStorage(unconfirmedRequests);
 	}
 
     /**
-     * Starts local storage and reads saved requests.
-     * (Using returned requests not implemented yet).
+     * Starts local storage.
+     * (Returned requests are not used, saved requests are read by readRequestLog.)
      * @return List of execution request.
      */
     protected abstract List<ExecutionRequest> startLocalStorage();
 
     /**
-     * Extend to stop LocalStorage and saves requests.
-     * (Requests work not implemented yet.)
-     * @param unconfirmedRequests requests to save (pending requests should be added too probably)
+     * Extend to stop LocalStorage.
+     * @param unconfirmedRequests requests which were not confirmed (they are saved in request log)
      */
     protected abstract void stopLocalStorage(Queue<ExecutionRequest> unconfirmedRequests);
 
+    /**
+     * Appends records to request log in one transaction. Log is append only, records are stored in order
+     * they came. Tombstone marks record of request with same id as confirmed.
+     * @param records records to append (requests and tombstones)
+     * @throws LocalStorageException if error happens while writing to local database
+     */
+    protected abstract void appendRequestLog(List<RequestRecord> records) throws LocalStorageException;
+
+    /**
+     * Reads request log. Returns records of requests which were not tombstoned, in order they were appended.
+     * @return records of unconfirmed requests (without tombstones)
+     * @throws LocalStorageException if error happens while reading local database
+     */
+    protected abstract List<RequestRecord> readRequestLog() throws LocalStorageException;
+
     /**
      * Connect to local database
      * @throws LocalStorageException if error happens while working with local database
@@ -276,6 +483,55 @@ public abstract class LocalStorage {
      */
     protected abstract boolean removeDocument(String collectionName, Document document) throws LocalStorageException;
 
+    /**
+     * Starts transaction, writes until commitTransaction are written together (or none of them).
+     * Storage uses it for writes of every execution (and of group of executions), failed execution is rolled
+     * back. Transaction belongs to thread which started it, writes of other threads wait until it ends.
+     * Transactions can be nested, only outermost one is committed. Default implementation does nothing (every
+     * write is written immediately).
+     * @throws LocalStorageException if transaction can't be started
+     */
+    protected void beginTransaction() throws LocalStorageException {
+    }
+
+    /**
+     * Commits transaction started with beginTransaction.
+     * @throws LocalStorageException if transaction can't be committed
+     */
+    protected void commitTransaction() throws LocalStorageException {
+    }
+
+    /**
+     * Rolls back transaction started with beginTransaction (whole transaction, even if it was nested).
+     */
+    protected void rollbackTransaction() {
+    }
+
+    /**
+     * Marks savepoint in transaction started with beginTransaction. Writes after it can be rolled back with
+     * rollbackToSavepoint without rolling back whole transaction. Default implementation does nothing.
+     * @param name name of savepoint
+     * @throws LocalStorageException if savepoint can't be created
+     */
+    protected void setSavepoint(String name) throws LocalStorageException {
+    }
+
+    /**
+     * Removes savepoint, its writes stay in transaction.
+     * @param name name of savepoint
+     * @throws LocalStorageException if savepoint can't be released
+     */
+    protected void releaseSavepoint(String name) throws LocalStorageException {
+    }
+
+    /**
+     * Rolls back writes done after savepoint and removes savepoint, transaction stays opened.
+     * @param name name of savepoint
+     * @throws LocalStorageException if writes can't be rolled back
+     */
+    protected void rollbackToSavepoint(String name) throws LocalStorageException {
+    }
+
 	/**
 	 * Applies changes to local database. Creates new collections if needed,
 	 * create new documents, updates edited and removed deleted.
@@ -291,6 +547,9 @@ public abstract class LocalStorage {
      * Extend to find selected documents and return them in list (in map representation with id,
      * collection and content).
      * Collection then creates documents from it and put them into ResultSet.
+     * Implementation can use only part of predicate and options (ResultSet filters, orders and limits result
+     * again), but it must not apply limit unless whole predicate and order were applied too (order with same
+     * comparison of values as in ResultSet - numbers as numbers, numbers before strings, missing values first).
      * @param collectionName name of collection
      * @param p predicate to filter result
      * @param options options for result (ie. order...)
@@ -309,6 +568,25 @@ public abstract class LocalStorage {
      */
     protected abstract Map<String, String> findOne(String collectionName, Predicate p, ResultOptions options) throws LocalStorageException;
 
+    /**
+     * Merges change of fields of updated document into its stored content. Document gets merged content
+     * (so result sets get whole document) and its delta is cleared. Don't call it for document which is not
+     * stored - document keeps delta and Storage doesn't publish it.
+     * @param document updated document with field delta
+     * @param storedContent content of document in local storage (null if document is not stored)
+     * @return merged content which should be stored
+     */
+    protected String mergeFieldDelta(Document document, String storedContent) {
+        FieldDelta fieldDelta = document.getFieldDelta();
+        if (fieldDelta == null){
+            return document.getContent();
+        }
+        String mergedContent = fieldDelta.applyTo(storedContent);
+        document.setContent(mergedContent);
+        document.setFieldDelta(null);
+        return mergedContent;
+    }
+
     /**
      * @return prefix of this storage (user)
      */
@@ -369,6 +647,7 @@ public abstract class LocalStorage {
 				if (filteredPredicate == null) {
 					return null;
 				}
+				predicates.add(filteredPredicate);
 			}
 
 			if (predicates.isEmpty()) {
@@ -0,0 +1,151 @@
+package net.jards.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Ordered documents of result set with index by id. Put and remove of one document cost O(log n).
+ * Documents are ordered by DocumentOrder (if given) and then by sequence number given with them (position in result).
+ */
+class OrderedDocuments {
+
+    /**
+     * Document on its position.
+     */
+    private static final class Slot {
+        /**
+         * document in this slot
+         */
+        final Document document;
+        /**
+         * sequence number of document (position)
+         */
+        final long sequence;
+        /**
+         * values of order properties when document was put (null if there is no order)
+         */
+        final Object[] key;
+
+        Slot(Document document, long sequence, Object[] key) {
+            this.document = document;
+            this.sequence = sequence;
+            this.key = key;
+        }
+    }
+
+    /**
+     * order of documents, null for order by sequence only
+     */
+    private final DocumentOrder order;
+    /**
+     * documents in order
+     */
+    private final TreeSet<Slot> slots;
+    /**
+     * slots of documents, key is id of document
+     */
+    private final HashMap<String, Slot> slotsById = new HashMap<>();
+
+    /**
+     * Creates documents ordered by sequence only.
+     */
+    OrderedDocuments() {
+        this(null);
+    }
+
+    /**
+     * @param order order of documents, null for order by sequence only
+     */
+    OrderedDocuments(DocumentOrder order) {
+        this.order = order;
+        Comparator<Slot> bySequence = Comparator.comparingLong(slot -> slot.sequence);
+        if (order == null){
+            this.slots = new TreeSet<>(bySequence);
+        } else {
+            this.slots = new TreeSet<>((slot1, slot2) -> {
+                int result = order.compare(slot1.key, slot2.key);
+                return result != 0 ? result : bySequence.compare(slot1, slot2);
+            });
+        }
+    }
+
+    /**
+     * @param id id of document
+     * @return document with given id or null
+     */
+    Document get(String id) {
+        Slot slot = slotsById.get(id);
+        return slot == null ? null : slot.document;
+    }
+
+    /**
+     * Puts document on position given by order and sequence number. Document with same id is replaced.
+     * @param document document to put
+     * @param sequence sequence number of document (position)
+     * @return replaced document or null if document is new
+     */
+    Document put(Document document, long sequence) {
+        Slot slot = new Slot(document, sequence, order == null ? null : order.key(document));
+        Slot old = slotsById.put(document.getId(), slot);
+        if (old != null){
+            slots.remove(old);
+        }
+        slots.add(slot);
+        return old == null ? null : old.document;
+    }
+
+    /**
+     * @param id id of document to remove
+     * @return removed document or null if there was no document with given id
+     */
+    Document remove(String id) {
+        Slot slot = slotsById.remove(id);
+        if (slot == null){
+            return null;
+        }
+        slots.remove(slot);
+        return slot.document;
+    }
+
+    /**
+     * @return first document or null if there are no documents
+     */
+    Document first() {
+        return slots.isEmpty() ? null : slots.first().document;
+    }
+
+    /**
+     * @return last document or null if there are no documents
+     */
+    Document last() {
+        return slots.isEmpty() ? null : slots.last().document;
+    }
+
+    /**
+     * @return ids of all documents (copy)
+     */
+    List<String> ids() {
+        return new ArrayList<>(slotsById.keySet());
+    }
+
+    /**
+     * @return number of documents
+     */
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return new list with documents in order
+     */
+    List<Document> toList() {
+        List<Document> documents = new ArrayList<>(slots.size());
+        for (Slot slot:slots) {
+            documents.add(slot.document);
+        }
+        return documents;
+    }
+}
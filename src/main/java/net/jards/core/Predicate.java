@@ -1,11 +1,7 @@
 package net.jards.core;
 
-import net.jards.errors.JsonFormatException;
-
 import java.util.*;
 
-import static net.jards.core.Predicate.Operator.*;
-
 /**
  * Abstract class providing interface for all predicates. User can create his own predicates
  * and extend needed methods.
@@ -146,6 +142,7 @@ public abstract class Predicate {
 
 		private final String property;
 		private final Object value;
+		private PredicateEvaluator evaluator;
 
 		private Equals(String property, Object value) {
 			this.property = property;
@@ -174,16 +171,22 @@ public abstract class Predicate {
 
 		@Override
 		public boolean match(Document document) {
-			if (document == null) {
-				return false;
+			return evaluator().match(document);
+		}
+
+		/**
+		 * @return compiled form of this predicate
+		 */
+		private PredicateEvaluator evaluator() {
+			if (evaluator == null) {
+				evaluator = PredicateEvaluator.compile(this);
 			}
+			return evaluator;
+		}
 
-            try {
-                return value.equals(document.getPropertyValue(property));
-            } catch (JsonFormatException e) {
-                return false;
-            }
-        }
+		String getProperty() {
+			return property;
+		}
 
         public Object getValue() {
             return value;
@@ -207,6 +210,7 @@ public abstract class Predicate {
         private final String property;
         private final Operator operator;
         private final Object value;
+        private PredicateEvaluator evaluator;
 
         private Compare(String property, Operator operator, Object value) {
             this.property = property;
@@ -236,45 +240,21 @@ public abstract class Predicate {
 
         @Override
         public boolean match(Document document) {
-            if (document == null) {
-                return false;
-            }
-            try {
-                if (operator == SameAs){
-                    return value.equals(document.getPropertyValue(property));
-                } else if (operator == NotSameAs){
-                    return !value.equals(document.getPropertyValue(property));
-                } else if (operator == Bigger){
-                    if (value instanceof String){
-                        //property > value (compareTo gives >0), but we compare in other order
-                        return ((String)value).compareTo((String)document.getPropertyValue(property)) < 0;
-                    } else if (value instanceof Number){
-                        return ((Number)value).doubleValue() < ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                } else if (operator == BiggerOrEquals){
-                    if (value instanceof String){
-                        return ((String)value).compareTo((String)document.getPropertyValue(property)) <= 0;
-                    } else if (value instanceof Number){
-                        return ((Number)value).doubleValue() <= ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                } else if (operator == Smaller){
-                    if (value instanceof String){
-                        return ((String)value).compareTo((String)document.getPropertyValue(property)) > 0;
-                    } else if (value instanceof Number){
-                        return ((Number)value).doubleValue() > ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                } else if (operator == SmallerOrEquals){
-                    if (value instanceof String){
-                        //property > value (compareTo gives >0), but we compare in other order
-                        return ((String)value).compareTo((String)document.getPropertyValue(property)) > 0;
-                    } else if (value instanceof Number){
-                        return ((Number)value).doubleValue() >= ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                }
-                return false;
-            } catch (JsonFormatException e) {
-                return false;
+            return evaluator().match(document);
+        }
+
+        /**
+         * @return compiled form of this predicate
+         */
+        private PredicateEvaluator evaluator() {
+            if (evaluator == null) {
+                evaluator = PredicateEvaluator.compile(this);
             }
+            return evaluator;
+        }
+
+        String getProperty() {
+            return property;
         }
 
         public Object getValue() {
@@ -293,6 +273,7 @@ public abstract class Predicate {
 
         private final String property;
         private final String property2;
+        private PredicateEvaluator evaluator;
 
         public EqualProperties(String property, String property2) {
             this.property = property;
@@ -309,15 +290,25 @@ public abstract class Predicate {
 
         @Override
         public boolean match(Document document) {
-            if (document == null || this.property2 == null) {
-                return false;
-            }
+            return evaluator().match(document);
+        }
 
-            try {
-                return property2.equals(document.getPropertyValue(property));
-            } catch (JsonFormatException e) {
-                return false;
+        /**
+         * @return compiled form of this predicate
+         */
+        private PredicateEvaluator evaluator() {
+            if (evaluator == null) {
+                evaluator = PredicateEvaluator.compile(this);
             }
+            return evaluator;
+        }
+
+        String getProperty() {
+            return property;
+        }
+
+        String getProperty2() {
+            return property2;
         }
     }
 
@@ -329,6 +320,7 @@ public abstract class Predicate {
         private final String property;
         private final Operator operator;
         private final String property2;
+        private PredicateEvaluator evaluator;
 
         private CompareProperties(String property, Operator operator, String property2) {
             this.property = property;
@@ -347,47 +339,25 @@ public abstract class Predicate {
 
         @Override
         public boolean match(Document document) {
-            if (document == null || this.property2 == null) {
-                return false;
-            }
-            try {
-                Object property2Object = document.getPropertyValue(property2);
-
-                if (operator == SameAs){
-                    return property2Object.equals(document.getPropertyValue(property));
-                } else if (operator == NotSameAs){
-                    return !property2Object.equals(document.getPropertyValue(property));
-                } else if (operator == Bigger){
-                    if (property2Object instanceof String){
-                        //property > value (compareTo gives >0), but we compare in other order
-                        return ((String)property2Object).compareTo((String)document.getPropertyValue(property)) < 0;
-                    } else if (property2Object instanceof Number){
-                        return ((Number)property2Object).doubleValue() < ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                } else if (operator == BiggerOrEquals){
-                    if (property2Object instanceof String){
-                        return ((String)property2Object).compareTo((String)document.getPropertyValue(property)) <= 0;
-                    } else if (property2Object instanceof Number){
-                        return ((Number)property2Object).doubleValue() <= ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                } else if (operator == Smaller){
-                    if (property2Object instanceof String){
-                        return ((String)property2Object).compareTo((String)document.getPropertyValue(property)) > 0;
-                    } else if (property2Object instanceof Number){
-                        return ((Number)property2Object).doubleValue() > ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                } else if (operator == SmallerOrEquals){
-                    if (property2Object instanceof String){
-                        //property > value (compareTo gives >0), but we compare in other order
-                        return ((String)property2Object).compareTo((String)document.getPropertyValue(property)) > 0;
-                    } else if (property2Object instanceof Number){
-                        return ((Number)property2Object).doubleValue() >= ((Number)document.getPropertyValue(property)).doubleValue();
-                    } else return false;
-                }
-                return false;
-            } catch (JsonFormatException e) {
-                return false;
+            return evaluator().match(document);
+        }
+
+        /**
+         * @return compiled form of this predicate
+         */
+        private PredicateEvaluator evaluator() {
+            if (evaluator == null) {
+                evaluator = PredicateEvaluator.compile(this);
             }
+            return evaluator;
+        }
+
+        String getProperty() {
+            return property;
+        }
+
+        String getProperty2() {
+            return property2;
         }
 
         public Operator getOperator() {
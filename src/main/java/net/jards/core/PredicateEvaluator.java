@@ -0,0 +1,362 @@
+package net.jards.core;
+
+import net.jards.errors.JsonFormatException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Predicate compiled for matching of documents. Predicate tree is walked once: nested And/Or are flattened,
+ * sub-predicates are ordered from cheapest (most selective) and each comparison gets comparator chosen
+ * by its operator and value type, so matching doesn't test types or operators for each document.
+ * Values of properties are compared as json strings read from document, numbers (values and properties that
+ * are both numbers) are compared numerically.
+ */
+abstract class PredicateEvaluator {
+
+    /**
+     * cost of equality of property and value
+     */
+    private static final int EQUALS_COST = 1;
+    /**
+     * cost of comparison of property and value
+     */
+    private static final int COMPARE_COST = 2;
+    /**
+     * cost of comparison of two properties
+     */
+    private static final int PROPERTIES_COST = 4;
+    /**
+     * cost of custom predicate (unknown implementation)
+     */
+    private static final int CUSTOM_COST = 16;
+
+    /**
+     * evaluator matching every document
+     */
+    static final PredicateEvaluator ALL = new PredicateEvaluator(0) {
+        @Override
+        boolean match(Document document) {
+            return document != null;
+        }
+    };
+
+    /**
+     * estimated cost of matching (used to order sub-predicates)
+     */
+    private final int cost;
+
+    /**
+     * @param cost estimated cost of matching
+     */
+    private PredicateEvaluator(int cost) {
+        this.cost = cost;
+    }
+
+    /**
+     * @param document document to match
+     * @return true if document matches compiled predicate
+     */
+    abstract boolean match(Document document);
+
+    /**
+     * @return estimated cost of matching
+     */
+    int getCost() {
+        return cost;
+    }
+
+    /**
+     * Compiles predicate.
+     * @param predicate predicate to compile (null matches every document)
+     * @return evaluator of predicate
+     */
+    static PredicateEvaluator compile(Predicate predicate) {
+        if (predicate == null){
+            return ALL;
+        }
+        if (predicate instanceof Predicate.And){
+            List<PredicateEvaluator> evaluators = new ArrayList<>();
+            flattenAnd((Predicate.And) predicate, evaluators);
+            return and(evaluators);
+        }
+        if (predicate instanceof Predicate.Or){
+            List<PredicateEvaluator> evaluators = new ArrayList<>();
+            flattenOr((Predicate.Or) predicate, evaluators);
+            return or(evaluators);
+        }
+        if (predicate instanceof Predicate.Equals){
+            Predicate.Equals equals = (Predicate.Equals) predicate;
+            return compare(equals.getProperty(), Predicate.Operator.SameAs, equals.getValue(), EQUALS_COST);
+        }
+        if (predicate instanceof Predicate.Compare){
+            Predicate.Compare compare = (Predicate.Compare) predicate;
+            return compare(compare.getProperty(), compare.getOperator(), compare.getValue(), COMPARE_COST);
+        }
+        if (predicate instanceof Predicate.EqualProperties){
+            Predicate.EqualProperties equalProperties = (Predicate.EqualProperties) predicate;
+            return compareProperties(equalProperties.getProperty(), Predicate.Operator.SameAs,
+                    equalProperties.getProperty2());
+        }
+        if (predicate instanceof Predicate.CompareProperties){
+            Predicate.CompareProperties compareProperties = (Predicate.CompareProperties) predicate;
+            return compareProperties(compareProperties.getProperty(), compareProperties.getOperator(),
+                    compareProperties.getProperty2());
+        }
+        //custom predicate
+        return new PredicateEvaluator(CUSTOM_COST) {
+            @Override
+            boolean match(Document document) {
+                return predicate.match(document);
+            }
+        };
+    }
+
+    /**
+     * Adds evaluators of sub-predicates of And, sub-predicates which are And too are flattened.
+     * @param and And predicate
+     * @param evaluators list where evaluators are added
+     */
+    private static void flattenAnd(Predicate.And and, List<PredicateEvaluator> evaluators) {
+        for (Predicate predicate:and.getSubPredicates()) {
+            if (predicate instanceof Predicate.And){
+                flattenAnd((Predicate.And) predicate, evaluators);
+            } else {
+                evaluators.add(compile(predicate));
+            }
+        }
+    }
+
+    /**
+     * Adds evaluators of sub-predicates of Or, sub-predicates which are Or too are flattened.
+     * @param or Or predicate
+     * @param evaluators list where evaluators are added
+     */
+    private static void flattenOr(Predicate.Or or, List<PredicateEvaluator> evaluators) {
+        for (Predicate predicate:or.getSubPredicates()) {
+            if (predicate instanceof Predicate.Or){
+                flattenOr((Predicate.Or) predicate, evaluators);
+            } else {
+                evaluators.add(compile(predicate));
+            }
+        }
+    }
+
+    /**
+     * @param evaluators evaluators of sub-predicates
+     * @return evaluator matching documents matched by all evaluators (cheapest are evaluated first)
+     */
+    private static PredicateEvaluator and(List<PredicateEvaluator> evaluators) {
+        evaluators.removeIf(evaluator -> evaluator == ALL);
+        if (evaluators.isEmpty()){
+            return ALL;
+        }
+        if (evaluators.size() == 1){
+            return evaluators.get(0);
+        }
+        evaluators.sort(Comparator.comparingInt(PredicateEvaluator::getCost));
+        PredicateEvaluator[] ordered = evaluators.toArray(new PredicateEvaluator[evaluators.size()]);
+        return new PredicateEvaluator(totalCost(ordered)) {
+            @Override
+            boolean match(Document document) {
+                for (PredicateEvaluator evaluator:ordered) {
+                    if (!evaluator.match(document)){
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param evaluators evaluators of sub-predicates
+     * @return evaluator matching documents matched by any evaluator (cheapest are evaluated first)
+     */
+    private static PredicateEvaluator or(List<PredicateEvaluator> evaluators) {
+        for (PredicateEvaluator evaluator:evaluators) {
+            if (evaluator == ALL){
+                return ALL;
+            }
+        }
+        if (evaluators.size() == 1){
+            return evaluators.get(0);
+        }
+        evaluators.sort(Comparator.comparingInt(PredicateEvaluator::getCost));
+        PredicateEvaluator[] ordered = evaluators.toArray(new PredicateEvaluator[evaluators.size()]);
+        return new PredicateEvaluator(totalCost(ordered)) {
+            @Override
+            boolean match(Document document) {
+                for (PredicateEvaluator evaluator:ordered) {
+                    if (evaluator.match(document)){
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param evaluators evaluators
+     * @return sum of costs of evaluators
+     */
+    private static int totalCost(PredicateEvaluator[] evaluators) {
+        int cost = 0;
+        for (PredicateEvaluator evaluator:evaluators) {
+            cost += evaluator.getCost();
+        }
+        return cost;
+    }
+
+    /**
+     * @param operator operator of comparison
+     * @return test of result of compareTo (property compared to value) for given operator
+     */
+    private static IntPredicate operatorTest(Predicate.Operator operator) {
+        switch (operator){
+            case SameAs: return result -> result == 0;
+            case NotSameAs: return result -> result != 0;
+            case Bigger: return result -> result > 0;
+            case BiggerOrEquals: return result -> result >= 0;
+            case Smaller: return result -> result < 0;
+            case SmallerOrEquals: return result -> result <= 0;
+        }
+        return result -> false;
+    }
+
+    /**
+     * Creates comparison of property and value, comparator is chosen by type of value.
+     * @param property property path
+     * @param operator operator of comparison
+     * @param value value (String, Number or Boolean)
+     * @param cost estimated cost of matching
+     * @return evaluator of comparison
+     */
+    private static PredicateEvaluator compare(String property, Predicate.Operator operator, Object value, int cost) {
+        IntPredicate test = operatorTest(operator);
+        if (value instanceof Number){
+            double number = ((Number) value).doubleValue();
+            return new PredicateEvaluator(cost) {
+                @Override
+                boolean match(Document document) {
+                    Double propertyNumber = toNumber(readProperty(document, property));
+                    return propertyNumber != null && test.test(Double.compare(propertyNumber, number));
+                }
+            };
+        }
+        if (value instanceof Boolean && (operator == Predicate.Operator.SameAs || operator == Predicate.Operator.NotSameAs)){
+            String bool = value.toString();
+            return new PredicateEvaluator(cost) {
+                @Override
+                boolean match(Document document) {
+                    Object propertyValue = readProperty(document, property);
+                    return propertyValue != null && test.test(bool.equals(propertyValue) ? 0 : 1);
+                }
+            };
+        }
+        if (value instanceof Boolean){
+            return new PredicateEvaluator(cost) {
+                @Override
+                boolean match(Document document) {
+                    return false;
+                }
+            };
+        }
+        String string = value.toString();
+        if (operator == Predicate.Operator.SameAs){
+            return new PredicateEvaluator(cost) {
+                @Override
+                boolean match(Document document) {
+                    return string.equals(readProperty(document, property));
+                }
+            };
+        }
+        return new PredicateEvaluator(cost) {
+            @Override
+            boolean match(Document document) {
+                Object propertyValue = readProperty(document, property);
+                return propertyValue != null && test.test(propertyValue.toString().compareTo(string));
+            }
+        };
+    }
+
+    /**
+     * Creates comparison of two properties (numerically if both are numbers, else as strings).
+     * @param property first property path
+     * @param operator operator of comparison
+     * @param property2 second property path
+     * @return evaluator of comparison
+     */
+    private static PredicateEvaluator compareProperties(String property, Predicate.Operator operator, String property2) {
+        if (property == null || property2 == null){
+            return new PredicateEvaluator(PROPERTIES_COST) {
+                @Override
+                boolean match(Document document) {
+                    return false;
+                }
+            };
+        }
+        IntPredicate test = operatorTest(operator);
+        return new PredicateEvaluator(PROPERTIES_COST) {
+            @Override
+            boolean match(Document document) {
+                Object value = readProperty(document, property);
+                Object value2 = readProperty(document, property2);
+                if (value == null || value2 == null){
+                    return false;
+                }
+                Double number = toNumber(value);
+                Double number2 = number == null ? null : toNumber(value2);
+                if (number2 != null){
+                    return test.test(Double.compare(number, number2));
+                }
+                return test.test(value.toString().compareTo(value2.toString()));
+            }
+        };
+    }
+
+    /**
+     * @param document document
+     * @param property property path
+     * @return value of property or null if document doesn't have it
+     */
+    private static Object readProperty(Document document, String property) {
+        if (document == null){
+            return null;
+        }
+        try {
+            return document.getPropertyValue(property);
+        } catch (JsonFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param value value of property (json string)
+     * @return number or null if value is not a number
+     */
+    private static Double toNumber(Object value) {
+        if (value == null){
+            return null;
+        }
+        if (value instanceof Number){
+            return ((Number) value).doubleValue();
+        }
+        String string = value.toString();
+        if (string.isEmpty()){
+            return null;
+        }
+        char first = string.charAt(0);
+        if ((first < '0' || first > '9') && first != '-'){
+            return null;
+        }
+        try {
+            return Double.valueOf(string);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
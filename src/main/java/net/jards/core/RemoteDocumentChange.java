@@ -1,5 +1,8 @@
 package net.jards.core;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Class representing one document change made on server, sent to Storage through RemoteStorageListener.
  */
@@ -28,6 +31,14 @@ public class RemoteDocumentChange {
      * content of changed document
      */
     private  String data;
+    /**
+     * names of cleared fields (update with field delta)
+     */
+    private List<String> clearedFields;
+    /**
+     * true if data contain only changed fields (update with field delta)
+     */
+    private boolean fieldDelta = false;
 
     /**
      * Constructor for RemoteDocumentChange
@@ -43,6 +54,19 @@ public class RemoteDocumentChange {
 		this.data =data;
 	}
 
+    /**
+     * Constructor for update which changes only some fields of document. Fields not mentioned stay.
+     * @param collection collection where corresponding document belongs
+     * @param id id of corresponding document
+     * @param changedFields json object with changed fields and their new values
+     * @param clearedFields names of removed fields
+     */
+    public RemoteDocumentChange(String collection, String id, String changedFields, List<String> clearedFields){
+        this(ChangeType.UPDATE, collection, id, changedFields);
+        this.clearedFields = clearedFields == null ? Collections.emptyList() : clearedFields;
+        this.fieldDelta = true;
+    }
+
     /**
      * @return type of change
      */
@@ -64,6 +88,20 @@ public class RemoteDocumentChange {
 		return data;
 	}
 
+    /**
+     * @return true if this update contains only changed fields (data) and cleared fields
+     */
+    public boolean isFieldDelta() {
+        return fieldDelta;
+    }
+
+    /**
+     * @return names of cleared fields (empty if this change is not field delta)
+     */
+    public List<String> getClearedFields() {
+        return clearedFields == null ? Collections.emptyList() : clearedFields;
+    }
+
     /**
      * @return id of corresponding document
      */
@@ -17,6 +17,24 @@ public abstract class RemoteStorage {
      */
     protected abstract void start(String sessionState);
 
+    /**
+     * Override and return true if implementation reconnects itself when connection is lost (or start fails)
+     * and reports every change of connection to listener. Storage then calls start only once and waits for
+     * connection events. Otherwise Storage calls start again (with backoff from StorageSetup) while it is
+     * disconnected.
+     * @return true if implementation manages reconnecting itself
+     */
+    protected boolean managesReconnect() {
+        return false;
+    }
+
+    /**
+     * Called when application knows that network is available again (ie. network change event from system).
+     * Implementation managing reconnect should try to connect now instead of waiting for its backoff.
+     */
+    protected void reconnectNow() {
+    }
+
     /**
      * Extend to stop work and disconnect froms server.
      */
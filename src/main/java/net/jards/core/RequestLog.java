@@ -0,0 +1,256 @@
+package net.jards.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.jards.errors.LocalStorageException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Write-ahead log of requests sent to remote storage (executes and calls), so they are not lost when
+ * application ends before server confirms them. Execute is written in its own local storage transaction,
+ * together with its writes. Calls and tombstones are collected from any thread and written by local
+ * thread in batches (one local storage transaction per batch). Confirmation is written as tombstone, so log
+ * is append only; LocalStorage drops tombstoned records when it compacts log.
+ * Arguments of calls are stored as json, restored calls have arguments read by gson (numbers as Double,
+ * objects as maps).
+ */
+class RequestLog {
+
+    /**
+     * gson used for arguments of requests
+     */
+    private static final Gson gson = new Gson();
+
+    /**
+     * records waiting to be written to local storage (in order)
+     */
+    private final Queue<RequestRecord> unwrittenRecords = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param request request
+     * @return true if request is written to log (execute or call)
+     */
+    static boolean isLogged(ExecutionRequest request) {
+        return request.isExecute() || request.isCall();
+    }
+
+    /**
+     * Adds request to log (written with next flush). Requests which are not logged are ignored.
+     * @param request request sent to remote storage
+     */
+    void append(ExecutionRequest request) {
+        RequestRecord record = toRecord(request);
+        if (record != null){
+            unwrittenRecords.offer(record);
+        }
+    }
+
+    /**
+     * Writes request to local storage now, in local storage transaction of caller (so execute is in log
+     * together with its writes, before it is sent to remote storage). Requests which are not logged are ignored.
+     * @param request request which will be sent to remote storage
+     * @param localStorage local storage with opened transaction
+     * @throws LocalStorageException if record can't be written
+     */
+    void write(ExecutionRequest request, LocalStorage localStorage) throws LocalStorageException {
+        RequestRecord record = toRecord(request);
+        if (record != null){
+            localStorage.appendRequestLog(Collections.singletonList(record));
+        }
+    }
+
+    /**
+     * @param request request
+     * @return record of request, null if request is not logged or can't be written as json
+     */
+    private static RequestRecord toRecord(ExecutionRequest request) {
+        if (!isLogged(request)){
+            return null;
+        }
+        String data;
+        try {
+            data = toData(request);
+        } catch (RuntimeException e) {
+            //arguments can't be written as json, request stays only in memory
+            System.out.println("ERROR: request "+request.getId()+" can't be written to request log. "+e.toString());
+            return null;
+        }
+        return new RequestRecord(request.getId(), false, data);
+    }
+
+    /**
+     * Adds tombstone of confirmed request to log (written with next flush).
+     * @param request confirmed request
+     */
+    void confirm(ExecutionRequest request) {
+        if (isLogged(request)){
+            unwrittenRecords.offer(new RequestRecord(request.getId(), true, null));
+        }
+    }
+
+    /**
+     * @return true if there are records waiting for flush
+     */
+    boolean hasUnwrittenRecords() {
+        return !unwrittenRecords.isEmpty();
+    }
+
+    /**
+     * Writes waiting records to local storage in one batch. Request confirmed before it was written
+     * is not written at all. Call only from local thread.
+     * @param localStorage local storage
+     * @throws LocalStorageException if records can't be written
+     */
+    void flush(LocalStorage localStorage) throws LocalStorageException {
+        List<RequestRecord> records = new ArrayList<>();
+        RequestRecord record;
+        while ((record = unwrittenRecords.poll()) != null){
+            records.add(record);
+        }
+        if (records.isEmpty()){
+            return;
+        }
+        //request and its tombstone in same batch cancel each other
+        Set<String> appendedIds = new HashSet<>();
+        Set<String> cancelledIds = new HashSet<>();
+        for (RequestRecord batchRecord:records) {
+            if (!batchRecord.isTombstone()){
+                appendedIds.add(batchRecord.getRequestId());
+            } else if (appendedIds.contains(batchRecord.getRequestId())){
+                cancelledIds.add(batchRecord.getRequestId());
+            }
+        }
+        if (!cancelledIds.isEmpty()){
+            records.removeIf(batchRecord -> cancelledIds.contains(batchRecord.getRequestId()));
+            if (records.isEmpty()){
+                return;
+            }
+        }
+        localStorage.appendRequestLog(records);
+    }
+
+    /**
+     * @param request request
+     * @return json with type, method name, seed, arguments and (for executes) local changes of request
+     */
+    private static String toData(ExecutionRequest request) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", request.getRequestType().name());
+        json.addProperty("methodName", request.getMethodName());
+        json.addProperty("seed", request.getSeed());
+        JsonArray arguments = new JsonArray();
+        if (request.getAttributes() != null){
+            for (Object argument:request.getAttributes()) {
+                arguments.add(argument == null ? JsonNull.INSTANCE : gson.toJsonTree(argument));
+            }
+        }
+        json.add("arguments", arguments);
+        //changes of execute are written already, server needs them again; speculation of call runs again
+        if (request.isExecute() && request.getTransaction() != null){
+            DocumentChanges changes = request.getTransaction().getLocalChanges();
+            JsonObject changesJson = new JsonObject();
+            changesJson.add("added", toJson(changes.getAddedDocuments()));
+            changesJson.add("updated", toJson(changes.getUpdatedDocuments()));
+            changesJson.add("removed", toJson(changes.getRemovedDocuments()));
+            json.add("changes", changesJson);
+        }
+        return json.toString();
+    }
+
+    /**
+     * @param documents documents
+     * @return json array with collection, id and content of documents
+     */
+    private static JsonArray toJson(List<Document> documents) {
+        JsonArray array = new JsonArray();
+        for (Document document:documents) {
+            JsonObject documentJson = new JsonObject();
+            documentJson.addProperty("collection", document.getCollection().getName());
+            documentJson.addProperty("id", document.getId());
+            documentJson.addProperty("content", document.getContent());
+            array.add(documentJson);
+        }
+        return array;
+    }
+
+    /**
+     * Creates request again from its record (restored request keeps its id).
+     * @param record record read from local storage
+     * @param storage storage which will execute request
+     * @return restored request
+     * @throws LocalStorageException if collection of document can't be created
+     */
+    static ExecutionRequest restore(RequestRecord record, Storage storage) throws LocalStorageException {
+        JsonObject json = new JsonParser().parse(record.getData()).getAsJsonObject();
+        ExecutionRequest.RequestType requestType = ExecutionRequest.RequestType.valueOf(json.get("type").getAsString());
+        String seed = json.has("seed") && !json.get("seed").isJsonNull() ? json.get("seed").getAsString() : null;
+        Transaction transaction;
+        ExecutionRequest request;
+        if (requestType == ExecutionRequest.RequestType.Call){
+            transaction = new Transaction(storage, storage.getRemoteStorage().getIdGenerator(seed));
+            transaction.setSpeculation(true);
+            request = new ExecutionRequest(transaction, record.getRequestId());
+            request.setRunnable(storage.getSpeculativeMethod(json.get("methodName").getAsString()));
+        } else {
+            transaction = new Transaction(storage, null);
+            request = new ExecutionRequest(transaction, record.getRequestId());
+            JsonObject changesJson = json.getAsJsonObject("changes");
+            if (changesJson != null){
+                DocumentChanges changes = transaction.getLocalChanges();
+                for (Document document:toDocuments(changesJson.getAsJsonArray("added"), storage)) {
+                    changes.addDocument(document);
+                }
+                for (Document document:toDocuments(changesJson.getAsJsonArray("updated"), storage)) {
+                    changes.updateDocument(document);
+                }
+                for (Document document:toDocuments(changesJson.getAsJsonArray("removed"), storage)) {
+                    changes.addRemovedDocument(document);
+                }
+            }
+        }
+        request.setRequestType(requestType);
+        request.setMethodName(json.get("methodName").getAsString());
+        request.setSeed(seed);
+        JsonArray argumentsJson = json.getAsJsonArray("arguments");
+        Object[] arguments = new Object[argumentsJson.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = gson.fromJson(argumentsJson.get(i), Object.class);
+        }
+        request.setAttributes(arguments);
+        request.setContext(new DefaultExecutionContext(storage));
+        return request;
+    }
+
+    /**
+     * @param array json array created by toJson
+     * @param storage storage (for collections of documents)
+     * @return documents
+     * @throws LocalStorageException if collection of document can't be created
+     */
+    private static List<Document> toDocuments(JsonArray array, Storage storage) throws LocalStorageException {
+        List<Document> documents = new ArrayList<>();
+        if (array == null){
+            return documents;
+        }
+        for (JsonElement element:array) {
+            JsonObject documentJson = element.getAsJsonObject();
+            Document document = new Document(storage.getOrCreateCollection(documentJson.get("collection").getAsString()),
+                    documentJson.get("id").getAsString());
+            JsonElement content = documentJson.get("content");
+            document.setContent(content == null || content.isJsonNull() ? null : content.getAsString());
+            documents.add(document);
+        }
+        return documents;
+    }
+}
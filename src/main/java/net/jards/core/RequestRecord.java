@@ -0,0 +1,54 @@
+package net.jards.core;
+
+/**
+ * Record of request log written by LocalStorage. Request sent to remote storage is appended as record with its
+ * data (json created by Storage), confirmation of request is appended as tombstone with id of request.
+ * LocalStorage only stores records in order they came and reads records which are not tombstoned.
+ */
+public class RequestRecord {
+
+    /**
+     * id of request
+     */
+    private final String requestId;
+    /**
+     * true if record marks request as confirmed
+     */
+    private final boolean tombstone;
+    /**
+     * data of request (null for tombstone)
+     */
+    private final String data;
+
+    /**
+     * @param requestId id of request
+     * @param tombstone true if record marks request as confirmed
+     * @param data data of request (null for tombstone)
+     */
+    public RequestRecord(String requestId, boolean tombstone, String data) {
+        this.requestId = requestId;
+        this.tombstone = tombstone;
+        this.data = data;
+    }
+
+    /**
+     * @return id of request
+     */
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return true if record marks request as confirmed
+     */
+    public boolean isTombstone() {
+        return tombstone;
+    }
+
+    /**
+     * @return data of request (null for tombstone)
+     */
+    public String getData() {
+        return data;
+    }
+}
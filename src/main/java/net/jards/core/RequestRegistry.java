@@ -0,0 +1,222 @@
+package net.jards.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of requests which wait for confirmation from remote storage. Requests are indexed by their id
+ * and by id given to them by remote storage, so lookup, state changes and removal don't need to search
+ * queues of Storage.
+ * State of request goes from pending (waiting in queue) to sent (sent to remote storage) to confirmed
+ * (confirmed requests are removed from registry).
+ */
+class RequestRegistry {
+
+    /**
+     * State of registered request.
+     */
+    enum State {
+        Pending,
+        Sent,
+        Confirmed
+    }
+
+    /**
+     * Registered request with its state.
+     */
+    private static final class Entry {
+        /**
+         * registered request
+         */
+        final ExecutionRequest request;
+        /**
+         * state of request
+         */
+        State state = State.Pending;
+        /**
+         * true if overlay of speculation was added to result sets
+         */
+        boolean speculationAdded = false;
+        /**
+         * remote calls id under which request is indexed (0 if it is not indexed)
+         */
+        int remoteCallsId = 0;
+
+        Entry(ExecutionRequest request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * registered requests, key is id of request
+     */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * registered requests, key is id given by remote storage
+     */
+    private final ConcurrentHashMap<Integer, Entry> entriesByRemoteCallsId = new ConcurrentHashMap<>();
+
+    /**
+     * Registers request as pending. Request registered again (ie. unsubscribe with request of subscription)
+     * starts as pending again.
+     * @param request request that will be sent to remote storage
+     */
+    void register(ExecutionRequest request) {
+        Entry old = entries.put(request.getId(), new Entry(request));
+        if (old != null && old.remoteCallsId != 0){
+            entriesByRemoteCallsId.remove(old.remoteCallsId, old);
+        }
+    }
+
+    /**
+     * @param request request to check
+     * @return true if request was confirmed (or is not registered at all)
+     */
+    boolean isConfirmed(ExecutionRequest request) {
+        Entry entry = entries.get(request.getId());
+        if (entry == null){
+            return true;
+        }
+        synchronized (entry){
+            return entry.state == State.Confirmed;
+        }
+    }
+
+    /**
+     * Marks request as sent to remote storage.
+     * @param request sent request
+     */
+    void markSent(ExecutionRequest request) {
+        Entry entry = entries.get(request.getId());
+        if (entry == null){
+            return;
+        }
+        synchronized (entry){
+            if (entry.state == State.Pending){
+                entry.state = State.Sent;
+            }
+        }
+    }
+
+    /**
+     * Indexes request by its remote calls id (call after remote storage has set it).
+     * @param request sent request
+     */
+    void indexRemoteCallsId(ExecutionRequest request) {
+        Entry entry = entries.get(request.getId());
+        if (entry == null || request.getRemoteCallsId() == 0){
+            return;
+        }
+        synchronized (entry){
+            if (entry.state == State.Confirmed){
+                return;
+            }
+            if (entry.remoteCallsId != 0){
+                entriesByRemoteCallsId.remove(entry.remoteCallsId, entry);
+            }
+            entry.remoteCallsId = request.getRemoteCallsId();
+            entriesByRemoteCallsId.put(entry.remoteCallsId, entry);
+        }
+    }
+
+    /**
+     * Marks that overlay of request's speculation was added to result sets.
+     * @param request call with executed speculation
+     * @return false if request was confirmed already (overlay has to be removed by caller), else true
+     */
+    boolean markSpeculationAdded(ExecutionRequest request) {
+        Entry entry = entries.get(request.getId());
+        if (entry == null){
+            return false;
+        }
+        synchronized (entry){
+            if (entry.state == State.Confirmed){
+                return false;
+            }
+            entry.speculationAdded = true;
+            return true;
+        }
+    }
+
+    /**
+     * Confirms request and removes it from registry.
+     * @param request confirmed request
+     * @return true if overlay of request's speculation was added (and has to be removed by caller)
+     */
+    boolean confirm(ExecutionRequest request) {
+        Entry entry = entries.get(request.getId());
+        if (entry == null){
+            return false;
+        }
+        synchronized (entry){
+            entry.state = State.Confirmed;
+            entries.remove(request.getId(), entry);
+            if (entry.remoteCallsId != 0){
+                entriesByRemoteCallsId.remove(entry.remoteCallsId, entry);
+            }
+            return entry.speculationAdded;
+        }
+    }
+
+    /**
+     * @param remoteCallsId id given to request by remote storage
+     * @return registered request with given id or null
+     */
+    ExecutionRequest getByRemoteCallsId(int remoteCallsId) {
+        Entry entry = entriesByRemoteCallsId.get(remoteCallsId);
+        return entry == null ? null : entry.request;
+    }
+
+    /**
+     * @return requests sent to remote storage and not confirmed yet, in order they were created
+     */
+    List<ExecutionRequest> getSentRequests() {
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (Entry entry:entries.values()) {
+            synchronized (entry){
+                if (entry.state == State.Sent){
+                    requests.add(entry.request);
+                }
+            }
+        }
+        requests.sort(Comparator.comparingLong(ExecutionRequest::getSequence));
+        return requests;
+    }
+
+    /**
+     * @return all registered (not confirmed) requests, in order they were created
+     */
+    List<ExecutionRequest> getUnconfirmedRequests() {
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (Entry entry:entries.values()) {
+            requests.add(entry.request);
+        }
+        requests.sort(Comparator.comparingLong(ExecutionRequest::getSequence));
+        return requests;
+    }
+
+    /**
+     * @return unconfirmed calls with speculation added to result sets, in order they were created
+     */
+    List<ExecutionRequest> getSpeculatedRequests() {
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (Entry entry:entries.values()) {
+            synchronized (entry){
+                if (entry.speculationAdded && entry.state != State.Confirmed){
+                    requests.add(entry.request);
+                }
+            }
+        }
+        requests.sort(Comparator.comparingLong(ExecutionRequest::getSequence));
+        return requests;
+    }
+
+    /**
+     * @return number of registered (pending and sent) requests
+     */
+    int size() {
+        return entries.size();
+    }
+}
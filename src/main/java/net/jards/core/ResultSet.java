@@ -1,9 +1,14 @@
 package net.jards.core;
 
+import net.jards.errors.LocalStorageException;
 import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
 import rx.subjects.PublishSubject;
+import rx.subjects.UnicastSubject;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static net.jards.core.ResultSet.DocumentChange.ChangeType.*;
 
@@ -13,16 +18,11 @@ import static net.jards.core.ResultSet.DocumentChange.ChangeType.*;
 public class ResultSet {
 
     /**
-     * checked to true if some documents changed in this result set after some operation
-     */
-    private boolean newResult;
-
-    /**
-     * Listener for changes only. (Not finished implementation yet.)
+     * Listener for changes only (added, updated and removed documents of result after each change).
      */
     public interface ChangeListener {
         /**
-         * @param change changed documents that can be used
+         * @param change changed documents of this result (delta), not whole result
          */
         void resultChanged(DocumentChanges change);
 	}
@@ -74,23 +74,56 @@ public class ResultSet {
      * predicate filtering this result
      */
     private final Predicate predicate;
+    /**
+     * compiled predicate used to match every document of changes
+     */
+    private final PredicateEvaluator predicateEvaluator;
     /**
      * collection that created this result
      */
     private final Collection collection;
     /**
-     * Options for result. (Not used here yet.)
+     * options for result (order and limit), can be null
      */
     private final ResultOptions resultOptions;
+    /**
+     * order of documents given by result options, null if documents are in order they came
+     */
+    private final DocumentOrder order;
+    /**
+     * maximal number of documents in result, 0 for no limit
+     */
+    private final int limit;
 
     /**
-     * source documents (from database, permanent changes)
+     * source documents (from database, permanent changes), key is id of document
+     */
+    private LinkedHashMap<String, Document> sourceDocuments = new LinkedHashMap<>();
+    /**
+     * final documents, result of source documents + overlays (indexed by id, in order), only first limit documents
+     */
+    private OrderedDocuments finalDocuments;
+    /**
+     * final documents over limit (in order), first of them replaces document removed from final documents
+     */
+    private OrderedDocuments spilledDocuments;
+    /**
+     * true if source documents were read with limit and local storage can have more documents
      */
-    private List<Document> sourceDocuments = new ArrayList<>();
+    private boolean sourceTruncated = false;
     /**
-     * final list of documents, result of source documents + overlays
+     * key of last document read from local storage if source is truncated, documents after it are not in result
+     * (there can be documents in local storage before them), null if there is no such boundary
      */
-    private List<Document> finalDocuments = new ArrayList<>();
+    private Object[] sourceBoundary = null;
+    /**
+     * positions (sequence numbers) of documents in source documents or overlays, key is id of document
+     */
+    private final HashMap<String, Long> sequences = new HashMap<>();
+    /**
+     * sequence number for next new document
+     */
+    private long nextSequence = 0;
 
     /**
      * map containing ordered overlays with documents
@@ -118,6 +151,10 @@ public class ResultSet {
      * RxObservables waiting for new changes
      */
     private final List<PublishSubject<DocumentList>> rxObservablesListening = new LinkedList<>();
+    /**
+     * RxObservables waiting for changes only (deltas)
+     */
+    private final List<UnicastSubject<DocumentChanges>> rxChangesListening = new LinkedList<>();
 
     /**
      * Constructor for result set with needed options, settings.
@@ -127,71 +164,243 @@ public class ResultSet {
      */
     public ResultSet(Predicate predicate, Collection collection, ResultOptions resultOptions) {
         this.predicate = predicate;
+        this.predicateEvaluator = PredicateEvaluator.compile(predicate);
         this.collection = collection;
         this.resultOptions = resultOptions;
+        this.order = DocumentOrder.create(resultOptions);
+        this.limit = resultOptions == null ? 0 : Math.max(resultOptions.getLimit(), 0);
+        this.finalDocuments = new OrderedDocuments(order);
+        this.spilledDocuments = new OrderedDocuments(order);
     }
 
     /**
      * Sets source documents of this result.
-     * @param documents new list used as source documents
+     * @param documents new list used as source documents (read from local storage with result options)
      */
-    void setResult(List<Document> documents){
-        this.sourceDocuments = new ArrayList<>();
+    synchronized void setResult(List<Document> documents){
+        Set<String> changedIds = new LinkedHashSet<>(finalDocuments.ids());
+        changedIds.addAll(spilledDocuments.ids());
+        this.sourceDocuments = new LinkedHashMap<>();
         for (Document document:documents) {
             if (matchDocument(document)){
-                this.sourceDocuments.add(document);
+                this.sourceDocuments.put(document.getId(), document);
             }
         }
-        newResult = true;
-        updateFinalDocuments();
+        setSourceBoundary(documents, limit);
+        changedIds.addAll(sourceDocuments.keySet());
+        changedIds.addAll(lastChanges.keySet());
+        updateFinalDocuments(changedIds, sourceDocuments.keySet());
     }
 
     /**
-     * Looking at source docs and overlays creates final documents and updates listeners and RxObservable
+     * Remembers whether documents read from local storage could be cut by limit and where.
+     * @param documents documents read from local storage
+     * @param readLimit limit used to read documents
      */
-    private void updateFinalDocuments(){
-        //create newFinalDocuments (newFD)
-        List<Document> newFinalDocuments = new ArrayList<>();
-        //loop through source docs, check if lastChanges contains doc:
-        //   if contains - do not add to newFD
-        //   if not contains - add to newFD
-        for (Document document: sourceDocuments){
-            if (!lastChanges.containsKey(document.getId())){
-                newResult = true;
-                newFinalDocuments.add(document);
-            }
+    private void setSourceBoundary(List<Document> documents, int readLimit){
+        sourceTruncated = readLimit > 0 && documents.size() >= readLimit;
+        sourceBoundary = null;
+        if (!sourceTruncated || order == null){
+            return;
         }
-        //loop through lastChanges, if added or changed doc, add it to newFD
-        for (DocumentChange documentChange : lastChanges.values()){
-            if (documentChange.type != REMOVE){
-                newFinalDocuments.add(documentChange.document);
+        //documents don't have to be ordered (order could be done only here), use biggest key
+        for (Document document:documents) {
+            Object[] key = order.key(document);
+            if (sourceBoundary == null || order.compare(key, sourceBoundary) > 0){
+                sourceBoundary = key;
             }
         }
-        //TODO order by ?
-        //set newFD to new result
-        finalDocuments = newFinalDocuments;
+    }
+
+    /**
+     * Looking at source docs and overlays updates final documents of given ids and updates listeners
+     * and RxObservable with delta (only if something changed).
+     * @param changedIds ids of documents which could change
+     * @param updatedIds ids of documents which were updated (reported as updated even if it is same document object)
+     */
+    private void updateFinalDocuments(Set<String> changedIds, Set<String> updatedIds){
+        DocumentChanges delta = new DocumentChanges();
+        for (String id : changedIds){
+            updateFinalDocument(id, updatedIds.contains(id), delta);
+        }
+        //result has less documents than limit, but local storage can have more
+        if (limit > 0 && sourceTruncated && finalDocuments.size() < limit && spilledDocuments.size() == 0){
+            refillSourceDocuments(delta);
+        }
         //apply changes to listeners, if something changed
-        if (newResult){
-            for (ActualDocumentsListener listener:this.actualDocumentsListeners) {
-                if (listener!= null){
-                    listener.resultChanged(new DocumentList(finalDocuments));
-                }
+        if (!delta.isEmpty()){
+            resultChanged(delta);
+        }
+    }
+
+    /**
+     * Updates one final document from source docs and overlays.
+     * @param id id of document
+     * @param updated true if document has to be reported as updated even if it is same document object
+     * @param delta changes of final documents, change of this document is merged into it
+     */
+    private void updateFinalDocument(String id, boolean updated, DocumentChanges delta){
+        //overlays (lastChanges) have priority over source documents
+        Document document;
+        DocumentChange documentChange = lastChanges.get(id);
+        if (documentChange != null){
+            document = documentChange.type == REMOVE ? null : documentChange.document;
+        } else {
+            document = sourceDocuments.get(id);
+        }
+        if (document == null){
+            removeFinalDocument(id, delta);
+            //position is kept while document is in source (overlay can remove and return it)
+            if (!sourceDocuments.containsKey(id) && documentChange == null){
+                sequences.remove(id);
             }
-            for (PublishSubject<DocumentList> observable : this.rxObservablesListening){
-                try {
-                    observable.onNext(getDocuments());
-                } catch (Exception e){
-                    observable.onError(e);
+            return;
+        }
+        if (sourceBoundary != null && order.compare(order.key(document), sourceBoundary) > 0){
+            //document is after documents read from local storage, its position is not known
+            removeFinalDocument(id, delta);
+            return;
+        }
+        Long sequence = sequences.get(id);
+        if (sequence == null){
+            sequence = nextSequence++;
+            sequences.put(id, sequence);
+        }
+        putFinalDocument(document, sequence, updated, delta);
+    }
+
+    /**
+     * Puts document to final documents on its position. If there are more documents than limit, last one
+     * is moved to spilled documents.
+     * @param document document to put
+     * @param sequence sequence number of document
+     * @param updated true if document has to be reported as updated even if it is same document object
+     * @param delta changes of final documents
+     */
+    private void putFinalDocument(Document document, long sequence, boolean updated, DocumentChanges delta){
+        Document replaced = finalDocuments.put(document, sequence);
+        if (replaced == null){
+            spilledDocuments.remove(document.getId());
+        }
+        if (limit > 0 && finalDocuments.size() > limit){
+            Document last = finalDocuments.last();
+            finalDocuments.remove(last.getId());
+            spilledDocuments.put(last, sequences.get(last.getId()));
+            if (last == document){
+                //document is over limit
+                if (replaced != null){
+                    delta.mergeRemovedDocument(replaced);
                 }
+                return;
+            }
+            delta.mergeRemovedDocument(last);
+        }
+        if (replaced == null){
+            delta.mergeAddedDocument(document);
+        } else if (replaced != document || updated){
+            delta.mergeUpdatedDocument(document);
+        }
+    }
+
+    /**
+     * Removes document from final (or spilled) documents. First spilled document takes place of removed one.
+     * @param id id of document to remove
+     * @param delta changes of final documents
+     */
+    private void removeFinalDocument(String id, DocumentChanges delta){
+        Document removed = finalDocuments.remove(id);
+        if (removed == null){
+            spilledDocuments.remove(id);
+            return;
+        }
+        delta.mergeRemovedDocument(removed);
+        Document first = spilledDocuments.first();
+        if (first != null){
+            spilledDocuments.remove(first.getId());
+            finalDocuments.put(first, sequences.get(first.getId()));
+            delta.mergeAddedDocument(first);
+        }
+    }
+
+    /**
+     * Reads source documents from local storage again (with limit), when result has less documents than limit
+     * and there can be other documents in local storage.
+     * @param delta changes of final documents
+     */
+    private void refillSourceDocuments(DocumentChanges delta){
+        ResultOptions options = new ResultOptions();
+        if (resultOptions != null){
+            for (int i = 0; i < resultOptions.getOrderByProperties().size(); i++) {
+                options.addOrderByOption(resultOptions.getOrderByProperties().get(i),
+                        resultOptions.getOrderByType().get(i));
+            }
+        }
+        //overlays can hide some of read documents
+        options.setLimit(limit + lastChanges.size());
+        List<Document> documents;
+        try {
+            documents = collection.findDocuments(predicate, options);
+        } catch (LocalStorageException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (documents == null){
+            return;
+        }
+        Set<String> changedIds = new LinkedHashSet<>(lastChanges.keySet());
+        for (Document document:documents) {
+            if (matchDocument(document) && !sourceDocuments.containsKey(document.getId())){
+                sourceDocuments.put(document.getId(), document);
+            }
+            changedIds.add(document.getId());
+        }
+        changedIds.addAll(sourceDocuments.keySet());
+        setSourceBoundary(documents, options.getLimit());
+        for (String id : changedIds){
+            updateFinalDocument(id, false, delta);
+        }
+    }
+
+    /**
+     * Updates listeners and RxObservables after change of final documents.
+     * @param delta changes of final documents
+     */
+    private void resultChanged(DocumentChanges delta){
+        for (ChangeListener listener:this.changeListeners) {
+            if (listener != null){
+                listener.resultChanged(delta);
+            }
+        }
+        for (UnicastSubject<DocumentChanges> observable : new ArrayList<>(this.rxChangesListening)){
+            try {
+                observable.onNext(delta);
+            } catch (Exception e){
+                observable.onError(e);
+            }
+        }
+        if (actualDocumentsListeners.isEmpty() && rxObservablesListening.isEmpty()){
+            return;
+        }
+        //one list for all listeners, created only if someone listens
+        DocumentList documentList = getDocuments();
+        for (ActualDocumentsListener listener:this.actualDocumentsListeners) {
+            if (listener!= null){
+                listener.resultChanged(documentList);
+            }
+        }
+        for (PublishSubject<DocumentList> observable : this.rxObservablesListening){
+            try {
+                observable.onNext(documentList);
+            } catch (Exception e){
+                observable.onError(e);
             }
-            newResult = false;
         }
     }
 
     /**
 	 * Closes the result sets.
 	 */
-	public void close() {
+	public synchronized void close() {
         for (PublishSubject<DocumentList> observable : this.rxObservablesListening){
             try {
                 observable.onCompleted();
@@ -199,12 +408,20 @@ public class ResultSet {
                 observable.onError(e);
             }
         }
+        for (UnicastSubject<DocumentChanges> observable : new ArrayList<>(this.rxChangesListening)){
+            try {
+                observable.onCompleted();
+            } catch (Exception e){
+                observable.onError(e);
+            }
+        }
+        rxChangesListening.clear();
         sourceDocuments = null;
         finalDocuments = null;
+        spilledDocuments = null;
         rxObservablesListening.clear();
         changeListeners.clear();
         actualDocumentsListeners.clear();
-        newResult = false;
         closed = true;
 	}
 
@@ -218,14 +435,14 @@ public class ResultSet {
     /**
      * @return simple list of documents
      */
-    public DocumentList getDocuments() {
-		return new DocumentList(finalDocuments);
+    public synchronized DocumentList getDocuments() {
+		return new DocumentList(finalDocuments.toList());
 	}
 
     /**
      * @return RxObservable that updates each time changes are made to this result set, uses result documents list
      */
-    public Observable<DocumentList> getAsRxList() {
+    public synchronized Observable<DocumentList> getAsRxList() {
         PublishSubject<DocumentList> subject = PublishSubject.create();
         rxObservablesListening.add(subject);
         try {
@@ -237,17 +454,66 @@ public class ResultSet {
 	}
 
     /**
+     * Returns RxObservable with changes only, observed on computation scheduler (see getAsRxChanges(Scheduler)).
      * @return RxObservable that updates each time changes are made to this result set, uses only changes
      */
     public Observable<DocumentChanges> getAsRxChanges() {
-		return null;
+        return getAsRxChanges(Schedulers.computation());
+    }
+
+    /**
+     * Returns RxObservable with changes only. First item has all actual documents as added documents,
+     * then every change of result emits added, updated and removed documents of that change. Actual
+     * documents are read when observer subscribes (every subscription gets own first item), changes made
+     * after that are buffered until observer takes them. Observer gets items on given scheduler, so slow
+     * observer doesn't block threads of Storage which change result set.
+     * @param scheduler scheduler on which observer gets changes
+     * @return RxObservable that updates each time changes are made to this result set, uses only changes
+     */
+    public Observable<DocumentChanges> getAsRxChanges(Scheduler scheduler) {
+        return Observable.defer(() -> {
+            synchronized (this) {
+                //actual documents and registration at same time, so no change is lost or emitted twice
+                UnicastSubject<DocumentChanges> subject = UnicastSubject.create();
+                DocumentChanges actualDocuments = new DocumentChanges();
+                actualDocuments.addDocuments(finalDocuments.toList());
+                subject.onNext(actualDocuments);
+                rxChangesListening.add(subject);
+                return subject.doOnUnsubscribe(() -> {
+                    synchronized (this) {
+                        rxChangesListening.remove(subject);
+                    }
+                });
+            }
+        }).observeOn(scheduler);
 	}
 
+    /**
+     * Returns RxObservable with changes only, changes made in one window are merged into one item
+     * (document added and removed in same window is not emitted at all). Windows without changes
+     * are not emitted. Use it for collections with many changes.
+     * @param window length of coalescing window
+     * @param unit time unit of window
+     * @return RxObservable that emits merged changes of this result set once per window
+     */
+    public Observable<DocumentChanges> getAsRxChanges(long window, TimeUnit unit) {
+        return getAsRxChanges()
+                .buffer(window, unit)
+                .filter(changesList -> !changesList.isEmpty())
+                .map(changesList -> {
+                    DocumentChanges merged = new DocumentChanges();
+                    changesList.forEach(merged::mergeChanges);
+                    return merged;
+                })
+                .filter(merged -> !merged.isEmpty())
+                .onBackpressureBuffer();
+    }
+
     /**
      * Adds change listener
      * @param listener listener to listen for changes of this result set
      */
-    public void addChangeListener(ChangeListener listener) {
+    public synchronized void addChangeListener(ChangeListener listener) {
         this.changeListeners.add(listener);
 	}
 
@@ -255,7 +521,7 @@ public class ResultSet {
      * Removes change listener
      * @param listener listener to remove
      */
-    public void removeChangeListener(ChangeListener listener) {
+    public synchronized void removeChangeListener(ChangeListener listener) {
         this.changeListeners.remove(listener);
 	}
 
@@ -263,58 +529,63 @@ public class ResultSet {
      * Adds actual documents listener
      * @param listener listener that listens for actual documents list
      */
-    public void addActualDocumentsListener(ActualDocumentsListener listener) {
+    public synchronized void addActualDocumentsListener(ActualDocumentsListener listener) {
         this.actualDocumentsListeners.add(listener);
-        listener.resultChanged(new DocumentList(finalDocuments));
+        listener.resultChanged(getDocuments());
     }
 
     /**
      * Remove actual documents listener
      * @param listener specified listener
      */
-    public void removeActualDocumentsListener(ActualDocumentsListener listener) {
+    public synchronized void removeActualDocumentsListener(ActualDocumentsListener listener) {
         this.actualDocumentsListeners.remove(listener);
     }
 
     /**
      * Applies changes to this result set. Actualizes source documents based on given documents.
+     * Only changed documents are updated in final documents.
      * @param documentChanges changes to apply to this result set
      */
-    public void applyChanges(DocumentChanges documentChanges){
+    public synchronized void applyChanges(DocumentChanges documentChanges){
+        Set<String> changedIds = new LinkedHashSet<>();
+        Set<String> updatedIds = new HashSet<>();
         //add documents from document changes
         for (Document document: documentChanges.getAddedDocuments()){
             if (matchDocument(document)){
-                newResult = true;
-                sourceDocuments.add(document);
+                sourceDocuments.put(document.getId(), document);
                 //remove document from overlays
                 removeFromOverlays(document);
+                changedIds.add(document.getId());
             }
         }
-        //update documents..
+        //update documents (document which doesn't match anymore is removed)
         for (Document document : documentChanges.getUpdatedDocuments()) {
+            if (!isFromCollection(document)){
+                continue;
+            }
             if (matchDocument(document)){
-                for (int i = 0; i < this.sourceDocuments.size(); i++) {
-                    if (sourceDocuments.get(i).getId().equals(document.getId())){
-                        newResult = true;
-                        sourceDocuments.set(i, document);
-                    }
-                }
-                //remove document from overlays
-                removeFromOverlays(document);
+                sourceDocuments.put(document.getId(), document);
+            } else {
+                sourceDocuments.remove(document.getId());
             }
+            //remove document from overlays
+            removeFromOverlays(document);
+            changedIds.add(document.getId());
+            updatedIds.add(document.getId());
         }
         //remove documents
         for (Document document : documentChanges.getRemovedDocuments()) {
-            if (matchDocument(document)){
-                newResult = true;
-                sourceDocuments.removeIf(doc -> doc.getId().equals(document.getId()));
+            if (isFromCollection(document)){
+                sourceDocuments.remove(document.getId());
                 //remove document from overlays
                 removeFromOverlays(document);
+                changedIds.add(document.getId());
             }
         }
 
         //update final documents
-        updateFinalDocuments();
+        updateFinalDocuments(changedIds, updatedIds);
     }
 
     /**
@@ -332,7 +603,7 @@ public class ResultSet {
      * Adds overlay to this result set.
      * @param changes overlay changes
      */
-    void addOverlayWithChanges(DocumentChanges changes){
+    synchronized void addOverlayWithChanges(DocumentChanges changes){
         //create relevant changes for this result set
         DocumentChanges relevantChanges = new DocumentChanges();
         for (Document document:changes.getAddedDocuments()){
@@ -353,71 +624,84 @@ public class ResultSet {
         //add these changes to overlay
         this.overlaysWithChanges.put(changes, relevantChanges);
         //update lastChanges
-        updateOverlayChangesWithOverlay(changes, relevantChanges);
+        Set<String> changedIds = new LinkedHashSet<>();
+        Set<String> updatedIds = new HashSet<>();
+        updateOverlayChangesWithOverlay(changes, relevantChanges, changedIds, updatedIds);
         //update final documents with actual data
-        updateFinalDocuments();
+        updateFinalDocuments(changedIds, updatedIds);
     }
 
     /**
      * Method to remove overlay.
      * @param changes overlay changes to remove
      */
-    void removeOverlayWithChanges(DocumentChanges changes){
+    synchronized void removeOverlayWithChanges(DocumentChanges changes){
         //remove this change
-        overlaysWithChanges.remove(changes);
-        //recreate lastChanges
+        if (overlaysWithChanges.remove(changes) == null){
+            return;
+        }
+        //recreate lastChanges, documents from old and new lastChanges could change
+        Set<String> changedIds = new LinkedHashSet<>(lastChanges.keySet());
         lastChanges = new LinkedHashMap<>();
+        Set<String> updatedIds = new HashSet<>();
         for(Map.Entry<DocumentChanges, DocumentChanges> entry : overlaysWithChanges.entrySet()){
-            updateOverlayChangesWithOverlay(entry.getKey(), entry.getValue());
+            updateOverlayChangesWithOverlay(entry.getKey(), entry.getValue(), changedIds, updatedIds);
         }
         //update final documents with actual data
-        updateFinalDocuments();
+        updateFinalDocuments(changedIds, updatedIds);
     }
 
     /**
      * Method to update final changes (overlays result) with another overlay.
      * @param changes original overlay changes
      * @param relevantChanges only relevant changes for this result set
+     * @param changedIds set where ids of changed documents are added
+     * @param updatedIds set where ids of updated documents are added
      */
-    private void updateOverlayChangesWithOverlay(DocumentChanges changes, DocumentChanges relevantChanges){
+    private void updateOverlayChangesWithOverlay(DocumentChanges changes, DocumentChanges relevantChanges,
+                                                 Set<String> changedIds, Set<String> updatedIds){
         //add all relevant added documents that are not used yet
         for (Document document : relevantChanges.getAddedDocuments()){
-            newResult = true;
+            changedIds.add(document.getId());
             lastChanges.put(document.getId(), new DocumentChange(ADD, document));
         }
         //update - all changes for this collection (remove those), relevant changes (update those)
         for (Document document : changes.getUpdatedDocuments()){
-            if (this.collection.getName().equals(document.getCollection().getName())){
-                newResult = true;
+            if (isFromCollection(document)){
+                changedIds.add(document.getId());
                 lastChanges.put(document.getId(), new DocumentChange(REMOVE, document));
             }
         }
         for (Document document : relevantChanges.getUpdatedDocuments()){
-            newResult = true;
+            updatedIds.add(document.getId());
             lastChanges.put(document.getId(), new DocumentChange(UPDATE, document));
         }
         //remove
         for (Document document : relevantChanges.getRemovedDocuments()){
-            newResult = true;
+            changedIds.add(document.getId());
             lastChanges.put(document.getId(), new DocumentChange(REMOVE, document));
         }
     }
 
+    /**
+     * @param document document to check
+     * @return true if document belongs to collection of this result set
+     */
+    private boolean isFromCollection(Document document){
+        return this.collection.getName().equals(document.getCollection().getName());
+    }
+
     /**
      * Method to filter documents with this result set's predicate.
      * @param document document that will be matched
      * @return true if given document matches this result set's predicate, else false
      */
     private boolean matchDocument(Document document){
-        if (predicate == null){
-            return this.collection.getName().equals(document.getCollection().getName());
-        }
-
         if (!collection.getName().equals(document.getCollection().getName())){
             return false;
         }
 
-        return predicate.match(document);
+        return predicateEvaluator.match(document);
     }
 
     /**
@@ -430,10 +714,12 @@ public class ResultSet {
     /**
      * Resets source documents of this result set. (Can be used when user subscribes with some RemoteStorage implementations.)
      */
-    public void invalidateSourceDocuments() {
-        this.sourceDocuments = new ArrayList<>();
-        newResult = true;
-        updateFinalDocuments();
+    public synchronized void invalidateSourceDocuments() {
+        Set<String> changedIds = new LinkedHashSet<>(sourceDocuments.keySet());
+        this.sourceDocuments = new LinkedHashMap<>();
+        sourceTruncated = false;
+        sourceBoundary = null;
+        updateFinalDocuments(changedIds, Collections.emptySet());
     }
 
 }
@@ -2,8 +2,17 @@ package net.jards.core;
 
 import net.jards.errors.LocalStorageException;
 import net.jards.errors.RemoteStorageError;
+import net.jards.metrics.Counter;
+import net.jards.metrics.Histogram;
+import net.jards.metrics.MetricsRegistry;
+import net.jards.metrics.MetricsSnapshot;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
 
 import static net.jards.core.Connection.STATE.*;
 import static net.jards.core.ExecutionRequest.RequestType.*;
@@ -17,165 +26,631 @@ import static net.jards.core.StorageSetup.RemoteLoginType.DemandLogin;
 public class Storage {
 
     /**
-     * Class that executes local storage oriented requests from storage.
+     * Class that executes local storage oriented requests from storage (runs in thread from executor of Storage).
      */
-    private class RequestsLocalHandlingThread extends Thread {
+    private class RequestsLocalHandlingLoop implements Runnable {
+
+        /**
+         * name of savepoint set before every request of group
+         */
+        private static final String REQUEST_SAVEPOINT = "request";
+
+        /**
+         * requests waiting for their collections or for idle lane, in order they were created (write lanes only)
+         */
+        private final LinkedList<ExecutionRequest> waitingRequests = new LinkedList<>();
+        /**
+         * requests executed by lanes now and their lanes
+         */
+        private final Map<ExecutionRequest, RequestsLaneLoop> laneRequests = new HashMap<>();
+        /**
+         * collections of requests executed by lanes now (value is number of such requests)
+         */
+        private final Map<String, Integer> laneCollections = new HashMap<>();
+        /**
+         * lanes without request
+         */
+        private final Deque<RequestsLaneLoop> idleLanes = new ArrayDeque<>();
+
 		@Override
 		public void run() {
 
 			//Set this thread, so program can check and don't allow transactions in another.
 			setThreadForLocalDBRuns(Thread.currentThread());
+            idleLanes.addAll(lanes);
 
 			while (running) {
-                //remote changes are written first (if there are some)
-                synchronized (remoteChanges) {
-                    if (!remoteChanges.isEmpty()){
-                        while (!remoteChanges.isEmpty()){
-                            //add all of document changes that came from server (in order)
-                            UpdateDbRequest updateDbRequest = remoteChanges.poll();
-                            try {
-                                if (updateDbRequest.isInvalidateCollection()){
-                                    String collection = updateDbRequest.getCollectionName();
-                                    invalidateCollection(collection);
-                                    invalidateOpenedResultSets(collection);
-                                } else {
-                                    DocumentChanges changes = updateDbRequest.getDocumentChanges();
-                                    localStorage.applyDocumentChanges(changes);
-                                    //next line - overwrite overlay changes with server data or not?
-                                    //applyChangesOnUnconfirmedRequests(changes);
-                                    applyChangesOnOpenedResultSets(changes);
-                                }
-                            } catch (LocalStorageException e) {
-                                System.out.println("ERROR: " + e.toString());
-                            }
-                        }
+                //request log and remote changes use local storage transaction, lanes finish transactions they
+                //execute and don't start new ones meanwhile
+                if (requestLog.hasUnwrittenRecords() || !remoteChanges.isEmpty()){
+                    localStorageLock.writeLock().lock();
+                    try {
+                        //requests sent to remote storage and confirmations are written to request log
+                        flushRequestLog();
+                        //remote changes are written first (if there are some)
+                        applyRemoteChanges();
+                    } finally {
+                        localStorageLock.writeLock().unlock();
+                    }
+                }
+                //execute pending requests (more of them together if group commit is enabled), with write lanes
+                //only requests without declared collections are executed here
+                List<ExecutionRequest> executionRequests = lanes.isEmpty() ? pollPendingRequestsLocal()
+                        : scheduleLaneRequests();
+                if (executionRequests.isEmpty()){
+                    continue;
+                }
+                localStorageLock.writeLock().lock();
+                try {
+                    if (executionRequests.size() == 1){
+                        executeLocalRequest(executionRequests.get(0));
+                    } else {
+                        executeLocalRequestsGroup(executionRequests);
+                    }
+                } finally {
+                    localStorageLock.writeLock().unlock();
+                }
+			}
+            //write rest of request log before local storage stops (after lanes finished their requests)
+            localStorageLock.writeLock().lock();
+            try {
+                flushRequestLog();
+            } finally {
+                localStorageLock.writeLock().unlock();
+            }
+		}
+
+        /**
+         * Writes all document changes that came from server (in order) and updates opened result sets.
+         */
+        private void applyRemoteChanges() {
+            UpdateDbRequest updateDbRequest;
+            while ((updateDbRequest = remoteChanges.poll()) != null){
+                remoteChangesWait.recordSince(updateDbRequest.getQueuedAt());
+                try {
+                    if (updateDbRequest.isInvalidateCollection()){
+                        String collection = updateDbRequest.getCollectionName();
+                        invalidateCollection(collection);
+                        invalidateOpenedResultSets(collection);
+                    } else {
+                        DocumentChanges changes = updateDbRequest.getDocumentChanges();
+                        localStorage.applyDocumentChanges(changes);
+                        //delta of document which is not stored has nothing to merge with, document isn't whole
+                        changes.removeUnmergedFieldDeltas();
+                        //next line - overwrite overlay changes with server data or not?
+                        //applyChangesOnUnconfirmedRequests(changes);
+                        applyChangesOnOpenedResultSets(changes);
+                    }
+                } catch (LocalStorageException e) {
+                    System.out.println("ERROR: " + e.toString());
+                }
+            }
+        }
+
+        /**
+         * Schedules pending requests to write lanes. Request with declared collections starts in idle lane
+         * if no request executed by lanes or waiting before it uses any of its collections. Request without
+         * declared collections waits until all requests before it are done and blocks all requests after it,
+         * it is returned for execution in this thread (with following ones up to group commit batch size).
+         * Waits if nothing can be started.
+         * @return requests without declared collections to execute in this thread, empty list if there are none
+         */
+        private List<ExecutionRequest> scheduleLaneRequests() {
+            //release collections of requests finished by lanes
+            ExecutionRequest finishedRequest;
+            while ((finishedRequest = finishedLaneRequests.poll()) != null){
+                idleLanes.add(laneRequests.remove(finishedRequest));
+                for (String collection:finishedRequest.getTransaction().getCollections()) {
+                    if (laneCollections.merge(collection, -1, Integer::sum) == 0){
+                        laneCollections.remove(collection);
                     }
                 }
-                //execute pending requests
-				ExecutionRequest executionRequest = null;
-				synchronized (pendingRequestsLocal) {
-                    if (pendingRequestsLocal.isEmpty() /*&& running*/){
-                        try {
-                            pendingRequestsLocal.wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+            }
+            ExecutionRequest pendingRequest;
+            while ((pendingRequest = pendingRequestsLocal.poll()) != null){
+                pendingLocalWait.recordSince(pendingRequest.getLocalQueuedAt());
+                //server confirmed call before speculation was run, skip speculation
+                if (!pendingRequest.isCall() || !requestRegistry.isConfirmed(pendingRequest)){
+                    waitingRequests.add(pendingRequest);
+                }
+            }
+
+            List<ExecutionRequest> localRequests = new ArrayList<>();
+            boolean started = false;
+            //collections of requests which wait before currently checked one
+            Set<String> blockedCollections = new HashSet<>();
+            Iterator<ExecutionRequest> iterator = waitingRequests.iterator();
+            while (iterator.hasNext()){
+                ExecutionRequest request = iterator.next();
+                if (!isLaneRequest(request)){
+                    if (!laneRequests.isEmpty() || !blockedCollections.isEmpty()
+                            || localRequests.size() >= storageSetup.getGroupCommitMaxBatch()){
+                        break;
+                    }
+                    localRequests.add(request);
+                    iterator.remove();
+                    continue;
+                }
+                if (!localRequests.isEmpty() || idleLanes.isEmpty()){
+                    break;
+                }
+                Set<String> collections = request.getTransaction().getCollections();
+                if (Collections.disjoint(collections, laneCollections.keySet())
+                        && Collections.disjoint(collections, blockedCollections)){
+                    iterator.remove();
+                    for (String collection:collections) {
+                        laneCollections.merge(collection, 1, Integer::sum);
+                    }
+                    RequestsLaneLoop lane = idleLanes.poll();
+                    laneRequests.put(request, lane);
+                    lane.execute(request);
+                    started = true;
+                } else {
+                    blockedCollections.addAll(collections);
+                }
+            }
+            if (localRequests.isEmpty() && !started){
+                //wait for new requests, remote changes or request finished by lane
+                try {
+                    localWorkSignal.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            return localRequests;
+        }
+
+        /**
+         * @param request request from queue of local thread
+         * @return true if request is executed by write lane (execution with declared collections)
+         */
+        private boolean isLaneRequest(ExecutionRequest request) {
+            return (request.isExecute() || request.isExecuteLocally())
+                    && request.getTransaction().getCollections() != null;
+        }
+
+        /**
+         * Writes waiting records of request log to local storage (one transaction for all of them).
+         */
+        private void flushRequestLog() {
+            if (!requestLog.hasUnwrittenRecords()){
+                return;
+            }
+            try {
+                requestLog.flush(localStorage);
+            } catch (LocalStorageException e) {
+                System.out.println("ERROR: " + e.toString());
+            }
+        }
+
+        /**
+         * Takes pending requests for execution. Waits if there are none. Takes up to group commit batch
+         * size of requests, waits for more of them until group commit wait time passes.
+         * @return requests to execute, empty list if there are none (or remote changes came)
+         */
+        private List<ExecutionRequest> pollPendingRequestsLocal() {
+            List<ExecutionRequest> executionRequests = new ArrayList<>();
+            int maxBatch = storageSetup.getGroupCommitMaxBatch();
+            long deadline = System.nanoTime() + storageSetup.getGroupCommitMaxWaitMicros() * 1000;
+            try {
+                while (running && executionRequests.size() < maxBatch) {
+                    ExecutionRequest executionRequest = pendingRequestsLocal.poll();
+                    if (executionRequest != null){
+                        pendingLocalWait.recordSince(executionRequest.getLocalQueuedAt());
+                        //server confirmed call before speculation was run, skip speculation
+                        if (!executionRequest.isCall() || !requestRegistry.isConfirmed(executionRequest)){
+                            executionRequests.add(executionRequest);
                         }
-                    } else{
-                        executionRequest = pendingRequestsLocal.poll();
+                        continue;
                     }
-				}
-				if (executionRequest == null){
-					continue;
-				}
-
-				ExecutionContext context = executionRequest.getContext();
-				Transaction transaction = executionRequest.getTransaction();
-				Object[] arguments = executionRequest.getAttributes();
-				TransactionRunnable runnable = executionRequest.getRunnable();
-                if (runnable != null){
-                    //Executing runnable
-                    runnable.run(context, transaction, arguments);
-                }
-
-                //Update with changes
-				if (executionRequest.isExecuteLocally()){
-                    //only local execution, just execute (that was done already)
-                    DocumentChanges documentChanges = transaction.getLocalChanges();
-                    //next line - mixing execute and call methods
-                    //applyChangesOnUnconfirmedRequests(documentChanges);
-                    applyChangesOnOpenedResultSets(documentChanges);
-                    executionRequest.ready();
-				} else if (executionRequest.isExecute()){
-                    //execute locally, send changes to server and apply them on unconfirmed requests
-                    DocumentChanges documentChanges = transaction.getLocalChanges();
-                    applyChangesOnOpenedResultSets(documentChanges);
-                    synchronized (pendingRequestsRemote){
-                        pendingRequestsRemote.offer(executionRequest);
-                        pendingRequestsRemote.notify();
+                    if (executionRequests.isEmpty()){
+                        //wait for requests or remote changes
+                        localWorkSignal.await();
+                        break;
                     }
-                    //next line - mixing execute and call methods, shouldn't happen
-                    //applyChangesOnUnconfirmedRequests(documentChanges);
-                    executionRequest.ready();
+                    if (!remoteChanges.isEmpty()){
+                        //remote changes came, execute what we have and write them
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !localWorkSignal.await(remaining)){
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            return executionRequests;
+        }
+
+        /**
+         * Executes one request and publishes its changes. Writes of execute (or execute locally) are done in own
+         * local storage transaction. If request fails, its writes are rolled back, nothing is published or sent
+         * to server and request is set failed.
+         * @param executionRequest request to execute
+         */
+        private void executeLocalRequest(ExecutionRequest executionRequest) {
+            long start = transactionTime.startTiming();
+            Throwable error;
+            if (executionRequest.isCall()){
+                //speculations don't write to local storage
+                error = null;
+                try {
+                    runRequest(executionRequest);
+                } catch (RuntimeException e) {
+                    System.out.println("ERROR: speculation of call failed: " + e.toString());
+                    e.printStackTrace();
+                }
+            } else {
+                error = runInLocalStorageTransaction(executionRequest);
+            }
+            transactionTime.recordSince(start);
+            executedTransactions.increment();
+            DocumentChanges documentChanges = executionRequest.getTransaction().getLocalChanges();
+            if (error != null){
+                executionRequest.fail(error);
+                return;
+            }
+            //Update with changes
+            if (executionRequest.isExecuteLocally()){
+                //only local execution, just execute (that was done already)
+                //next line - mixing execute and call methods
+                //applyChangesOnUnconfirmedRequests(documentChanges);
+                applyChangesOnOpenedResultSets(documentChanges);
+                executionRequest.ready();
+            } else if (executionRequest.isExecute()){
+                //execute locally, send changes to server and apply them on unconfirmed requests
+                applyChangesOnOpenedResultSets(documentChanges);
+                //written to request log already
+                queuePendingRequestRemote(executionRequest);
+                //next line - mixing execute and call methods, shouldn't happen
+                //applyChangesOnUnconfirmedRequests(documentChanges);
+                executionRequest.ready();
+            } else if (executionRequest.isCall()){
+                //speculative execution (method called on server), local changes to unconfirmed requests
+                //failed speculation is only local guess, call waits for result from server anyway
+                addSpeculationOverlay(executionRequest);
+            }
+        }
+
+        /**
+         * Runs request, its writes are in own local storage transaction (started by first write). Execute is
+         * written to request log in same transaction. Transaction is committed if request succeeds, else it is
+         * rolled back and local changes of request are cleared.
+         * @param executionRequest execute or execute locally
+         * @return exception thrown by user code or by local storage, null if request succeeded
+         */
+        private Throwable runInLocalStorageTransaction(ExecutionRequest executionRequest) {
+            Transaction transaction = executionRequest.getTransaction();
+            transaction.setOwnLocalStorageTransaction(true);
+            try {
+                runRequest(executionRequest);
+                if (executionRequest.isExecute()){
+                    //execute is in request log with its writes before it is sent to server
+                    requestLog.write(executionRequest, transaction.getLocalStorageForWrite());
+                }
+                if (transaction.isLocalStorageTransactionStarted()){
+                    localStorage.commitTransaction();
+                }
+                return null;
+            } catch (LocalStorageException | RuntimeException e) {
+                System.out.println("ERROR: execution of request failed, its writes are rolled back: " + e.toString());
+                e.printStackTrace();
+                if (transaction.isLocalStorageTransactionStarted()){
+                    localStorage.rollbackTransaction();
+                }
+                transaction.getLocalChanges().clear();
+                return e;
+            } finally {
+                transaction.localStorageTransactionEnded();
+            }
+        }
+
+        /**
+         * Executes group of requests in one local storage transaction. Every execution runs after its own
+         * savepoint, writes of failing request are rolled back to it (other requests of group are not executed
+         * again) and failing request is set failed. Changes of executions are merged and published once to
+         * opened result sets, every successful execute is sent to server as its own request (so it is completed
+         * or failed by its own confirmation). Speculations of calls are added as overlays of each call. If group transaction
+         * can't be committed, whole group is rolled back and all its requests fail.
+         * @param executionRequests requests to execute (in order)
+         */
+        private void executeLocalRequestsGroup(List<ExecutionRequest> executionRequests) {
+            Map<ExecutionRequest, Throwable> errors = new HashMap<>();
+            Throwable groupError = null;
+            long start = transactionTime.startTiming();
+            try {
+                localStorage.beginTransaction();
+                for (ExecutionRequest executionRequest:executionRequests) {
+                    Throwable error = runInSavepoint(executionRequest);
+                    if (error != null){
+                        errors.put(executionRequest, error);
+                    }
+                }
+                localStorage.commitTransaction();
+            } catch (LocalStorageException | RuntimeException e) {
+                System.out.println("ERROR: group of requests failed, it is rolled back: " + e.toString());
+                e.printStackTrace();
+                localStorage.rollbackTransaction();
+                groupError = e;
+            }
+            //one local storage transaction for whole group
+            transactionTime.recordSince(start);
+            executedTransactions.add(executionRequests.size());
+            if (groupError != null){
+                for (ExecutionRequest executionRequest:executionRequests) {
+                    executionRequest.getTransaction().getLocalChanges().clear();
+                    executionRequest.fail(groupError);
+                }
+                return;
+            }
+
+            DocumentChanges mergedChanges = new DocumentChanges();
+            for (ExecutionRequest executionRequest:executionRequests) {
+                if (!errors.containsKey(executionRequest) && !executionRequest.isCall()){
+                    mergedChanges.mergeChanges(executionRequest.getTransaction().getLocalChanges());
+                }
+            }
+            applyChangesOnOpenedResultSets(mergedChanges);
+            for (ExecutionRequest executionRequest:executionRequests) {
+                Throwable error = errors.get(executionRequest);
+                if (error != null){
+                    executionRequest.fail(error);
                 } else if (executionRequest.isCall()){
-                    //speculative execution (method called on server), local changes to unconfirmed requests
-                    DocumentChanges documentChanges = transaction.getLocalChanges();
-                    addOverlayToOpenedResultSets(documentChanges);
-                    synchronized (unconfirmedRequestsLocal){
-                        unconfirmedRequestsLocal.offer(executionRequest);
-                        unconfirmedRequestsLocal.notify();
+                    //speculations don't write to local storage
+                    addSpeculationOverlay(executionRequest);
+                } else {
+                    if (executionRequest.isExecute()){
+                        //written to request log already
+                        queuePendingRequestRemote(executionRequest);
                     }
+                    executionRequest.ready();
                 }
+            }
+        }
 
-			}
-		}
+        /**
+         * Runs request of group after savepoint, execute is written to request log after its writes. If request
+         * fails, its writes are rolled back to savepoint and its local changes are cleared. Failed speculation of call is only printed (call waits for server).
+         * @param executionRequest request from group
+         * @return exception thrown by user code, null if request succeeded (or is call)
+         * @throws LocalStorageException if savepoint can't be set, released or rolled back to
+         */
+        private Throwable runInSavepoint(ExecutionRequest executionRequest) throws LocalStorageException {
+            if (executionRequest.isCall()){
+                try {
+                    runRequest(executionRequest);
+                } catch (RuntimeException e) {
+                    System.out.println("ERROR: speculation of call failed: " + e.toString());
+                    e.printStackTrace();
+                }
+                return null;
+            }
+            localStorage.setSavepoint(REQUEST_SAVEPOINT);
+            try {
+                runRequest(executionRequest);
+            } catch (RuntimeException e) {
+                System.out.println("ERROR: request of group failed, its writes are rolled back: " + e.toString());
+                e.printStackTrace();
+                localStorage.rollbackToSavepoint(REQUEST_SAVEPOINT);
+                executionRequest.getTransaction().getLocalChanges().clear();
+                return e;
+            }
+            if (executionRequest.isExecute()){
+                //execute is in request log with its writes before it is sent to server
+                requestLog.write(executionRequest, localStorage);
+            }
+            localStorage.releaseSavepoint(REQUEST_SAVEPOINT);
+            return null;
+        }
+
+        /**
+         * Adds overlay with changes of call's speculation to opened result sets, if call was not
+         * confirmed meanwhile.
+         * @param executionRequest call with executed speculation
+         */
+        private void addSpeculationOverlay(ExecutionRequest executionRequest) {
+            DocumentChanges documentChanges = executionRequest.getTransaction().getLocalChanges();
+            addOverlayToOpenedResultSets(documentChanges);
+            if (!requestRegistry.markSpeculationAdded(executionRequest)){
+                //confirmation came while overlay was added
+                removeOverlayOfOpenedResultSets(documentChanges);
+            }
+        }
+
+        /**
+         * Runs user code of request with its context, transaction and arguments.
+         * @param executionRequest request to run
+         */
+        private void runRequest(ExecutionRequest executionRequest) {
+            TransactionRunnable runnable = executionRequest.getRunnable();
+            if (runnable != null){
+                //Executing runnable
+                runnable.run(executionRequest.getContext(), executionRequest.getTransaction(),
+                        executionRequest.getAttributes());
+            }
+        }
+    }
+
+    /**
+     * Class that executes requests with declared collections (write lane). Requests are given to it by local
+     * thread, which finds out when they can run. Runs in thread from executor of Storage.
+     * Every request of lane has its own local storage transaction, started by its first write and ended with
+     * request (rolled back if request fails). Local storage has one writer, so lanes run user code in parallel
+     * only until first write; from first write to end of request other lanes wait for writer.
+     */
+    private class RequestsLaneLoop implements Runnable {
+
+        /**
+         * requests given to this lane (at most one)
+         */
+        private final Queue<ExecutionRequest> requests = new ConcurrentLinkedQueue<>();
+        /**
+         * signal to wake up lane (new request or stop)
+         */
+        private final WorkSignal laneWorkSignal = new WorkSignal();
+        /**
+         * thread running this lane (transactions of lane check it)
+         */
+        private volatile Thread thread;
+        /**
+         * completed when lane ends its work
+         */
+        private CompletableFuture<Void> finished;
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (running) {
+                ExecutionRequest request = requests.poll();
+                if (request == null){
+                    try {
+                        laneWorkSignal.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    continue;
+                }
+                localStorageLock.readLock().lock();
+                request.getTransaction().setLaneThread(thread);
+                try {
+                    //executed same way as request in local thread
+                    requestsLocalHandlingLoop.executeLocalRequest(request);
+                } catch (RuntimeException e) {
+                    //ie. exception from listener of result set, lane keeps working and request is set failed
+                    System.out.println("ERROR: write lane failed to execute request: " + e.toString());
+                    e.printStackTrace();
+                    request.fail(e);
+                } finally {
+                    request.getTransaction().setLaneThread(null);
+                    localStorageLock.readLock().unlock();
+                    //local thread releases collections of request
+                    finishedLaneRequests.offer(request);
+                    localWorkSignal.signal();
+                }
+            }
+        }
+
+        /**
+         * @param request request to execute in this lane
+         */
+        void execute(ExecutionRequest request) {
+            requests.offer(request);
+            laneWorkSignal.signal();
+        }
+
+        /**
+         * Wakes up lane (to stop).
+         */
+        void wakeUp() {
+            laneWorkSignal.signal();
+        }
     }
 
     /**
      * Class that executes remote storage oriented requests from system.
      * This class will possibly be part of RemoteStorage in future. (pros and cons on both sides)
+     * Runs in thread from executor of Storage.
      */
-    private class RequestsRemoteHandlingThread extends Thread {
+    private class RequestsRemoteHandlingLoop implements Runnable {
+
+        /**
+         * true if remote storage managing reconnect was started already
+         */
+        private boolean remoteStorageStarted = false;
+
         @Override
         public void run() {
             while (running){
                 //wait if missing remote connection
                 boolean recoveredFromPause = false;
-                while (disconnectedFromRemoteStorage ){
+                if (disconnectedFromRemoteStorage){
+                    recoveredFromPause = true;
+                    waitForConnection();
+                }
+                //connection could break and come back while thread waited for work, requests sent
+                //in that time could be lost too
+                if (connectionLost){
+                    connectionLost = false;
                     recoveredFromPause = true;
-                    //synchronized (connectionLock){
-                        try {
-                            //try to connect
-                            remoteStorage.start(session);
-                            //connectionLock.wait();
-                            Thread.sleep(400);
-                            //System.out.println("trying to connect");
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    //}
                 }
                 //continue - if we want stop work, to check if running is true
                 if (recoveredFromPause){
                     if (!running){
                         break;
                     }
-                    //do requests from unconfirmed queue again  ????????????
-                    synchronized (unconfirmedRequestsRemote){
-                        LinkedList<ExecutionRequest> requests = new LinkedList<>();
-                        while (!unconfirmedRequestsRemote.isEmpty() && running) {
-                            ExecutionRequest request = unconfirmedRequestsRemote.poll();
-                            executeRequest(request);
-                            requests.add(request);
+                    //do requests from unconfirmed queue again (in order they were created)
+                    for (ExecutionRequest request:requestRegistry.getSentRequests()) {
+                        if (!running){
+                            break;
                         }
-                        unconfirmedRequestsRemote.addAll(requests);
-                        unconfirmedRequestsRemote.notify();
+                        executeRequest(request);
+                        //subscription sent again has new id
+                        requestRegistry.indexRemoteCallsId(request);
                     }
                 }
 
                 //read from one queue, do job, put to another
-                ExecutionRequest request;
-                synchronized (pendingRequestsRemote){
-                    while(running && pendingRequestsRemote.isEmpty()){
-                        //wait for some requests
-                        try {
-                            pendingRequestsRemote.wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    request = pendingRequestsRemote.poll();
-                }
-
+                ExecutionRequest request = pendingRequestsRemote.poll();
                 if (request == null){
+                    //wait for some requests (or change of connection)
+                    try {
+                        remoteWorkSignal.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
                     continue;
                 }
 
+                pendingRemoteWait.recordSince(request.getRemoteQueuedAt());
+                //request is sent before it is executed, confirmation can come before executeRequest returns
+                requestRegistry.markSent(request);
                 executeRequest(request);
-                synchronized (unconfirmedRequestsRemote){
-                    unconfirmedRequestsRemote.offer(request);
-                    unconfirmedRequestsRemote.notify();
+                requestRegistry.indexRemoteCallsId(request);
+            }
+        }
+
+        /**
+         * Starts remote storage and waits (without polling) until it is connected or storage stops. Remote
+         * storage which doesn't manage reconnect is started again after backoff; change of connection or
+         * reconnectNow wakes thread up sooner.
+         */
+        private void waitForConnection() {
+            Backoff backoff = storageSetup.getReconnectBackoff();
+            long nextAttempt = System.nanoTime();
+            while (disconnectedFromRemoteStorage && running){
+                try {
+                    if (remoteStorage.managesReconnect()){
+                        if (!remoteStorageStarted){
+                            remoteStorageStarted = true;
+                            remoteStorage.start(session);
+                        }
+                        //remote storage reconnects itself, wait for change of connection
+                        if (disconnectedFromRemoteStorage && running){
+                            remoteWorkSignal.await();
+                        }
+                        continue;
+                    }
+                    if (reconnectRequested){
+                        reconnectRequested = false;
+                        backoff.reset();
+                        nextAttempt = System.nanoTime();
+                    }
+                    long wait = nextAttempt - System.nanoTime();
+                    if (wait <= 0){
+                        //try to connect, next attempt after backoff
+                        remoteStorage.start(session);
+                        nextAttempt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff.nextDelayMillis());
+                        continue;
+                    }
+                    remoteWorkSignal.await(wait);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
                 }
             }
+            if (!disconnectedFromRemoteStorage){
+                backoff.reset();
+            }
         }
 
         private void executeRequest(ExecutionRequest request) {
@@ -215,26 +690,50 @@ public class Storage {
     private final Map<String, TransactionRunnable> speculativeMethods = new HashMap<String, TransactionRunnable>();
 
     /**
-     * queue for pending changes from RemoteStorage
+     * queue for pending changes from RemoteStorage (many producers, local thread consumes)
      */
-    private final Queue<UpdateDbRequest> remoteChanges = new LinkedList<UpdateDbRequest>();
+    private final Queue<UpdateDbRequest> remoteChanges = new ConcurrentLinkedQueue<>();
     /**
-     * queue for pending requests from user (local storage oriented)
+     * queue for pending requests from user (local storage oriented, many producers, local thread consumes)
      */
-    private final Queue<ExecutionRequest> pendingRequestsLocal = new LinkedList<ExecutionRequest>();
+    private final Queue<ExecutionRequest> pendingRequestsLocal = new ConcurrentLinkedQueue<>();
     /**
-     * queue for unconfirmed requests (local storage oriented)
+     * signal to wake up local thread (new pending request or remote changes)
      */
-    private final Queue<ExecutionRequest> unconfirmedRequestsLocal = new LinkedList<ExecutionRequest>();
+    private final WorkSignal localWorkSignal = new WorkSignal();
 
     /**
-     * queue for pending requests from user (remote storage oriented)
+     * queue for pending requests from user (remote storage oriented, many producers, remote thread consumes)
+     */
+    private final Queue<ExecutionRequest> pendingRequestsRemote = new ConcurrentLinkedQueue<>();
+    /**
+     * registry of requests sent (or waiting to be sent) to remote storage and not confirmed yet
      */
-    private final Queue<ExecutionRequest> pendingRequestsRemote = new LinkedList<ExecutionRequest>();
+    private final RequestRegistry requestRegistry = new RequestRegistry();
     /**
-     * queue for unconfirmed requests (remote storage oriented)
+     * log of requests sent to remote storage and not confirmed yet (persisted by local thread)
      */
-    private final Queue<ExecutionRequest> unconfirmedRequestsRemote = new LinkedList<ExecutionRequest>();
+    private final RequestLog requestLog = new RequestLog();
+    /**
+     * signal to wake up remote thread (new pending request or change of connection)
+     */
+    private final WorkSignal remoteWorkSignal = new WorkSignal();
+
+    /**
+     * write lanes (empty if lanes are not used)
+     */
+    private final List<RequestsLaneLoop> lanes = new ArrayList<>();
+    /**
+     * requests finished by write lanes (many producers, local thread consumes)
+     */
+    private final Queue<ExecutionRequest> finishedLaneRequests = new ConcurrentLinkedQueue<>();
+    /**
+     * lanes write with shared lock; local thread writes request log, remote changes and requests without
+     * declared collections with exclusive lock (they use local storage transactions). Shared lock doesn't
+     * make writes of lanes parallel, transaction of lane request holds writer of local storage from its first
+     * write to its end.
+     */
+    private final ReentrantReadWriteLock localStorageLock = new ReentrantReadWriteLock();
 
     /**
      * list of opened result sets
@@ -244,16 +743,20 @@ public class Storage {
     /**
      * class with thread doing local storage oriented work
      */
-    private RequestsLocalHandlingThread requestsLocalHandlingThread;
+    private RequestsLocalHandlingLoop requestsLocalHandlingLoop;
+    /**
+     * completed when local loop ends its work (after stop)
+     */
+    private CompletableFuture<Void> localLoopFinished;
     /**
      * reference for thread doing local work (for transaction check)
      */
-    private Thread threadForLocalDBRuns;
+    private volatile Thread threadForLocalDBRuns;
 
     /**
      * class with thread doing remote storage oriented work
      */
-    private RequestsRemoteHandlingThread requestsRemoteHandlingThread;
+    private RequestsRemoteHandlingLoop requestsRemoteHandlingLoop;
 
     //private final Object connectionLock = new Object();
 
@@ -266,11 +769,61 @@ public class Storage {
      */
     private volatile boolean disconnectedFromRemoteStorage = true;
 
+    /**
+     * true if connection was lost since remote thread sent unconfirmed requests again
+     */
+    private volatile boolean connectionLost = false;
+    /**
+     * true if application asked to reconnect now (remote thread resets backoff)
+     */
+    private volatile boolean reconnectRequested = false;
+
     /**
      * type of login to server
      */
     private StorageSetup.RemoteLoginType remoteLoginType;
 
+    /**
+     * registry for metrics (from StorageSetup)
+     */
+    private final MetricsRegistry metricsRegistry;
+    /**
+     * time requests wait in queue of local thread (nanoseconds)
+     */
+    private final Histogram pendingLocalWait;
+    /**
+     * time requests wait in queue of remote thread (nanoseconds)
+     */
+    private final Histogram pendingRemoteWait;
+    /**
+     * time changes from server wait in queue before local thread writes them (nanoseconds)
+     */
+    private final Histogram remoteChangesWait;
+    /**
+     * time from queueing request for remote storage to its confirmation (nanoseconds)
+     */
+    private final Histogram unconfirmedTime;
+    /**
+     * time of local execution of request or group of requests (nanoseconds)
+     */
+    private final Histogram transactionTime;
+    /**
+     * time to update one opened result set with changes or overlay (nanoseconds)
+     */
+    private final Histogram resultSetRefreshTime;
+    /**
+     * number of requests executed by local thread
+     */
+    private final Counter executedTransactions;
+    /**
+     * number of requests confirmed by remote storage
+     */
+    private final Counter confirmedRequests;
+    /**
+     * number of changes of documents received from remote storage
+     */
+    private final Counter receivedChanges;
+
     /**
      * Constructor for Storage class. Sets local and remote storage and StorageSetup.
      * Creates RemoteStorageListener implementation and sets it to used remote storage.
@@ -283,47 +836,48 @@ public class Storage {
 		this.localStorage = localStorage;
         storageSetup = setup;
         this.remoteLoginType = storageSetup.getRemoteLoginType();
+        this.metricsRegistry = storageSetup.getMetricsRegistry();
+        pendingLocalWait = metricsRegistry.histogram("storage.pendingLocal.wait");
+        pendingRemoteWait = metricsRegistry.histogram("storage.pendingRemote.wait");
+        remoteChangesWait = metricsRegistry.histogram("storage.remoteChanges.wait");
+        unconfirmedTime = metricsRegistry.histogram("storage.unconfirmed.wait");
+        transactionTime = metricsRegistry.histogram("storage.transaction.time");
+        resultSetRefreshTime = metricsRegistry.histogram("storage.resultSet.refresh");
+        executedTransactions = metricsRegistry.counter("storage.transactions");
+        confirmedRequests = metricsRegistry.counter("storage.confirmed");
+        receivedChanges = metricsRegistry.counter("storage.remoteChanges.documents");
+        //size of concurrent queues is counted by walking them, it is done only when snapshot is made
+        metricsRegistry.gauge("storage.pendingLocal.depth", () -> pendingRequestsLocal.size());
+        metricsRegistry.gauge("storage.pendingRemote.depth", () -> pendingRequestsRemote.size());
+        metricsRegistry.gauge("storage.remoteChanges.depth", () -> remoteChanges.size());
+        metricsRegistry.gauge("storage.unconfirmed.depth", requestRegistry::size);
 		remoteStorage.setListener(new RemoteStorageListener() {
 
             public void requestCompleted(ExecutionRequest request) {
                 //System.out.println("REQUEST COMPLETED --- "+request.getMethodName());
 
+                //request won't be sent again after restart
+                requestLog.confirm(request);
+                long queuedAt = request.getRemoteQueuedAt();
+                if (queuedAt != 0){
+                    //subscription can be completed again after reconnect, time is recorded only once
+                    request.setRemoteQueuedAt(0);
+                    unconfirmedTime.recordSince(queuedAt);
+                }
+                confirmedRequests.increment();
+                localWorkSignal.signal();
 				if (request.isCall()){
-                    //remove request from pending/unconfirmed...
-
-                    boolean inUnconfirmedRequests = true;
-                    //first check if requests have already been run, if it's still in pending queue, remove it
-                    synchronized (pendingRequestsLocal){
-                        if (pendingRequestsLocal.contains(request)){
-                            pendingRequestsLocal.remove(request);
-                            inUnconfirmedRequests = false;
-                        }
-                    }
-                    //if requests isn't in pending queue, it should be in unconfirmed, remove it from there
-                    if (inUnconfirmedRequests){
-                        synchronized (unconfirmedRequestsLocal){
-                            if (unconfirmedRequestsLocal.contains(request)){
-                                unconfirmedRequestsLocal.remove(request);
-                            }
-                        }
+                    //confirm request, local thread skips its speculation if it was not run yet
+                    if (requestRegistry.confirm(request)){
                         //remove overlay from opened result sets now
                         removeOverlayOfOpenedResultSets(request.getTransaction().getLocalChanges());
                     }
-                    synchronized (unconfirmedRequestsRemote){
-                        if (unconfirmedRequestsRemote.contains(request)){
-                            unconfirmedRequestsRemote.remove(request);
-                        }
-                    }
                     //if synchronous call, then continue now
                     request.ready();
                 } else {
                     //execute, subscribe, unsubscribe
                     //remove from unconfirmed requests (it is only in remote, local part was done (if there was any) )
-                    synchronized (unconfirmedRequestsRemote) {
-                        if (unconfirmedRequestsRemote.contains(request)) {
-                            unconfirmedRequestsRemote.remove(request);
-                        }
-                    }
+                    requestRegistry.confirm(request);
                 }
 			}
 
@@ -339,26 +893,31 @@ public class Storage {
                         e.printStackTrace();
                         continue;
                     }
-                    document.setContent(change.getData());
+                    if (change.isFieldDelta()){
+                        //only changed fields came, local storage merges them into stored document
+                        document.setFieldDelta(new FieldDelta(change.getData(), change.getClearedFields()));
+                    } else {
+                        document.setContent(change.getData());
+                    }
+                    //changes can come in batch with more changes of one document, last change wins
+                    //(insert replaces and remove deletes document even if it was not in local storage)
                     if (change.getType() == INSERT){
+                        documentChanges.removeDocumentFromChanges(document);
                         documentChanges.addDocument(document);
                     } else if (change.getType() == UPDATE){
-                        documentChanges.updateDocument(document);
+                        documentChanges.mergeUpdatedDocument(document);
                     } else if (change.getType() == REMOVE){
+                        documentChanges.removeDocumentFromChanges(document);
                         documentChanges.addRemovedDocument(document);
                     }
                 }
                 //add changes to updateDocument db request and offer it to queue
                 UpdateDbRequest updateDbRequest = new UpdateDbRequest();
                 updateDbRequest.setDocumentChanges(documentChanges);
-                synchronized (remoteChanges){
-                    remoteChanges.offer(updateDbRequest);
-                    remoteChanges.notify();
-                }
-                synchronized (pendingRequestsLocal){
-                    pendingRequestsLocal.offer(null);
-                    pendingRequestsLocal.notify();
-                }
+                updateDbRequest.setQueuedAt(remoteChangesWait.startTiming());
+                receivedChanges.add(changes.length);
+                remoteChanges.offer(updateDbRequest);
+                localWorkSignal.signal();
 			}
 
 			public void connectionChanged(Connection connection) {
@@ -367,28 +926,25 @@ public class Storage {
                 if (connection.getState().equals(Connected)){
                     if (remoteLoginType != DemandLogin){
                         disconnectedFromRemoteStorage = false;
-                        synchronized (pendingRequestsRemote){
-                            pendingRequestsRemote.offer(null);
-                            pendingRequestsRemote.notify();
-                        }
+                        remoteWorkSignal.signal();
                     }
                 } else if (connection.getState().equals(LoggedIn)){
                     disconnectedFromRemoteStorage = false;
-                    synchronized (pendingRequestsRemote){
-                        pendingRequestsRemote.offer(null);
-                        pendingRequestsRemote.notify();
-                    }
+                    remoteWorkSignal.signal();
                 } else if (connection.getState().equals(Closed) || connection.getState().equals(Disconnected)){
+                    connectionLost = true;
                     disconnectedFromRemoteStorage = true;
-                    synchronized (pendingRequestsRemote){
-                        pendingRequestsRemote.offer(null);
-                        pendingRequestsRemote.notify();
-                    }
+                    remoteWorkSignal.signal();
                 }
             }
 
             @Override
             public void unsubscribed(String subscriptionName, int subscriptionId, RemoteStorageError error) {
+                //subscription ended, it won't be sent again after reconnect
+                ExecutionRequest request = requestRegistry.getByRemoteCallsId(subscriptionId);
+                if (request != null){
+                    requestRegistry.confirm(request);
+                }
                 synchronized (activeSubscriptions){
                     if (activeSubscriptions.containsKey(subscriptionName)){
                         activeSubscriptions.remove(subscriptionName);
@@ -405,18 +961,72 @@ public class Storage {
                 UpdateDbRequest request = new UpdateDbRequest();
                 request.setCollectionName(collection);
                 request.setInvalidateCollection(true);
-                synchronized (remoteChanges){
-                    remoteChanges.offer(request);
-                    remoteChanges.notify();
-                }
-                synchronized (pendingRequestsLocal){
-                    pendingRequestsLocal.offer(null);
-                    pendingRequestsLocal.notify();
-                }
+                request.setQueuedAt(remoteChangesWait.startTiming());
+                remoteChanges.offer(request);
+                localWorkSignal.signal();
 			}
 		});
     }
 
+    /**
+     * Adds request to pending requests of local thread and wakes it up.
+     * @param executionRequest request for local storage
+     */
+    private void offerPendingRequestLocal(ExecutionRequest executionRequest) {
+        executionRequest.setLocalQueuedAt(pendingLocalWait.startTiming());
+        pendingRequestsLocal.offer(executionRequest);
+        localWorkSignal.signal();
+    }
+
+    /**
+     * Adds request to pending requests of remote thread and wakes it up. Request is written to request log
+     * with next flush of local thread (executes are written in their own local storage transaction instead).
+     * @param executionRequest request for remote storage
+     */
+    private void offerPendingRequestRemote(ExecutionRequest executionRequest) {
+        if (RequestLog.isLogged(executionRequest)){
+            //local thread writes it to request log
+            requestLog.append(executionRequest);
+            localWorkSignal.signal();
+        }
+        queuePendingRequestRemote(executionRequest);
+    }
+
+    /**
+     * Adds request to pending requests of remote thread without writing it to request log.
+     * @param executionRequest request for remote storage
+     */
+    private void queuePendingRequestRemote(ExecutionRequest executionRequest) {
+        requestRegistry.register(executionRequest);
+        executionRequest.setRemoteQueuedAt(pendingRemoteWait.startTiming());
+        pendingRequestsRemote.offer(executionRequest);
+        remoteWorkSignal.signal();
+    }
+
+    /**
+     * Queues requests from request log (not confirmed before last stop) again. Executes are sent with their
+     * changes (they are in local storage already), calls are sent again and their speculations run again.
+     * @param records records of saved requests (in order they were created)
+     */
+    private void restoreRequests(List<RequestRecord> records) {
+        if (records == null){
+            return;
+        }
+        for (RequestRecord record:records) {
+            ExecutionRequest executionRequest;
+            try {
+                executionRequest = RequestLog.restore(record, this);
+            } catch (LocalStorageException | RuntimeException e) {
+                System.out.println("ERROR: request "+record.getRequestId()+" can't be restored. " + e.toString());
+                continue;
+            }
+            queuePendingRequestRemote(executionRequest);
+            if (executionRequest.isCall() && executionRequest.getRunnable() != null){
+                offerPendingRequestLocal(executionRequest);
+            }
+        }
+    }
+
     /**
      * Method to invalidate collection (server may use it and send all data again).
      * @param collection name of collection
@@ -442,11 +1052,8 @@ public class Storage {
      * @param documentChanges list of document changes
      */
     private void applyListOfChangesOnUnconfirmedRequests(List<DocumentChanges> documentChanges) {
-        synchronized (unconfirmedRequestsLocal){
-            for (ExecutionRequest request:unconfirmedRequestsLocal){
-                request.getTransaction().getLocalChanges().removeListOfChangesFromChanges(documentChanges);
-            }
-            unconfirmedRequestsLocal.notify();
+        for (ExecutionRequest request:requestRegistry.getSpeculatedRequests()){
+            request.getTransaction().getLocalChanges().removeListOfChangesFromChanges(documentChanges);
         }
     }
 
@@ -458,11 +1065,8 @@ public class Storage {
      * @param documentChanges changes from server to update overlays
      */
     private void applyChangesOnUnconfirmedRequests(DocumentChanges documentChanges) {
-        synchronized (unconfirmedRequestsLocal){
-            for (ExecutionRequest request:unconfirmedRequestsLocal){
-                request.getTransaction().getLocalChanges().removeChangesFromChanges(documentChanges);
-            }
-            unconfirmedRequestsLocal.notify();
+        for (ExecutionRequest request:requestRegistry.getSpeculatedRequests()){
+            request.getTransaction().getLocalChanges().removeChangesFromChanges(documentChanges);
         }
     }
 
@@ -506,7 +1110,9 @@ public class Storage {
         synchronized (openedResultSets){
             openedResultSets.removeIf(ResultSet::isClosed);
             for (ResultSet resultSet:openedResultSets){
+                long start = resultSetRefreshTime.startTiming();
                 resultSet.applyChanges(documentChanges);
+                resultSetRefreshTime.recordSince(start);
             }
             openedResultSets.notify();
         }
@@ -538,7 +1144,9 @@ public class Storage {
         synchronized (openedResultSets){
             openedResultSets.removeIf(ResultSet::isClosed);
             for (ResultSet resultSet:openedResultSets){
+                long start = resultSetRefreshTime.startTiming();
                 resultSet.addOverlayWithChanges(documentChanges);
+                resultSetRefreshTime.recordSince(start);
             }
             openedResultSets.notify();
         }
@@ -552,7 +1160,9 @@ public class Storage {
         synchronized (openedResultSets){
             openedResultSets.removeIf(ResultSet::isClosed);
             for (ResultSet resultSet:openedResultSets){
+                long start = resultSetRefreshTime.startTiming();
                 resultSet.removeOverlayWithChanges(documentChanges);
+                resultSetRefreshTime.recordSince(start);
             }
             openedResultSets.notify();
         }
@@ -617,6 +1227,15 @@ public class Storage {
         return running;
     }
 
+    /**
+     * Snapshot of metrics recorded by this storage, its local and remote storage (empty if no registry was
+     * set in StorageSetup). Registry can be exported through JMX with JmxMetricsExporter.
+     * @return current values of metrics
+     */
+    public MetricsSnapshot getMetricsSnapshot() {
+        return metricsRegistry.snapshot();
+    }
+
     /**
      * @return LocalStorage implementation used in this Storage
      */
@@ -646,10 +1265,7 @@ public class Storage {
         executionRequest.setRequestType(Subscribe);
         executionRequest.setSubscriptionName(subscriptionName);
         executionRequest.setAttributes(arguments);
-        synchronized (pendingRequestsRemote){
-            pendingRequestsRemote.offer(executionRequest);
-            pendingRequestsRemote.notify();
-        }
+        offerPendingRequestRemote(executionRequest);
         synchronized (activeSubscriptions){
             activeSubscriptions.put(subscriptionName, executionRequest);
         }
@@ -672,10 +1288,15 @@ public class Storage {
             return;
         }
         executionRequest.setRequestType(Unsubscribe);
-        synchronized (pendingRequestsRemote){
-            pendingRequestsRemote.offer(executionRequest);
-            pendingRequestsRemote.notify();
-        }
+        offerPendingRequestRemote(executionRequest);
+    }
+
+    /**
+     * @param name name of speculation
+     * @return speculative method registered with given name or null
+     */
+    TransactionRunnable getSpeculativeMethod(String name) {
+        return speculativeMethods.get(name);
     }
 
     /**
@@ -721,14 +1342,55 @@ public class Storage {
 		executionRequest.setAttributes(arguments);
 		executionRequest.setContext(new DefaultExecutionContext(this));
 
-		synchronized (pendingRequestsLocal){
-			pendingRequestsLocal.offer(executionRequest);
-			pendingRequestsLocal.notify();
-		}
+		offerPendingRequestLocal(executionRequest);
 
 		return executionRequest;
 	}
 
+    /**
+     * Execute type of method with declared collections. Transaction can write only to given collections, with write
+     * lanes (StorageSetup.setWriteLanes) it runs in parallel with transactions which use other collections.
+     * Blocking version.
+     * @param collections names of collections transaction writes to
+     * @param runnable operations that will be executed
+     * @param arguments optional arguments
+     * @return created ExecutionRequest for this execution
+     */
+    public ExecutionRequest execute(Set<String> collections, TransactionRunnable runnable, Object... arguments) {
+        ExecutionRequest executionRequest = executeAsync(collections, runnable, arguments);
+        executionRequest.await();
+        return executionRequest;
+    }
+
+    /**
+     * Execute type of method with declared collections. Transaction can write only to given collections, with write
+     * lanes (StorageSetup.setWriteLanes) it runs in parallel with transactions which use other collections and
+     * after transactions created before it which use some of its collections.
+     * Asynchronous version.
+     * @param collections names of collections transaction writes to
+     * @param runnable operations that will be executed
+     * @param arguments optional arguments
+     * @return created ExecutionRequest for this execution
+     */
+    public ExecutionRequest executeAsync(Set<String> collections, TransactionRunnable runnable, Object... arguments) {
+        if (collections == null || collections.isEmpty()){
+            throw new IllegalArgumentException("Declare at least one collection of transaction!");
+        }
+        String seed = "";
+        IdGenerator idGenerator = remoteStorage.getIdGenerator(seed);
+        Transaction transaction = new Transaction(this, idGenerator);
+        transaction.setCollections(Collections.unmodifiableSet(new HashSet<>(collections)));
+        ExecutionRequest executionRequest = new ExecutionRequest(transaction);
+        executionRequest.setRequestType(Execute);
+        executionRequest.setRunnable(runnable);
+        executionRequest.setAttributes(arguments);
+        executionRequest.setContext(new DefaultExecutionContext(this));
+
+        offerPendingRequestLocal(executionRequest);
+
+        return executionRequest;
+    }
+
     /**
      * Executes given TransactionRunnable only locally; can only use non-synchronized collections.
      * Blocking version.
@@ -760,10 +1422,7 @@ public class Storage {
         executionRequest.setAttributes(arguments);
         executionRequest.setContext(new DefaultExecutionContext(this));
 
-        synchronized (pendingRequestsLocal){
-            pendingRequestsLocal.offer(executionRequest);
-            pendingRequestsLocal.notify();
-        }
+        offerPendingRequestLocal(executionRequest);
 
         return executionRequest;
 	}
@@ -808,21 +1467,10 @@ public class Storage {
 		executionRequest.setAttributes(arguments);
 		executionRequest.setContext(new DefaultExecutionContext(this));
 
-		synchronized (pendingRequestsRemote){
-            pendingRequestsRemote.offer(executionRequest);
-            pendingRequestsRemote.notify();
-        }
+		offerPendingRequestRemote(executionRequest);
 
-		if (executionRequest.getRunnable() == null) {
-			synchronized (unconfirmedRequestsLocal) {
-				unconfirmedRequestsLocal.offer(executionRequest);
-				unconfirmedRequestsLocal.notify();
-			}
-		} else {
-			synchronized (pendingRequestsLocal) {
-				pendingRequestsLocal.offer(executionRequest);
-				pendingRequestsLocal.notify();
-			}
+		if (executionRequest.getRunnable() != null) {
+			offerPendingRequestLocal(executionRequest);
 		}
 
 		return executionRequest;
@@ -838,21 +1486,21 @@ public class Storage {
         running = true;
         disconnectedFromRemoteStorage = true;
 
-        //start local storage and run thread for local work (in this order)
-        localStorage.start();
+        //start local storage, queue requests not confirmed before last stop and run thread for local work (in this order)
+        restoreRequests(localStorage.start());
 
         //if no session, invalidate (reset) all remote collections (if they are empty or with data, new session has started)
         /*if(sessionState == null || sessionState.length() == 0){
             localStorage.invalidateRemoteCollections();
         }*/
 
-        requestsLocalHandlingThread = new RequestsLocalHandlingThread();
-        requestsLocalHandlingThread.start();
-        //TODO read and return queues from database in localStorage start (unconfirmed and pending work)
+        startLanes();
+        requestsLocalHandlingLoop = new RequestsLocalHandlingLoop();
+        localLoopFinished = startLoop(requestsLocalHandlingLoop);
 
         //run thread for remote work and start remotes storage
-        requestsRemoteHandlingThread = new RequestsRemoteHandlingThread();
-        requestsRemoteHandlingThread.start();
+        requestsRemoteHandlingLoop = new RequestsRemoteHandlingLoop();
+        startLoop(requestsRemoteHandlingLoop);
 
         //start with session
 		//remoteStorage.start(sessionState);
@@ -867,17 +1515,77 @@ public class Storage {
         running = true;
         disconnectedFromRemoteStorage = true;
 
-        //start local storage and run thread for local work (in this order)
-        localStorage.start();
+        //start local storage, queue requests not confirmed before last stop and run thread for local work (in this order)
+        restoreRequests(localStorage.start());
 
-        requestsLocalHandlingThread = new RequestsLocalHandlingThread();
-        requestsLocalHandlingThread.start();
-        //TODO read and return queues from database in localStorage start (unconfirmed and pending work)
+        startLanes();
+        requestsLocalHandlingLoop = new RequestsLocalHandlingLoop();
+        localLoopFinished = startLoop(requestsLocalHandlingLoop);
 
         //run thread for remote work and start remotes storage
-        requestsRemoteHandlingThread = new RequestsRemoteHandlingThread();
-        requestsRemoteHandlingThread.start();
+        requestsRemoteHandlingLoop = new RequestsRemoteHandlingLoop();
+        startLoop(requestsRemoteHandlingLoop);
+
+    }
+
+    /**
+     * Creates and starts write lanes (if they are set in StorageSetup).
+     */
+    private void startLanes() {
+        lanes.clear();
+        finishedLaneRequests.clear();
+        for (int i = 0; i < storageSetup.getWriteLanes(); i++) {
+            RequestsLaneLoop lane = new RequestsLaneLoop();
+            lanes.add(lane);
+            lane.finished = startLoop(lane);
+        }
+    }
+
+    /**
+     * Runs loop of Storage in thread from executor set in StorageSetup. Loop runs until Storage stops, so
+     * executor has to give it its own thread.
+     * @param loop local, remote or lane loop
+     * @return future completed when loop ends
+     */
+    private CompletableFuture<Void> startLoop(Runnable loop) {
+        CompletableFuture<Void> finished = CompletableFuture.runAsync(loop, storageSetup.getExecutor());
+        //exception would end loop silently otherwise
+        finished.exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return null;
+        });
+        return finished;
+    }
+
+    /**
+     * Waits until loop ends (if it was started and doesn't run in current thread).
+     * @param finished future of loop
+     * @param thread thread of loop
+     */
+    private void awaitLoop(CompletableFuture<Void> finished, Thread thread) {
+        if (finished == null || Thread.currentThread() == thread){
+            return;
+        }
+        try {
+            finished.get();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            //already printed by startLoop
+        }
+    }
 
+    /**
+     * Tries to connect to server now instead of waiting for next attempt of reconnect backoff. Call when
+     * application knows that network is available again (ie. network change event from system).
+     */
+    public void reconnectNow() {
+        if (!running || !disconnectedFromRemoteStorage){
+            return;
+        }
+        reconnectRequested = true;
+        remoteStorage.reconnectNow();
+        remoteWorkSignal.signal();
     }
 
 	/**
@@ -888,17 +1596,20 @@ public class Storage {
         //wake up threads and stop them
         running = false;
         disconnectedFromRemoteStorage = false;
-        synchronized (pendingRequestsLocal){
-            pendingRequestsLocal.notify();
-        }
-        synchronized (pendingRequestsRemote){
-            pendingRequestsRemote.notify();
-        }
+        localWorkSignal.signal();
+        remoteWorkSignal.signal();
         //save state and queues with work
 		String sessionState = remoteStorage.getSessionState();
 		remoteStorage.stop();
-        //TODO save all queues here ...
-        localStorage.stop(unconfirmedRequestsLocal);
+        //lanes finish requests they execute, local thread writes rest of request log, then local storage can stop
+        for (RequestsLaneLoop lane:lanes) {
+            lane.wakeUp();
+        }
+        for (RequestsLaneLoop lane:lanes) {
+            awaitLoop(lane.finished, lane.thread);
+        }
+        awaitLoop(localLoopFinished, threadForLocalDBRuns);
+        localStorage.stop(new LinkedList<>(requestRegistry.getUnconfirmedRequests()));
         return sessionState;
 	}
 }
@@ -0,0 +1,69 @@
+package net.jards.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for loops of Storage (StorageSetup.setExecutor). Loops run until Storage stops, so executor must
+ * start new thread for every task - pool with fixed number of threads smaller than number of loops
+ * (local, remote and write lanes) would never start some of them.
+ */
+public final class StorageExecutors {
+
+    /**
+     * method Executors.newVirtualThreadPerTaskExecutor (null before Java 21)
+     */
+    private static final Method virtualThreadPerTaskExecutor = findVirtualThreadPerTaskExecutor();
+
+    private StorageExecutors() {
+    }
+
+    /**
+     * Creates executor which starts new platform thread for every task (default executor of Storage).
+     * @param name prefix of names of threads (number of thread is added)
+     * @return executor starting new thread for every task
+     */
+    public static Executor newThreadPerTaskExecutor(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> new Thread(task, name + "-" + counter.incrementAndGet()).start();
+    }
+
+    /**
+     * @return true if Java runtime supports virtual threads (Java 21 and newer)
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return virtualThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * Creates executor which starts new virtual thread for every task. Loops of Storage then don't need own
+     * platform threads, they wait for work without blocking carrier threads. Executor should be shut down
+     * after Storage stops.
+     * @return executor starting new virtual thread for every task
+     * @throws UnsupportedOperationException if Java runtime doesn't support virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (virtualThreadPerTaskExecutor == null){
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or newer!");
+        }
+        try {
+            return (ExecutorService) virtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads can't be created!", e);
+        }
+    }
+
+    /**
+     * @return method creating executor with virtual threads or null if runtime doesn't have it
+     */
+    private static Method findVirtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package net.jards.core;
 
+import net.jards.metrics.MetricsRegistry;
+import net.jards.metrics.NoopMetricsRegistry;
+
 import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * The main configuration setup provided for Storage, LocalStorage and
@@ -34,6 +38,34 @@ public class StorageSetup {
      * remote login type/strategy
      */
     private RemoteLoginType remoteLoginType;
+    /**
+     * maximal number of local requests executed in one local storage transaction (1 means no grouping)
+     */
+    private int groupCommitMaxBatch = 1;
+    /**
+     * maximal time (in microseconds) to wait for more requests before group is executed
+     */
+    private long groupCommitMaxWaitMicros = 0;
+    /**
+     * number of write lanes executing transactions with declared collections in parallel (0 - no lanes)
+     */
+    private int writeLanes = 0;
+    /**
+     * listener for progress of migration of collections when setup changes (can be null)
+     */
+    private LocalStorage.MigrationListener migrationListener = null;
+    /**
+     * backoff between attempts to start remote storage which doesn't reconnect itself
+     */
+    private Backoff reconnectBackoff = new Backoff(100, 30000, 2, 0.5);
+    /**
+     * registry for metrics of storage, local storage and remote storage (records nothing by default)
+     */
+    private MetricsRegistry metricsRegistry = NoopMetricsRegistry.INSTANCE;
+    /**
+     * executor running loops of storage - local, remote and write lanes (new platform thread for each by default)
+     */
+    private Executor executor = StorageExecutors.newThreadPerTaskExecutor("Storage");
 
     /**
      * Constructor, sets default values.
@@ -99,7 +131,9 @@ public class StorageSetup {
     }
 
     /**
-     * @param jsonPropertyExtractor specify your preferred json property extractor
+     * @param jsonPropertyExtractor specify your preferred json property extractor (default is
+     *                              DefaultJSONPropertyExtractor; StreamingJSONPropertyExtractor reads json once
+     *                              for all indexed properties and gives null for missing properties)
      */
     public void setJsonPropertyExtractor(JSONPropertyExtractor jsonPropertyExtractor) {
         this.jsonPropertyExtractor = jsonPropertyExtractor;
@@ -112,6 +146,126 @@ public class StorageSetup {
         this.remoteLoginType = remoteLoginType;
     }
 
+    /**
+     * Enables group commit. Local thread of Storage takes up to maxBatch pending requests (waits at most
+     * maxWaitMicros for them after first one came), executes them in one local storage transaction and
+     * publishes their merged changes once. Every request is still signaled as ready separately. Every request
+     * runs after its own savepoint, so request whose user code throws exception is rolled back and fails alone
+     * (other requests are not executed again). If the transaction itself fails (i.e. commit), all requests
+     * of group fail.
+     * @param maxBatch maximal number of requests in one transaction, 1 disables group commit
+     * @param maxWaitMicros maximal time to wait for more requests (microseconds), 0 takes only requests
+     *                      which are already pending
+     */
+    public void setGroupCommit(int maxBatch, long maxWaitMicros) {
+        if (maxBatch < 1 || maxWaitMicros < 0){
+            throw new IllegalArgumentException("Group commit needs positive batch size and non negative wait time!");
+        }
+        this.groupCommitMaxBatch = maxBatch;
+        this.groupCommitMaxWaitMicros = maxWaitMicros;
+    }
+
+    /**
+     * @return maximal number of local requests executed in one transaction (1 if group commit is disabled)
+     */
+    public int getGroupCommitMaxBatch() {
+        return groupCommitMaxBatch;
+    }
+
+    /**
+     * @return maximal time (microseconds) to wait for more requests to group
+     */
+    public long getGroupCommitMaxWaitMicros() {
+        return groupCommitMaxWaitMicros;
+    }
+
+    /**
+     * Enables write lanes. Transactions which declare their collections (Storage.executeAsync with collections)
+     * are executed by lane threads - transactions with disjoint collections in parallel, transactions sharing
+     * some collection in order they were created. Other requests are executed by local thread of Storage when
+     * no lane works (as if they declared all collections). Local storage must allow writes from more threads.
+     * @param writeLanes number of lane threads, 0 executes everything in local thread of Storage
+     */
+    public void setWriteLanes(int writeLanes) {
+        if (writeLanes < 0){
+            throw new IllegalArgumentException("Number of write lanes can't be negative!");
+        }
+        this.writeLanes = writeLanes;
+    }
+
+    /**
+     * @return number of write lanes (0 if they are not used)
+     */
+    public int getWriteLanes() {
+        return writeLanes;
+    }
+
+    /**
+     * @param migrationListener listener notified about progress of migration of collections to changed setup
+     */
+    public void setMigrationListener(LocalStorage.MigrationListener migrationListener) {
+        this.migrationListener = migrationListener;
+    }
+
+    /**
+     * @return listener for progress of migration (null if not set)
+     */
+    public LocalStorage.MigrationListener getMigrationListener() {
+        return migrationListener;
+    }
+
+    /**
+     * Sets backoff used by Storage when remote storage doesn't reconnect itself (RemoteStorage.managesReconnect)
+     * and Storage starts it again while it is disconnected.
+     * @param initialDelayMillis delay (milliseconds) before second attempt
+     * @param maxDelayMillis maximal delay (milliseconds)
+     * @param multiplier growth of delay with every attempt
+     * @param jitter random part of delay (from 0 to 1)
+     */
+    public void setReconnectBackoff(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter) {
+        this.reconnectBackoff = new Backoff(initialDelayMillis, maxDelayMillis, multiplier, jitter);
+    }
+
+    /**
+     * @return backoff between attempts to start remote storage
+     */
+    public Backoff getReconnectBackoff() {
+        return reconnectBackoff;
+    }
+
+    /**
+     * Sets registry for metrics (queues, transactions, statements, methods). Storage, local storage and remote
+     * storage take registry when they are created, so set it before.
+     * @param metricsRegistry registry for metrics, null records nothing
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry != null ? metricsRegistry : NoopMetricsRegistry.INSTANCE;
+    }
+
+    /**
+     * @return registry for metrics
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Sets executor running loops of Storage (local thread, remote thread and write lanes). Every loop runs
+     * until Storage stops, so executor must give each task its own thread (StorageExecutors). With Java 21 use
+     * StorageExecutors.newVirtualThreadPerTaskExecutor.
+     * @param executor executor for loops of Storage, null starts new platform thread for each loop
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor != null ? executor : StorageExecutors.newThreadPerTaskExecutor("Storage");
+    }
+
+    /**
+     * @return executor running loops of Storage
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
     /**
      * @return selected json property extractor
      */
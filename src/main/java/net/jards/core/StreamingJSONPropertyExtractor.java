@@ -0,0 +1,207 @@
+package net.jards.core;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import net.jards.errors.JsonFormatException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extractor that reads json string only once for all requested properties. Json is streamed with gson
+ * JsonReader, values on requested paths are captured and other parts of json are skipped without building
+ * any tree. Used for values of indexes in writes. Values are same as values of DefaultJSONPropertyExtractor,
+ * but missing property has value null (instead of exception).
+ */
+public class StreamingJSONPropertyExtractor extends DefaultJSONPropertyExtractor {
+
+    /**
+     * maximal number of cached path trees (cache is cleared when it is full)
+     */
+    private static final int MAX_CACHED_PATH_TREES = 256;
+
+    /**
+     * Compiled paths merged into tree by segments, so one pass of json can follow all of them.
+     */
+    private static final class PathNode {
+        /**
+         * paths ending in this node
+         */
+        final List<JsonPath> paths = new ArrayList<>();
+        /**
+         * children for properties of object, key is property name
+         */
+        final Map<String, PathNode> properties = new HashMap<>();
+        /**
+         * children for items of array, key is index
+         */
+        final Map<Integer, PathNode> items = new HashMap<>();
+        /**
+         * paths which go through this node (and continue after it)
+         */
+        final List<JsonPath> continuingPaths = new ArrayList<>();
+        /**
+         * depth of node (number of segments to this node)
+         */
+        final int depth;
+
+        PathNode(int depth) {
+            this.depth = depth;
+        }
+
+        /**
+         * @param path compiled path to add to tree under this node
+         */
+        void add(JsonPath path) {
+            if (path.length() == depth){
+                paths.add(path);
+                return;
+            }
+            continuingPaths.add(path);
+            Object segment = path.getSegment(depth);
+            PathNode child;
+            if (segment instanceof Integer){
+                child = items.computeIfAbsent((Integer) segment, key -> new PathNode(depth + 1));
+            } else {
+                child = properties.computeIfAbsent((String) segment, key -> new PathNode(depth + 1));
+            }
+            child.add(path);
+        }
+    }
+
+    /**
+     * path trees for lists of paths (writes use same list of indexes for each document of collection)
+     */
+    private final ConcurrentHashMap<List<String>, PathNode> pathTrees = new ConcurrentHashMap<>();
+
+    /**
+     * Extracts given values from json string in one pass.
+     * @param jsonString json string from which values will be extracted
+     * @param propertyPaths specified names of properties which values to extract
+     * @return map with property paths and values (null for missing properties)
+     * @throws JsonFormatException exception thrown if json has wrong format
+     */
+    @Override
+    public Map<String, Object> extractPropertyValues(String jsonString, List<String> propertyPaths) throws JsonFormatException {
+        Map<String, Object> values = new HashMap<>();
+        if (jsonString == null || jsonString.length()==0){
+            return values;
+        }
+        if (propertyPaths == null || propertyPaths.size()==0){
+            return values;
+        }
+        PathNode root = getPathTree(propertyPaths);
+        for (String propertyPath:propertyPaths) {
+            values.put(propertyPath, null);
+        }
+        try {
+            JsonReader reader = new JsonReader(new StringReader(jsonString));
+            reader.setLenient(true);
+            read(reader, root, values);
+        } catch (Exception e){
+            throw new JsonFormatException("Wrong format of json String.",e);
+        }
+        return values;
+    }
+
+    /**
+     * Extracts single value of given json string in one pass.
+     * @param jsonString json string from which value will be extracted
+     * @param propertyPath specified name of property which value to extract
+     * @return value of specified property or null if json doesn't have it
+     * @throws JsonFormatException exception thrown if json has wrong format
+     */
+    @Override
+    public Object extractPropertyValue(String jsonString, String propertyPath) throws JsonFormatException {
+        if (propertyPath == null){
+            return null;
+        }
+        return extractPropertyValues(jsonString, Collections.singletonList(propertyPath)).get(propertyPath);
+    }
+
+    /**
+     * @param propertyPaths property paths
+     * @return tree of compiled paths (cached)
+     * @throws JsonFormatException if some path has wrong format
+     */
+    private PathNode getPathTree(List<String> propertyPaths) throws JsonFormatException {
+        PathNode root = pathTrees.get(propertyPaths);
+        if (root != null){
+            return root;
+        }
+        root = new PathNode(0);
+        try {
+            for (String propertyPath:propertyPaths) {
+                if (propertyPath != null){
+                    root.add(JsonPath.compile(propertyPath));
+                }
+            }
+        } catch (IllegalArgumentException e){
+            throw new JsonFormatException("Wrong property path. ", e);
+        }
+        if (pathTrees.size() >= MAX_CACHED_PATH_TREES){
+            pathTrees.clear();
+        }
+        pathTrees.put(new ArrayList<>(propertyPaths), root);
+        return root;
+    }
+
+    /**
+     * Reads value from reader and captures values of paths in given node.
+     * @param reader reader positioned before value
+     * @param node node of path tree for this value
+     * @param values map where captured values are put
+     * @throws Exception if json has wrong format
+     */
+    private static void read(JsonReader reader, PathNode node, Map<String, Object> values) throws Exception {
+        if (!node.paths.isEmpty()){
+            //value is requested, paths continuing in it are read from its tree
+            @SuppressWarnings("deprecation")
+            JsonElement element = new JsonParser().parse(reader);
+            String value = element.toString();
+            for (JsonPath path:node.paths) {
+                values.put(path.getPath(), value);
+            }
+            for (JsonPath path:node.continuingPaths) {
+                JsonElement child = path.resolve(element, node.depth);
+                values.put(path.getPath(), child == null ? null : child.toString());
+            }
+            return;
+        }
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT && !node.properties.isEmpty()){
+            reader.beginObject();
+            while (reader.hasNext()){
+                PathNode child = node.properties.get(reader.nextName());
+                if (child == null){
+                    reader.skipValue();
+                } else {
+                    read(reader, child, values);
+                }
+            }
+            reader.endObject();
+        } else if (token == JsonToken.BEGIN_ARRAY && !node.items.isEmpty()){
+            reader.beginArray();
+            int index = 0;
+            while (reader.hasNext()){
+                PathNode child = node.items.get(index);
+                if (child == null){
+                    reader.skipValue();
+                } else {
+                    read(reader, child, values);
+                }
+                index++;
+            }
+            reader.endArray();
+        } else {
+            reader.skipValue();
+        }
+    }
+}
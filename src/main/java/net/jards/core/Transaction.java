@@ -2,6 +2,8 @@ package net.jards.core;
 
 import net.jards.errors.LocalStorageException;
 
+import java.util.Set;
+
 /**
  * Class representing transaction. Transaction executes document operations and holds document changes.
  * This way it creates overlays.
@@ -32,6 +34,24 @@ public class Transaction {
      */
     private final DocumentChanges localChanges = new DocumentChanges();
 
+    /**
+     * collections declared by transaction up front (it can write only to them), null if it can use all
+     */
+    private Set<String> collections;
+    /**
+     * write lane thread executing this transaction, null if it is executed by local thread of storage
+     */
+    private volatile Thread laneThread;
+    /**
+     * true if transaction starts own local storage transaction before its first write (Storage commits it
+     * or rolls it back after execution)
+     */
+    private boolean ownLocalStorageTransaction;
+    /**
+     * true if own local storage transaction was started and not ended yet
+     */
+    private boolean localStorageTransactionStarted;
+
     /**
      * Package protected constructor for transaction.
      * @param storage reference to storage
@@ -68,14 +88,14 @@ public class Transaction {
             if (!collection.isLocal()){
                 //TODO throw new LocalStorageException();
             }
-            LocalStorage localStorage = storage.getLocalStorage();
+            LocalStorage localStorage = getLocalStorageForWrite();
             localStorage.createDocument(collection.getName(), document);
         } else if (speculation){
             // only speculation, just put document into changes (done)
 
         } else {
             // execute - write to db, and send changes to server (put document into changes)
-            LocalStorage localStorage = storage.getLocalStorage();
+            LocalStorage localStorage = getLocalStorageForWrite();
             localStorage.createDocument(collection.getName(), document);
         }
 
@@ -103,13 +123,13 @@ public class Transaction {
             if (!collection.isLocal()){
                 //TODO throw new LocalStorageException();
             }
-            LocalStorage localStorage = storage.getLocalStorage();
+            LocalStorage localStorage = getLocalStorageForWrite();
             localStorage.updateDocument(collection.getName(), document);
         } else if (speculation){
             // only speculation, just put document into changes (done)
         } else {
             // execute - write to db, and send changes to server
-            LocalStorage localStorage = storage.getLocalStorage();
+            LocalStorage localStorage = getLocalStorageForWrite();
             localStorage.updateDocument(collection.getName(), document);
         }
 
@@ -137,19 +157,57 @@ public class Transaction {
             if (!collection.isLocal()){
                 //TODO throw new LocalStorageException();
             }
-            LocalStorage localStorage = storage.getLocalStorage();
+            LocalStorage localStorage = getLocalStorageForWrite();
             localStorage.removeDocument(collection.getName(), document);
         } else if (speculation){
             // only speculation, just put document into changes (done)
         } else {
             // execute - write to db, and send changes to server (document in changes)
-            LocalStorage localStorage = storage.getLocalStorage();
+            LocalStorage localStorage = getLocalStorageForWrite();
             localStorage.removeDocument(collection.getName(), document);
         }
 
         return true;
 	}
 
+    /**
+     * Returns local storage for write. Own local storage transaction is started before first write, so code
+     * of execution before it doesn't hold writer.
+     * @return local storage of storage
+     * @throws LocalStorageException if local storage transaction can't be started
+     */
+    LocalStorage getLocalStorageForWrite() throws LocalStorageException {
+        LocalStorage localStorage = storage.getLocalStorage();
+        if (ownLocalStorageTransaction && !localStorageTransactionStarted){
+            localStorage.beginTransaction();
+            localStorageTransactionStarted = true;
+        }
+        return localStorage;
+    }
+
+    /**
+     * @param ownLocalStorageTransaction true if transaction starts own local storage transaction before its
+     *                                   first write, false if writes are part of transaction opened by caller
+     */
+    void setOwnLocalStorageTransaction(boolean ownLocalStorageTransaction) {
+        this.ownLocalStorageTransaction = ownLocalStorageTransaction;
+    }
+
+    /**
+     * @return true if own local storage transaction was started (it has to be committed or rolled back)
+     */
+    boolean isLocalStorageTransactionStarted() {
+        return localStorageTransactionStarted;
+    }
+
+    /**
+     * Called after own local storage transaction was committed or rolled back.
+     */
+    void localStorageTransactionEnded() {
+        localStorageTransactionStarted = false;
+        ownLocalStorageTransaction = false;
+    }
+
     /**
      * @return local changes made in this transaction
      */
@@ -165,12 +223,46 @@ public class Transaction {
     }
 
     /**
-     * @return true if in right thread (for local storage operations)
+     * @return true if in right thread (for local storage operations) - write lane executing this transaction
+     * or local thread of storage
      */
     boolean checkIfInThreadForDBRuns() {
+        Thread thread = laneThread;
+        if (thread != null){
+            return thread == Thread.currentThread();
+        }
 		return storage.sameAsThreadForLocalDBRuns(Thread.currentThread());
 	}
 
+    /**
+     * @param collectionName name of collection
+     * @return true if transaction can write to collection (it was declared or transaction didn't declare any)
+     */
+    boolean canWriteTo(String collectionName) {
+        return collections == null || collections.contains(collectionName);
+    }
+
+    /**
+     * @param collections collections declared by transaction, null if it can use all
+     */
+    void setCollections(Set<String> collections) {
+        this.collections = collections;
+    }
+
+    /**
+     * @return collections declared by transaction, null if it can use all
+     */
+    Set<String> getCollections() {
+        return collections;
+    }
+
+    /**
+     * @param laneThread write lane thread executing this transaction, null after execution
+     */
+    void setLaneThread(Thread laneThread) {
+        this.laneThread = laneThread;
+    }
+
     /**
      * @param speculation speculation code
      */
@@ -19,6 +19,11 @@ public class UpdateDbRequest {
      */
     private boolean invalidateCollection = false;
 
+    /**
+     * time (from timing of metrics) when request was added to queue of remote changes
+     */
+    private long queuedAt;
+
     /**
      * Empty constructor.
      */
@@ -66,4 +71,18 @@ public class UpdateDbRequest {
     public void setDocumentChanges(DocumentChanges documentChanges) {
         this.documentChanges = documentChanges;
     }
+
+    /**
+     * @param queuedAt time when request was added to queue of remote changes
+     */
+    void setQueuedAt(long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    /**
+     * @return time when request was added to queue of remote changes
+     */
+    long getQueuedAt() {
+        return queuedAt;
+    }
 }
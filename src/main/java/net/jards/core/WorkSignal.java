@@ -0,0 +1,77 @@
+package net.jards.core;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Signal used to wake up thread waiting for work (requests in queues of Storage).
+ * Signal is remembered until waiting thread takes it, so signal sent before waiting is not lost.
+ * Uses lock instead of monitor, so loop of Storage running in virtual thread doesn't pin carrier thread.
+ */
+class WorkSignal {
+
+    /**
+     * lock guarding signaled
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * condition waiting threads wait on
+     */
+    private final Condition signaledCondition = lock.newCondition();
+    /**
+     * true if work was signaled and not taken yet
+     */
+    private boolean signaled = false;
+
+    /**
+     * Signals that there is new work (or state changed), wakes up waiting thread.
+     */
+    void signal() {
+        lock.lock();
+        try {
+            signaled = true;
+            signaledCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for signal and takes it. Returns immediately if signal came before.
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    void await() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!signaled) {
+                signaledCondition.await();
+            }
+            signaled = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for signal at most given time and takes it.
+     * @param nanos maximal time to wait in nanoseconds
+     * @return true if signal came, false if time passed
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    boolean await(long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = nanos;
+            while (!signaled) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = signaledCondition.awaitNanos(remaining);
+            }
+            signaled = false;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
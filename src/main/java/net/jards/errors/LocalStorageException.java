@@ -42,6 +42,10 @@ public abstract class LocalStorageException extends Exception{
      * problem with index fields
      */
     public static final int INDEX_FIELDS_EXCEPTION = 9;
+    /**
+     * problem while migrating collection to new setup
+     */
+    public static final int MIGRATION_EXCEPTION = 10;
 
     private int id;
     private String source;
@@ -0,0 +1,383 @@
+package net.jards.local.sqlite;
+
+import net.jards.metrics.Counter;
+import net.jards.metrics.Histogram;
+import net.jards.metrics.MetricsRegistry;
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds connections of SQLiteLocalStorage for whole time storage is running.
+ * One writer connection is used for all writes (and for reads when there is no read pool),
+ * optional read-only connections can be used by readers from other threads.
+ */
+class SQLiteConnectionPool {
+
+    /**
+     * time (milliseconds) after which thread waiting for read connection checks if pool was closed
+     */
+    private static final long READER_WAIT_CHECK_MILLIS = 100;
+
+    /**
+     * database address
+     */
+    private final String databaseAddress;
+    /**
+     * number of read-only connections (0 means readers use writer connection)
+     */
+    private final int readConnectionsCount;
+    /**
+     * time spent opening connections (nanoseconds)
+     */
+    private final Histogram connectionOpenTime;
+    /**
+     * number of closed connections
+     */
+    private final Counter closedConnections;
+    /**
+     * number of times writer connection was used
+     */
+    private final Counter writerAcquisitions;
+    /**
+     * time spent waiting for idle read connection (nanoseconds)
+     */
+    private final Histogram readerWait;
+    /**
+     * number of statements taken from statement caches
+     */
+    private final Counter statementCacheHits;
+    /**
+     * number of statements that had to be prepared
+     */
+    private final Counter statementCacheMisses;
+    /**
+     * maximal number of cached statements for one connection
+     */
+    private final int statementCacheSize;
+    /**
+     * schema versions of collections (key is full name of collection), used to invalidate cached statements
+     */
+    private final ConcurrentHashMap<String, Long> schemaVersions = new ConcurrentHashMap<>();
+    /**
+     * statement caches of opened connections
+     */
+    private final Map<Connection, SQLiteStatementCache> statementCaches = new IdentityHashMap<>();
+
+    /**
+     * connection used for writes, opened on first use and held until pool is closed
+     */
+    private Connection writer;
+    /**
+     * idle read-only connections
+     */
+    private BlockingQueue<Connection> idleReaders;
+    /**
+     * all opened read-only connections (to close them)
+     */
+    private final List<Connection> openedReaders = new ArrayList<>();
+    /**
+     * read-only connections which were borrowed when pool was closed, they are closed when given back
+     */
+    private final Set<Connection> retiredReaders = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Creates pool, no connection is opened here.
+     * @param databaseAddress address used to connect to database
+     * @param readConnectionsCount number of read-only connections, 0 to disable read pool
+     * @param statementCacheSize maximal number of cached statements for one connection
+     * @param metricsRegistry registry for metrics of connections and statement caches
+     */
+    SQLiteConnectionPool(String databaseAddress, int readConnectionsCount, int statementCacheSize,
+                         MetricsRegistry metricsRegistry) {
+        this.databaseAddress = databaseAddress;
+        this.statementCacheSize = statementCacheSize;
+        //in memory database is private for connection, readers would see different database
+        if (databaseAddress.contains(":memory:")){
+            this.readConnectionsCount = 0;
+        } else {
+            this.readConnectionsCount = Math.max(0, readConnectionsCount);
+        }
+        connectionOpenTime = metricsRegistry.histogram("sqlite.connection.open");
+        closedConnections = metricsRegistry.counter("sqlite.connection.closed");
+        writerAcquisitions = metricsRegistry.counter("sqlite.connection.writer.acquired");
+        readerWait = metricsRegistry.histogram("sqlite.connection.reader.wait");
+        statementCacheHits = metricsRegistry.counter("sqlite.statementCache.hits");
+        statementCacheMisses = metricsRegistry.counter("sqlite.statementCache.misses");
+        metricsRegistry.gauge("sqlite.connection.opened", this::countOpenedConnections);
+        metricsRegistry.gauge("sqlite.connection.readers.idle", this::countIdleReaders);
+    }
+
+    /**
+     * Returns writer connection, opens it (and read pool) if it is not opened yet.
+     * @return connection used for writes
+     * @throws SqliteException if connection can't be opened
+     */
+    synchronized Connection getWriter() throws SqliteException {
+        writerAcquisitions.increment();
+        try {
+            if (writer != null && !writer.isClosed()){
+                return writer;
+            }
+        } catch (SQLException e) {
+            //connection is broken, open new one
+        }
+        open();
+        return writer;
+    }
+
+    /**
+     * Borrows read connection. Writer connection is returned if read pool is disabled.
+     * Borrowed connection must be given back with releaseReader.
+     * @return connection which can be used for reads
+     * @throws SqliteException if connection can't be opened, pool was closed or thread was interrupted
+     * while waiting
+     */
+    Connection acquireReader() throws SqliteException {
+        if (readConnectionsCount == 0){
+            return getWriter();
+        }
+        BlockingQueue<Connection> readers;
+        synchronized (this){
+            if (idleReaders == null){
+                open();
+            }
+            readers = idleReaders;
+        }
+        long start = readerWait.startTiming();
+        try {
+            while (true){
+                Connection reader = readers.poll(READER_WAIT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (reader != null){
+                    readerWait.recordSince(start);
+                    return reader;
+                }
+                synchronized (this){
+                    if (idleReaders != readers){
+                        //connections of this pool were closed, nothing will be given back to this queue
+                        throw new SqliteException(SqliteException.CONNECTION_EXCEPTION,
+                                "Sqlite local database, read connection pool",
+                                "Read connection pool was closed while waiting for read connection. ",
+                                null);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SqliteException(SqliteException.CONNECTION_EXCEPTION,
+                    "Sqlite local database, read connection pool",
+                    "Interrupted while waiting for read connection. ",
+                    e);
+        }
+    }
+
+    /**
+     * Returns borrowed read connection to pool.
+     * @param connection connection from acquireReader
+     */
+    synchronized void releaseReader(Connection connection) {
+        if (connection == null || connection == writer){
+            return;
+        }
+        //connection borrowed before close is closed now
+        if (retiredReaders.remove(connection)){
+            closeReader(connection);
+            return;
+        }
+        //connections opened before close are not returned
+        if (idleReaders != null && openedReaders.contains(connection)){
+            idleReaders.offer(connection);
+        }
+    }
+
+    /**
+     * Returns statement cache of connection opened by this pool.
+     * @param connection writer or borrowed read connection
+     * @return statement cache for given connection
+     */
+    synchronized SQLiteStatementCache getStatementCache(Connection connection) {
+        return statementCaches.get(connection);
+    }
+
+    /**
+     * Marks schema of collection as changed, so statements prepared for it are not used anymore.
+     * Stale statements of writer connection are closed immediately (call with writer lock held), read
+     * connections close theirs on next use.
+     * @param collectionFullName full name of collection (table)
+     */
+    synchronized void schemaChanged(String collectionFullName) {
+        schemaVersions.merge(collectionFullName, 1L, Long::sum);
+        if (writer != null){
+            statementCaches.get(writer).evictStale();
+        }
+    }
+
+    /**
+     * @return true if reads use separate read-only connections
+     */
+    boolean hasReadPool() {
+        return readConnectionsCount > 0;
+    }
+
+    /**
+     * Opens writer and read-only connections.
+     * @throws SqliteException if connection can't be opened
+     */
+    private void open() throws SqliteException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            if (writer == null || writer.isClosed()){
+                if (writer != null){
+                    statementCaches.remove(writer);
+                }
+                SQLiteConfig writerConfig = new SQLiteConfig();
+                if (readConnectionsCount > 0){
+                    //readers don't block writer (and writer readers) in WAL mode
+                    writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+                }
+                long start = connectionOpenTime.startTiming();
+                writer = DriverManager.getConnection(databaseAddress, writerConfig.toProperties());
+                connectionOpenTime.recordSince(start);
+                statementCaches.put(writer, newStatementCache(writer));
+            }
+            if (readConnectionsCount > 0 && idleReaders == null){
+                BlockingQueue<Connection> readers = new ArrayBlockingQueue<>(readConnectionsCount);
+                SQLiteConfig readerConfig = new SQLiteConfig();
+                readerConfig.setReadOnly(true);
+                for (int i = 0; i < readConnectionsCount; i++) {
+                    long start = connectionOpenTime.startTiming();
+                    Connection reader = DriverManager.getConnection(databaseAddress, readerConfig.toProperties());
+                    connectionOpenTime.recordSince(start);
+                    statementCaches.put(reader, newStatementCache(reader));
+                    openedReaders.add(reader);
+                    readers.offer(reader);
+                }
+                idleReaders = readers;
+            }
+        } catch (Exception e) {
+            System.out.println("local db connection error");
+            throw new SqliteException(SqliteException.CONNECTION_EXCEPTION,
+                    "Sqlite local database",
+                    "Can't connect to local database. \n "+e.toString(),
+                    e);
+        }
+    }
+
+    /**
+     * @param connection opened connection
+     * @return empty statement cache of connection
+     */
+    private SQLiteStatementCache newStatementCache(Connection connection) {
+        return new SQLiteStatementCache(connection, statementCacheSize, schemaVersions, statementCacheHits,
+                statementCacheMisses);
+    }
+
+    /**
+     * @return number of opened connections (writer, readers and borrowed readers of closed pool)
+     */
+    private synchronized long countOpenedConnections() {
+        return (writer == null ? 0 : 1) + openedReaders.size() + retiredReaders.size();
+    }
+
+    /**
+     * @return number of read connections which can be borrowed now
+     */
+    private synchronized long countIdleReaders() {
+        return idleReaders == null ? 0 : idleReaders.size();
+    }
+
+    /**
+     * Closes writer and idle read connections. Writer is closed in synchronized block of writer (like all its
+     * uses), so statement running on it finishes first. Borrowed read connections are closed when they are
+     * given back, so running reads can finish. Threads waiting for read connection stop waiting with exception.
+     * Pool can be opened again with getWriter.
+     */
+    void close() {
+        Connection closedWriter;
+        synchronized (this){
+            closedWriter = writer;
+        }
+        if (closedWriter == null){
+            synchronized (this){
+                closeReaders();
+            }
+            return;
+        }
+        //writer is locked before pool, same order as statements which use statement cache of writer
+        synchronized (closedWriter){
+            synchronized (this){
+                if (writer == closedWriter){
+                    closeWriter();
+                }
+                closeReaders();
+            }
+        }
+    }
+
+    /**
+     * Closes writer connection and its cached statements. Call with lock of writer and pool.
+     */
+    private void closeWriter() {
+        SQLiteStatementCache writerCache = statementCaches.remove(writer);
+        if (writerCache != null){
+            writerCache.close();
+        }
+        try {
+            if (!writer.isClosed()){
+                writer.close();
+                closedConnections.increment();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        writer = null;
+    }
+
+    /**
+     * Closes idle read connections, borrowed ones are closed when they are given back. Call with lock of pool.
+     */
+    private void closeReaders() {
+        if (idleReaders != null){
+            List<Connection> idle = new ArrayList<>();
+            idleReaders.drainTo(idle);
+            for (Connection reader : openedReaders) {
+                if (idle.contains(reader)){
+                    closeReader(reader);
+                } else {
+                    retiredReaders.add(reader);
+                }
+            }
+        }
+        openedReaders.clear();
+        idleReaders = null;
+    }
+
+    /**
+     * Closes read connection and its cached statements.
+     * @param reader read-only connection of this pool
+     */
+    private void closeReader(Connection reader) {
+        SQLiteStatementCache statementCache = statementCaches.remove(reader);
+        if (statementCache != null){
+            statementCache.close();
+        }
+        try {
+            reader.close();
+            closedConnections.increment();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.jards.local.sqlite;
+
+import net.jards.core.CollectionSetup;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Conversions of values for typed index columns. Index values are read from json (as json strings) and stored
+ * in column of index type, values of predicates are bound with same type, so sqlite compares numbers as numbers
+ * and can use index for range conditions.
+ */
+final class SQLiteIndexValues {
+
+    private SQLiteIndexValues() {
+    }
+
+    /**
+     * @param indexType type of index (CollectionSetup.INDEX_TYPE_...)
+     * @return sql type of column for index
+     */
+    static String columnType(String indexType) {
+        if (CollectionSetup.INDEX_TYPE_INT.equals(indexType)){
+            return "int";
+        }
+        if (CollectionSetup.INDEX_TYPE_REAL.equals(indexType)){
+            return "real";
+        }
+        if (CollectionSetup.INDEX_TYPE_BOOLEAN.equals(indexType)){
+            return "integer";
+        }
+        return "text";
+    }
+
+    /**
+     * @param indexType type of index
+     * @return true if index holds numbers (int, real)
+     */
+    static boolean isNumeric(String indexType) {
+        return CollectionSetup.INDEX_TYPE_INT.equals(indexType) || CollectionSetup.INDEX_TYPE_REAL.equals(indexType);
+    }
+
+    /**
+     * Converts value read from json to value of column. Value that doesn't fit type of index is stored as null
+     * (same as missing value).
+     * @param indexType type of index
+     * @param jsonValue value read by property extractor (json string)
+     * @return value for column (Long, Double, String or null)
+     */
+    static Object toColumnValue(String indexType, Object jsonValue) {
+        if (jsonValue == null){
+            return null;
+        }
+        String json = jsonValue.toString();
+        if (isNumeric(indexType)){
+            return parseNumber(json, CollectionSetup.INDEX_TYPE_INT.equals(indexType));
+        }
+        if (CollectionSetup.INDEX_TYPE_BOOLEAN.equals(indexType)){
+            if ("true".equals(json)){
+                return 1L;
+            }
+            return "false".equals(json) ? 0L : null;
+        }
+        return json;
+    }
+
+    /**
+     * Converts value of predicate to parameter compared with column of index.
+     * @param indexType type of index
+     * @param value value of predicate (String, Number, Boolean)
+     * @return parameter value (Long, Double, String)
+     */
+    static Object toParameterValue(String indexType, Object value) {
+        if (value instanceof Boolean && CollectionSetup.INDEX_TYPE_BOOLEAN.equals(indexType)){
+            return (Boolean) value ? 1L : 0L;
+        }
+        if (value instanceof Number && isNumeric(indexType)){
+            Number number = (Number) value;
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte){
+                return number.longValue();
+            }
+            return number.doubleValue();
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * @param indexType type of index
+     * @param value value of predicate
+     * @return true if value can be compared with column in sql with same result as in predicate
+     */
+    static boolean isComparable(String indexType, Object value) {
+        if (indexType == null){
+            return false;
+        }
+        if (value instanceof Number){
+            return isNumeric(indexType);
+        }
+        if (value instanceof Boolean){
+            return CollectionSetup.INDEX_TYPE_BOOLEAN.equals(indexType);
+        }
+        return CollectionSetup.INDEX_TYPE_TEXT.equals(indexType);
+    }
+
+    /**
+     * Binds typed value to statement.
+     * @param statement statement
+     * @param index index of parameter
+     * @param value value (Long, Double, String or null)
+     * @throws SQLException if value can't be bound
+     */
+    static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null){
+            statement.setNull(index, Types.NULL);
+        } else if (value instanceof Long){
+            statement.setLong(index, (Long) value);
+        } else if (value instanceof Double){
+            statement.setDouble(index, (Double) value);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    /**
+     * @param json json string of value
+     * @param integer true if integer is preferred (real is returned only if value has fraction)
+     * @return Long or Double, null if json is not a number
+     */
+    private static Object parseNumber(String json, boolean integer) {
+        if (json.isEmpty()){
+            return null;
+        }
+        char first = json.charAt(0);
+        if ((first < '0' || first > '9') && first != '-'){
+            return null;
+        }
+        try {
+            if (integer && json.indexOf('.') < 0 && json.indexOf('e') < 0 && json.indexOf('E') < 0){
+                try {
+                    return Long.parseLong(json);
+                } catch (NumberFormatException e) {
+                    //too big for long, stored as real
+                    return Double.parseDouble(json);
+                }
+            }
+            double number = Double.parseDouble(json);
+            if (integer && number == Math.rint(number) && Math.abs(number) < Long.MAX_VALUE){
+                return (long) number;
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
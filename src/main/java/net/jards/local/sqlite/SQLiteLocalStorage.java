@@ -2,11 +2,13 @@ package net.jards.local.sqlite;
 
 import net.jards.core.*;
 import net.jards.errors.LocalStorageException;
+import net.jards.metrics.Histogram;
 
 import java.sql.Connection;
 import java.sql.*;
 import java.sql.ResultSet;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementation of LocalStorage using SQLite as local database.
@@ -15,41 +17,90 @@ import java.util.*;
 public class SQLiteLocalStorage extends LocalStorage {
 
     /**
-     * Java sql connection, used to connect to database.
+     * maximal number of cached prepared statements for one connection
+     */
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    /**
+     * Java sql connection used for writes (held by connection pool while storage runs).
      */
     private Connection connection;
     /**
      * database address
      */
     private final String localDbAddress; //"jdbc:sqlite:test.db"
+    /**
+     * pool holding writer and (optional) read-only connections
+     */
+    private final SQLiteConnectionPool connectionPool;
+    /**
+     * depth of opened transactions on writer connection (0 if autocommit is used)
+     */
+    private int transactionDepth = 0;
+    /**
+     * held by thread with opened transaction on writer connection (once for every level of transaction), writes
+     * of other threads wait for end of transaction (else they would be part of it)
+     */
+    private final ReentrantLock transactionLock = new ReentrantLock();
+    /**
+     * number of documents whose index values are filled in one transaction during migration
+     */
+    private static final int MIGRATION_BATCH_SIZE = 500;
+    /**
+     * number of tombstones appended to request log after which log is compacted
+     */
+    private static final int REQUEST_LOG_COMPACTION_THRESHOLD = 256;
+    /**
+     * number of tombstones appended to request log since last compaction
+     */
+    private int requestLogTombstones = 0;
+    /**
+     * latency of single write statements (nanoseconds)
+     */
+    private final Histogram writeStatementTime;
+    /**
+     * latency of batches of write statements (nanoseconds)
+     */
+    private final Histogram batchStatementTime;
+    /**
+     * latency of queries including reading of rows (nanoseconds)
+     */
+    private final Histogram queryStatementTime;
 
     /**
-     * Constructor with StorageSetup and database address.
+     * Constructor with StorageSetup and database address. All reads and writes use one connection.
      * @param storageSetup setup of collection with prefix, collections and indexes
      * @param databaseAddress address used to connect to database
      */
     public SQLiteLocalStorage(StorageSetup storageSetup, String databaseAddress) {
+        this(storageSetup, databaseAddress, 0);
+    }
+
+    /**
+     * Constructor with StorageSetup, database address and number of read-only connections.
+     * Read-only connections let readers from other threads run concurrently with writes (not
+     * used for in memory database).
+     * @param storageSetup setup of collection with prefix, collections and indexes
+     * @param databaseAddress address used to connect to database
+     * @param readConnections number of read-only connections, 0 to use writer connection for reads
+     */
+    public SQLiteLocalStorage(StorageSetup storageSetup, String databaseAddress, int readConnections) {
         super(storageSetup);
         localDbAddress = databaseAddress;
+        connectionPool = new SQLiteConnectionPool(databaseAddress, readConnections, STATEMENT_CACHE_SIZE,
+                getMetricsRegistry());
+        writeStatementTime = getMetricsRegistry().histogram("sqlite.statement.write");
+        batchStatementTime = getMetricsRegistry().histogram("sqlite.statement.batch");
+        queryStatementTime = getMetricsRegistry().histogram("sqlite.statement.query");
     }
 
     /**
-     * Connects to database. Helper method.
+     * Connects to database (opens connection only if it is not opened already). Helper method.
      * @throws SqliteException throws exception if there is problem to connect to database
      */
     @Override
     protected void connectDB() throws SqliteException {
-        connection = null;
-        try {
-            Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection(localDbAddress);  //"jdbc:sqlite:test.db");
-        } catch ( Exception e ) {
-            System.out.println("local db connection error");
-            throw new SqliteException(SqliteException.CONNECTION_EXCEPTION,
-                    "Sqlite local database",
-                    "Can't connect to local database. \n "+e.toString(),
-                    e);
-        }
+        connection = connectionPool.getWriter();
     }
 
     /**
@@ -64,22 +115,12 @@ public class SQLiteLocalStorage extends LocalStorage {
         List<String> orderedIndexes = collection.getOrderedIndexes();
         //index columns and sql for creatng indexes
         StringBuilder indexesColumns = new StringBuilder();
-        StringBuilder createIndexesSql = new StringBuilder();
         for (String index : orderedIndexes) {
             //add column for index (called as way to value in json)
             indexesColumns.append(", ")
                     .append(index)
                     .append(" ")
-                    .append(indexesMap.get(index));
-            //add index (createDocument index statement)
-            createIndexesSql.append("\n create index ")
-                    .append(index)
-                    .append("_index on ")
-                    .append(getPrefix())
-                    .append(collection.getName())
-                    .append(" (")
-                    .append(index)
-                    .append(");");
+                    .append(SQLiteIndexValues.columnType(indexesMap.get(index)));
         }
 
         //sql for creating table
@@ -89,12 +130,18 @@ public class SQLiteLocalStorage extends LocalStorage {
                 .append(" (id varchar(36) primary key, collection text, jsondata text")
                 .append(indexesColumns)
                 .append(");")
-                .append(createIndexesSql)
                 .toString();
         Statement statement = null;
         try {
-            statement = connection.createStatement();
-            statement.execute(sql);
+            synchronized (connection){
+                statement = connection.createStatement();
+                //one statement per execute (sqlite executes only first statement of sql string)
+                statement.execute(sql);
+                for (String createIndexSql : createIndexesSql(collection)) {
+                    statement.execute(createIndexSql);
+                }
+                connectionPool.schemaChanged(collection.getFullName());
+            }
         } catch (SQLException e) {
             e.printStackTrace();
             throw new SqliteException(SqliteException.ADDING_COLLECTION_EXCEPTION,
@@ -106,6 +153,86 @@ public class SQLiteLocalStorage extends LocalStorage {
         }
     }
 
+    /**
+     * @param collection setup of collection
+     * @return sql statements creating indexes and composite indexes of collection (if they don't exist)
+     */
+    private List<String> createIndexesSql(CollectionSetup collection) {
+        List<String> createIndexesSql = new ArrayList<>();
+        for (String index : collection.getOrderedIndexes()) {
+            //name with table name, so indexes of different collections don't collide
+            createIndexesSql.add(new StringBuilder("create index if not exists ")
+                    .append(collection.getFullName())
+                    .append("_")
+                    .append(index)
+                    .append("_index on ")
+                    .append(collection.getFullName())
+                    .append(" (")
+                    .append(index)
+                    .append(");").toString());
+        }
+        for (CollectionSetup.CompositeIndex compositeIndex : collection.getCompositeIndexes()) {
+            StringBuilder sql = new StringBuilder("create index if not exists ")
+                    .append(SQLiteQueryGenerator.compositeIndexName(collection, compositeIndex))
+                    .append(" on ")
+                    .append(collection.getFullName())
+                    .append(" (");
+            for (int i = 0; i < compositeIndex.getProperties().size(); i++) {
+                if (i > 0){
+                    sql.append(", ");
+                }
+                sql.append(compositeIndex.getProperties().get(i)).append(" ")
+                        .append(compositeIndex.getOrders().get(i));
+            }
+            //covering index has also id, so ids of documents are read from index only
+            if (compositeIndex.isCovering()){
+                sql.append(", id");
+            }
+            createIndexesSql.add(sql.append(");").toString());
+        }
+        return createIndexesSql;
+    }
+
+    /**
+     * Creates indexes missing in existing collections (databases created by older versions have index
+     * columns without indexes). Covering indexes created by older versions with content of documents are
+     * created again.
+     * @throws SqliteException throws exception if there is problem with writes to database
+     */
+    private void createMissingIndexes() throws SqliteException {
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            synchronized (connection){
+                statement = connection.createStatement();
+                for (CollectionSetup collection : getCollectionSetups()) {
+                    List<String> oldCoveringIndexes = new ArrayList<>();
+                    resultSet = statement.executeQuery("select name from sqlite_master where type = 'index' and tbl_name = '"
+                            +collection.getFullName()+"' and sql like '%jsondata%';");
+                    while (resultSet.next()){
+                        oldCoveringIndexes.add(resultSet.getString(1));
+                    }
+                    close(resultSet);
+                    resultSet = null;
+                    for (String indexName : oldCoveringIndexes) {
+                        statement.execute("drop index if exists "+indexName+";");
+                    }
+                    for (String createIndexSql : createIndexesSql(collection)) {
+                        statement.execute(createIndexSql);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.ADDING_COLLECTION_EXCEPTION,
+                    "Sqlite local database, creating indexes",
+                    "Problem creating indexes. \n "+e.toString(),
+                    e);
+        } finally {
+            close(resultSet);
+            close(statement);
+        }
+    }
+
     /**
      * Removes collection (drops table) froms torage
      * @param collection collection to remove
@@ -116,8 +243,11 @@ public class SQLiteLocalStorage extends LocalStorage {
         connectDB();
         Statement statement = null;
         try {
-            statement = connection.createStatement();
-            statement.execute("drop table if exists "+collection.getFullName()+";");
+            synchronized (connection){
+                connectionPool.schemaChanged(collection.getFullName());
+                statement = connection.createStatement();
+                statement.execute("drop table if exists "+collection.getFullName()+";");
+            }
         } catch (SQLException e) {
             throw new SqliteException(SqliteException.REMOVING_COLLECTION_EXCEPTION,
                     "Sqlite local database, collection "+collection.getName(),
@@ -128,18 +258,345 @@ public class SQLiteLocalStorage extends LocalStorage {
         }
     }
 
+    /**
+     * Migrates collection to new setup without dropping its documents. If new setup only adds indexes, columns
+     * are added to existing table. If index is removed or its type changed, table is rebuilt (documents are
+     * copied to new table in one transaction). Changed or removed indexes are dropped, new ones created and
+     * values of index columns are filled from json of documents in batches (each batch in own transaction,
+     * so writer is not blocked for long time on big collections). Index values are filled again whenever
+     * indexes changed, so migration interrupted while filling them is finished on next start. Progress is
+     * reported to MigrationListener.
+     * @param oldSetup setup used to create collection in database, null if it is not known (table is compared
+     *                 with new setup, all its indexes are created again and index values are filled)
+     * @param newSetup new setup of collection
+     * @throws LocalStorageException throws exception if there is problem with writes to database
+     */
+    @Override
+    protected void migrateCollection(CollectionSetup oldSetup, CollectionSetup newSetup) throws LocalStorageException {
+        connectDB();
+        Map<String, String> columns = readColumns(newSetup.getFullName());
+        if (columns.isEmpty()){
+            //table doesn't exist, nothing to migrate
+            addCollection(newSetup);
+            return;
+        }
+        boolean rebuild = false;
+        List<String> addedIndexes = new ArrayList<>();
+        for (String column : columns.keySet()) {
+            if (!isDocumentColumn(column) && !newSetup.hasIndex(column)){
+                rebuild = true;
+            }
+        }
+        for (String index : newSetup.getOrderedIndexes()) {
+            String columnType = columns.get(index);
+            if (columnType == null){
+                addedIndexes.add(index);
+            } else if (!columnType.equalsIgnoreCase(SQLiteIndexValues.columnType(newSetup.getIndexType(index)))){
+                rebuild = true;
+            }
+        }
+        try {
+            if (rebuild){
+                rebuildCollection(newSetup);
+            } else {
+                alterCollection(oldSetup, newSetup, addedIndexes);
+            }
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.MIGRATION_EXCEPTION,
+                    "Sqlite local database, collection "+newSetup.getName(),
+                    "Problem migrating collection. \n "+e.toString(),
+                    e);
+        }
+        boolean indexesChanged = rebuild || !addedIndexes.isEmpty() || oldSetup == null
+                || !oldSetup.getIndexes().equals(newSetup.getIndexes());
+        if (indexesChanged && !newSetup.getOrderedIndexes().isEmpty()){
+            fillIndexColumns(newSetup);
+        }
+    }
+
+    /**
+     * Finishes rebuild of collection interrupted by end of application (table with "_migration" suffix
+     * exists). If table of collection is missing, old table is renamed back, else documents missing in
+     * table of collection are copied from old table and old table is dropped. Runs in one transaction.
+     * @param collectionSetup setup of collection
+     * @return true if old table was found
+     * @throws SqliteException throws exception if there is problem with writes to database
+     */
+    @Override
+    protected boolean recoverCollection(CollectionSetup collectionSetup) throws SqliteException {
+        connectDB();
+        String tableName = collectionSetup.getFullName();
+        String migrationTableName = tableName + "_migration";
+        if (readColumns(migrationTableName).isEmpty()){
+            return false;
+        }
+        Statement statement = null;
+        beginTransaction();
+        try {
+            synchronized (connection){
+                statement = connection.createStatement();
+                if (readColumns(tableName).isEmpty()){
+                    statement.execute("alter table "+migrationTableName+" rename to "+tableName+";");
+                } else {
+                    statement.execute("insert or ignore into "+tableName+" (id, collection, jsondata) select id, collection, jsondata from "
+                            +migrationTableName+";");
+                    statement.execute("drop table "+migrationTableName+";");
+                }
+                connectionPool.schemaChanged(tableName);
+            }
+            commitTransaction();
+        } catch (SQLException e) {
+            rollbackTransaction();
+            throw new SqliteException(SqliteException.MIGRATION_EXCEPTION,
+                    "Sqlite local database, collection "+collectionSetup.getName(),
+                    "Problem recovering interrupted migration. \n "+e.toString(),
+                    e);
+        } catch (SqliteException e) {
+            rollbackTransaction();
+            throw e;
+        } finally {
+            close(statement);
+        }
+        return true;
+    }
+
+    /**
+     * @param column name of column
+     * @return true if column is one of columns of every collection (id, collection, jsondata)
+     */
+    private static boolean isDocumentColumn(String column) {
+        return "id".equals(column) || "collection".equals(column) || "jsondata".equals(column);
+    }
+
+    /**
+     * @param tableName name of table
+     * @return map with names and declared types of columns of table (empty if table doesn't exist)
+     * @throws SqliteException throws exception if there is problem with reads from database
+     */
+    private Map<String, String> readColumns(String tableName) throws SqliteException {
+        Map<String, String> columns = new LinkedHashMap<>();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            synchronized (connection){
+                statement = connection.createStatement();
+                //pragma of missing table returns no result set
+                resultSet = statement.executeQuery("select count(*) from sqlite_master where type = 'table' and name = '"
+                        +tableName+"';");
+                boolean exists = resultSet.next() && resultSet.getInt(1) > 0;
+                close(resultSet);
+                resultSet = null;
+                if (!exists){
+                    return columns;
+                }
+                resultSet = statement.executeQuery("pragma table_info("+tableName+");");
+                while (resultSet.next()){
+                    columns.put(resultSet.getString("name"), resultSet.getString("type"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.MIGRATION_EXCEPTION,
+                    "Sqlite local database, table "+tableName,
+                    "Problem reading columns of table. \n "+e.toString(),
+                    e);
+        } finally {
+            close(resultSet);
+            close(statement);
+        }
+        return columns;
+    }
+
+    /**
+     * Adds columns for new indexes to existing table, drops changed and removed composite indexes and creates
+     * missing indexes.
+     * @param oldSetup setup used to create collection in database, null if it is not known (all indexes of
+     *                 table are dropped)
+     * @param newSetup new setup of collection
+     * @param addedIndexes indexes which have no column in table
+     * @throws SQLException if there is problem with writes to database
+     */
+    private void alterCollection(CollectionSetup oldSetup, CollectionSetup newSetup, List<String> addedIndexes)
+            throws SQLException {
+        Statement statement = null;
+        try {
+            synchronized (connection){
+                statement = connection.createStatement();
+                for (String index : addedIndexes) {
+                    statement.execute("alter table "+newSetup.getFullName()+" add column "+index+" "
+                            +SQLiteIndexValues.columnType(newSetup.getIndexType(index))+";");
+                }
+                //composite index with same name can have other properties, it is created again
+                if (oldSetup == null){
+                    dropIndexes(statement, newSetup.getFullName());
+                } else {
+                    for (CollectionSetup.CompositeIndex compositeIndex : oldSetup.getCompositeIndexes()) {
+                        statement.execute("drop index if exists "
+                                +SQLiteQueryGenerator.compositeIndexName(oldSetup, compositeIndex)+";");
+                    }
+                }
+                for (String createIndexSql : createIndexesSql(newSetup)) {
+                    statement.execute(createIndexSql);
+                }
+                connectionPool.schemaChanged(newSetup.getFullName());
+            }
+        } finally {
+            close(statement);
+        }
+    }
+
+    /**
+     * Creates table of collection again with columns of new setup and copies documents (without values
+     * of indexes) from old table. Runs in one transaction.
+     * @param newSetup new setup of collection
+     * @throws SQLException if there is problem with writes to database
+     * @throws SqliteException if transaction can't be started or committed
+     */
+    private void rebuildCollection(CollectionSetup newSetup) throws SQLException, SqliteException {
+        String tableName = newSetup.getFullName();
+        String migrationTableName = tableName + "_migration";
+        Statement statement = null;
+        beginTransaction();
+        try {
+            synchronized (connection){
+                statement = connection.createStatement();
+                //indexes keep their names after rename, they are dropped so new ones can be created
+                dropIndexes(statement, tableName);
+                statement.execute("drop table if exists "+migrationTableName+";");
+                statement.execute("alter table "+tableName+" rename to "+migrationTableName+";");
+                addCollection(newSetup);
+                statement.execute("insert into "+tableName+" (id, collection, jsondata) select id, collection, jsondata from "
+                        +migrationTableName+";");
+                statement.execute("drop table "+migrationTableName+";");
+                connectionPool.schemaChanged(tableName);
+            }
+            commitTransaction();
+        } catch (SQLException | SqliteException e) {
+            rollbackTransaction();
+            throw e;
+        } finally {
+            close(statement);
+        }
+    }
+
+    /**
+     * Drops all indexes created for table (not automatic index of primary key).
+     * @param statement statement of writer connection (call with writer lock held)
+     * @param tableName name of table
+     * @throws SQLException if there is problem with writes to database
+     */
+    private void dropIndexes(Statement statement, String tableName) throws SQLException {
+        List<String> indexNames = new ArrayList<>();
+        ResultSet resultSet = statement.executeQuery("select name from sqlite_master where type = 'index' and tbl_name = '"
+                +tableName+"' and sql is not null;");
+        try {
+            while (resultSet.next()){
+                indexNames.add(resultSet.getString(1));
+            }
+        } finally {
+            close(resultSet);
+        }
+        for (String indexName : indexNames) {
+            statement.execute("drop index if exists "+indexName+";");
+        }
+    }
+
+    /**
+     * Fills values of all index columns from json of documents. Documents are updated in batches ordered
+     * by rowid, each batch in own transaction.
+     * @param collectionSetup setup of collection (new setup)
+     * @throws SqliteException if there is problem with reads or writes to database
+     */
+    private void fillIndexColumns(CollectionSetup collectionSetup) throws SqliteException {
+        String tableName = collectionSetup.getFullName();
+        List<String> orderedIndexes = collectionSetup.getOrderedIndexes();
+        StringBuilder updateSql = new StringBuilder("update ").append(tableName).append(" set ");
+        for (int i = 0; i < orderedIndexes.size(); i++) {
+            if (i > 0){
+                updateSql.append(", ");
+            }
+            updateSql.append(orderedIndexes.get(i)).append("= ? ");
+        }
+        updateSql.append(" where rowid= ? ;");
+        PreparedStatement selectStatement = null;
+        PreparedStatement updateStatement = null;
+        try {
+            long totalDocuments;
+            synchronized (connection){
+                Statement countStatement = connection.createStatement();
+                try {
+                    ResultSet countResult = countStatement.executeQuery("select count(*) from "+tableName+";");
+                    totalDocuments = countResult.next() ? countResult.getLong(1) : 0;
+                    close(countResult);
+                } finally {
+                    close(countStatement);
+                }
+                selectStatement = connection.prepareStatement("select rowid, jsondata from "+tableName
+                        +" where rowid > ? order by rowid limit "+MIGRATION_BATCH_SIZE+";");
+                updateStatement = connection.prepareStatement(updateSql.toString());
+            }
+            reportMigrationProgress(collectionSetup.getName(), 0, totalDocuments);
+            long migratedDocuments = 0;
+            long lastRowId = Long.MIN_VALUE;
+            while (true){
+                int batchDocuments = 0;
+                beginTransaction();
+                try {
+                    synchronized (connection){
+                        selectStatement.setLong(1, lastRowId);
+                        ResultSet resultSet = selectStatement.executeQuery();
+                        try {
+                            while (resultSet.next()){
+                                lastRowId = resultSet.getLong(1);
+                                int idx = 1;
+                                for (Object indexValue : getIndexesValues(collectionSetup.getName(), resultSet.getString(2))) {
+                                    SQLiteIndexValues.bind(updateStatement, idx++, indexValue);
+                                }
+                                updateStatement.setLong(idx, lastRowId);
+                                updateStatement.addBatch();
+                                batchDocuments++;
+                            }
+                        } finally {
+                            close(resultSet);
+                        }
+                        if (batchDocuments > 0){
+                            updateStatement.executeBatch();
+                        }
+                    }
+                    commitTransaction();
+                } catch (SQLException | SqliteException e) {
+                    rollbackTransaction();
+                    throw e;
+                }
+                if (batchDocuments == 0){
+                    break;
+                }
+                migratedDocuments += batchDocuments;
+                reportMigrationProgress(collectionSetup.getName(), migratedDocuments, totalDocuments);
+            }
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.MIGRATION_EXCEPTION,
+                    "Sqlite local database, collection "+collectionSetup.getName(),
+                    "Problem filling index values. \n "+e.toString(),
+                    e);
+        } finally {
+            close(selectStatement);
+            close(updateStatement);
+        }
+    }
+
     /**
      * Helper method for creating documents that extracts values for indexes used by specified collection.
+     * Values are converted to types of index columns.
      * @param collectionName name of collection
      * @param jsonData data/content of documen
-     * @return list of values of indexed fields
+     * @return list of values of indexed fields (Long, Double, String or null)
      * @throws SqliteException throws exception if there is problem with writes to database
      */
-    private List<String> getIndexesValues(String collectionName, String jsonData) throws SqliteException {
+    private List<Object> getIndexesValues(String collectionName, String jsonData) throws SqliteException {
         //set indexes part of createDocument sql string
         CollectionSetup collectionSetup = getCollectionSetup(collectionName);
         List<String> orderedIndexes = collectionSetup.getOrderedIndexes();
-        List<String> orderedIndexesValues = new ArrayList<>();
+        List<Object> orderedIndexesValues = new ArrayList<>();
         if (orderedIndexes.size()==0){
             return orderedIndexesValues;
         }
@@ -155,11 +612,104 @@ public class SQLiteLocalStorage extends LocalStorage {
         }
 
         for (String index:orderedIndexes) {
-            orderedIndexesValues.add((String)orderedIndexesValuesMap.get(index));
+            orderedIndexesValues.add(SQLiteIndexValues.toColumnValue(collectionSetup.getIndexType(index),
+                    orderedIndexesValuesMap.get(index)));
         }
         return orderedIndexesValues;
     }
 
+    /**
+     * Type of write operation, used to create and bind statements.
+     */
+    private enum WriteOperation {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    /**
+     * Creates sql string for selected write operation in collection.
+     * @param collectionSetup setup of collection
+     * @param operation type of write
+     * @return sql string with parameters
+     */
+    private String createWriteSql(CollectionSetup collectionSetup, WriteOperation operation) {
+        StringBuilder sql = new StringBuilder();
+        if (operation == WriteOperation.INSERT){
+            //columns are named, migrated tables can have index columns in other order
+            sql.append("insert or replace into ")
+                    .append(collectionSetup.getFullName())
+                    .append(" (id, collection, jsondata");
+            for (String index:collectionSetup.getOrderedIndexes()){
+                sql.append(", ").append(index);
+            }
+            sql.append(") values(? , ? , ? ");
+            //indexes part
+            for (int i = 0; i<collectionSetup.getOrderedIndexes().size(); i++){
+                sql.append(", ?");
+            }
+            sql.append(");");
+        } else if (operation == WriteOperation.UPDATE){
+            sql.append("update ")
+                    .append(collectionSetup.getFullName())
+                    .append(" set jsondata= ? ");
+            //indexes part
+            for (String index:collectionSetup.getOrderedIndexes()){
+                sql.append(", ").append(index).append("= ? ");
+            }
+            sql.append(" where id= ? ;");
+        } else {
+            sql.append("delete from ")
+                    .append(collectionSetup.getFullName())
+                    .append(" where id= ? ;");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Fills parameters of statement created by createWriteSql.
+     * @param statement statement to fill
+     * @param collectionSetup setup of collection
+     * @param operation type of write
+     * @param document written document
+     * @throws SQLException if parameters can't be set
+     * @throws SqliteException if index values can't be extracted from document
+     */
+    private void bindWriteParameters(PreparedStatement statement, CollectionSetup collectionSetup,
+                                     WriteOperation operation, Document document) throws SQLException, SqliteException {
+        int idx = 1;
+        if (operation == WriteOperation.INSERT){
+            statement.setString(idx++, document.getId());
+            statement.setString(idx++, collectionSetup.getName());
+            statement.setString(idx++, document.getContent());
+            for (Object indexValue:getIndexesValues(collectionSetup.getName(), document.getContent())){
+                SQLiteIndexValues.bind(statement, idx++, indexValue);
+            }
+        } else if (operation == WriteOperation.UPDATE){
+            statement.setString(idx++, document.getContent());
+            for (Object indexValue:getIndexesValues(collectionSetup.getName(), document.getContent())){
+                SQLiteIndexValues.bind(statement, idx++, indexValue);
+            }
+            statement.setString(idx, document.getId());
+        } else {
+            statement.setString(idx, document.getId());
+        }
+    }
+
+    /**
+     * Returns cached statement for write operation in collection (prepares it if it is not cached).
+     * Use only with lock on writer connection.
+     * @param collectionSetup setup of collection
+     * @param operation type of write
+     * @return prepared statement, must not be closed
+     * @throws SQLException if statement can't be prepared
+     */
+    private PreparedStatement getWriteStatement(CollectionSetup collectionSetup, WriteOperation operation)
+            throws SQLException {
+        return connectionPool.getStatementCache(connection).get(collectionSetup.getFullName(),
+                operation.name(), "", () -> createWriteSql(collectionSetup, operation));
+    }
+
     /**
      * Writes/inserts document to database using indexes for document's collection.
      * @param collectionName name of collection for document
@@ -179,30 +729,17 @@ public class SQLiteLocalStorage extends LocalStorage {
                     "Wrong collection. ",
                     null);
         }
-        //create Document sql string
-        StringBuilder sql = new StringBuilder()
-                .append("insert or replace into ")
-                .append(getPrefix())
-                .append(collectionName)
-                .append(" values(? , ? , ? ");
-        //indexes part
-        for (int i = 0; i<collectionSetup.getOrderedIndexes().size(); i++){
-            sql.append(", ?");
-        }
-        sql.append(");");
-        //indexes values
-        List<String> indexValues = getIndexesValues(collectionName, document.getContent());
         //perform createDocument
-        PreparedStatement statement = null;
+        //write of other thread's transaction would be part of it
+        transactionLock.lock();
         try {
-            statement = connection.prepareStatement(sql.toString());
-            statement.setString(1, document.getId());
-            statement.setString(2, collectionName);
-            statement.setString(3, document.getContent());
-            for (int i =0; i< indexValues.size(); i++){
-                statement.setString(4+i, indexValues.get(i));
-            }
-            statement.executeUpdate();
+            synchronized (connection){
+                PreparedStatement statement = getWriteStatement(collectionSetup, WriteOperation.INSERT);
+                bindWriteParameters(statement, collectionSetup, WriteOperation.INSERT, document);
+                long start = writeStatementTime.startTiming();
+                statement.executeUpdate();
+                writeStatementTime.recordSince(start);
+            }
         } catch (SQLException e) {
             e.printStackTrace();
             throw new SqliteException(SqliteException.INSERT_EXCEPTION,
@@ -210,7 +747,7 @@ public class SQLiteLocalStorage extends LocalStorage {
                     "Problem with createDocument. \n "+e.toString(),
                     e);
         } finally {
-            close(statement);
+            transactionLock.unlock();
         }
         return document.getId();
     }
@@ -233,39 +770,24 @@ public class SQLiteLocalStorage extends LocalStorage {
                     "Wrong collection. ",
                     null);
         }
-        //sql
-        StringBuilder sql = new StringBuilder()
-                .append("update ")
-                .append(getPrefix())
-                .append(collectionName)
-                .append(" set jsondata= ? ");
-        //indexes part
-        for (String index:collectionSetup.getOrderedIndexes()){
-            sql.append(", ").append(index).append("= ? ");
-        }
-        sql.append(" where id= ? ;");
-        //index values
-        List<String> indexValues = getIndexesValues(collectionName, document.getContent());
         //statement
-        PreparedStatement statement = null;
-        int idx = 1;
+        //write of other thread's transaction would be part of it
+        transactionLock.lock();
         try {
-            statement = connection.prepareStatement(sql.toString());
-            statement.setString(idx, document.getContent());
-            idx++;
-            for (String indexValue:indexValues){
-                statement.setString(idx, indexValue);
-                idx++;
+            synchronized (connection){
+                PreparedStatement statement = getWriteStatement(collectionSetup, WriteOperation.UPDATE);
+                bindWriteParameters(statement, collectionSetup, WriteOperation.UPDATE, document);
+                long start = writeStatementTime.startTiming();
+                statement.executeUpdate();
+                writeStatementTime.recordSince(start);
             }
-            statement.setString(idx, document.getId());
-            statement.executeUpdate();
         } catch (SQLException e) {
             throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
                     "Sqlite local database, updateDocument.",
                     "Problem with createDocument. \n "+e.toString(),
                     e);
         } finally {
-            close(statement);
+            transactionLock.unlock();
         }
         return document.getId();
     }
@@ -280,95 +802,556 @@ public class SQLiteLocalStorage extends LocalStorage {
     @Override
     protected boolean removeDocument(String collectionName, Document document) throws SqliteException {
         connectDB();
-        String sql = new StringBuilder()
-                .append("delete from ")
-                .append(getPrefix())
-                .append(collectionName)
-                .append(" where id= ? ;")
-                .toString();
-        PreparedStatement statement = null;
+        CollectionSetup collectionSetup = getCollectionSetup(collectionName);
+        if (collectionSetup == null){
+            throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                    "Sqlite local database, delete.",
+                    "Wrong collection. ",
+                    null);
+        }
+        //write of other thread's transaction would be part of it
+        transactionLock.lock();
         try {
-            statement = connection.prepareStatement(sql);
-            statement.setString(1, document.getId());
-            statement.executeUpdate();
+            synchronized (connection){
+                PreparedStatement statement = getWriteStatement(collectionSetup, WriteOperation.DELETE);
+                bindWriteParameters(statement, collectionSetup, WriteOperation.DELETE, document);
+                long start = writeStatementTime.startTiming();
+                statement.executeUpdate();
+                writeStatementTime.recordSince(start);
+            }
         } catch (SQLException e) {
             throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
                     "Sqlite local database, delete.",
                     "Problem with delete. \n "+e.toString(),
                     e);
         } finally {
-            close(statement);
+            transactionLock.unlock();
         }
         return true;
     }
 
+    /**
+     * Closes statement, connection stays opened until storage is stopped.
+     * @param statement statement to close
+     */
     private void close(Statement statement){
         try {
             if (statement != null) {
                 statement.close();
             }
-            connection.close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Applies changes to local database. Creates new collections if needed, insert new documents, updates edited and removed deleted.
+     * Closes result set.
+     * @param resultSet result set to close
+     */
+    private void close(ResultSet resultSet){
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts transaction on writer connection. Transactions can be nested, only outermost
+     * commit writes data. Thread waits while other thread has opened transaction.
+     * @throws SqliteException if transaction can't be started
+     */
+    @Override
+    protected void beginTransaction() throws SqliteException {
+        transactionLock.lock();
+        try {
+            connectDB();
+            synchronized (connection){
+                if (transactionDepth == 0){
+                    connection.setAutoCommit(false);
+                }
+                transactionDepth++;
+            }
+        } catch (SQLException e) {
+            transactionLock.unlock();
+            throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                    "Sqlite local database, transaction.",
+                    "Can't start transaction. \n "+e.toString(),
+                    e);
+        } catch (SqliteException | RuntimeException e) {
+            transactionLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Commits transaction started by beginTransaction (if it is outermost one). Transaction which can't be
+     * committed is rolled back.
+     * @throws SqliteException if commit fails
+     */
+    @Override
+    protected void commitTransaction() throws SqliteException {
+        if (!transactionLock.isHeldByCurrentThread()){
+            //ie. nested write failed and rolled back whole transaction
+            throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                    "Sqlite local database, transaction.",
+                    "Transaction was rolled back already. ",
+                    null);
+        }
+        try {
+            synchronized (connection){
+                transactionDepth--;
+                if (transactionDepth == 0){
+                    try {
+                        connection.commit();
+                        connection.setAutoCommit(true);
+                    } catch (SQLException e) {
+                        rollbackConnection();
+                        throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                                "Sqlite local database, transaction.",
+                                "Can't commit transaction. \n "+e.toString(),
+                                e);
+                    }
+                }
+            }
+        } finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Rolls back whole transaction started by beginTransaction. Does nothing if this thread has no opened
+     * transaction (ie. it was rolled back already).
+     */
+    @Override
+    protected void rollbackTransaction() {
+        if (!transactionLock.isHeldByCurrentThread()){
+            return;
+        }
+        synchronized (connection){
+            transactionDepth = 0;
+            rollbackConnection();
+        }
+        while (transactionLock.isHeldByCurrentThread()){
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Marks savepoint in opened transaction.
+     * @param name name of savepoint
+     * @throws SqliteException if savepoint can't be created
+     */
+    @Override
+    protected void setSavepoint(String name) throws SqliteException {
+        executeSavepointSql("savepoint "+name+";");
+    }
+
+    /**
+     * Removes savepoint, its writes stay in transaction.
+     * @param name name of savepoint
+     * @throws SqliteException if savepoint can't be released
+     */
+    @Override
+    protected void releaseSavepoint(String name) throws SqliteException {
+        executeSavepointSql("release savepoint "+name+";");
+    }
+
+    /**
+     * Rolls back writes done after savepoint and removes savepoint (sqlite keeps savepoint after rollback to
+     * it, so it is released too).
+     * @param name name of savepoint
+     * @throws SqliteException if writes can't be rolled back
+     */
+    @Override
+    protected void rollbackToSavepoint(String name) throws SqliteException {
+        executeSavepointSql("rollback to savepoint "+name+";");
+        executeSavepointSql("release savepoint "+name+";");
+    }
+
+    /**
+     * Executes savepoint statement in transaction of this thread.
+     * @param sql savepoint, release or rollback to statement
+     * @throws SqliteException if statement fails or this thread has no opened transaction
+     */
+    private void executeSavepointSql(String sql) throws SqliteException {
+        if (!transactionLock.isHeldByCurrentThread()){
+            throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                    "Sqlite local database, transaction.",
+                    "Savepoint can be used only in opened transaction. ",
+                    null);
+        }
+        Statement statement = null;
+        try {
+            synchronized (connection){
+                statement = connection.createStatement();
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                    "Sqlite local database, transaction.",
+                    "Problem with savepoint. \n "+e.toString(),
+                    e);
+        } finally {
+            close(statement);
+        }
+    }
+
+    /**
+     * Rolls back writer connection and returns it to autocommit. Use only with lock on writer connection.
+     */
+    private void rollbackConnection() {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Groups documents by their collection (in order). Documents from collections that are not in database
+     * are skipped.
+     * @param documents documents to group
+     * @return map with collection name as key and its documents as value
+     */
+    private Map<String, List<Document>> groupByCollection(List<Document> documents) {
+        Map<String, List<Document>> documentsByCollection = new LinkedHashMap<>();
+        for (Document document:documents) {
+            String collectionName = document.getCollection().getName();
+            if (getCollectionSetup(collectionName) == null){
+                //this table is not in database, cant edit it's documents
+                //TODO error also?
+                continue;
+            }
+            documentsByCollection.computeIfAbsent(collectionName, name -> new ArrayList<>()).add(document);
+        }
+        return documentsByCollection;
+    }
+
+    /**
+     * Writes documents of one collection with one batch of statements.
+     * @param collectionName name of collection
+     * @param documents documents to write
+     * @param operation type of write
+     * @throws SQLException if batch fails
+     * @throws SqliteException if index values can't be extracted from document
+     */
+    private void executeBatch(String collectionName, List<Document> documents, WriteOperation operation)
+            throws SQLException, SqliteException {
+        CollectionSetup collectionSetup = getCollectionSetup(collectionName);
+        PreparedStatement statement = getWriteStatement(collectionSetup, operation);
+        try {
+            for (Document document:documents) {
+                bindWriteParameters(statement, collectionSetup, operation, document);
+                statement.addBatch();
+            }
+            long start = batchStatementTime.startTiming();
+            statement.executeBatch();
+            batchStatementTime.recordSince(start);
+        } finally {
+            statement.clearBatch();
+        }
+    }
+
+    /**
+     * Merges changed fields of documents into stored documents. Only index columns of changed or cleared
+     * fields are written again, their values are read from changed fields (not from whole document).
+     * Documents which are not stored are skipped (they keep their delta, so Storage doesn't publish them).
+     * Use only with lock on writer connection.
+     * @param collectionName name of collection
+     * @param documents documents with field delta
+     * @throws SQLException if there is problem with reads or writes to database
+     * @throws SqliteException if index values can't be extracted from changed fields
+     */
+    private void applyFieldDeltas(String collectionName, List<Document> documents) throws SQLException, SqliteException {
+        CollectionSetup collectionSetup = getCollectionSetup(collectionName);
+        SQLiteStatementCache statementCache = connectionPool.getStatementCache(connection);
+        PreparedStatement selectStatement = statementCache.get(collectionSetup.getFullName(), "SELECT_CONTENT", "",
+                () -> "select jsondata from "+collectionSetup.getFullName()+" where id= ? ;");
+        for (Document document:documents) {
+            FieldDelta fieldDelta = document.getFieldDelta();
+            String storedContent = null;
+            boolean stored;
+            selectStatement.setString(1, document.getId());
+            long start = queryStatementTime.startTiming();
+            try (ResultSet resultSet = selectStatement.executeQuery()){
+                stored = resultSet.next();
+                if (stored){
+                    storedContent = resultSet.getString(1);
+                }
+            }
+            queryStatementTime.recordSince(start);
+            if (!stored){
+                //nothing to merge with, document would have only changed fields
+                continue;
+            }
+            String mergedContent = mergeFieldDelta(document, storedContent);
+            List<String> changedIndexes = new ArrayList<>();
+            List<String> extractedIndexes = new ArrayList<>();
+            for (String index:collectionSetup.getOrderedIndexes()) {
+                if (fieldDelta.affects(index)){
+                    changedIndexes.add(index);
+                    if (!fieldDelta.clears(index)){
+                        extractedIndexes.add(index);
+                    }
+                }
+            }
+            Map<String, Object> changedValues;
+            try {
+                changedValues = extractedIndexes.isEmpty() ? Collections.emptyMap()
+                        : getJsonPropertyExtractor().extractPropertyValues(fieldDelta.getChangedFields(), extractedIndexes);
+            } catch (Exception e){
+                throw new SqliteException(SqliteException.INDEX_FIELDS_EXCEPTION,
+                        "Json property extractor, getting index from changed fields",
+                        "Document has wrong fields probably. "+e.toString(),
+                        e);
+            }
+            PreparedStatement updateStatement = statementCache.get(collectionSetup.getFullName(), "UPDATE_FIELDS",
+                    String.join(",", changedIndexes), () -> {
+                        StringBuilder sql = new StringBuilder("update ").append(collectionSetup.getFullName())
+                                .append(" set jsondata= ? ");
+                        for (String index:changedIndexes) {
+                            sql.append(", ").append(index).append("= ? ");
+                        }
+                        return sql.append(" where id= ? ;").toString();
+                    });
+            int idx = 1;
+            updateStatement.setString(idx++, mergedContent);
+            for (String index:changedIndexes) {
+                SQLiteIndexValues.bind(updateStatement, idx++,
+                        SQLiteIndexValues.toColumnValue(collectionSetup.getIndexType(index), changedValues.get(index)));
+            }
+            updateStatement.setString(idx, document.getId());
+            start = writeStatementTime.startTiming();
+            updateStatement.executeUpdate();
+            writeStatementTime.recordSince(start);
+        }
+    }
+
+    /**
+     * Applies changes to local database in one transaction. Creates new collections if needed,
+     * insert new documents, updates edited and removed deleted (one batch for each collection and type of change).
+     * If any write fails, nothing is written.
      * @param changes List of DocumentChanges. Can contain collections which does not exist in local database.
      * @throws LocalStorageException throws exception if any of write updates fails
      */
     @Override
     protected void applyDocumentChanges(DocumentChanges changes) throws LocalStorageException {
-            for (Document addedDocument:changes.getAddedDocuments()) {
-                String collectionName = addedDocument.getCollection().getName();
-                if (getCollectionSetup(collectionName) == null){
-                    //this table is not in database, create new (server sent document from new collection)
-                    CollectionSetup newCollectionSetup = new CollectionSetup(getPrefix(), collectionName, false);
-                    addCollectionSetup(newCollectionSetup);
-                    removeCollection(newCollectionSetup);
-                    addCollection(newCollectionSetup);
+        connectDB();
+        List<Document> addedDocuments = changes.getAddedDocuments();
+        //tables are created before transaction starts
+        for (Document addedDocument:addedDocuments) {
+            String collectionName = addedDocument.getCollection().getName();
+            if (getCollectionSetup(collectionName) == null){
+                //this table is not in database, create new (server sent document from new collection)
+                CollectionSetup newCollectionSetup = new CollectionSetup(getPrefix(), collectionName, false);
+                addCollectionSetup(newCollectionSetup);
+                removeCollection(newCollectionSetup);
+                addCollection(newCollectionSetup);
+            }
+        }
+        Map<String, List<Document>> added = groupByCollection(addedDocuments);
+        Map<String, List<Document>> updated = groupByCollection(changes.getUpdatedDocuments());
+        Map<String, List<Document>> removed = groupByCollection(changes.getRemovedDocuments());
+
+        boolean committed = false;
+        //transaction lock is taken before lock on writer connection (same order as in other writes)
+        beginTransaction();
+        try {
+            synchronized (connection){
+            for (Map.Entry<String, List<Document>> entry:added.entrySet()) {
+                executeBatch(entry.getKey(), entry.getValue(), WriteOperation.INSERT);
+            }
+            for (Map.Entry<String, List<Document>> entry:updated.entrySet()) {
+                //documents with changed fields only are merged with stored ones
+                List<Document> wholeDocuments = new ArrayList<>();
+                List<Document> deltaDocuments = new ArrayList<>();
+                for (Document document:entry.getValue()) {
+                    (document.getFieldDelta() == null ? wholeDocuments : deltaDocuments).add(document);
                 }
-                this.createDocument(collectionName, addedDocument);
-            }
-            for (Document updatedDocument:changes.getUpdatedDocuments()) {
-                String collectionName = updatedDocument.getCollection().getName();
-                if (getCollectionSetup(collectionName) == null){
-                    //this table is not in database, cant edit it's documents
-                    //TODO error also?
-                    continue;
+                if (!wholeDocuments.isEmpty()){
+                    executeBatch(entry.getKey(), wholeDocuments, WriteOperation.UPDATE);
                 }
-                this.updateDocument(collectionName, updatedDocument);
-            }
-            for (Document removedDocument:changes.getRemovedDocuments()) {
-                String collectionName = removedDocument.getCollection().getName();
-                if (getCollectionSetup(collectionName) == null){
-                    //this table is not in database, cant remove it's documents
-                    //TODO error also?
-                    continue;
+                if (!deltaDocuments.isEmpty()){
+                    applyFieldDeltas(entry.getKey(), deltaDocuments);
                 }
-                this.removeDocument(collectionName, removedDocument);
             }
-
+            for (Map.Entry<String, List<Document>> entry:removed.entrySet()) {
+                executeBatch(entry.getKey(), entry.getValue(), WriteOperation.DELETE);
+            }
+            }
+            commitTransaction();
+            committed = true;
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                    "Sqlite local database, applying document changes.",
+                    "Problem with writing changes, nothing was written. \n "+e.toString(),
+                    e);
+        } finally {
+            if (!committed){
+                rollbackTransaction();
+            }
+        }
     }
 
 
     /**
-     * Starts local storage work (nothing needed in this implementation).
+     * Starts local storage work (opens connections, if they are not opened yet).
      * @return saved requests (not implemented yet).
      */
     @Override
     protected List<ExecutionRequest> startLocalStorage() {
+        try {
+            connectDB();
+            createMissingIndexes();
+            createRequestLog();
+        } catch (SqliteException e) {
+            e.printStackTrace();
+        }
         return null;
     }
 
     /**
-     * Stops local storage work (nothing needed in this implementation).
+     * @return name of table with request log
+     */
+    private String getRequestLogTableName() {
+        return getPrefix() + "request_log_table";
+    }
+
+    /**
+     * Creates table for request log if it doesn't exist. Sequence keeps order of appended records.
+     * @throws SqliteException throws exception if there is problem with writes to database
+     */
+    private void createRequestLog() throws SqliteException {
+        Statement statement = null;
+        try {
+            synchronized (connection){
+                statement = connection.createStatement();
+                statement.execute("create table if not exists "+getRequestLogTableName()
+                        +" (sequence integer primary key autoincrement, request_id text, tombstone integer, data text);");
+                statement.execute("create index if not exists "+getRequestLogTableName()+"_request_id_index on "
+                        +getRequestLogTableName()+" (request_id);");
+            }
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.ADDING_COLLECTION_EXCEPTION,
+                    "Sqlite local database, request log",
+                    "Problem creating request log. \n "+e.toString(),
+                    e);
+        } finally {
+            close(statement);
+        }
+    }
+
+    /**
+     * Appends records to request log in one transaction (batch of inserts). Compacts log when enough
+     * tombstones were appended.
+     * @param records records to append (requests and tombstones)
+     * @throws SqliteException throws exception if there is problem with writes to database
+     */
+    @Override
+    protected void appendRequestLog(List<RequestRecord> records) throws SqliteException {
+        if (records.isEmpty()){
+            return;
+        }
+        int tombstones = 0;
+        boolean compacted = false;
+        beginTransaction();
+        try {
+            synchronized (connection){
+                PreparedStatement statement = connectionPool.getStatementCache(connection).get(
+                        getRequestLogTableName(), "APPEND", "", () -> "insert into "+getRequestLogTableName()
+                                +" (request_id, tombstone, data) values(? , ? , ?);");
+                for (RequestRecord record:records) {
+                    statement.setString(1, record.getRequestId());
+                    statement.setInt(2, record.isTombstone() ? 1 : 0);
+                    statement.setString(3, record.getData());
+                    statement.addBatch();
+                    if (record.isTombstone()){
+                        tombstones++;
+                    }
+                }
+                long start = batchStatementTime.startTiming();
+                statement.executeBatch();
+                batchStatementTime.recordSince(start);
+                if (requestLogTombstones + tombstones >= REQUEST_LOG_COMPACTION_THRESHOLD){
+                    compactRequestLog();
+                    compacted = true;
+                }
+            }
+            commitTransaction();
+            requestLogTombstones = compacted ? 0 : requestLogTombstones + tombstones;
+        } catch (SQLException e) {
+            rollbackTransaction();
+            throw new SqliteException(SqliteException.UPDATE_EXCEPTION,
+                    "Sqlite local database, request log",
+                    "Problem appending to request log. \n "+e.toString(),
+                    e);
+        } catch (SqliteException e) {
+            rollbackTransaction();
+            throw e;
+        }
+    }
+
+    /**
+     * Removes tombstoned requests and their tombstones from request log. Use only with lock on writer connection.
+     * @throws SQLException if there is problem with writes to database
+     */
+    private void compactRequestLog() throws SQLException {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute("delete from "+getRequestLogTableName()+" where request_id in (select request_id from "
+                    +getRequestLogTableName()+" where tombstone = 1);");
+        } finally {
+            close(statement);
+        }
+    }
+
+    /**
+     * Compacts request log and reads records of unconfirmed requests (in order they were appended).
+     * @return records of requests without tombstones
+     * @throws SqliteException throws exception if there is problem with reads or writes to database
+     */
+    @Override
+    protected List<RequestRecord> readRequestLog() throws SqliteException {
+        connectDB();
+        List<RequestRecord> records = new ArrayList<>();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            synchronized (connection){
+                compactRequestLog();
+                requestLogTombstones = 0;
+                statement = connection.createStatement();
+                resultSet = statement.executeQuery("select request_id, data from "+getRequestLogTableName()
+                        +" order by sequence;");
+                while (resultSet.next()){
+                    records.add(new RequestRecord(resultSet.getString(1), false, resultSet.getString(2)));
+                }
+            }
+        } catch (SQLException e) {
+            throw new SqliteException(SqliteException.QUERY_EXCEPTION,
+                    "Sqlite local database, request log",
+                    "Problem reading request log. \n "+e.toString(),
+                    e);
+        } finally {
+            close(resultSet);
+            close(statement);
+        }
+        return records;
+    }
+
+    /**
+     * Stops local storage work, closes all connections.
      * @param unconfirmedRequests requests to save (pending requests should be added too probably)
      */
     @Override
     protected void stopLocalStorage(Queue<ExecutionRequest> unconfirmedRequests) {
-
+        connectionPool.close();
+        connection = null;
     }
 
 
@@ -382,8 +1365,22 @@ public class SQLiteLocalStorage extends LocalStorage {
      */
     @Override
     protected List<Map<String, String>> find(String collectionName, Predicate p, ResultOptions options) throws SqliteException {
-        connectDB();
-        PreparedStatement preparedStatement = null;
+        //thread with opened transaction reads with writer, read connection wouldn't see its uncommitted writes
+        boolean ownTransaction = transactionLock.isHeldByCurrentThread();
+        //without read pool writer is used, it must not read uncommitted writes of other thread's transaction
+        boolean waitForTransaction = !ownTransaction && !connectionPool.hasReadPool();
+        if (waitForTransaction){
+            transactionLock.lock();
+        }
+        Connection readConnection;
+        try {
+            readConnection = ownTransaction ? connectionPool.getWriter() : connectionPool.acquireReader();
+        } catch (SqliteException e) {
+            if (waitForTransaction){
+                transactionLock.unlock();
+            }
+            throw e;
+        }
         try {
             CollectionSetup collectionSetup = getCollectionSetup(collectionName);
             if (collectionSetup == null){
@@ -400,25 +1397,42 @@ public class SQLiteLocalStorage extends LocalStorage {
             Predicate supportedPredicate = LocalStorage.createFilteringPredicate(p, new PredicateFilter() {
                 @Override
                 public boolean isAcceptable(Predicate predicate) {
-                    return sqLiteQueryGenerator.isAcceptable(p);
+                    return sqLiteQueryGenerator.isAcceptable(predicate);
                 }
             });
-            preparedStatement = sqLiteQueryGenerator.generateFilterStatement(connection, supportedPredicate, options);
-            //execute query
-            ResultSet rs;
-            rs = preparedStatement.executeQuery();
+            //limit can be used in sql only if whole predicate is there (else result set filters and limits result)
+            boolean wholePredicate = p == null || sqLiteQueryGenerator.isSupported(p);
+            //same query shape (sql) uses same cached statement, only parameters differ
+            String sql = sqLiteQueryGenerator.generateFilterSql(supportedPredicate, options, wholePredicate);
+            //sql gives documents in order of result, reading stops after limit of documents matching predicate
+            //(rest of predicate is checked here, else result set filters documents)
+            int maxDocuments = options.getLimit() > 0 && sqLiteQueryGenerator.isLimitSupported(options)
+                    ? options.getLimit() : Integer.MAX_VALUE;
+            boolean checkPredicate = !wholePredicate && maxDocuments != Integer.MAX_VALUE;
             List<Map<String, String>> foundDocuments = new LinkedList<>();
-            //fill List and return it
-            int  documentCounter = options.getLimit()>0 ? options.getLimit() : Integer.MAX_VALUE;
-            while(rs.next() && documentCounter>0)
-            {
-                // add one row (document)
-                Map<String, String> documentMap = new HashMap<>();
-                documentMap.put("id", rs.getString("id"));
-                documentMap.put("collection", rs.getString("collection"));
-                documentMap.put("jsondata", rs.getString("jsondata"));
-                foundDocuments.add(documentMap);
-                documentCounter--;
+            synchronized (readConnection){
+                PreparedStatement preparedStatement = connectionPool.getStatementCache(readConnection)
+                        .get(collectionSetup.getFullName(), "find", sql, () -> sql);
+                sqLiteQueryGenerator.fillFilterParameters(preparedStatement, supportedPredicate);
+                //execute query
+                long start = queryStatementTime.startTiming();
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    //fill List and return it
+                    while(foundDocuments.size() < maxDocuments && rs.next())
+                    {
+                        String jsondata = rs.getString("jsondata");
+                        if (checkPredicate && !p.match(new Document(jsondata))){
+                            continue;
+                        }
+                        // add one row (document)
+                        Map<String, String> documentMap = new HashMap<>();
+                        documentMap.put("id", rs.getString("id"));
+                        documentMap.put("collection", rs.getString("collection"));
+                        documentMap.put("jsondata", jsondata);
+                        foundDocuments.add(documentMap);
+                    }
+                }
+                queryStatementTime.recordSince(start);
             }
             // return data to storage
             return foundDocuments;
@@ -428,25 +1442,32 @@ public class SQLiteLocalStorage extends LocalStorage {
                     "Problem with executing query. \n "+e.toString(),
                     e);
         } finally {
-            close(preparedStatement);
+            connectionPool.releaseReader(readConnection);
+            if (waitForTransaction){
+                transactionLock.unlock();
+            }
         }
     }
 
     /**
-     * Finds documents specified by predicate and returns first one.
+     * Finds documents specified by predicate and returns first one. If order of result is done in sql, only
+     * rows until first document matching predicate are read.
      * @param collectionName name of collection
      * @param p              predicate to filter result
-     * @param options        options for result (ie. order...)
+     * @param options        options for result (ie. order...), not changed
      * @return map representation of first document in result
      * @throws SqliteException throws exception if there is problem with reading database
      */
     @Override
     protected Map<String, String> findOne(String collectionName, Predicate p, ResultOptions options) throws SqliteException {
-        if (options==null){
-            options = new ResultOptions();
+        ResultOptions oneOptions = new ResultOptions();
+        if (options != null){
+            for (int i = 0; i < options.getOrderByProperties().size(); i++) {
+                oneOptions.addOrderByOption(options.getOrderByProperties().get(i), options.getOrderByType().get(i));
+            }
         }
-        options.setLimit(1);
-        List<Map<String, String>> result = find(collectionName, p, options);
+        oneOptions.setLimit(1);
+        List<Map<String, String>> result = find(collectionName, p, oneOptions);
         if (result == null || result.size() == 0){
             return null;
         }
@@ -6,7 +6,6 @@ import net.jards.core.Predicate;
 import net.jards.core.Predicate.*;
 import net.jards.core.ResultOptions;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Iterator;
@@ -50,9 +49,27 @@ public class SQLiteQueryGenerator implements LocalStorage.PredicateFilter {
             return ((And) predicate).getSubPredicates().size() >0;
         }
 
-        if (predicate instanceof Predicate.Equals || predicate instanceof EqualProperties
-                || predicate instanceof Compare || predicate instanceof CompareProperties
-                || predicate instanceof Or){
+        if (predicate instanceof Predicate.Equals){
+            return isComparable(predicate.getProperties().iterator().next(), ((Predicate.Equals) predicate).getValue());
+        }
+        if (predicate instanceof Compare){
+            return isComparable(predicate.getProperties().iterator().next(), ((Compare) predicate).getValue());
+        }
+        if (predicate instanceof EqualProperties || predicate instanceof CompareProperties){
+            //predicates compare numbers numerically and other values as json strings, so only numeric
+            //and boolean columns give same result in sql
+            String type = null;
+            for (String property : predicate.getProperties() ) {
+                String propertyType = collectionSetup.getIndexType(property);
+                if (propertyType == null || CollectionSetup.INDEX_TYPE_TEXT.equals(propertyType)
+                        || (type != null && SQLiteIndexValues.isNumeric(type) != SQLiteIndexValues.isNumeric(propertyType))){
+                    return false;
+                }
+                type = propertyType;
+            }
+            return true;
+        }
+        if (predicate instanceof Or){
             for (String property : predicate.getProperties() ) {
                 if (!collectionSetup.hasIndex(property)){
                     return false;
@@ -65,44 +82,126 @@ public class SQLiteQueryGenerator implements LocalStorage.PredicateFilter {
     }
 
     /**
-     * Method that generates predicates and options part of statement.
-     * @param dbConnection connection to database
-     * @param p filtering predicate
+     * @param property property (index) compared with value
+     * @param value value of predicate
+     * @return true if property has index and its type gives same comparison as predicate
+     */
+    private boolean isComparable(String property, Object value) {
+        return SQLiteIndexValues.isComparable(collectionSetup.getIndexType(property), value);
+    }
+
+    /**
+     * @param predicate given predicate
+     * @return true if whole predicate (with all sub-predicates) can be used in sql, false if only part of it
+     * (or nothing) can be used
+     */
+    boolean isSupported(Predicate predicate) {
+        if (!isAcceptable(predicate)){
+            return false;
+        }
+        if (predicate instanceof And || predicate instanceof Or){
+            List<Predicate> innerPredicates = predicate instanceof And
+                    ? ((And) predicate).getSubPredicates() : ((Or) predicate).getSubPredicates();
+            for (Predicate innerPredicate:innerPredicates) {
+                if (!isSupported(innerPredicate)){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
      * @param resultOptions specified options
-     * @return PreparedStatement object
-     */
-    PreparedStatement generateFilterStatement(Connection dbConnection, Predicate p, ResultOptions resultOptions) {
-        try{
-            StringBuilder sql = new StringBuilder()
-                    .append("select * from ")
-                    .append(collectionSetup.getFullName());
-            //add predicates (where part)
-            if (p!=null){
-                sql.append(createPredicatesSql(p));
+     * @return true if all order by properties have index (column), so order can be done in sql
+     */
+    boolean isOrderSupported(ResultOptions resultOptions) {
+        for (String property : resultOptions.getOrderByProperties()) {
+            if (!collectionSetup.hasIndex(property)){
+                return false;
             }
-            //add options (order by only now)
-            List<String> orderByProperties = resultOptions.getOrderByProperties();
-            List<ResultOptions.OrderBy> orderByTypes = resultOptions.getOrderByType();
-            if (orderByProperties!=null && orderByProperties.size()>0){
-
-                sql.append(" order by ");
-                for (int i = 0; i < orderByProperties.size() - 1; i++) {
-                    sql.append(orderByProperties.get(i)).append(" ")
-                            .append(orderByTypes.get(i)).append(", ");
-                }
-                sql.append(orderByProperties.get(orderByProperties.size()-1)).append(" ")
-                        .append(orderByTypes.get(orderByTypes.size()-1)).append(", ");
+        }
+        return true;
+    }
+
+    /**
+     * Limit can be used in sql only if sql gives first documents in same order as ResultSet (DocumentOrder).
+     * Text columns are sorted as text ('10' before '9', quoted strings before numbers), so only order by
+     * int, real and boolean indexes gives same documents (values which don't fit type of index are null in
+     * column, so documents have to keep type of their index).
+     * @param resultOptions specified options
+     * @return true if order is supported and all order by properties have typed (not text) index
+     */
+    boolean isLimitSupported(ResultOptions resultOptions) {
+        if (!isOrderSupported(resultOptions)){
+            return false;
+        }
+        for (String property : resultOptions.getOrderByProperties()) {
+            if (CollectionSetup.INDEX_TYPE_TEXT.equals(collectionSetup.getIndexType(property))){
+                return false;
             }
-            sql.append(" ;");
-            //create statement
-            PreparedStatement preparedStatement = dbConnection.prepareStatement(sql.toString());
-            //fill with parameters (predicates)
-            if (p!=null){
-                addPredicatesParamaters(p, preparedStatement);
+        }
+        return true;
+    }
+
+    /**
+     * Method that generates sql of query with predicates and options part. Sql depends only on shape
+     * of predicate (values are parameters) and options, so it can be used as key of prepared statement.
+     * Order is used only if it is supported, limit only if whole query (predicate and order with same
+     * collation as DocumentOrder) is done in sql, else it has to be applied to result.
+     * @param p filtering predicate (only supported part)
+     * @param resultOptions specified options
+     * @param wholePredicate true if p is whole predicate of query, false if it is only supported part
+     * @return sql string with parameters
+     */
+    String generateFilterSql(Predicate p, ResultOptions resultOptions, boolean wholePredicate) {
+        boolean orderSupported = isOrderSupported(resultOptions);
+        StringBuilder sql = new StringBuilder()
+                .append("select id, collection, jsondata from ")
+                .append(collectionSetup.getFullName());
+        //add predicates (where part)
+        if (p!=null){
+            sql.append(createPredicatesSql(p));
+        }
+        //add options (order by and limit)
+        List<String> orderByProperties = resultOptions.getOrderByProperties();
+        List<ResultOptions.OrderBy> orderByTypes = resultOptions.getOrderByType();
+        if (orderSupported && orderByProperties.size()>0){
+            sql.append(" order by ");
+            for (int i = 0; i < orderByProperties.size(); i++) {
+                if (i > 0){
+                    sql.append(", ");
+                }
+                sql.append(orderByProperties.get(i)).append(" ")
+                        .append(orderByTypes.get(i));
             }
-            return preparedStatement;
-        } catch (SQLException e) {
-            return null;
+        }
+        if (wholePredicate && resultOptions.getLimit() > 0 && isLimitSupported(resultOptions)){
+            sql.append(" limit ").append(resultOptions.getLimit());
+        }
+        sql.append(" ;");
+        return sql.toString();
+    }
+
+    /**
+     * @param collectionSetup setup of collection
+     * @param compositeIndex composite index of collection
+     * @return name of composite index in database
+     */
+    static String compositeIndexName(CollectionSetup collectionSetup, CollectionSetup.CompositeIndex compositeIndex) {
+        return collectionSetup.getFullName() + "_" + compositeIndex.getName() + "_cindex";
+    }
+
+    /**
+     * Fills parameters (values from predicates) of statement created from generateFilterSql.
+     * @param statement statement to fill
+     * @param p filtering predicate used to generate sql
+     * @throws SQLException throws exception if there is problem with statement parameters
+     */
+    void fillFilterParameters(PreparedStatement statement, Predicate p) throws SQLException {
+        paramIndex = 1;
+        if (p!=null){
+            addPredicatesParamaters(p, statement);
         }
     }
 
@@ -112,8 +211,16 @@ public class SQLiteQueryGenerator implements LocalStorage.PredicateFilter {
      * @return StringBuilder with built sql string for predicates
      */
     private StringBuilder createPredicatesSql(Predicate p){
+        return new StringBuilder(" where ").append(createConditionSql(p));
+    }
+
+    /**
+     * Recursive method that creates condition of one predicate (without where).
+     * @param p given predicate
+     * @return StringBuilder with built sql condition
+     */
+    private StringBuilder createConditionSql(Predicate p){
         StringBuilder sqlPart = new StringBuilder();
-        sqlPart.append(" where ");
         if (p instanceof Predicate.Equals){
             return sqlPart.append(" ")
                     .append(p.getProperties().iterator().next())
@@ -126,56 +233,71 @@ public class SQLiteQueryGenerator implements LocalStorage.PredicateFilter {
                     .append(iterator.next()).append(" ");
         }
         if (p instanceof Compare){
-            String operator = null;
-            switch (((Compare)p).getOperator()){
-                case SameAs: operator = " = "; break;
-                case NotSameAs: operator = " != "; break;
-                case Bigger: operator = " > "; break;
-                case BiggerOrEquals: operator = " >= "; break;
-                case Smaller: operator = " < "; break;
-                case SmallerOrEquals: operator = " <= "; break;
-            }
             return sqlPart.append(" ")
                     .append(p.getProperties().iterator().next())
-                    .append(operator).append("? ");
+                    .append(operatorSql(((Compare)p).getOperator())).append("? ");
         }
         if (p instanceof CompareProperties){
-            String operator = null;
-            switch (((CompareProperties)p).getOperator()){
-                case SameAs: operator = " = "; break;
-                case NotSameAs: operator = " != "; break;
-                case Bigger: operator = " > "; break;
-                case BiggerOrEquals: operator = " >= "; break;
-                case Smaller: operator = " < "; break;
-                case SmallerOrEquals: operator = " <= "; break;
-            }
             Iterator<String> iterator = p.getProperties().iterator();
             return sqlPart.append(" ")
                     .append(iterator.next())
-                    .append(operator)
+                    .append(operatorSql(((CompareProperties)p).getOperator()))
                     .append(iterator.next()).append(" ");
         }
         if (p instanceof And){
-            List<Predicate> innerPredicates = ((And)p).getSubPredicates();
-            for (int i = 0; i < innerPredicates.size()-1; i++) {
-                sqlPart.append(" ").append(createPredicatesSql(innerPredicates.get(i)))
-                        .append(" and ");
-            }
-            sqlPart.append(createPredicatesSql(innerPredicates.get(innerPredicates.size()-1)));
-            return sqlPart;
+            return joinConditionsSql(((And)p).getSubPredicates(), " and ");
         }
         if (p instanceof Or){
-            List<Predicate> innerPredicates = ((Or)p).getSubPredicates();
-            for (int i = 0; i < innerPredicates.size()-1; i++) {
-                sqlPart.append(" ").append(createPredicatesSql(innerPredicates.get(i)))
-                        .append(" or ");
-            }
-            sqlPart.append(createPredicatesSql(innerPredicates.get(innerPredicates.size()-1)));
-            return sqlPart;
+            return joinConditionsSql(((Or)p).getSubPredicates(), " or ");
         }
         return sqlPart;
     }
 
+    /**
+     * @param innerPredicates predicates to join
+     * @param operator operator used to join them (and, or)
+     * @return conditions of predicates in parentheses joined by operator
+     */
+    private StringBuilder joinConditionsSql(List<Predicate> innerPredicates, String operator){
+        StringBuilder sqlPart = new StringBuilder(" (");
+        for (int i = 0; i < innerPredicates.size(); i++) {
+            if (i > 0){
+                sqlPart.append(operator);
+            }
+            sqlPart.append(createConditionSql(innerPredicates.get(i)));
+        }
+        return sqlPart.append(") ");
+    }
+
+    /**
+     * @param operator compare operator of predicate
+     * @return sql operator
+     */
+    private static String operatorSql(Predicate.Operator operator){
+        switch (operator){
+            case SameAs: return " = ";
+            case NotSameAs: return " != ";
+            case Bigger: return " > ";
+            case BiggerOrEquals: return " >= ";
+            case Smaller: return " < ";
+            case SmallerOrEquals: return " <= ";
+        }
+        return null;
+    }
+
+    /**
+     * Binds value of predicate as next parameter, typed by index of property.
+     * @param statement statement which parameters are filled
+     * @param property property compared with value
+     * @param value value of predicate
+     * @throws SQLException throws exception if there is problem with statement parameters
+     */
+    private void bindValue(PreparedStatement statement, String property, Object value) throws SQLException {
+        SQLiteIndexValues.bind(statement, paramIndex,
+                SQLiteIndexValues.toParameterValue(collectionSetup.getIndexType(property), value));
+        paramIndex++;
+    }
+
     /**
      * Recursive function that fills parameters from predicate in statement.
      * @param p used predicate
@@ -184,16 +306,14 @@ public class SQLiteQueryGenerator implements LocalStorage.PredicateFilter {
      */
     void addPredicatesParamaters(Predicate p, PreparedStatement statement) throws SQLException {
         if (p instanceof Predicate.Equals){
-            statement.setString(paramIndex, String.valueOf(((Predicate.Equals)p).getValue()));
-            paramIndex++;
+            bindValue(statement, p.getProperties().iterator().next(), ((Predicate.Equals)p).getValue());
             return;
         }
         if (p instanceof EqualProperties){
             return;
         }
         if (p instanceof Compare){
-            statement.setString(paramIndex, String.valueOf(((Compare)p).getValue()));
-            paramIndex++;
+            bindValue(statement, p.getProperties().iterator().next(), ((Compare)p).getValue());
             return;
         }
         if (p instanceof CompareProperties){
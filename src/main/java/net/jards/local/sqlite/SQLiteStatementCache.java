@@ -0,0 +1,157 @@
+package net.jards.local.sqlite;
+
+import net.jards.metrics.Counter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of prepared statements for one connection. Statements are keyed by collection,
+ * operation and shape (ie. sql of query with given predicates). Cache must be used only by thread which
+ * holds its connection.
+ * Statements of collection are thrown away (lazily) when schema of that collection changes.
+ */
+class SQLiteStatementCache {
+
+    /**
+     * Cached statement with version of collection schema it was prepared for.
+     */
+    private static class CachedStatement {
+        /**
+         * prepared statement
+         */
+        final PreparedStatement statement;
+        /**
+         * collection which statement uses
+         */
+        final String collection;
+        /**
+         * schema version of collection when statement was prepared
+         */
+        final long schemaVersion;
+
+        CachedStatement(PreparedStatement statement, String collection, long schemaVersion) {
+            this.statement = statement;
+            this.collection = collection;
+            this.schemaVersion = schemaVersion;
+        }
+    }
+
+    /**
+     * connection of this cache
+     */
+    private final Connection connection;
+    /**
+     * schema versions of collections, shared by all caches of one storage
+     */
+    private final ConcurrentHashMap<String, Long> schemaVersions;
+    /**
+     * number of statements taken from cache
+     */
+    private final Counter hits;
+    /**
+     * number of statements that had to be prepared
+     */
+    private final Counter misses;
+    /**
+     * cached statements in access order (eldest is first)
+     */
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * Creates empty cache.
+     * @param connection connection for which statements are prepared
+     * @param capacity maximal number of cached statements
+     * @param schemaVersions shared schema versions of collections
+     * @param hits counter of statements taken from cache
+     * @param misses counter of statements that had to be prepared
+     */
+    SQLiteStatementCache(Connection connection, int capacity, ConcurrentHashMap<String, Long> schemaVersions,
+                         Counter hits, Counter misses) {
+        this.connection = connection;
+        this.schemaVersions = schemaVersions;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > capacity) {
+                    close(eldest.getValue().statement);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns cached statement or prepares new one. Returned statement must not be closed,
+     * its parameters are cleared here.
+     * @param collection full name of collection used in statement
+     * @param operation operation (insert, update, find...)
+     * @param shape shape of statement (for example sql of query), can be empty for operations with one sql
+     * @param sql sql used if statement is not cached yet
+     * @return prepared statement
+     * @throws SQLException if statement can't be prepared
+     */
+    synchronized PreparedStatement get(String collection, String operation, String shape, Supplier<String> sql)
+            throws SQLException {
+        String key = collection + '\u0000' + operation + '\u0000' + shape;
+        long schemaVersion = schemaVersions.getOrDefault(collection, 0L);
+        CachedStatement cached = statements.get(key);
+        if (cached != null) {
+            if (cached.schemaVersion == schemaVersion) {
+                hits.increment();
+                cached.statement.clearParameters();
+                return cached.statement;
+            }
+            statements.remove(key);
+            close(cached.statement);
+        }
+        misses.increment();
+        PreparedStatement statement = connection.prepareStatement(sql.get());
+        statements.put(key, new CachedStatement(statement, collection, schemaVersion));
+        return statement;
+    }
+
+    /**
+     * Closes and removes statements of collection with old schema. Other statements stay cached.
+     */
+    synchronized void evictStale() {
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while (iterator.hasNext()) {
+            CachedStatement cached = iterator.next();
+            if (cached.schemaVersion != schemaVersions.getOrDefault(cached.collection, 0L)) {
+                close(cached.statement);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes all cached statements.
+     */
+    synchronized void close() {
+        for (CachedStatement cached : statements.values()) {
+            close(cached.statement);
+        }
+        statements.clear();
+    }
+
+    /**
+     * @param statement statement to close
+     */
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
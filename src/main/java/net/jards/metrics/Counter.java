@@ -0,0 +1,19 @@
+package net.jards.metrics;
+
+/**
+ * Monotonic counter (number of transactions, documents, reconnects...).
+ */
+public interface Counter {
+
+    void increment();
+
+    /**
+     * @param amount amount added to counter
+     */
+    void add(long amount);
+
+    /**
+     * @return current value
+     */
+    long getCount();
+}
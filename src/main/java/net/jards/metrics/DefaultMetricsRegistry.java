@@ -0,0 +1,113 @@
+package net.jards.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry keeping metrics in memory. Recording doesn't lock - counters use LongAdder, histograms count values
+ * in fixed buckets (see HistogramSnapshot), so threads of Storage don't wait for each other because of metrics.
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+
+    /**
+     * Counter backed by LongAdder.
+     */
+    private static final class DefaultCounter implements Counter {
+
+        private final LongAdder count = new LongAdder();
+
+        @Override
+        public void increment() {
+            count.increment();
+        }
+
+        @Override
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Histogram with fixed buckets.
+     */
+    private static final class DefaultHistogram implements Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(HistogramSnapshot.BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        @Override
+        public void record(long value) {
+            long recorded = Math.max(0, value);
+            buckets.incrementAndGet(HistogramSnapshot.bucketIndex(recorded));
+            count.increment();
+            sum.add(recorded);
+            max.accumulate(recorded);
+        }
+
+        @Override
+        public HistogramSnapshot snapshot() {
+            long[] copy = new long[buckets.length()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = buckets.get(i);
+            }
+            //values recorded while copying can make count and buckets differ a bit, percentiles use buckets
+            return new HistogramSnapshot(copy, count.sum(), sum.sum(), max.get());
+        }
+    }
+
+    private final ConcurrentHashMap<String, DefaultCounter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DefaultHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new DefaultCounter());
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new DefaultHistogram());
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * @return current values of all metrics (sorted by name)
+     */
+    @Override
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.getCount()));
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, gauge) -> {
+            try {
+                gaugeValues.put(name, gauge.getAsLong());
+            } catch (RuntimeException e) {
+                System.out.println("ERROR: gauge " + name + " can't be read. " + e.toString());
+            }
+        });
+        Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.snapshot()));
+        return new MetricsSnapshot(System.currentTimeMillis(), counterValues, gaugeValues, histogramValues);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+}
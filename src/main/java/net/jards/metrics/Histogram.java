@@ -0,0 +1,33 @@
+package net.jards.metrics;
+
+/**
+ * Distribution of recorded values (latencies in nanoseconds). Timing methods let code measure durations
+ * without calling System.nanoTime when metrics are disabled.
+ */
+public interface Histogram {
+
+    /**
+     * @param value recorded value (negative values are recorded as 0)
+     */
+    void record(long value);
+
+    /**
+     * @return start of measured duration, pass it to recordSince
+     */
+    default long startTiming() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records duration from start to now (nanoseconds).
+     * @param start value returned by startTiming
+     */
+    default void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * @return current distribution of values
+     */
+    HistogramSnapshot snapshot();
+}
@@ -0,0 +1,128 @@
+package net.jards.metrics;
+
+/**
+ * Distribution of values of histogram at one moment. Values are counted in buckets: values below 8 have own
+ * bucket, every power of two above is split into 8 buckets, so percentiles are at most 12.5% above real value.
+ */
+public class HistogramSnapshot {
+
+    /**
+     * bits of value (after highest bit) used to choose bucket inside power of two
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * number of buckets needed for all non negative long values
+     */
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * number of values in each bucket
+     */
+    private final long[] buckets;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    /**
+     * @param buckets number of values in each bucket (array is not copied)
+     * @param count number of values
+     * @param sum sum of values
+     * @param max maximal value
+     */
+    HistogramSnapshot(long[] buckets, long count, long sum, long max) {
+        this.buckets = buckets;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /**
+     * @param value non negative value
+     * @return index of bucket for value
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param index index of bucket
+     * @return highest value counted in bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS){
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return sum of recorded values
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return maximal recorded value (0 if there are none)
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return average of recorded values (0 if there are none)
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile percentile from 0 to 100
+     * @return value below which given percent of values are (upper bound of bucket, at most max)
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("Percentile must be from 0 to 100!");
+        }
+        long total = 0;
+        for (long bucket:buckets) {
+            total += bucket;
+        }
+        if (total == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank){
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return String representation of this snapshot
+     */
+    @Override
+    public String toString() {
+        return "{ count: " + count + ", mean: " + getMean() + ", p50: " + getPercentile(50)
+                + ", p99: " + getPercentile(99) + ", max: " + max + " }";
+    }
+}
@@ -0,0 +1,128 @@
+package net.jards.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports metrics of registry through JMX as read-only attributes of one MBean (net.jards:type=Metrics,name=...).
+ * Attributes are values of MetricsSnapshot.toMap, every read makes new snapshot.
+ */
+public class JmxMetricsExporter {
+
+    /**
+     * MBean with attributes read from snapshots of registry.
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+
+        private final MetricsRegistry registry;
+
+        MetricsMBean(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = registry.snapshot().toMap().get(attribute);
+            if (value == null){
+                throw new AttributeNotFoundException("No metric " + attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = registry.snapshot().toMap();
+            AttributeList list = new AttributeList();
+            for (String attribute:attributes) {
+                Number value = values.get(attribute);
+                if (value != null){
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read only!");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations!");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            //metrics can be added while application runs, so attributes are listed again every time
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            registry.snapshot().toMap().forEach((name, value) -> attributes.add(new MBeanAttributeInfo(name,
+                    value.getClass().getName(), name, true, false, false)));
+            return new MBeanInfo(JmxMetricsExporter.class.getName(), "Metrics of JARDS client",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+        }
+    }
+
+    private final MetricsRegistry registry;
+    private final ObjectName objectName;
+
+    /**
+     * @param registry exported registry
+     * @param name name of exported registry (ie. name of storage), part of object name
+     * @throws IllegalArgumentException if name can't be used in object name
+     */
+    public JmxMetricsExporter(MetricsRegistry registry, String name) {
+        this.registry = registry;
+        try {
+            this.objectName = new ObjectName("net.jards:type=Metrics,name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Wrong name of metrics: " + name, e);
+        }
+    }
+
+    /**
+     * Registers MBean in platform MBean server (registered MBean with same name is replaced).
+     * @throws JMException if MBean can't be registered
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)){
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(new MetricsMBean(registry), objectName);
+    }
+
+    /**
+     * Unregisters MBean (if it is registered).
+     * @throws JMException if MBean can't be unregistered
+     */
+    public void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)){
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * @return object name of MBean
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+}
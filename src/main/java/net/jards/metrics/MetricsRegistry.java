@@ -0,0 +1,41 @@
+package net.jards.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of metrics recorded by Storage, local storage and remote storage. Counters and histograms are created
+ * once (with first use of name) and kept by their users, so recording doesn't look them up again.
+ * Default registry (NoopMetricsRegistry) records nothing.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * @param name name of counter
+     * @return counter with given name (created if it doesn't exist)
+     */
+    Counter counter(String name);
+
+    /**
+     * @param name name of histogram
+     * @return histogram with given name (created if it doesn't exist)
+     */
+    Histogram histogram(String name);
+
+    /**
+     * Registers gauge, value is read only when snapshot is made. Gauge registered with same name replaces
+     * old one.
+     * @param name name of gauge
+     * @param value supplier of current value
+     */
+    void gauge(String name, LongSupplier value);
+
+    /**
+     * @return current values of all metrics
+     */
+    MetricsSnapshot snapshot();
+
+    /**
+     * @return false if registry records nothing (users can skip work needed only for metrics)
+     */
+    boolean isEnabled();
+}
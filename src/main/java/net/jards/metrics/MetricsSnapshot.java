@@ -0,0 +1,116 @@
+package net.jards.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Values of all metrics of registry at one moment. Rates (throughput) can be computed from counters of two
+ * snapshots and their times.
+ */
+public class MetricsSnapshot {
+
+    /**
+     * time (System.currentTimeMillis) when snapshot was made
+     */
+    private final long timeMillis;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    /**
+     * @param timeMillis time when snapshot was made
+     * @param counters values of counters
+     * @param gauges values of gauges
+     * @param histograms snapshots of histograms
+     */
+    MetricsSnapshot(long timeMillis, Map<String, Long> counters, Map<String, Long> gauges,
+                    Map<String, HistogramSnapshot> histograms) {
+        this.timeMillis = timeMillis;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return time (System.currentTimeMillis) when snapshot was made
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return values of counters (key is name)
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return values of gauges (key is name)
+     */
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    /**
+     * @return snapshots of histograms (key is name)
+     */
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @param name name of counter
+     * @return value of counter, 0 if there is no such counter
+     */
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @param name name of gauge
+     * @return value of gauge, 0 if there is no such gauge
+     */
+    public long getGauge(String name) {
+        Long value = gauges.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @param name name of histogram
+     * @return snapshot of histogram, null if there is no such histogram
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * Flat view of snapshot - counters and gauges under their names, histograms as name.count, name.mean,
+     * name.p50, name.p90, name.p99 and name.max.
+     * @return values of metrics (key is name)
+     */
+    public Map<String, Number> toMap() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.putAll(counters);
+        values.putAll(gauges);
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", histogram.getMean());
+            values.put(name + ".p50", histogram.getPercentile(50));
+            values.put(name + ".p90", histogram.getPercentile(90));
+            values.put(name + ".p99", histogram.getPercentile(99));
+            values.put(name + ".max", histogram.getMax());
+        });
+        return values;
+    }
+
+    /**
+     * @return String representation of this snapshot
+     */
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,80 @@
+package net.jards.metrics;
+
+import java.util.Collections;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry which records nothing. Used by default, so metrics cost nothing until registry is set in StorageSetup.
+ */
+public final class NoopMetricsRegistry implements MetricsRegistry {
+
+    /**
+     * shared instance
+     */
+    public static final NoopMetricsRegistry INSTANCE = new NoopMetricsRegistry();
+
+    private static final Counter NOOP_COUNTER = new Counter() {
+        @Override
+        public void increment() {
+        }
+
+        @Override
+        public void add(long amount) {
+        }
+
+        @Override
+        public long getCount() {
+            return 0;
+        }
+    };
+
+    private static final HistogramSnapshot EMPTY_HISTOGRAM = new HistogramSnapshot(new long[0], 0, 0, 0);
+
+    private static final Histogram NOOP_HISTOGRAM = new Histogram() {
+        @Override
+        public void record(long value) {
+        }
+
+        @Override
+        public long startTiming() {
+            return 0;
+        }
+
+        @Override
+        public void recordSince(long start) {
+        }
+
+        @Override
+        public HistogramSnapshot snapshot() {
+            return EMPTY_HISTOGRAM;
+        }
+    };
+
+    private NoopMetricsRegistry() {
+    }
+
+    @Override
+    public Counter counter(String name) {
+        return NOOP_COUNTER;
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+        return NOOP_HISTOGRAM;
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(System.currentTimeMillis(), Collections.emptyMap(), Collections.emptyMap(),
+                Collections.emptyMap());
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+}
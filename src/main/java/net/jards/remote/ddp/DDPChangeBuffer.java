@@ -0,0 +1,139 @@
+package net.jards.remote.ddp;
+
+import net.jards.core.RemoteDocumentChange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Buffer coalescing data messages (added, changed, removed) from server into batches, so Storage gets one
+ * array of changes instead of one array for each message. Buffer is delivered when subscription becomes
+ * ready, before any other message is handled, when threshold of buffered changes is reached or when
+ * deadline after first buffered change passes.
+ * Threshold is adaptive - it grows (up to max batch size) while batches are filled by stream of changes
+ * (ie. initial data of subscription) and shrinks when deadline delivers small batches, so single changes
+ * are delivered fast.
+ */
+class DDPChangeBuffer {
+
+    /**
+     * smallest threshold of buffered changes
+     */
+    private static final int MIN_THRESHOLD = 16;
+
+    /**
+     * maximal number of changes in one batch
+     */
+    private final int maxBatch;
+    /**
+     * maximal time (milliseconds) change waits in buffer
+     */
+    private final long maxDelayMillis;
+    /**
+     * receiver of batches
+     */
+    private final Consumer<RemoteDocumentChange[]> receiver;
+
+    /**
+     * buffered changes (in order they came)
+     */
+    private final List<RemoteDocumentChange> changes = new ArrayList<>();
+    /**
+     * actual threshold of buffered changes
+     */
+    private int threshold;
+    /**
+     * executor delivering buffer after deadline (created with first delayed delivery)
+     */
+    private ScheduledExecutorService deadlineExecutor;
+    /**
+     * scheduled delivery of actual buffer (null if buffer is empty)
+     */
+    private ScheduledFuture<?> deadline;
+
+    /**
+     * @param maxBatch maximal number of changes in one batch (1 delivers every change immediately)
+     * @param maxDelayMillis maximal time change waits in buffer
+     * @param receiver receiver of batches
+     */
+    DDPChangeBuffer(int maxBatch, long maxDelayMillis, Consumer<RemoteDocumentChange[]> receiver) {
+        this.maxBatch = maxBatch;
+        this.maxDelayMillis = maxDelayMillis;
+        this.receiver = receiver;
+        this.threshold = Math.min(MIN_THRESHOLD, maxBatch);
+    }
+
+    /**
+     * Adds change to buffer. Delivers buffer if threshold is reached.
+     * @param change change from server
+     */
+    synchronized void add(RemoteDocumentChange change) {
+        changes.add(change);
+        if (changes.size() >= threshold){
+            //stream of changes, bigger batches next time
+            threshold = Math.min(threshold * 2, maxBatch);
+            deliver();
+        } else if (deadline == null){
+            if (deadlineExecutor == null){
+                deadlineExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "DDP change buffer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            deadline = deadlineExecutor.schedule(this::deliverAfterDeadline, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Delivers buffered changes (if there are some).
+     */
+    synchronized void flush() {
+        if (!changes.isEmpty()){
+            deliver();
+        }
+    }
+
+    /**
+     * Delivers buffered changes and stops thread used for deadlines.
+     */
+    synchronized void close() {
+        flush();
+        if (deadlineExecutor != null){
+            deadlineExecutor.shutdownNow();
+            deadlineExecutor = null;
+        }
+    }
+
+    /**
+     * Delivers buffer when deadline passes, smaller batches next time if buffer was not filled.
+     */
+    private synchronized void deliverAfterDeadline() {
+        deadline = null;
+        if (changes.isEmpty()){
+            return;
+        }
+        if (changes.size() < threshold / 2){
+            threshold = Math.max(threshold / 2, Math.min(MIN_THRESHOLD, maxBatch));
+        }
+        deliver();
+    }
+
+    /**
+     * Sends buffered changes as one batch to receiver (under lock, so batches keep order).
+     */
+    private void deliver() {
+        if (deadline != null){
+            deadline.cancel(false);
+            deadline = null;
+        }
+        RemoteDocumentChange[] batch = changes.toArray(new RemoteDocumentChange[changes.size()]);
+        changes.clear();
+        receiver.accept(batch);
+    }
+}
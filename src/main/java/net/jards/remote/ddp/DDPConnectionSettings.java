@@ -1,5 +1,7 @@
 package net.jards.remote.ddp;
 
+import net.jards.core.Backoff;
+
 /**
  * Class which provides information and settings for connecting to server.
  */
@@ -15,6 +17,19 @@ public class DDPConnectionSettings{
         NoLogin
     }
 
+    /**
+     * Enum for ways how local changes are sent to server.
+     * PerDocument - one collection insert/update/remove call for each document (no server method needed).
+     * Batched - all changes of transaction in one call of server method.
+     * Pipelined - changes in chunks, one call of server method for each chunk, all chunks are sent
+     * without waiting for results.
+     */
+    public enum ApplyChangesMode {
+        PerDocument,
+        Batched,
+        Pipelined
+    }
+
     /**
      * server address
      */
@@ -43,6 +58,34 @@ public class DDPConnectionSettings{
      * token for corresponding login type
      */
     private final String resumeToken;
+    /**
+     * maximal number of data changes from server delivered to Storage in one batch (1 disables batching)
+     */
+    private int changeBatchMaxSize = 1024;
+    /**
+     * maximal time (milliseconds) data change from server waits for other changes before it is delivered
+     */
+    private long changeBatchMaxDelayMillis = 20;
+    /**
+     * way how local changes are sent to server
+     */
+    private ApplyChangesMode applyChangesMode = ApplyChangesMode.PerDocument;
+    /**
+     * name of server method which applies list of changes (batched and pipelined modes)
+     */
+    private String applyChangesMethod = "jards/applyChanges";
+    /**
+     * number of changes in one call in pipelined mode
+     */
+    private int applyChangesChunkSize = 100;
+    /**
+     * backoff between reconnect attempts when connection is lost
+     */
+    private Backoff reconnectBackoff = new Backoff(100, 30000, 2, 0.5);
+    /**
+     * time (milliseconds) to wait for connected message before attempt is considered failed
+     */
+    private long connectTimeoutMillis = 10000;
 
     /**
      * Creates DDPConnectionSettings with server adress and port
@@ -101,6 +144,109 @@ public class DDPConnectionSettings{
         this.loginType = LoginType.Token;
     }
 
+    /**
+     * Sets batching of data changes from server. Changes are delivered to Storage together when subscription
+     * is ready, when batch is full or when max delay passes after first change of batch.
+     * @param maxSize maximal number of changes in one batch, 1 delivers every change alone
+     * @param maxDelayMillis maximal time change waits for other changes (milliseconds)
+     */
+    public void setChangeBatching(int maxSize, long maxDelayMillis) {
+        if (maxSize < 1 || maxDelayMillis < 0){
+            throw new IllegalArgumentException("Change batching needs positive batch size and non negative delay!");
+        }
+        this.changeBatchMaxSize = maxSize;
+        this.changeBatchMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return maximal number of data changes from server in one batch
+     */
+    public int getChangeBatchMaxSize() {
+        return changeBatchMaxSize;
+    }
+
+    /**
+     * @return maximal time (milliseconds) data change from server waits in batch
+     */
+    public long getChangeBatchMaxDelayMillis() {
+        return changeBatchMaxDelayMillis;
+    }
+
+    /**
+     * Sets how local changes are sent to server. Batched and pipelined modes call server method with one
+     * argument - list of changes. Change is map with "op" (insert, update, remove), "collection", "_id" and
+     * "jsondata" (content of document, not set for remove).
+     * @param mode way how changes are sent
+     * @param methodName name of server method which applies list of changes (not used in per document mode)
+     * @param chunkSize number of changes in one call in pipelined mode
+     */
+    public void setApplyChanges(ApplyChangesMode mode, String methodName, int chunkSize) {
+        if (mode == null || (mode != ApplyChangesMode.PerDocument && (methodName == null || methodName.isEmpty()))
+                || chunkSize < 1){
+            throw new IllegalArgumentException("Apply changes needs mode, method name and positive chunk size!");
+        }
+        this.applyChangesMode = mode;
+        this.applyChangesMethod = methodName;
+        this.applyChangesChunkSize = chunkSize;
+    }
+
+    /**
+     * @return way how local changes are sent to server
+     */
+    public ApplyChangesMode getApplyChangesMode() {
+        return applyChangesMode;
+    }
+
+    /**
+     * @return name of server method which applies list of changes
+     */
+    public String getApplyChangesMethod() {
+        return applyChangesMethod;
+    }
+
+    /**
+     * @return number of changes in one call in pipelined mode
+     */
+    public int getApplyChangesChunkSize() {
+        return applyChangesChunkSize;
+    }
+
+    /**
+     * Sets backoff between reconnect attempts. First attempt after lost connection waits initial delay, every
+     * next one multiplier times longer (up to max delay), random part of delay (jitter) is subtracted.
+     * @param initialDelayMillis delay (milliseconds) before first reconnect attempt
+     * @param maxDelayMillis maximal delay (milliseconds)
+     * @param multiplier growth of delay with every attempt
+     * @param jitter random part of delay (from 0 to 1)
+     */
+    public void setReconnectBackoff(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter) {
+        this.reconnectBackoff = new Backoff(initialDelayMillis, maxDelayMillis, multiplier, jitter);
+    }
+
+    /**
+     * @return backoff between reconnect attempts
+     */
+    public Backoff getReconnectBackoff() {
+        return reconnectBackoff;
+    }
+
+    /**
+     * @param connectTimeoutMillis time (milliseconds) to wait for connection before next attempt is scheduled
+     */
+    public void setConnectTimeout(long connectTimeoutMillis) {
+        if (connectTimeoutMillis < 1){
+            throw new IllegalArgumentException("Connect timeout must be positive!");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @return time (milliseconds) to wait for connection before next attempt is scheduled
+     */
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
     public int getServerPort() {
         return serverPort;
     }
@@ -9,6 +9,7 @@ import net.jards.core.Connection;
 import net.jards.core.RemoteDocumentChange;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
@@ -93,6 +94,11 @@ public class DDPObserver extends DDPListener implements Observer {
                 // ignore {"server_id":"GqrKrbcSeDfTYDkzQ"} web socket msgs
                 return;
             }
+            if (!msgtype.equals(DdpMessageType.ADDED) && !msgtype.equals(DdpMessageType.CHANGED)
+                    && !msgtype.equals(DdpMessageType.REMOVED)) {
+                // buffered data changes go to storage before this message
+                ddpRemoteStorage.flushChanges();
+            }
             if (msgtype.equals(DdpMessageType.ERROR)) {
                 String mErrorSource = (String) jsonFields.get(DdpMessageField.SOURCE);
                 String mErrorMsg = (String) jsonFields.get(DdpMessageField.ERRORMSG);
@@ -140,28 +146,25 @@ public class DDPObserver extends DDPListener implements Observer {
                 //}
                 RemoteDocumentChange documentChange = new RemoteDocumentChange(RemoteDocumentChange.ChangeType.INSERT,
                         collectionName, id, jsonData);
-                ddpRemoteStorage.changesReceived(new RemoteDocumentChange[]{documentChange});
+                ddpRemoteStorage.changeReceived(documentChange);
             }
             if (msgtype.equals(DdpMessageType.REMOVED)) {
                 String collectionName = (String) jsonFields.get(DdpMessageField.COLLECTION);
                 String id = (String) jsonFields.get(DdpMessageField.ID);
                 RemoteDocumentChange documentChange = new RemoteDocumentChange(RemoteDocumentChange.ChangeType.REMOVE,
                         collectionName, id, "");
-                ddpRemoteStorage.changesReceived(new RemoteDocumentChange[]{documentChange});
+                ddpRemoteStorage.changeReceived(documentChange);
             }
             if (msgtype.equals(DdpMessageType.CHANGED)) {
                 String collectionName = (String) jsonFields.get(DdpMessageField.COLLECTION);
                 String id = (String) jsonFields.get(DdpMessageField.ID);
                 Map<String, Object> jsonMap = (Map<String, Object>) jsonFields.get(DdpMessageField.FIELDS);
-                String jsonData = gson.toJson(jsonMap);
-                /*if (jsonMap.containsKey("text")){
-                    jsonData = (String)jsonMap.get("text");
-                } else {
-                    jsonData = gson.toJson(jsonMap);
-                }*/
-                RemoteDocumentChange documentChange = new RemoteDocumentChange(RemoteDocumentChange.ChangeType.UPDATE,
-                        collectionName, id, jsonData);
-                ddpRemoteStorage.changesReceived(new RemoteDocumentChange[]{documentChange});
+                //only changed fields and names of cleared fields come, they are merged into stored document
+                String jsonData = jsonMap == null ? "{}" : gson.toJson(jsonMap);
+                List<String> clearedFields = (List<String>) jsonFields.get("cleared");
+                RemoteDocumentChange documentChange = new RemoteDocumentChange(collectionName, id, jsonData,
+                        clearedFields);
+                ddpRemoteStorage.changeReceived(documentChange);
             }
             //TODO: handle addedBefore, movedBefore??
             if (msgtype.equals(DdpMessageType.NOSUB)) {
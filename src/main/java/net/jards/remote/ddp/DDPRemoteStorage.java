@@ -7,12 +7,26 @@ import com.keysolutions.ddpclient.UsernameAuth;
 import net.jards.core.*;
 import net.jards.errors.LocalStorageException;
 import net.jards.errors.RemoteStorageError;
+import net.jards.metrics.Counter;
+import net.jards.metrics.Histogram;
+import net.jards.metrics.MetricsRegistry;
 
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 
 /**
@@ -78,15 +92,109 @@ public class DDPRemoteStorage extends RemoteStorage {
      */
     private final Map<Integer, ExecutionRequest> methods;
     /**
-     * map for apply changes method which sends many requests to server (one for each change),
-     * counter for those changes to know when it is done
+     * map for apply changes method which sends many requests to server (one for each change or chunk),
+     * counter of calls without result to know when it is done (key is remote calls id of execute request)
      */
-    private final Map<Integer, Integer> executeMethodsCount;
+    private final Map<Integer, AtomicInteger> executeMethodsCount;
+    /**
+     * ids of methods which were completed before they were registered in methods map (kept only while some
+     * method of this storage is being sent, results of other methods, ie. login, are not kept)
+     */
+    private final Set<Integer> earlyCompletedMethods = new HashSet<>();
+    /**
+     * number of methods which are being sent and are not registered yet (guarded by methods map)
+     */
+    private int sendingMethods = 0;
+    /**
+     * generator of ids for execute requests (negative, so they don't collide with ids given by ddp client)
+     */
+    private final AtomicInteger executeIds = new AtomicInteger();
+    /**
+     * way how local changes are sent to server
+     */
+    private final DDPConnectionSettings.ApplyChangesMode applyChangesMode;
+    /**
+     * name of server method which applies list of changes
+     */
+    private final String applyChangesMethod;
+    /**
+     * number of changes in one call in pipelined mode
+     */
+    private final int applyChangesChunkSize;
 
     /**
      * true if system is connected
      */
-    private boolean systemIsConnected = false;
+    private volatile boolean systemIsConnected = false;
+    /**
+     * true after stop, no more reconnects
+     */
+    private volatile boolean stopped = false;
+    /**
+     * lock for connecting (client, scheduled reconnect, attempts)
+     */
+    private final Object connectionLock = new Object();
+    /**
+     * backoff between reconnect attempts
+     */
+    private final Backoff reconnectBackoff;
+    /**
+     * time (milliseconds) to wait for connected message before attempt is considered failed
+     */
+    private final long connectTimeoutMillis;
+    /**
+     * executor for scheduled reconnects and connect timeouts (created with start)
+     */
+    private ScheduledExecutorService reconnectExecutor;
+    /**
+     * scheduled reconnect (null if no reconnect is waiting)
+     */
+    private ScheduledFuture<?> scheduledReconnect;
+    /**
+     * number of connect attempts (to recognize timeout of old attempt)
+     */
+    private int connectAttempts = 0;
+    /**
+     * time (System.nanoTime) when connection was lost, 0 if connected or not connected yet
+     */
+    private long disconnectedAt = 0;
+    /**
+     * number of successful reconnects after connection was lost
+     */
+    private long reconnectCount = 0;
+    /**
+     * duration (milliseconds) of last reconnect - from loss of connection to connected message
+     */
+    private long lastReconnectLatencyMillis = 0;
+    /**
+     * longest reconnect (milliseconds)
+     */
+    private long maxReconnectLatencyMillis = 0;
+    /**
+     * sum of durations of all reconnects (milliseconds)
+     */
+    private long totalReconnectLatencyMillis = 0;
+
+    /**
+     * true if metrics registry records metrics
+     */
+    private final boolean metricsEnabled;
+    /**
+     * time (from timing of metrics) when methods waiting for result were sent (key is method id)
+     */
+    private final Map<Integer, Long> methodSentAt = new HashMap<>();
+    /**
+     * time from sending method to its result (nanoseconds)
+     */
+    private final Histogram methodRoundTrip;
+    /**
+     * number of reconnects after lost connection
+     */
+    private final Counter reconnects;
+    /**
+     * time from loss of connection to connected message (nanoseconds)
+     */
+    private final Histogram reconnectLatency;
 
     /**
      * true if system was connected, and also disconnected after that
@@ -100,6 +208,11 @@ public class DDPRemoteStorage extends RemoteStorage {
      */
     private boolean subscribed_askedForNewDataset = false;
 
+    /**
+     * buffer coalescing data changes from server into batches for Storage
+     */
+    private final DDPChangeBuffer changeBuffer;
+
     /**
      * Creates DDPRemoteStorage with given parameters.
      * @param storageSetup with settings
@@ -113,11 +226,23 @@ public class DDPRemoteStorage extends RemoteStorage {
         this.userName = connectionSettings.getUserName();
         this.email = connectionSettings.getEmail();
         this.password = connectionSettings.getPassword();
+        this.applyChangesMode = connectionSettings.getApplyChangesMode();
+        this.applyChangesMethod = connectionSettings.getApplyChangesMethod();
+        this.applyChangesChunkSize = connectionSettings.getApplyChangesChunkSize();
+        this.reconnectBackoff = connectionSettings.getReconnectBackoff();
+        this.connectTimeoutMillis = connectionSettings.getConnectTimeoutMillis();
+        MetricsRegistry metricsRegistry = storageSetup.getMetricsRegistry();
+        this.metricsEnabled = metricsRegistry.isEnabled();
+        this.methodRoundTrip = metricsRegistry.histogram("ddp.method.roundTrip");
+        this.reconnects = metricsRegistry.counter("ddp.reconnects");
+        this.reconnectLatency = metricsRegistry.histogram("ddp.reconnect.latency");
 
 		subscriptions = new HashMap<>();
 		methods = new HashMap<>();
-        executeMethodsCount = new HashMap<>();
+        executeMethodsCount = new ConcurrentHashMap<>();
         session = null;
+        changeBuffer = new DDPChangeBuffer(connectionSettings.getChangeBatchMaxSize(),
+                connectionSettings.getChangeBatchMaxDelayMillis(), this::deliverChanges);
 
         //setReadyForConnect();
 	}
@@ -129,20 +254,8 @@ public class DDPRemoteStorage extends RemoteStorage {
      * @param session String containing information about saved session, used to continue work with server.
      */
     public DDPRemoteStorage(StorageSetup storageSetup, DDPConnectionSettings connectionSettings, String session){
-        this.serverAddress = connectionSettings.getServerAddress();
-        this.serverPort = connectionSettings.getServerPort();
-        this.loginType = connectionSettings.getLoginType();
-        this.resumeToken = connectionSettings.getResumeToken();
-        this.userName = connectionSettings.getUserName();
-        this.email = connectionSettings.getEmail();
-        this.password = connectionSettings.getPassword();
-
-        subscriptions = new HashMap<>();
-        methods = new HashMap<>();
-        executeMethodsCount = new HashMap<>();
+        this(storageSetup, connectionSettings);
         this.session = session;
-
-        //setReadyForConnect();
     }
 
     /**
@@ -160,43 +273,183 @@ public class DDPRemoteStorage extends RemoteStorage {
     }
 
     /**
-     * Connects to server, logs user (if login information provided) and starts to listen for changes from server.
+     * Starts connecting to server, logs user (if login information provided) after connection and listens for
+     * changes from server. Doesn't wait for connection - result comes as connection change. Lost connection
+     * (or failed attempt) is reconnected with backoff from DDPConnectionSettings.
      * @param sessionState session to reconnect on server, if null clients starts new connection
      */
     @Override
 	protected void start(String sessionState) {
-        systemIsConnected = false;
-        while (!systemIsConnected) {
-            try {
-                if (ddpClient==null){
-                    setReadyForConnect();
-                    ddpClient.connect();
-                    subscribed_askedForNewDataset = false;
-                } else {
-                    if (!ddpClient.getState().equals(DDPClient.CONNSTATE.Connected)){
-                        //setReadyForConnect();
-                        ddpClient.disconnect();
-                        Thread.sleep(750);
-                        ddpClient.connect();
-                        //subscribed_askedForNewDataset = false;
-                    }
-                }
-                Thread.sleep(750);
-                if (ddpClient.getState().equals(DDPClient.CONNSTATE.Connected)){
-                    systemIsConnected = true;
-                }
+        synchronized (connectionLock){
+            stopped = false;
+            if (reconnectExecutor == null){
+                reconnectExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "DDP reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            if (ddpClient == null){
+                setReadyForConnect();
+                subscribed_askedForNewDataset = false;
+            }
+            reconnectBackoff.reset();
+        }
+        connect();
+
+        // session
+        // https://forums.meteor.com/t/meteor-passing-session-values-from-client-to-server/5716
+        //http://stackoverflow.com/questions/30852792/meteor-passing-session-values-from-client-to-server
+        //... do it for library and sent it to them?
+	}
+
+    /**
+     * DDPRemoteStorage reconnects itself when connection is closed.
+     * @return true
+     */
+    @Override
+    protected boolean managesReconnect() {
+        return true;
+    }
 
-                // session
-                // https://forums.meteor.com/t/meteor-passing-session-values-from-client-to-server/5716
-                //http://stackoverflow.com/questions/30852792/meteor-passing-session-values-from-client-to-server
-                //... do it for library and sent it to them?
+    /**
+     * Connects now if not connected (ie. network is available again), scheduled reconnect is cancelled
+     * and backoff starts from beginning.
+     */
+    @Override
+    public void reconnectNow() {
+        synchronized (connectionLock){
+            if (stopped || systemIsConnected || reconnectExecutor == null){
+                return;
+            }
+            if (scheduledReconnect != null){
+                scheduledReconnect.cancel(false);
+                scheduledReconnect = null;
+            }
+            reconnectBackoff.reset();
+            reconnectExecutor.execute(this::connect);
+        }
+    }
 
+    /**
+     * One attempt to connect. If connected message doesn't come in connect timeout, next attempt is scheduled.
+     */
+    private void connect() {
+        synchronized (connectionLock){
+            scheduledReconnect = null;
+            if (stopped || systemIsConnected || ddpClient == null){
+                return;
+            }
+            int attempt = ++connectAttempts;
+            try {
+                if (attempt > 1 && !ddpClient.getState().equals(DDPClient.CONNSTATE.Connected)){
+                    //close what is left from previous attempt
+                    ddpClient.disconnect();
+                }
+                ddpClient.connect();
             } catch (Exception e) {
                 e.printStackTrace();
+                scheduleReconnect();
+                return;
             }
+            reconnectExecutor.schedule(() -> connectTimedOut(attempt), connectTimeoutMillis, TimeUnit.MILLISECONDS);
         }
+    }
 
-	}
+    /**
+     * @param attempt number of attempt which timed out
+     */
+    private void connectTimedOut(int attempt) {
+        synchronized (connectionLock){
+            if (attempt == connectAttempts && !systemIsConnected){
+                scheduleReconnect();
+            }
+        }
+    }
+
+    /**
+     * Schedules next connect attempt after backoff (if there is no scheduled attempt already).
+     */
+    private void scheduleReconnect() {
+        synchronized (connectionLock){
+            if (stopped || scheduledReconnect != null || reconnectExecutor == null){
+                return;
+            }
+            scheduledReconnect = reconnectExecutor.schedule(this::connect, reconnectBackoff.nextDelayMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Updates state of connection - resets backoff and records latency after connect, schedules
+     * reconnect after close.
+     * @param connection changed connection
+     */
+    private void updateConnectionState(Connection connection) {
+        synchronized (connectionLock){
+            if (connection.getState() == Connection.STATE.Connected){
+                systemIsConnected = true;
+                reconnectBackoff.reset();
+                if (scheduledReconnect != null){
+                    scheduledReconnect.cancel(false);
+                    scheduledReconnect = null;
+                }
+                if (disconnectedAt != 0){
+                    long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAt);
+                    disconnectedAt = 0;
+                    reconnectCount++;
+                    reconnects.increment();
+                    reconnectLatency.record(TimeUnit.MILLISECONDS.toNanos(latency));
+                    lastReconnectLatencyMillis = latency;
+                    maxReconnectLatencyMillis = Math.max(maxReconnectLatencyMillis, latency);
+                    totalReconnectLatencyMillis += latency;
+                }
+            } else if (connection.getState() == Connection.STATE.Closed
+                    || connection.getState() == Connection.STATE.Disconnected){
+                systemIsConnected = false;
+                if (disconnectedAt == 0 && connectAttempts > 0){
+                    disconnectedAt = System.nanoTime();
+                }
+                scheduleReconnect();
+            }
+        }
+    }
+
+    /**
+     * @return number of reconnects after lost connection
+     */
+    public long getReconnectCount() {
+        synchronized (connectionLock){
+            return reconnectCount;
+        }
+    }
+
+    /**
+     * @return duration (milliseconds) of last reconnect, from loss of connection to connected message
+     */
+    public long getLastReconnectLatencyMillis() {
+        synchronized (connectionLock){
+            return lastReconnectLatencyMillis;
+        }
+    }
+
+    /**
+     * @return duration (milliseconds) of longest reconnect
+     */
+    public long getMaxReconnectLatencyMillis() {
+        synchronized (connectionLock){
+            return maxReconnectLatencyMillis;
+        }
+    }
+
+    /**
+     * @return average duration (milliseconds) of reconnect, 0 if there was no reconnect
+     */
+    public long getAverageReconnectLatencyMillis() {
+        synchronized (connectionLock){
+            return reconnectCount == 0 ? 0 : totalReconnectLatencyMillis / reconnectCount;
+        }
+    }
 
     /**
      * Disconnects from server and stops
@@ -204,8 +457,27 @@ public class DDPRemoteStorage extends RemoteStorage {
     @Override
 	public void stop() {
 		//TODO unsubscribe all subscriptions and such?
-        ddpClient.disconnect();
-        ddpClient.deleteObservers();
+        DDPClient stoppedClient;
+        synchronized (connectionLock){
+            stopped = true;
+            systemIsConnected = false;
+            if (scheduledReconnect != null){
+                scheduledReconnect.cancel(false);
+                scheduledReconnect = null;
+            }
+            if (reconnectExecutor != null){
+                reconnectExecutor.shutdownNow();
+                reconnectExecutor = null;
+            }
+            //next start creates new client (and observer) for new connection
+            stoppedClient = ddpClient;
+            ddpClient = null;
+        }
+        changeBuffer.close();
+        if (stoppedClient != null){
+            stoppedClient.disconnect();
+            stoppedClient.deleteObservers();
+        }
 	}
 
     /**
@@ -267,25 +539,54 @@ public class DDPRemoteStorage extends RemoteStorage {
             argsWithSeed = new Object[1];
         }
         argsWithSeed[argsWithSeed.length-1] = idSeed;
-        int methodId = ddpClient.call(method, argsWithSeed);
-        request.setRemoteCallsId(methodId);
-		methods.put(methodId, request);
+        //call sent again after reconnect won't get result for its old method
+        forgetMethods(request);
+        sendMethod(request, () -> {
+            int methodId = ddpClient.call(method, argsWithSeed);
+            request.setRemoteCallsId(methodId);
+            return methodId;
+        });
 		//ddpObserver.addMethod(methodId, method);
 	}
 
     /**
-     * Apply changes that happened in local Storage to the remote server
-     * @param changes changes of one document
+     * Apply changes that happened in local Storage to the remote server. Changes are sent one call per document,
+     * in one call or in pipelined chunks (by ApplyChangesMode in DDPConnectionSettings). Request is completed
+     * when all calls are done.
+     * @param changes changes of one transaction
      * @param request request that caused this change
      */
     @Override
 	protected void applyChanges(DocumentChanges changes, ExecutionRequest request) {
         //http://stackoverflow.com/questions/31631810/access-denied-403-when-updating-user-accounts-client-side-in-meteor
 
+        //execute sent again after reconnect won't get results for methods of its old id
+        forgetMethods(request);
         //id to know when are all done (decrement count for that id in map for execute calls)
-        int randomId = UUID.randomUUID().hashCode();
-        request.setRemoteCallsId(randomId);
-        int count = 0;
+        int executeId = executeIds.decrementAndGet();
+        request.setRemoteCallsId(executeId);
+        if (applyChangesMode == DDPConnectionSettings.ApplyChangesMode.PerDocument){
+            applyChangesPerDocument(changes, request, executeId);
+        } else {
+            applyChangesInChunks(changes, request, executeId);
+        }
+	}
+
+    /**
+     * Sends one collection insert/update/remove call for each document.
+     * @param changes changes of one transaction
+     * @param request request that caused this change
+     * @param executeId remote calls id of request
+     */
+    private void applyChangesPerDocument(DocumentChanges changes, ExecutionRequest request, int executeId) {
+        int count = changes.getAddedDocuments().size() + changes.getUpdatedDocuments().size()
+                + changes.getRemovedDocuments().size();
+        if (count == 0){
+            remoteStorageListener.requestCompleted(request);
+            return;
+        }
+        //count is set before calls are sent, results can come before last call is sent
+        executeMethodsCount.put(executeId, new AtomicInteger(count));
 
 		// Add documents
         for (Document document :changes.getAddedDocuments()) {
@@ -294,10 +595,7 @@ public class DDPRemoteStorage extends RemoteStorage {
             documentMap.put("_id", document.getId());
             documentMap.put("collection", collectionName);
             documentMap.put("jsondata", document.getContent());
-            int methodId = ddpClient.collectionInsert(collectionName, documentMap);
-            methods.put(methodId, request);
-            //ddpObserver.addMethod(methodId, "collectionInsert");
-            count++;
+            sendMethod(request, () -> ddpClient.collectionInsert(collectionName, documentMap));
         }
         // Update documents
         for (Document document :changes.getUpdatedDocuments()) {
@@ -307,24 +605,148 @@ public class DDPRemoteStorage extends RemoteStorage {
             documentMap.put("collection", collectionName);
             documentMap.put("jsondata", document.getContent());
             String docId = document.getId();
-            int methodId = ddpClient.collectionUpdate(collectionName, docId, documentMap);
-            methods.put(methodId, request);
-            //ddpObserver.addMethod(methodId, "collectionUpdate");
-            count++;
+            sendMethod(request, () -> ddpClient.collectionUpdate(collectionName, docId, documentMap));
         }
         // Remove documents
         for (Document document :changes.getRemovedDocuments()) {
             String collectionName = document.getCollection().getName();
             String docId = document.getId();
-            int methodId = ddpClient.collectionDelete(collectionName, docId);
-            methods.put(methodId, request);
-            //ddpObserver.addMethod(methodId, "collectionDelete");
-            count++;
+            sendMethod(request, () -> ddpClient.collectionDelete(collectionName, docId));
         }
+    }
 
-        //add count to map for this id
-        executeMethodsCount.put(randomId, count);
-	}
+    /**
+     * Sends changes as lists of changes to server method. Batched mode sends all of them in one call, pipelined
+     * mode sends chunks one after another without waiting for results.
+     * @param changes changes of one transaction
+     * @param request request that caused this change
+     * @param executeId remote calls id of request
+     */
+    private void applyChangesInChunks(DocumentChanges changes, ExecutionRequest request, int executeId) {
+        List<Map<String, Object>> operations = new ArrayList<>();
+        for (Document document :changes.getAddedDocuments()) {
+            operations.add(createOperation("insert", document));
+        }
+        for (Document document :changes.getUpdatedDocuments()) {
+            operations.add(createOperation("update", document));
+        }
+        for (Document document :changes.getRemovedDocuments()) {
+            operations.add(createOperation("remove", document));
+        }
+        if (operations.isEmpty()){
+            remoteStorageListener.requestCompleted(request);
+            return;
+        }
+        int chunkSize = applyChangesMode == DDPConnectionSettings.ApplyChangesMode.Batched
+                ? operations.size() : applyChangesChunkSize;
+        int chunks = (operations.size() + chunkSize - 1) / chunkSize;
+        executeMethodsCount.put(executeId, new AtomicInteger(chunks));
+        for (int start = 0; start < operations.size(); start += chunkSize) {
+            List<Map<String, Object>> chunk = new ArrayList<>(
+                    operations.subList(start, Math.min(start + chunkSize, operations.size())));
+            sendMethod(request, () -> ddpClient.call(applyChangesMethod, new Object[]{chunk}));
+        }
+    }
+
+    /**
+     * @param operation insert, update or remove
+     * @param document changed document
+     * @return map with change of document for server method
+     */
+    private static Map<String, Object> createOperation(String operation, Document document) {
+        Map<String, Object> operationMap = new LinkedHashMap<>();
+        operationMap.put("op", operation);
+        operationMap.put("collection", document.getCollection().getName());
+        operationMap.put("_id", document.getId());
+        if (!"remove".equals(operation)){
+            operationMap.put("jsondata", document.getContent());
+        }
+        return operationMap;
+    }
+
+    /**
+     * Sends method to server and registers it, so its result completes request. If result came already
+     * (before ddp client returned id of method), request is completed now.
+     * @param request request that sends this method
+     * @param send sends method with ddp client and returns its id
+     */
+    private void sendMethod(ExecutionRequest request, IntSupplier send) {
+        long sentAt = methodRoundTrip.startTiming();
+        synchronized (methods){
+            sendingMethods++;
+        }
+        int methodId;
+        try {
+            methodId = send.getAsInt();
+        } catch (RuntimeException e) {
+            synchronized (methods){
+                methodSendEnded();
+            }
+            throw e;
+        }
+        synchronized (methods){
+            boolean completed = earlyCompletedMethods.remove(methodId);
+            methodSendEnded();
+            if (!completed){
+                methods.put(methodId, request);
+                if (metricsEnabled){
+                    methodSentAt.put(methodId, sentAt);
+                }
+                return;
+            }
+        }
+        methodRoundTrip.recordSince(sentAt);
+        completeMethod(request);
+    }
+
+    /**
+     * Called (with lock of methods map) when sent method was registered or sending failed. Results which came
+     * early belong to methods being sent, so they are dropped when no method is being sent.
+     */
+    private void methodSendEnded() {
+        sendingMethods--;
+        if (sendingMethods == 0){
+            earlyCompletedMethods.clear();
+        }
+    }
+
+    /**
+     * Removes methods which request sent before (and counter of its execute), so request can be sent again
+     * after reconnect.
+     * @param request request which will be sent
+     */
+    private void forgetMethods(ExecutionRequest request) {
+        if (request.getRemoteCallsId() == 0){
+            //not sent yet
+            return;
+        }
+        executeMethodsCount.remove(request.getRemoteCallsId());
+        synchronized (methods){
+            Iterator<Map.Entry<Integer, ExecutionRequest>> iterator = methods.entrySet().iterator();
+            while (iterator.hasNext()){
+                Map.Entry<Integer, ExecutionRequest> entry = iterator.next();
+                if (entry.getValue() == request){
+                    methodSentAt.remove(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when one method of request is done. Request of execute is completed after its last method.
+     * @param request request that sent the method
+     */
+    private void completeMethod(ExecutionRequest request) {
+        if (request.isExecute()){
+            AtomicInteger remainingMethods = executeMethodsCount.get(request.getRemoteCallsId());
+            if (remainingMethods == null || remainingMethods.decrementAndGet() > 0){
+                return;
+            }
+            executeMethodsCount.remove(request.getRemoteCallsId());
+        }
+        this.remoteStorageListener.requestCompleted(request);
+    }
 
     /**
      * Get session state which was sent to this client from server
@@ -350,6 +772,8 @@ public class DDPRemoteStorage extends RemoteStorage {
      * @param subscriptionId id of ready subscription
      */
     void subscriptionReady(int subscriptionId){
+        //data of subscription are delivered before it is confirmed
+        changeBuffer.flush();
         if (subscriptions.containsKey(subscriptionId)){
             remoteStorageListener.requestCompleted(subscriptions.get(subscriptionId));
         }
@@ -361,41 +785,61 @@ public class DDPRemoteStorage extends RemoteStorage {
      * @param methodId id of method
      */
     void requestCompleted(Integer methodId){
-        //Integer methodIdInt = Integer.parseInt(methodId);
-        if (methods.containsKey(methodId)){
-            ExecutionRequest request = methods.get(methodId);
-            if (request.isExecute()){
-                //if it is execute - there are more calls - listener method after last one is done
-                int actualCount = executeMethodsCount.get(request.getRemoteCallsId());
-                //methodId is id on calls map, given my ddpClient. request's id is for execute calls
-                actualCount--;
-                if (actualCount <= 0){
-                    this.remoteStorageListener.requestCompleted(methods.get(methodId));
+        ExecutionRequest request;
+        Long sentAt;
+        synchronized (methods){
+            request = methods.remove(methodId);
+            if (request == null){
+                //result came before method was registered, or it is method of system (ie. login)
+                //or method forgotten before resend, that one is kept only while methods are being sent
+                if (sendingMethods > 0){
+                    earlyCompletedMethods.add(methodId);
                 }
-            } else {
-                this.remoteStorageListener.requestCompleted(methods.get(methodId));
+                return;
             }
-            methods.remove(methodId);
+            sentAt = methodSentAt.remove(methodId);
+        }
+        if (sentAt != null){
+            methodRoundTrip.recordSince(sentAt);
         }
+        completeMethod(request);
 	}
 
     /**
-     * Called when DDPObserver receives some data from server. It is sent into attached RemoteStorageListener.
-     * @param changes array of changes - in this situation it is array of length 1 with one added/updated/removed document
+     * Called when DDPObserver receives data change from server. Change is buffered and sent into attached
+     * RemoteStorageListener in batch with other changes.
+     * @param change added/updated/removed document
      */
-    void changesReceived(RemoteDocumentChange[] changes){
+    void changeReceived(RemoteDocumentChange change){
 		if (subscribed_askedForNewDataset){
             //reset local data, cause new dataset is coming (we subscribed, first data came)
             subscribed_askedForNewDataset = false;
+            //changes which came before are delivered before collections are invalidated
+            changeBuffer.flush();
             try {
                 remoteStorageListener.collectionInvalidated(null);
             } catch (LocalStorageException e) {
                 e.printStackTrace();
             }
         }
-        this.remoteStorageListener.changesReceived(changes);
+        changeBuffer.add(change);
 	}
 
+    /**
+     * Delivers buffered changes before message which is not data change is handled (to keep order of messages).
+     */
+    void flushChanges(){
+        changeBuffer.flush();
+    }
+
+    /**
+     * Sends batch of changes into attached RemoteStorageListener.
+     * @param changes changes in order they came from server
+     */
+    private void deliverChanges(RemoteDocumentChange[] changes){
+        this.remoteStorageListener.changesReceived(changes);
+    }
+
     /**
      * Called when server confirms that collection is invalidated. It is sent into attached RemoteStorageListener.
      * @param collection name of collection which was removed
@@ -410,6 +854,7 @@ public class DDPRemoteStorage extends RemoteStorage {
      * @param connection object with information about connection
      */
     void connectionChanged(Connection connection){
+        updateConnectionState(connection);
         //If I connected, get session
         if (connection.getState() == Connection.STATE.Connected &&
                 connection.getCode().equals(Connection.CONNECTED_AFTER_BEING_DISCONNECTED)){
@@ -0,0 +1,676 @@
+package net.jards.remote.loopback;
+
+import net.jards.core.Backoff;
+import net.jards.core.Connection;
+import net.jards.core.Document;
+import net.jards.core.DocumentChanges;
+import net.jards.core.ExecutionRequest;
+import net.jards.core.IdGenerator;
+import net.jards.core.RemoteDocumentChange;
+import net.jards.core.RemoteStorage;
+import net.jards.core.RemoteStorageListener;
+import net.jards.errors.RemoteStorageError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RemoteStorage with in-memory server in same process, for load testing and measurement without real server.
+ * Messages travel through simulated network with latency, jitter and bandwidth (set in LoopbackSettings),
+ * in order in each direction. Server confirms calls, applies changes to its collections (and sends them back
+ * as changes of documents), sends datasets of subscriptions and can break connection by failure injection
+ * (messages in flight are lost, storage reconnects itself with backoff like DDPRemoteStorage).
+ * Server and delivery to listener run on one network thread.
+ */
+public class LoopbackRemoteStorage extends RemoteStorage {
+
+    /**
+     * One direction of simulated connection. Message is sent when previous messages are sent (bandwidth),
+     * arrives after latency with jitter, but never before message sent before it.
+     */
+    private class Link {
+
+        /**
+         * time (System.nanoTime) when link is free for next message
+         */
+        private long freeAt = 0;
+        /**
+         * arrival time of last message
+         */
+        private long lastArrival = 0;
+
+        /**
+         * @param bytes size of message
+         * @param sentInGeneration generation of connection in which message was sent
+         * @param delivery work done when message arrives (skipped if connection broke meanwhile)
+         */
+        synchronized void send(long bytes, int sentInGeneration, Runnable delivery) {
+            long now = System.nanoTime();
+            long transfer = bandwidthBytesPerSecond == 0 ? 0
+                    : (long) (bytes * 1e9 / bandwidthBytesPerSecond);
+            freeAt = Math.max(now, freeAt) + transfer;
+            long jitter = jitterNanos == 0 ? 0 : (long) (random.nextDouble() * jitterNanos);
+            long arrival = Math.max(freeAt + latencyNanos + jitter, lastArrival);
+            lastArrival = arrival;
+            schedule(() -> {
+                if (sentInGeneration == generation){
+                    delivery.run();
+                }
+            }, arrival - now);
+        }
+
+        /**
+         * Forgets messages of broken connection.
+         */
+        synchronized void reset() {
+            freeAt = 0;
+            lastArrival = 0;
+        }
+    }
+
+    /**
+     * size of message without documents or arguments (bytes)
+     */
+    private static final int MESSAGE_BYTES = 64;
+    /**
+     * characters of generated ids
+     */
+    private static final String ID_CHARACTERS = "23456789ABCDEFGHJKLMNPQRSTWXYZabcdefghijkmnopqrstuvwxyz";
+
+    private final LoopbackSettings settings;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final long bandwidthBytesPerSecond;
+    private final Backoff reconnectBackoff;
+    private final Random random;
+    private final Link upstream = new Link();
+    private final Link downstream = new Link();
+
+    /**
+     * collections of server (collection name -> id -> content)
+     */
+    private final Map<String, Map<String, String>> serverCollections = new ConcurrentHashMap<>();
+    /**
+     * active subscriptions (key is subscription id)
+     */
+    private final Map<Integer, ExecutionRequest> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriptionIds = new AtomicInteger();
+
+    private RemoteStorageListener remoteStorageListener;
+    /**
+     * network thread (server and delivery of messages)
+     */
+    private ScheduledExecutorService network;
+    private ScheduledFuture<?> scheduledReconnect;
+    /**
+     * generation of connection, messages sent in previous generations are lost
+     */
+    private volatile int generation = 0;
+    private volatile boolean connected = false;
+    private volatile boolean stopped = false;
+    private boolean wasConnected = false;
+    /**
+     * time (System.nanoTime) until server is unreachable
+     */
+    private volatile long serverDownUntil;
+    private String session;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong echoedChangeCount = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong disconnectCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+
+    /**
+     * Creates loopback remote storage, server gets documents of datasets from settings.
+     * @param settings settings of network and server
+     */
+    public LoopbackRemoteStorage(LoopbackSettings settings) {
+        this.settings = settings;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(settings.getLatencyMillis());
+        this.jitterNanos = TimeUnit.MILLISECONDS.toNanos(settings.getJitterMillis());
+        this.bandwidthBytesPerSecond = settings.getBandwidthBytesPerSecond();
+        this.reconnectBackoff = settings.getReconnectBackoff();
+        this.random = new Random(settings.getSeed());
+        this.serverDownUntil = System.nanoTime();
+        for (List<LoopbackSettings.Dataset> datasets:settings.getDatasets().values()) {
+            for (LoopbackSettings.Dataset dataset:datasets) {
+                Map<String, String> collection = serverCollection(dataset.getCollection());
+                for (int i = 0; i < dataset.getDocuments(); i++) {
+                    collection.put(dataset.getCollection() + "-" + i, dataset.getContentGenerator().content(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts connecting to server (result comes as connection change).
+     * @param sessionState session to continue (new session is created if null or empty)
+     */
+    @Override
+    protected void start(String sessionState) {
+        synchronized (this){
+            stopped = false;
+            if (network == null){
+                network = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "Loopback network");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            session = sessionState == null || sessionState.isEmpty() ? UUID.randomUUID().toString() : sessionState;
+            reconnectBackoff.reset();
+        }
+        connect();
+    }
+
+    /**
+     * Disconnects and stops network thread.
+     */
+    @Override
+    protected void stop() {
+        synchronized (this){
+            stopped = true;
+            connected = false;
+            generation++;
+            if (network != null){
+                network.shutdownNow();
+                network = null;
+            }
+            scheduledReconnect = null;
+        }
+    }
+
+    /**
+     * Loopback storage reconnects itself when connection breaks.
+     * @return true
+     */
+    @Override
+    protected boolean managesReconnect() {
+        return true;
+    }
+
+    /**
+     * Connects now if not connected, scheduled reconnect is cancelled.
+     */
+    @Override
+    protected void reconnectNow() {
+        synchronized (this){
+            if (stopped || connected || network == null){
+                return;
+            }
+            if (scheduledReconnect != null){
+                scheduledReconnect.cancel(false);
+                scheduledReconnect = null;
+            }
+            reconnectBackoff.reset();
+        }
+        connect();
+    }
+
+    @Override
+    protected void setListener(RemoteStorageListener listener) {
+        this.remoteStorageListener = listener;
+    }
+
+    /**
+     * Subscribes to dataset of subscription (or to collection with name of subscription). Documents come as
+     * inserts, request is completed when all of them are delivered.
+     * @param subscriptionName name of subscription
+     * @param request subscription request
+     * @return id of subscription
+     */
+    @Override
+    protected int subscribe(String subscriptionName, ExecutionRequest request) {
+        subscriptions.remove(request.getRemoteCallsId());
+        int subscriptionId = subscriptionIds.incrementAndGet();
+        request.setRemoteCallsId(subscriptionId);
+        subscriptions.put(subscriptionId, request);
+        sendRequest(MESSAGE_BYTES, () -> sendSubscription(subscriptionId, subscriptionName, request));
+        return subscriptionId;
+    }
+
+    @Override
+    protected void unsubscribe(ExecutionRequest request) {
+        int subscriptionId = request.getRemoteCallsId();
+        ExecutionRequest subscription = subscriptions.remove(subscriptionId);
+        if (subscription == null){
+            return;
+        }
+        sendRequest(MESSAGE_BYTES, () -> sendResponse(MESSAGE_BYTES, () ->
+                remoteStorageListener.unsubscribed(subscription.getSubscriptionName(), subscriptionId, null)));
+    }
+
+    /**
+     * Server confirms call (or reports injected error and completes it).
+     */
+    @Override
+    protected void call(String method, Object[] arguments, String idSeed, ExecutionRequest request) {
+        long bytes = MESSAGE_BYTES + method.length() + (arguments == null ? 0 : Arrays.deepToString(arguments).length());
+        sendRequest(bytes, () -> {
+            RemoteStorageError error = injectMethodError(method);
+            sendResponse(MESSAGE_BYTES, () -> {
+                if (error != null){
+                    remoteStorageListener.onError(error);
+                }
+                completedCount.incrementAndGet();
+                remoteStorageListener.requestCompleted(request);
+            });
+        });
+    }
+
+    /**
+     * Server applies changes to its collections, sends them back (if echo is enabled) and completes request.
+     */
+    @Override
+    protected void applyChanges(DocumentChanges changes, ExecutionRequest request) {
+        sendRequest(MESSAGE_BYTES + size(changes), () -> {
+            RemoteStorageError error = injectMethodError("applyChanges");
+            List<RemoteDocumentChange> applied = error == null ? applyOnServer(changes) : Collections.emptyList();
+            boolean echo = settings.isEchoChanges() && !applied.isEmpty();
+            if (echo){
+                RemoteDocumentChange[] echoedChanges = applied.toArray(new RemoteDocumentChange[applied.size()]);
+                sendResponse(MESSAGE_BYTES + size(echoedChanges), () -> {
+                    echoedChangeCount.addAndGet(echoedChanges.length);
+                    remoteStorageListener.changesReceived(echoedChanges);
+                });
+            }
+            sendResponse(MESSAGE_BYTES, () -> {
+                if (error != null){
+                    remoteStorageListener.onError(error);
+                }
+                completedCount.incrementAndGet();
+                remoteStorageListener.requestCompleted(request);
+            });
+        });
+    }
+
+    @Override
+    public String getSessionState() {
+        return session;
+    }
+
+    /**
+     * @param seed seed of generator (same seed gives same ids), null or empty seed gives random ids
+     * @return generator of random ids
+     */
+    @Override
+    protected IdGenerator getIdGenerator(String seed) {
+        //storage doesn't send seed with methods yet, so empty seed can't be shared with server
+        Random ids = seed == null || seed.isEmpty() ? new Random(random.nextLong()) : new Random(seed.hashCode());
+        return () -> {
+            char[] id = new char[17];
+            for (int i = 0; i < id.length; i++) {
+                id[i] = ID_CHARACTERS.charAt(ids.nextInt(ID_CHARACTERS.length()));
+            }
+            return new String(id);
+        };
+    }
+
+    /**
+     * Breaks connection and makes server unreachable for given time (reconnect starts after it with backoff).
+     * @param outageMillis time (milliseconds) server is unreachable
+     */
+    public void simulateOutage(long outageMillis) {
+        serverDownUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(outageMillis);
+        schedule(this::disconnect, 0);
+    }
+
+    /**
+     * @return true if connected to server
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @param collection name of collection
+     * @return number of documents of collection on server
+     */
+    public int getServerDocumentCount(String collection) {
+        Map<String, String> documents = serverCollections.get(collection);
+        return documents == null ? 0 : documents.size();
+    }
+
+    /**
+     * @param collection name of collection
+     * @param id id of document
+     * @return content of document on server, null if server doesn't have it
+     */
+    public String getServerDocument(String collection, String id) {
+        Map<String, String> documents = serverCollections.get(collection);
+        return documents == null ? null : documents.get(id);
+    }
+
+    /**
+     * @return number of requests sent to server (requests sent while disconnected are not counted)
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return number of completed calls and applied changes
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * @return number of changes server sent back
+     */
+    public long getEchoedChangeCount() {
+        return echoedChangeCount.get();
+    }
+
+    /**
+     * @return bytes sent to server
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return bytes received from server
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return number of broken connections
+     */
+    public long getDisconnectCount() {
+        return disconnectCount.get();
+    }
+
+    /**
+     * @return number of reconnects after broken connection
+     */
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /**
+     * One connect attempt (handshake takes round trip). Attempt fails if server is unreachable.
+     */
+    private void connect() {
+        int attemptGeneration;
+        synchronized (this){
+            scheduledReconnect = null;
+            if (stopped || connected){
+                return;
+            }
+            attemptGeneration = generation;
+        }
+        upstream.send(MESSAGE_BYTES, attemptGeneration, () -> {
+            if (System.nanoTime() - serverDownUntil < 0){
+                //server unreachable
+                scheduleReconnect();
+                return;
+            }
+            downstream.send(MESSAGE_BYTES, attemptGeneration, this::connected);
+        });
+    }
+
+    /**
+     * Connection is made - listener is notified, after reconnect active subscriptions are sent again.
+     */
+    private void connected() {
+        boolean reconnected;
+        synchronized (this){
+            if (stopped || connected){
+                return;
+            }
+            connected = true;
+            reconnectBackoff.reset();
+            reconnected = wasConnected;
+            wasConnected = true;
+        }
+        if (reconnected){
+            reconnectCount.incrementAndGet();
+        }
+        remoteStorageListener.connectionChanged(new Connection(Connection.STATE.Connected, session,
+                reconnected ? Connection.CONNECTED_AFTER_BEING_DISCONNECTED : null, null, null));
+        if (reconnected){
+            for (Map.Entry<Integer, ExecutionRequest> subscription:subscriptions.entrySet()) {
+                int subscriptionId = subscription.getKey();
+                ExecutionRequest request = subscription.getValue();
+                sendRequest(MESSAGE_BYTES, () ->
+                        sendSubscription(subscriptionId, request.getSubscriptionName(), request));
+            }
+        }
+    }
+
+    /**
+     * Breaks connection, messages in flight are lost. Reconnect is scheduled.
+     */
+    private void disconnect() {
+        synchronized (this){
+            if (!connected){
+                return;
+            }
+            connected = false;
+            generation++;
+        }
+        upstream.reset();
+        downstream.reset();
+        disconnectCount.incrementAndGet();
+        remoteStorageListener.connectionChanged(new Connection(Connection.STATE.Closed, null, 1006,
+                "connection lost", true));
+        scheduleReconnect();
+    }
+
+    /**
+     * Schedules next connect attempt after backoff.
+     */
+    private synchronized void scheduleReconnect() {
+        if (stopped || connected || scheduledReconnect != null || network == null){
+            return;
+        }
+        scheduledReconnect = network.schedule(this::connect, reconnectBackoff.nextDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends message to server. Message sent while disconnected is lost (Storage sends request again
+     * after reconnect). Server can break connection when message comes (failure injection).
+     * @param bytes size of message
+     * @param serverWork work of server when message comes
+     */
+    private void sendRequest(long bytes, Runnable serverWork) {
+        if (!connected){
+            return;
+        }
+        requestCount.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+        upstream.send(bytes, generation, () -> {
+            if (settings.getDisconnectProbability() > 0 && random.nextDouble() < settings.getDisconnectProbability()){
+                serverDownUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getOutageMillis());
+                disconnect();
+                return;
+            }
+            serverWork.run();
+        });
+    }
+
+    /**
+     * Sends message from server to client.
+     * @param bytes size of message
+     * @param clientWork work done with message on client (listener calls)
+     */
+    private void sendResponse(long bytes, Runnable clientWork) {
+        bytesReceived.addAndGet(bytes);
+        downstream.send(bytes, generation, clientWork);
+    }
+
+    /**
+     * Sends documents of subscription in batches, then completes subscription request.
+     */
+    private void sendSubscription(int subscriptionId, String subscriptionName, ExecutionRequest request) {
+        List<String> collections = new ArrayList<>();
+        List<LoopbackSettings.Dataset> datasets = settings.getDatasets().get(subscriptionName);
+        if (datasets == null){
+            collections.add(subscriptionName);
+        } else {
+            for (LoopbackSettings.Dataset dataset:datasets) {
+                if (!collections.contains(dataset.getCollection())){
+                    collections.add(dataset.getCollection());
+                }
+            }
+        }
+        int batchSize = settings.getSubscriptionBatchSize();
+        for (String collection:collections) {
+            List<RemoteDocumentChange> batch = new ArrayList<>(batchSize);
+            for (Map.Entry<String, String> document:serverCollection(collection).entrySet()) {
+                batch.add(new RemoteDocumentChange(RemoteDocumentChange.ChangeType.INSERT, collection,
+                        document.getKey(), document.getValue()));
+                if (batch.size() == batchSize){
+                    sendChanges(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()){
+                sendChanges(batch);
+            }
+        }
+        sendResponse(MESSAGE_BYTES, () -> {
+            if (subscriptions.containsKey(subscriptionId)){
+                remoteStorageListener.requestCompleted(request);
+            }
+        });
+    }
+
+    /**
+     * @param changes changes sent to client as one message
+     */
+    private void sendChanges(List<RemoteDocumentChange> changes) {
+        RemoteDocumentChange[] message = changes.toArray(new RemoteDocumentChange[changes.size()]);
+        sendResponse(MESSAGE_BYTES + size(message), () -> remoteStorageListener.changesReceived(message));
+    }
+
+    /**
+     * Applies changes to collections of server.
+     * @param changes changes from client
+     * @return applied changes as changes of documents
+     */
+    private List<RemoteDocumentChange> applyOnServer(DocumentChanges changes) {
+        List<RemoteDocumentChange> applied = new ArrayList<>();
+        for (Document document:changes.getAddedDocuments()) {
+            String collection = document.getCollection().getName();
+            serverCollection(collection).put(document.getId(), document.getContent());
+            applied.add(new RemoteDocumentChange(RemoteDocumentChange.ChangeType.INSERT, collection,
+                    document.getId(), document.getContent()));
+        }
+        for (Document document:changes.getUpdatedDocuments()) {
+            String collection = document.getCollection().getName();
+            serverCollection(collection).put(document.getId(), document.getContent());
+            applied.add(new RemoteDocumentChange(RemoteDocumentChange.ChangeType.UPDATE, collection,
+                    document.getId(), document.getContent()));
+        }
+        for (Document document:changes.getRemovedDocuments()) {
+            String collection = document.getCollection().getName();
+            serverCollection(collection).remove(document.getId());
+            applied.add(new RemoteDocumentChange(RemoteDocumentChange.ChangeType.REMOVE, collection,
+                    document.getId(), null));
+        }
+        return applied;
+    }
+
+    /**
+     * @param method name of method
+     * @return error of method (by failure injection), null if method succeeds
+     */
+    private RemoteStorageError injectMethodError(String method) {
+        if (settings.getMethodErrorProbability() == 0 || random.nextDouble() >= settings.getMethodErrorProbability()){
+            return null;
+        }
+        return new RemoteStorageError() {
+            @Override
+            public int id() {
+                return 500;
+            }
+
+            @Override
+            public String source() {
+                return method;
+            }
+
+            @Override
+            public String message() {
+                return "Injected failure of method " + method;
+            }
+        };
+    }
+
+    /**
+     * @param name name of collection
+     * @return collection of server (created if it doesn't exist)
+     */
+    private Map<String, String> serverCollection(String name) {
+        return serverCollections.computeIfAbsent(name, collection -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param changes changes of documents
+     * @return estimated size of changes in message (bytes)
+     */
+    private static long size(DocumentChanges changes) {
+        long bytes = 0;
+        for (Document document:changes.getAddedDocuments()) {
+            bytes += size(document.getId(), document.getContent());
+        }
+        for (Document document:changes.getUpdatedDocuments()) {
+            bytes += size(document.getId(), document.getContent());
+        }
+        for (Document document:changes.getRemovedDocuments()) {
+            bytes += size(document.getId(), null);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param changes changes of documents
+     * @return estimated size of changes in message (bytes)
+     */
+    private static long size(RemoteDocumentChange[] changes) {
+        long bytes = 0;
+        for (RemoteDocumentChange change:changes) {
+            bytes += size(change.getId(), change.getData());
+        }
+        return bytes;
+    }
+
+    /**
+     * @param id id of document
+     * @param content content of document (can be null)
+     * @return estimated size of document in message (bytes)
+     */
+    private static long size(String id, String content) {
+        return 32 + (id == null ? 0 : id.length()) + (content == null ? 0 : content.length());
+    }
+
+    /**
+     * Runs work on network thread after delay (ignored when storage is stopped).
+     * @param work work
+     * @param delayNanos delay (nanoseconds)
+     */
+    private synchronized void schedule(Runnable work, long delayNanos) {
+        if (network != null){
+            network.schedule(work, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package net.jards.remote.loopback;
+
+import net.jards.core.Backoff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of simulated network and server of LoopbackRemoteStorage - latency, jitter, bandwidth, failures
+ * and datasets of subscriptions.
+ */
+public class LoopbackSettings {
+
+    /**
+     * Generator of content of documents in dataset of subscription.
+     */
+    public interface ContentGenerator {
+        /**
+         * @param index index of document in dataset
+         * @return json content of document
+         */
+        String content(int index);
+    }
+
+    /**
+     * Documents server sends when subscription is made.
+     */
+    public static class Dataset {
+
+        private final String collection;
+        private final int documents;
+        private final ContentGenerator contentGenerator;
+
+        /**
+         * @param collection collection of documents
+         * @param documents number of documents
+         * @param contentGenerator generator of content of documents
+         */
+        Dataset(String collection, int documents, ContentGenerator contentGenerator) {
+            this.collection = collection;
+            this.documents = documents;
+            this.contentGenerator = contentGenerator;
+        }
+
+        public String getCollection() {
+            return collection;
+        }
+
+        public int getDocuments() {
+            return documents;
+        }
+
+        public ContentGenerator getContentGenerator() {
+            return contentGenerator;
+        }
+    }
+
+    /**
+     * one way latency (milliseconds)
+     */
+    private long latencyMillis = 0;
+    /**
+     * maximal random addition to latency (milliseconds)
+     */
+    private long jitterMillis = 0;
+    /**
+     * bandwidth of each direction (bytes per second), 0 is unlimited
+     */
+    private long bandwidthBytesPerSecond = 0;
+    /**
+     * probability that request which came to server breaks connection (server goes down)
+     */
+    private double disconnectProbability = 0;
+    /**
+     * time (milliseconds) server is down after connection breaks
+     */
+    private long outageMillis = 1000;
+    /**
+     * probability that method (call or applied changes) ends with error
+     */
+    private double methodErrorProbability = 0;
+    /**
+     * true if server sends applied changes back as changes of documents
+     */
+    private boolean echoChanges = true;
+    /**
+     * seed for random jitter and failures (same seed gives same decisions for same requests)
+     */
+    private long seed = 42;
+    /**
+     * number of documents of subscription sent in one message
+     */
+    private int subscriptionBatchSize = 1000;
+    /**
+     * backoff between reconnect attempts
+     */
+    private Backoff reconnectBackoff = new Backoff(50, 5000, 2, 0.5);
+    /**
+     * datasets of subscriptions (key is name of subscription)
+     */
+    private final Map<String, List<Dataset>> datasets = new LinkedHashMap<>();
+
+    /**
+     * @param latencyMillis one way latency (milliseconds), round trip takes twice as long
+     * @param jitterMillis maximal random addition to latency (milliseconds), messages keep order
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        if (latencyMillis < 0 || jitterMillis < 0){
+            throw new IllegalArgumentException("Latency and jitter can't be negative!");
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * @param bytesPerSecond bandwidth of each direction (bytes per second), 0 is unlimited
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 0){
+            throw new IllegalArgumentException("Bandwidth can't be negative!");
+        }
+        this.bandwidthBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Sets failure injection.
+     * @param disconnectProbability probability that request which came to server breaks connection
+     * @param outageMillis time (milliseconds) server is unreachable after connection breaks
+     * @param methodErrorProbability probability that method ends with error (request is still completed)
+     */
+    public void setFailures(double disconnectProbability, long outageMillis, double methodErrorProbability) {
+        if (disconnectProbability < 0 || disconnectProbability > 1 || methodErrorProbability < 0
+                || methodErrorProbability > 1 || outageMillis < 0){
+            throw new IllegalArgumentException("Probabilities must be from 0 to 1 and outage non negative!");
+        }
+        this.disconnectProbability = disconnectProbability;
+        this.outageMillis = outageMillis;
+        this.methodErrorProbability = methodErrorProbability;
+    }
+
+    /**
+     * @param echoChanges true if server sends applied changes back as changes of documents
+     */
+    public void setEchoChanges(boolean echoChanges) {
+        this.echoChanges = echoChanges;
+    }
+
+    /**
+     * @param seed seed for random jitter and failures
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param subscriptionBatchSize number of documents of subscription sent in one message
+     */
+    public void setSubscriptionBatchSize(int subscriptionBatchSize) {
+        if (subscriptionBatchSize < 1){
+            throw new IllegalArgumentException("Subscription batch size must be positive!");
+        }
+        this.subscriptionBatchSize = subscriptionBatchSize;
+    }
+
+    /**
+     * @param initialDelayMillis delay (milliseconds) before first reconnect attempt
+     * @param maxDelayMillis maximal delay (milliseconds)
+     * @param multiplier growth of delay with every attempt
+     * @param jitter random part of delay (from 0 to 1)
+     */
+    public void setReconnectBackoff(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter) {
+        this.reconnectBackoff = new Backoff(initialDelayMillis, maxDelayMillis, multiplier, jitter);
+    }
+
+    /**
+     * Adds documents to server which are sent with subscription. Documents have ids collection-index.
+     * Subscription without dataset sends documents of collection with name of subscription.
+     * @param subscriptionName name of subscription
+     * @param collection collection of documents
+     * @param documents number of documents
+     * @param contentGenerator generator of content (null gives {"index":i})
+     */
+    public void addSubscriptionDataset(String subscriptionName, String collection, int documents,
+                                       ContentGenerator contentGenerator) {
+        if (documents < 0){
+            throw new IllegalArgumentException("Number of documents can't be negative!");
+        }
+        ContentGenerator generator = contentGenerator != null ? contentGenerator : index -> "{\"index\":" + index + "}";
+        datasets.computeIfAbsent(subscriptionName, name -> new ArrayList<>())
+                .add(new Dataset(collection, documents, generator));
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public long getBandwidthBytesPerSecond() {
+        return bandwidthBytesPerSecond;
+    }
+
+    public double getDisconnectProbability() {
+        return disconnectProbability;
+    }
+
+    public long getOutageMillis() {
+        return outageMillis;
+    }
+
+    public double getMethodErrorProbability() {
+        return methodErrorProbability;
+    }
+
+    public boolean isEchoChanges() {
+        return echoChanges;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getSubscriptionBatchSize() {
+        return subscriptionBatchSize;
+    }
+
+    public Backoff getReconnectBackoff() {
+        return reconnectBackoff;
+    }
+
+    /**
+     * @return datasets of subscriptions (key is name of subscription)
+     */
+    public Map<String, List<Dataset>> getDatasets() {
+        return Collections.unmodifiableMap(datasets);
+    }
+}
@@ -0,0 +1,61 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests of Backoff delays - exponential growth up to max delay, jitter and reset.
+ */
+public class BackoffTest extends TestCase {
+
+    public BackoffTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(BackoffTest.class);
+    }
+
+    public void testDelaysGrowUpToMaxDelay() {
+        Backoff backoff = new Backoff(100, 1000, 2, 0);
+        long[] expected = {100, 200, 400, 800, 1000, 1000};
+        for (long delay : expected) {
+            assertEquals(delay, backoff.nextDelayMillis());
+        }
+        assertEquals(expected.length, backoff.getAttempts());
+    }
+
+    public void testResetStartsFromInitialDelay() {
+        Backoff backoff = new Backoff(100, 1000, 3, 0);
+        backoff.nextDelayMillis();
+        backoff.nextDelayMillis();
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertEquals(100, backoff.nextDelayMillis());
+    }
+
+    public void testJitterShortensDelay() {
+        Backoff backoff = new Backoff(1000, 1000, 1, 0.5);
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.nextDelayMillis();
+            assertTrue(String.valueOf(delay), delay > 500 && delay <= 1000);
+        }
+    }
+
+    public void testInvalidParameters() {
+        assertInvalid(-1, 100, 2, 0);
+        assertInvalid(100, 10, 2, 0);
+        assertInvalid(100, 1000, 0.5, 0);
+        assertInvalid(100, 1000, 2, 1.5);
+    }
+
+    private static void assertInvalid(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter) {
+        try {
+            new Backoff(initialDelayMillis, maxDelayMillis, multiplier, jitter);
+            fail("backoff was created with invalid parameters");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
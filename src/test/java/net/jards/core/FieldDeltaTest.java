@@ -0,0 +1,131 @@
+package net.jards.core;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests of FieldDelta - merge of changed and cleared fields into stored json, and of deltas which came
+ * from server.
+ */
+public class FieldDeltaTest extends TestCase {
+
+    public FieldDeltaTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(FieldDeltaTest.class);
+    }
+
+    public void testMergeChangedFields() {
+        FieldDelta fieldDelta = new FieldDelta("{\"b\":2,\"e\":true}", null);
+        assertEquals("{\"a\":1,\"b\":2,\"d\":\"x,}\",\"e\":true}",
+                fieldDelta.applyTo("{\"a\":1, \"b\":{\"c\":[1,{\"f\":2}]}, \"d\":\"x,}\"}"));
+        assertTrue(fieldDelta.affects("b.c[0]"));
+        assertFalse(fieldDelta.affects("a"));
+        assertFalse(fieldDelta.clears("b"));
+    }
+
+    public void testClearFields() {
+        FieldDelta fieldDelta = new FieldDelta(null, Arrays.asList("a", "missing"));
+        assertEquals("{\"b\":[1,2]}", fieldDelta.applyTo("{\"a\":{\"x\":1},\"b\":[1,2]}"));
+        assertTrue(fieldDelta.affects("a[0].x"));
+        assertTrue(fieldDelta.clears("a.x"));
+        //changed field is not cleared
+        fieldDelta = new FieldDelta("{\"a\":1}", Collections.singletonList("a"));
+        assertFalse(fieldDelta.clears("a"));
+        assertEquals("{\"a\":1}", fieldDelta.applyTo("{\"a\":0}"));
+    }
+
+    public void testEscapedNames() {
+        FieldDelta fieldDelta = new FieldDelta("{\"a\\\"b\":3,\"a\":2}", null);
+        //names are compared decoded, stored raw name is kept
+        assertEquals("{\"a\\\"b\":3,\"\\u0061\":2,\"c\":\"\\\"\"}",
+                fieldDelta.applyTo("{\"a\\\"b\":1,\"\\u0061\":1,\"c\":\"\\\"\"}"));
+        assertTrue(fieldDelta.affects("a\"b"));
+    }
+
+    public void testFallbackToParsedTree() {
+        //names in single quotes are not read by scanner, json is merged as parsed tree
+        FieldDelta fieldDelta = new FieldDelta("{\"b\":3}", Collections.singletonList("c"));
+        assertEquals("{\"a\":1,\"b\":3}", fieldDelta.applyTo("{'a':1,'b':2,'c':4}"));
+    }
+
+    public void testMissingDocument() {
+        FieldDelta fieldDelta = new FieldDelta("{\"a\":1}", Collections.singletonList("b"));
+        assertEquals("{\"a\":1}", fieldDelta.applyTo(null));
+        assertEquals("{\"a\":1}", fieldDelta.applyTo(""));
+    }
+
+    public void testThen() {
+        FieldDelta first = new FieldDelta("{\"a\":1,\"c\":1}", Collections.singletonList("b"));
+        FieldDelta second = new FieldDelta("{\"b\":2}", Collections.singletonList("a"));
+        String json = "{\"a\":0,\"b\":0,\"c\":0,\"d\":0}";
+        FieldDelta combined = first.then(second);
+        //same members (order of members can differ)
+        assertEquals(parse(second.applyTo(first.applyTo(json))), parse(combined.applyTo(json)));
+        assertEquals(parse("{\"b\":2,\"c\":1,\"d\":0}"), parse(combined.applyTo(json)));
+        assertEquals(Collections.singletonList("a"), combined.getClearedFields());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static JsonElement parse(String json) {
+        return new JsonParser().parse(json);
+    }
+
+    public void testDeltaOfStoredDocumentsOnly() throws Exception {
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("delta_");
+        storageSetup.addCollectionSetup("tasks", false, "text");
+        //echo of created document could come after delta and overwrite it
+        LoopbackSettings settings = new LoopbackSettings();
+        settings.setEchoChanges(false);
+        RemoteStorageListener[] listener = new RemoteStorageListener[1];
+        LoopbackRemoteStorage remoteStorage = new LoopbackRemoteStorage(settings) {
+            @Override
+            protected void setListener(RemoteStorageListener remoteStorageListener) {
+                listener[0] = remoteStorageListener;
+                super.setListener(remoteStorageListener);
+            }
+        };
+        Storage storage = new Storage(storageSetup, remoteStorage,
+                new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:"));
+        storage.start();
+        try {
+            Document[] stored = new Document[1];
+            ResultSet[] resultSet = new ResultSet[1];
+            storage.execute((context, transaction, arguments) -> {
+                try {
+                    Collection collection = context.getCollection("tasks");
+                    stored[0] = collection.create(new Document("{\"text\":\"stored\",\"done\":false}"), transaction);
+                    resultSet[0] = collection.find(null);
+                } catch (LocalStorageException e) {
+                    e.printStackTrace();
+                }
+            });
+            listener[0].changesReceived(new RemoteDocumentChange[]{
+                    new RemoteDocumentChange("tasks", "missing", "{\"text\":\"partial\"}", null),
+                    new RemoteDocumentChange("tasks", stored[0].getId(), "{\"done\":true}", null)});
+            long deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline
+                    && !resultSet[0].getDocuments().get(0).getContent().contains("true")){
+                Thread.sleep(10);
+            }
+            DocumentList documents = resultSet[0].getDocuments();
+            assertEquals(1, documents.size());
+            assertEquals("{\"text\":\"stored\",\"done\":true}", documents.get(0).getContent());
+        } finally {
+            storage.stop();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static net.jards.core.StorageFixture.memoryLocalStorage;
+
+/**
+ * Tests of ordered and limited result sets - first documents read from local storage and kept after changes.
+ */
+public class ResultSetOrderTest extends TestCase {
+
+    private Storage storage;
+
+    public ResultSetOrderTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ResultSetOrderTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("order_");
+        //text index sorts as text in sql, int index as numbers
+        storageSetup.addCollectionSetup("people", false, "age");
+        storageSetup.getLocalCollections().get("people").addIntIndex("rank");
+        //document without rank is stored with null in index (default extractor fails on missing property)
+        storageSetup.setJsonPropertyExtractor(new StreamingJSONPropertyExtractor());
+        storage = StorageFixture.start(storageSetup, memoryLocalStorage(storageSetup));
+        storage.execute((context, transaction, arguments) -> {
+            for (int value : new int[]{100, 9, 10}) {
+                create(context, transaction, "{\"age\":" + value + ",\"rank\":" + value + ",\"score\":" + value + "}");
+            }
+            //typed index needs values of its type, so this document has no rank
+            create(context, transaction, "{\"age\":\"abc\"}");
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        storage.stop();
+    }
+
+    public void testLimitOnTextIndex() {
+        ResultSet resultSet = find("age", ResultOptions.OrderBy.ASC, 2);
+        assertEquals(Arrays.asList("9", "10"), values(resultSet, "age"));
+    }
+
+    public void testLimitOnTextIndexDescending() {
+        ResultSet resultSet = find("age", ResultOptions.OrderBy.DESC, 2);
+        //strings are after numbers
+        assertEquals(Arrays.asList("\"abc\"", "100"), values(resultSet, "age"));
+    }
+
+    public void testLimitOnIntIndex() {
+        ResultSet resultSet = find("rank", ResultOptions.OrderBy.DESC, 2);
+        assertEquals(Arrays.asList("100", "10"), values(resultSet, "rank"));
+        //missing value is first
+        resultSet = find("rank", ResultOptions.OrderBy.ASC, 2);
+        assertEquals(Arrays.asList(null, "9"), values(resultSet, "rank"));
+    }
+
+    public void testLimitedResultFollowsChanges() {
+        ResultSet resultSet = find("age", ResultOptions.OrderBy.ASC, 2);
+        Document[] created = new Document[1];
+        storage.execute((context, transaction, arguments) ->
+                created[0] = create(context, transaction, "{\"age\":5,\"rank\":5}"));
+        assertEquals(Arrays.asList("5", "9"), values(resultSet, "age"));
+        //removed document is replaced by next one from local storage
+        storage.execute((context, transaction, arguments) -> {
+            try {
+                context.getCollection("people").remove(created[0], transaction);
+            } catch (LocalStorageException e) {
+                throw new IllegalStateException("document was not removed", e);
+            }
+        });
+        assertEquals(Arrays.asList("9", "10"), values(resultSet, "age"));
+        storage.execute((context, transaction, arguments) ->
+                create(context, transaction, "{\"age\":1000,\"rank\":1000}"));
+        assertEquals(Arrays.asList("9", "10"), values(resultSet, "age"));
+    }
+
+    public void testFindOneWithPredicateNotInSql() throws LocalStorageException {
+        //score has no index, first document in order of rank which matches predicate is returned
+        ResultOptions resultOptions = new ResultOptions();
+        resultOptions.addOrderByOption("rank", ResultOptions.OrderBy.ASC);
+        Map<String, String> found = storage.getLocalStorage().findOne("people", new Predicate.Equals("score", 10),
+                resultOptions);
+        assertNotNull(found);
+        assertTrue(found.get("jsondata").contains("\"rank\":10"));
+        //options of caller are not changed
+        assertEquals(0, resultOptions.getLimit());
+        resultOptions.setLimit(1);
+        List<Map<String, String>> documents = storage.getLocalStorage().find("people",
+                new Predicate.Equals("score", 100), resultOptions);
+        assertEquals(1, documents.size());
+        assertTrue(documents.get(0).get("jsondata").contains("\"rank\":100"));
+    }
+
+    private ResultSet find(String property, ResultOptions.OrderBy orderBy, int limit) {
+        ResultOptions resultOptions = new ResultOptions();
+        resultOptions.addOrderByOption(property, orderBy);
+        resultOptions.setLimit(limit);
+        return StorageFixture.find(storage, "people", resultOptions);
+    }
+
+    private static List<String> values(ResultSet resultSet, String property) {
+        List<String> values = new ArrayList<>();
+        for (Document document : resultSet.getDocuments()) {
+            try {
+                values.add(String.valueOf(document.getPropertyValue(property)));
+            } catch (Exception e) {
+                values.add(null);
+            }
+        }
+        return values;
+    }
+
+    private static Document create(ExecutionContext context, Transaction transaction, String content) {
+        return StorageFixture.createDocument(context, transaction, "people", content);
+    }
+}
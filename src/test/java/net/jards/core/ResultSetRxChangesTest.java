@@ -0,0 +1,134 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+import rx.Observable;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests of change stream of ResultSet - first item with actual documents and deltas after it.
+ */
+public class ResultSetRxChangesTest extends TestCase {
+
+    private Storage storage;
+    private ResultSet resultSet;
+
+    public ResultSetRxChangesTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ResultSetRxChangesTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("rx_");
+        storageSetup.addCollectionSetup("tasks", false, "text");
+        storage = new Storage(storageSetup, new LoopbackRemoteStorage(new LoopbackSettings()),
+                new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:"));
+        storage.start();
+        create("first");
+        ResultSet[] found = new ResultSet[1];
+        storage.execute((context, transaction, arguments) -> {
+            try {
+                found[0] = context.getCollection("tasks").find(null);
+            } catch (LocalStorageException e) {
+                e.printStackTrace();
+            }
+        });
+        resultSet = found[0];
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        storage.stop();
+    }
+
+    public void testActualDocumentsAreReadOnSubscribe() throws Exception {
+        Observable<DocumentChanges> changes = resultSet.getAsRxChanges();
+        //change between call and subscribe is in first item
+        create("second");
+        List<DocumentChanges> received = new CopyOnWriteArrayList<>();
+        changes.subscribe(received::add);
+        create("third");
+        waitForIds(received, 3);
+        assertEquals(2, received.get(0).getAddedDocuments().size());
+        assertEquals(ids(resultSet.getDocuments()), ids(received));
+    }
+
+    public void testSlowObserverDoesNotBlockStorage() throws Exception {
+        List<DocumentChanges> received = new CopyOnWriteArrayList<>();
+        resultSet.getAsRxChanges().subscribe(documentChanges -> {
+            sleep(100);
+            received.add(documentChanges);
+        });
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            create("task " + i);
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        waitForIds(received, 11);
+        assertEquals(ids(resultSet.getDocuments()), ids(received));
+    }
+
+    private void create(String text) {
+        storage.execute((context, transaction, arguments) -> {
+            try {
+                context.getCollection("tasks").create(new Document("{\"text\":\"" + text + "\"}"), transaction);
+            } catch (LocalStorageException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private static void waitForIds(List<DocumentChanges> received, int count) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline && ids(received).size() < count){
+            sleep(10);
+        }
+    }
+
+    /**
+     * @param received received changes
+     * @return ids of documents after applying all changes
+     */
+    private static Set<String> ids(List<DocumentChanges> received) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (DocumentChanges documentChanges : received) {
+            for (Document document : documentChanges.getAddedDocuments()) {
+                ids.add(document.getId());
+            }
+            for (Document document : documentChanges.getRemovedDocuments()) {
+                ids.remove(document.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static Set<String> ids(DocumentList documents) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (Document document : documents) {
+            ids.add(document.getId());
+        }
+        return ids;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
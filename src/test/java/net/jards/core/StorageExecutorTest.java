@@ -0,0 +1,118 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.jards.core.StorageFixture.memoryLocalStorage;
+import static net.jards.core.StorageFixture.setup;
+import static net.jards.core.StorageFixture.sleep;
+
+/**
+ * Tests of executor running loops of Storage and of completion of requests.
+ */
+public class StorageExecutorTest extends TestCase {
+
+    private static final int REQUESTS = 1000;
+
+    private Storage storage;
+    private LocalStorage localStorage;
+
+    public StorageExecutorTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageExecutorTest.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (storage != null){
+            storage.stop();
+        }
+    }
+
+    public void testLoopsRunInExecutor() throws Exception {
+        AtomicInteger tasks = new AtomicInteger();
+        Executor threads = StorageExecutors.newThreadPerTaskExecutor("test");
+        start(task -> {
+            tasks.incrementAndGet();
+            threads.execute(task);
+        }, 2);
+        //local loop, remote loop and two lanes
+        assertEquals(4, tasks.get());
+        storage.execute((context, transaction, arguments) -> create(context, transaction, "first"));
+        assertEquals(1, countDocuments());
+    }
+
+    public void testCompletionOfManyRequests() throws Exception {
+        start(null, 0);
+        List<CompletableFuture<ExecutionRequest>> completions = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            String text = "task " + i;
+            completions.add(storage.executeAsync((context, transaction, arguments) ->
+                    create(context, transaction, text)).getCompletion());
+        }
+        CompletableFuture.allOf(completions.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        for (CompletableFuture<ExecutionRequest> completion:completions) {
+            assertTrue(completion.get().isDone());
+        }
+        assertEquals(REQUESTS, countDocuments());
+    }
+
+    public void testCompletingCopyDoesNotCompleteRequest() throws Exception {
+        start(null, 0);
+        ExecutionRequest request = storage.executeAsync((context, transaction, arguments) -> sleep(200));
+        request.getCompletion().complete(null);
+        assertFalse(request.isDone());
+        assertSame(request, request.getCompletion().get(5, TimeUnit.SECONDS));
+    }
+
+    public void testBlockingCallsInVirtualThreads() throws Exception {
+        if (!StorageExecutors.isVirtualThreadsSupported()){
+            return;
+        }
+        ExecutorService virtualThreads = StorageExecutors.newVirtualThreadPerTaskExecutor();
+        try {
+            start(virtualThreads, 2);
+            List<CompletableFuture<Void>> callers = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                String text = "task " + i;
+                callers.add(CompletableFuture.runAsync(() -> storage.execute((context, transaction, arguments) ->
+                        create(context, transaction, text)), virtualThreads));
+            }
+            CompletableFuture.allOf(callers.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            assertEquals(REQUESTS, countDocuments());
+        } finally {
+            storage.stop();
+            storage = null;
+            virtualThreads.shutdown();
+        }
+    }
+
+    private void start(Executor executor, int writeLanes) throws LocalStorageException {
+        StorageSetup storageSetup = setup("executor_", "tasks");
+        storageSetup.setWriteLanes(writeLanes);
+        storageSetup.setExecutor(executor);
+        localStorage = memoryLocalStorage(storageSetup);
+        storage = StorageFixture.start(storageSetup, localStorage);
+    }
+
+    private int countDocuments() throws LocalStorageException {
+        return localStorage.find("tasks", null, null).size();
+    }
+
+    private static void create(ExecutionContext context, Transaction transaction, String text) {
+        StorageFixture.create(context, transaction, "tasks", text);
+    }
+}
@@ -0,0 +1,151 @@
+package net.jards.core;
+
+import junit.framework.Assert;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.io.File;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Shared parts of Storage tests - Storage with Loopback remote storage and SQLite local storage, writing and
+ * reading documents in executions. Failures of helpers fail the test (or request which called them).
+ */
+final class StorageFixture {
+
+    /**
+     * time to wait for asynchronous results (i.e. documents sent to server)
+     */
+    static final long WAIT_MILLIS = 5000;
+
+    private StorageFixture() {
+    }
+
+    /**
+     * @param prefix prefix of tables of test
+     * @param collections names of remote collections with text index
+     * @return setup of storage
+     */
+    static StorageSetup setup(String prefix, String... collections) {
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix(prefix);
+        for (String collection : collections) {
+            storageSetup.addCollectionSetup(collection, false, "text");
+        }
+        return storageSetup;
+    }
+
+    /**
+     * @param storageSetup setup of storage
+     * @return SQLite local storage with in memory database
+     */
+    static LocalStorage memoryLocalStorage(StorageSetup storageSetup) {
+        return new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:");
+    }
+
+    /**
+     * Creates and starts storage with Loopback remote storage.
+     * @param storageSetup setup of storage
+     * @param localStorage local storage
+     * @return started storage
+     * @throws LocalStorageException if local storage can't be started
+     */
+    static Storage start(StorageSetup storageSetup, LocalStorage localStorage) throws LocalStorageException {
+        return start(storageSetup, new LoopbackRemoteStorage(new LoopbackSettings()), localStorage);
+    }
+
+    /**
+     * Creates and starts storage.
+     * @param storageSetup setup of storage
+     * @param remoteStorage remote storage
+     * @param localStorage local storage
+     * @return started storage
+     * @throws LocalStorageException if local storage can't be started
+     */
+    static Storage start(StorageSetup storageSetup, RemoteStorage remoteStorage, LocalStorage localStorage)
+            throws LocalStorageException {
+        Storage storage = new Storage(storageSetup, remoteStorage, localStorage);
+        storage.start();
+        return storage;
+    }
+
+    /**
+     * Creates document with given content in execution.
+     * @return created document
+     */
+    static Document createDocument(ExecutionContext context, Transaction transaction, String collection,
+                                   String content) {
+        try {
+            return context.getCollection(collection).create(new Document(content), transaction);
+        } catch (LocalStorageException e) {
+            throw new IllegalStateException("document was not created", e);
+        }
+    }
+
+    /**
+     * Creates document {"text":text} in execution.
+     * @return created document
+     */
+    static Document create(ExecutionContext context, Transaction transaction, String collection, String text) {
+        return createDocument(context, transaction, collection, "{\"text\":\"" + text + "\"}");
+    }
+
+    /**
+     * Opens result set of collection in execution of storage.
+     * @param options options of result, can be null
+     * @return opened result set
+     */
+    static ResultSet find(Storage storage, String collection, ResultOptions options) {
+        ResultSet[] resultSet = new ResultSet[1];
+        ExecutionRequest request = storage.executeAsync((context, transaction, arguments) -> {
+            try {
+                resultSet[0] = context.getCollection(collection).find(null, options);
+            } catch (LocalStorageException e) {
+                throw new IllegalStateException("result set was not opened", e);
+            }
+        });
+        request.await();
+        if (request.getError() != null){
+            throw new IllegalStateException(request.getError());
+        }
+        return resultSet[0];
+    }
+
+    /**
+     * Waits until condition is true, fails after WAIT_MILLIS.
+     * @param message message of failure
+     * @param condition awaited condition
+     */
+    static void waitFor(String message, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline){
+                Assert.fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Sleeps in execution (user code of request).
+     */
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("sleep was interrupted", e);
+        }
+    }
+
+    /**
+     * Deletes file of database with its journal files.
+     */
+    static void deleteDatabase(File databaseFile) {
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(databaseFile.getAbsolutePath() + suffix).delete();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static net.jards.core.StorageFixture.deleteDatabase;
+import static net.jards.core.StorageFixture.setup;
+import static net.jards.core.StorageFixture.waitFor;
+
+/**
+ * Tests of group commit - requests executed together in one local storage transaction.
+ */
+public class StorageGroupCommitTest extends TestCase {
+
+    private static final int REQUESTS = 50;
+
+    private File databaseFile;
+    private Storage storage;
+    private LocalStorage localStorage;
+    private final Queue<ExecutionRequest> sentRequests = new ConcurrentLinkedQueue<>();
+
+    public StorageGroupCommitTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageGroupCommitTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        databaseFile = File.createTempFile("group_commit", ".db");
+        StorageSetup storageSetup = setup("group_", "tasks");
+        storageSetup.setGroupCommit(REQUESTS, 200000);
+        //file database with read connections (in memory database has only writer connection)
+        localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite:" + databaseFile.getAbsolutePath(), 2);
+        LoopbackRemoteStorage remoteStorage = new LoopbackRemoteStorage(new LoopbackSettings()) {
+            @Override
+            protected void applyChanges(DocumentChanges changes, ExecutionRequest request) {
+                sentRequests.add(request);
+                super.applyChanges(changes, request);
+            }
+        };
+        storage = StorageFixture.start(storageSetup, remoteStorage, localStorage);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        storage.stop();
+        deleteDatabase(databaseFile);
+    }
+
+    public void testGroupSeesItsWrites() throws Exception {
+        int[] found = new int[REQUESTS];
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            int index = i;
+            requests.add(storage.executeAsync((context, transaction, arguments) -> {
+                create(context, transaction, "task " + index);
+                found[index] = count(context, null);
+            }));
+        }
+        for (ExecutionRequest request : requests) {
+            request.await();
+        }
+        for (int i = 0; i < REQUESTS; i++) {
+            //previous requests of group and own write
+            assertEquals(i + 1, found[i]);
+        }
+        assertEquals(REQUESTS, localStorage.find("tasks", null, null).size());
+    }
+
+    public void testFailingRequestFailsAlone() throws Exception {
+        AtomicIntegerArray runs = new AtomicIntegerArray(REQUESTS);
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            int index = i;
+            requests.add(storage.executeAsync((context, transaction, arguments) -> {
+                runs.incrementAndGet(index);
+                create(context, transaction, "task " + index);
+                if (index == REQUESTS / 2){
+                    throw new IllegalStateException("failing request");
+                }
+            }));
+        }
+        for (int i = 0; i < REQUESTS; i++) {
+            ExecutionRequest request = requests.get(i);
+            request.await();
+            assertTrue(request.isDone());
+            if (i == REQUESTS / 2){
+                assertTrue(request.getError() instanceof IllegalStateException);
+            } else {
+                assertNull(request.getError());
+            }
+            //only failing request was rolled back (to its savepoint), nothing was executed again
+            assertEquals(1, runs.get(i));
+        }
+        //write of failing request was rolled back
+        assertEquals(REQUESTS - 1, localStorage.find("tasks", null, null).size());
+        //storage still works
+        storage.execute((context, transaction, arguments) -> create(context, transaction, "after"));
+        assertEquals(REQUESTS, localStorage.find("tasks", null, null).size());
+    }
+
+    public void testExecutesOfGroupAreSentSeparately() throws Exception {
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            int index = i;
+            requests.add(storage.executeAsync((context, transaction, arguments) -> create(context, transaction,
+                    "task " + index)));
+        }
+        for (ExecutionRequest request : requests) {
+            request.await();
+        }
+        waitFor("executes were not sent", () -> sentRequests.size() == REQUESTS);
+        //every execute is sent (and confirmed) as itself, in order
+        assertEquals(requests, new ArrayList<>(sentRequests));
+    }
+
+    private static int count(ExecutionContext context, Predicate predicate) {
+        try {
+            ResultSet resultSet = context.getCollection("tasks").find(predicate);
+            int count = resultSet.getDocuments().size();
+            resultSet.close();
+            return count;
+        } catch (LocalStorageException e) {
+            throw new IllegalStateException("documents were not counted", e);
+        }
+    }
+
+    private static void create(ExecutionContext context, Transaction transaction, String text) {
+        StorageFixture.create(context, transaction, "tasks", text);
+    }
+}
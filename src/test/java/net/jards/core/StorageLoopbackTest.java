@@ -0,0 +1,133 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import net.jards.metrics.DefaultMetricsRegistry;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.jards.core.StorageFixture.create;
+import static net.jards.core.StorageFixture.waitFor;
+
+/**
+ * Load test of Storage against loopback remote storage - executions over slow network with broken connections
+ * and subscription with large initial dataset.
+ */
+public class StorageLoopbackTest extends TestCase {
+
+    private static final int EXECUTIONS = 500;
+    private static final int DATASET = 20000;
+
+    public StorageLoopbackTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageLoopbackTest.class);
+    }
+
+    public void testExecutionsSurviveOutages() throws Exception {
+        LoopbackSettings settings = new LoopbackSettings();
+        settings.setLatency(1, 2);
+        settings.setFailures(0.002, 50, 0);
+        settings.setReconnectBackoff(10, 200, 2, 0.5);
+        LoopbackRemoteStorage remoteStorage = new LoopbackRemoteStorage(settings);
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("loopback_");
+        storageSetup.addCollectionSetup("tasks", false, "text");
+        LocalStorage localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:");
+        Storage storage = StorageFixture.start(storageSetup, remoteStorage, localStorage);
+        try {
+            TransactionRunnable insert = (context, transaction, arguments) ->
+                    create(context, transaction, "tasks", (String) arguments[0]);
+            for (int i = 0; i < EXECUTIONS; i++) {
+                storage.executeAsync(insert, "task " + i);
+            }
+            remoteStorage.simulateOutage(100);
+            long deadline = System.currentTimeMillis() + 60000;
+            while (System.currentTimeMillis() < deadline
+                    && remoteStorage.getServerDocumentCount("tasks") < EXECUTIONS) {
+                Thread.sleep(10);
+            }
+            assertEquals(EXECUTIONS, remoteStorage.getServerDocumentCount("tasks"));
+            //requests lost with broken connections were sent again
+            assertTrue(remoteStorage.getRequestCount() >= EXECUTIONS);
+            assertTrue(remoteStorage.getDisconnectCount() > 0);
+            assertEquals(remoteStorage.getDisconnectCount(), remoteStorage.getReconnectCount());
+            //changes came back from server, documents are not duplicated
+            assertEquals(EXECUTIONS, localStorage.find("tasks", null, null).size());
+        } finally {
+            storage.stop();
+        }
+    }
+
+    public void testSubscriptionWithLargeDataset() throws Exception {
+        LoopbackSettings settings = new LoopbackSettings();
+        settings.setLatency(5, 0);
+        settings.setBandwidth(50 * 1024 * 1024);
+        settings.addSubscriptionDataset("tasks", "tasks", DATASET,
+                index -> "{\"text\":\"task " + index + "\",\"priority\":" + (index % 10) + "}");
+        LoopbackRemoteStorage remoteStorage = new LoopbackRemoteStorage(settings);
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("loopback_");
+        storageSetup.addCollectionSetup("tasks", false, "text");
+        LocalStorage localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:");
+        Storage storage = StorageFixture.start(storageSetup, remoteStorage, localStorage);
+        try {
+            storage.subscribe("tasks");
+            long deadline = System.currentTimeMillis() + 60000;
+            while (System.currentTimeMillis() < deadline && localStorage.find("tasks", null, null).size() < DATASET) {
+                Thread.sleep(10);
+            }
+            assertEquals(DATASET, localStorage.find("tasks", null, null).size());
+        } finally {
+            storage.stop();
+        }
+    }
+
+    public void testResentSubscriptionEndsWithNewId() throws Exception {
+        LoopbackSettings settings = new LoopbackSettings();
+        settings.setReconnectBackoff(10, 50, 2, 0);
+        RemoteStorageListener[] listener = new RemoteStorageListener[1];
+        AtomicInteger subscriptionIds = new AtomicInteger();
+        LoopbackRemoteStorage remoteStorage = new LoopbackRemoteStorage(settings) {
+            @Override
+            protected void setListener(RemoteStorageListener remoteStorageListener) {
+                listener[0] = remoteStorageListener;
+                super.setListener(remoteStorageListener);
+            }
+
+            @Override
+            protected int subscribe(String subscriptionName, ExecutionRequest request) {
+                //server doesn't answer, subscription stays sent
+                int subscriptionId = subscriptionIds.incrementAndGet();
+                request.setRemoteCallsId(subscriptionId);
+                return subscriptionId;
+            }
+        };
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("loopback_");
+        storageSetup.addCollectionSetup("tasks", false, "text");
+        storageSetup.setMetricsRegistry(new DefaultMetricsRegistry());
+        Storage storage = StorageFixture.start(storageSetup, remoteStorage,
+                new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:"));
+        try {
+            storage.subscribe("tasks");
+            waitFor("subscription was not sent", () -> subscriptionIds.get() == 1);
+            remoteStorage.simulateOutage(20);
+            waitFor("subscription was not sent again", () -> subscriptionIds.get() == 2);
+            //request is indexed after subscribe returned
+            Thread.sleep(100);
+            assertEquals(1, storage.getMetricsSnapshot().getGauge("storage.unconfirmed.depth"));
+            //server ends subscription under id of resent request, it is not sent again
+            listener[0].unsubscribed("tasks", 2, null);
+            assertEquals(0, storage.getMetricsSnapshot().getGauge("storage.unconfirmed.depth"));
+        } finally {
+            storage.stop();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static net.jards.core.StorageFixture.deleteDatabase;
+
+/**
+ * Tests of migration of populated database when setup changes - documents stay and values of new indexes are
+ * filled, also if previous setup is not known or migration was interrupted. Indexes of older versions are
+ * created again.
+ */
+public class StorageMigrationTest extends TestCase {
+
+    private static final int DOCUMENTS = 20;
+
+    private File databaseFile;
+    private Storage storage;
+    private LocalStorage localStorage;
+
+    public StorageMigrationTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageMigrationTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        databaseFile = File.createTempFile("migration", ".db");
+        //populated database with first setup
+        start(setup("text"));
+        storage.executeLocally((context, transaction, arguments) -> {
+            for (int i = 0; i < DOCUMENTS; i++) {
+                create(context, transaction, "{\"text\":\"task " + i + "\",\"rank\":" + i + ",\"done\":false}");
+            }
+        });
+        storage.stop();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (storage.isRunning()){
+            storage.stop();
+        }
+        deleteDatabase(databaseFile);
+    }
+
+    public void testDocumentsSurviveSetupChange() throws Exception {
+        //removed text index rebuilds table, values of rank index are filled again
+        start(setup());
+        assertEquals(DOCUMENTS, localStorage.find("tasks", null, null).size());
+        assertEquals(1, localStorage.find("tasks", new Predicate.Equals("rank", 7), null).size());
+    }
+
+    public void testDocumentsSurviveWithoutSavedSetups() throws Exception {
+        //database from version which didn't save setups of collections
+        execute("delete from migration_setup_hash_table where id like 'setup:%';");
+        start(setup("text", "done"));
+        assertEquals(DOCUMENTS, localStorage.find("tasks", null, null).size());
+        assertEquals(1, localStorage.find("tasks", new Predicate.Equals("rank", 7), null).size());
+    }
+
+    public void testInterruptedRebuildIsRecovered() throws Exception {
+        //application ended after table was renamed and before documents were copied back
+        execute("alter table migration_tasks rename to migration_tasks_migration;");
+        start(setup("text"));
+        assertEquals(DOCUMENTS, localStorage.find("tasks", null, null).size());
+        assertEquals(1, localStorage.find("tasks", new Predicate.Equals("rank", 7), null).size());
+        assertFalse(tableExists("migration_tasks_migration"));
+    }
+
+    public void testPartlyCopiedRebuildIsRecovered() throws Exception {
+        //new table was created and got only some documents
+        execute("alter table migration_tasks rename to migration_tasks_migration;");
+        execute("create table migration_tasks (id varchar(36) primary key, collection text, jsondata text, text text,"
+                + " rank integer);");
+        execute("insert into migration_tasks (id, collection, jsondata) select id, collection, jsondata"
+                + " from migration_tasks_migration limit 5;");
+        start(setup("text"));
+        assertEquals(DOCUMENTS, localStorage.find("tasks", null, null).size());
+        assertEquals(1, localStorage.find("tasks", new Predicate.Equals("rank", 7), null).size());
+        assertFalse(tableExists("migration_tasks_migration"));
+    }
+
+    public void testOldCoveringIndexIsRecreated() throws Exception {
+        //covering index of older version had content of documents
+        execute("create index migration_tasks_byRank_cindex on migration_tasks (rank ASC, id, collection, jsondata);");
+        StorageSetup storageSetup = setup("text");
+        storageSetup.getLocalCollections().get("tasks").addCompositeIndex(
+                new CollectionSetup.CompositeIndex("byRank", true).addProperty("rank", ResultOptions.OrderBy.ASC));
+        start(storageSetup);
+        assertEquals("CREATE INDEX migration_tasks_byRank_cindex on migration_tasks (rank ASC, id)",
+                indexSql("migration_tasks_byRank_cindex"));
+        assertEquals(1, localStorage.find("tasks", new Predicate.Equals("rank", 7), null).size());
+    }
+
+    private static StorageSetup setup(String... indexes) {
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("migration_");
+        storageSetup.addCollectionSetup("tasks", true, indexes);
+        storageSetup.getLocalCollections().get("tasks").addIntIndex("rank");
+        return storageSetup;
+    }
+
+    private void start(StorageSetup storageSetup) throws LocalStorageException {
+        localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite:" + databaseFile.getAbsolutePath());
+        storage = StorageFixture.start(storageSetup, localStorage);
+    }
+
+    private void execute(String sql) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private boolean tableExists(String table) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select name from sqlite_master where type = 'table'"
+                     + " and name = '" + table + "';")) {
+            return resultSet.next();
+        }
+    }
+
+    private String indexSql(String index) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("select sql from sqlite_master where type = 'index'"
+                     + " and name = '" + index + "';")) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    private static void create(ExecutionContext context, Transaction transaction, String content) {
+        StorageFixture.createDocument(context, transaction, "tasks", content);
+    }
+}
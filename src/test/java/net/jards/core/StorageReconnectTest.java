@@ -0,0 +1,106 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static net.jards.core.StorageFixture.create;
+import static net.jards.core.StorageFixture.memoryLocalStorage;
+import static net.jards.core.StorageFixture.setup;
+import static net.jards.core.StorageFixture.waitFor;
+
+/**
+ * Tests of connecting remote storage which doesn't reconnect itself - Storage starts it again after delays of
+ * reconnect backoff, reconnectNow skips the delay. Requests wait for connection.
+ */
+public class StorageReconnectTest extends TestCase {
+
+    private Storage storage;
+    private UnreachableRemoteStorage remoteStorage;
+
+    public StorageReconnectTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageReconnectTest.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (storage != null){
+            storage.stop();
+        }
+    }
+
+    public void testStartIsRepeatedWithBackoff() throws Exception {
+        start(3, 50);
+        storage.execute((context, transaction, arguments) -> create(context, transaction, "tasks", "offline"));
+        waitFor("remote storage was not connected", remoteStorage::isConnected);
+        List<Long> attempts = remoteStorage.attempts;
+        assertEquals(4, attempts.size());
+        //delays of backoff without jitter: 50, 100, 200 ms
+        long delay = 50;
+        for (int i = 1; i < attempts.size(); i++) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(attempts.get(i) - attempts.get(i - 1));
+            assertTrue("attempt " + i + " after " + millis + " ms", millis >= delay);
+            delay *= 2;
+        }
+        //execute made while disconnected is sent after connection
+        waitFor("execute was not sent", () -> remoteStorage.getServerDocumentCount("tasks") == 1);
+    }
+
+    public void testReconnectNowSkipsBackoff() throws Exception {
+        start(1, 10000);
+        waitFor("remote storage was not started", () -> remoteStorage.attempts.size() == 1);
+        long start = System.nanoTime();
+        storage.reconnectNow();
+        waitFor("remote storage was not connected", remoteStorage::isConnected);
+        assertEquals(2, remoteStorage.attempts.size());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    }
+
+    private void start(int failedAttempts, long initialDelayMillis) throws LocalStorageException {
+        StorageSetup storageSetup = setup("reconnect_", "tasks");
+        storageSetup.setReconnectBackoff(initialDelayMillis, 60000, 2, 0);
+        remoteStorage = new UnreachableRemoteStorage(failedAttempts);
+        storage = StorageFixture.start(storageSetup, remoteStorage, memoryLocalStorage(storageSetup));
+    }
+
+    /**
+     * Remote storage which doesn't reconnect itself and can't connect in first attempts.
+     */
+    private static class UnreachableRemoteStorage extends LoopbackRemoteStorage {
+
+        private final int failedAttempts;
+        /**
+         * times of start attempts (nanoseconds)
+         */
+        private final List<Long> attempts = new CopyOnWriteArrayList<>();
+
+        UnreachableRemoteStorage(int failedAttempts) {
+            super(new LoopbackSettings());
+            this.failedAttempts = failedAttempts;
+        }
+
+        @Override
+        protected boolean managesReconnect() {
+            return false;
+        }
+
+        @Override
+        protected void start(String sessionState) {
+            attempts.add(System.nanoTime());
+            if (attempts.size() > failedAttempts){
+                super.start(sessionState);
+            }
+        }
+    }
+}
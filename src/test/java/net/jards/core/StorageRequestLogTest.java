@@ -0,0 +1,151 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static net.jards.core.StorageFixture.create;
+import static net.jards.core.StorageFixture.deleteDatabase;
+import static net.jards.core.StorageFixture.setup;
+import static net.jards.core.StorageFixture.waitFor;
+
+/**
+ * Tests of request log - executes and calls not confirmed before stop are sent again after start, each of them
+ * once, and they are not sent again after server confirms them.
+ */
+public class StorageRequestLogTest extends TestCase {
+
+    private File databaseFile;
+    private Storage storage;
+    private LocalStorage localStorage;
+
+    public StorageRequestLogTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageRequestLogTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        databaseFile = File.createTempFile("request_log", ".db");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (storage != null && storage.isRunning()){
+            storage.stop();
+        }
+        deleteDatabase(databaseFile);
+    }
+
+    public void testUnconfirmedRequestsAreReplayedOnce() throws Exception {
+        //server doesn't confirm anything before stop
+        RecordingRemoteStorage unconfirming = start(false);
+        ExecutionRequest execute = storage.execute((context, transaction, arguments) ->
+                create(context, transaction, "tasks", "offline"));
+        ExecutionRequest call = storage.callAsync("notify", "offline", 7);
+        waitFor("requests were not sent", () -> unconfirming.sentRequests.size() == 2);
+        storage.stop();
+
+        RecordingRemoteStorage confirming = start(true);
+        waitFor("requests were not confirmed", () -> confirming.getCompletedCount() == 2);
+        waitFor("confirmed requests were not tombstoned", () -> unconfirmedIds().isEmpty());
+        assertEquals(1, confirming.sentCount(execute.getId()));
+        assertEquals(1, confirming.sentCount(call.getId()));
+        assertEquals(1, confirming.getServerDocumentCount("tasks"));
+        //arguments of call are restored from json (numbers as Double)
+        assertEquals(Arrays.asList("offline", 7.0), confirming.callArguments.get(call.getId()));
+        storage.stop();
+
+        //confirmed requests are not sent after next start
+        RecordingRemoteStorage afterConfirmation = start(true);
+        assertTrue(unconfirmedIds().isEmpty());
+        Thread.sleep(200);
+        assertTrue(afterConfirmation.sentRequests.isEmpty());
+    }
+
+    public void testConfirmedRequestsAreNotReplayed() throws Exception {
+        RecordingRemoteStorage confirming = start(true);
+        storage.execute((context, transaction, arguments) -> create(context, transaction, "tasks", "online"));
+        storage.call("notify", "online");
+        waitFor("requests were not confirmed", () -> confirming.getCompletedCount() == 2);
+        storage.stop();
+
+        RecordingRemoteStorage restarted = start(true);
+        assertTrue(unconfirmedIds().isEmpty());
+        Thread.sleep(200);
+        assertTrue(restarted.sentRequests.isEmpty());
+    }
+
+    private RecordingRemoteStorage start(boolean confirming) throws LocalStorageException {
+        StorageSetup storageSetup = setup("log_", "tasks");
+        localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite:" + databaseFile.getAbsolutePath());
+        RecordingRemoteStorage remoteStorage = new RecordingRemoteStorage(confirming);
+        storage = StorageFixture.start(storageSetup, remoteStorage, localStorage);
+        return remoteStorage;
+    }
+
+    private List<String> unconfirmedIds() {
+        try {
+            return localStorage.readRequestLog().stream().map(RequestRecord::getRequestId)
+                    .collect(Collectors.toList());
+        } catch (LocalStorageException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loopback remote storage counting sent executes and calls, it confirms them only if it is confirming.
+     */
+    private static class RecordingRemoteStorage extends LoopbackRemoteStorage {
+
+        private final boolean confirming;
+        private final Map<String, AtomicInteger> sentRequests = new ConcurrentHashMap<>();
+        private final Map<String, List<Object>> callArguments = new ConcurrentHashMap<>();
+
+        RecordingRemoteStorage(boolean confirming) {
+            super(new LoopbackSettings());
+            this.confirming = confirming;
+        }
+
+        @Override
+        protected void applyChanges(DocumentChanges changes, ExecutionRequest request) {
+            sent(request);
+            if (confirming){
+                super.applyChanges(changes, request);
+            }
+        }
+
+        @Override
+        protected void call(String method, Object[] arguments, String idSeed, ExecutionRequest request) {
+            callArguments.put(request.getId(), Arrays.asList(arguments));
+            sent(request);
+            if (confirming){
+                super.call(method, arguments, idSeed, request);
+            }
+        }
+
+        private void sent(ExecutionRequest request) {
+            sentRequests.computeIfAbsent(request.getId(), id -> new AtomicInteger()).incrementAndGet();
+        }
+
+        int sentCount(String requestId) {
+            AtomicInteger count = sentRequests.get(requestId);
+            return count == null ? 0 : count.get();
+        }
+    }
+}
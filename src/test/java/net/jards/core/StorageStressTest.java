@@ -0,0 +1,152 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of request queues in Storage - many threads execute and call methods at once.
+ */
+public class StorageStressTest extends TestCase {
+
+    /**
+     * Remote storage which confirms every request immediately (in remote thread of storage).
+     */
+    private static class ConfirmingRemoteStorage extends RemoteStorage {
+
+        private final AtomicInteger appliedDocuments = new AtomicInteger();
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicLong ids = new AtomicLong();
+        private RemoteStorageListener listener;
+
+        @Override
+        protected void start(String sessionState) {
+            listener.connectionChanged(new Connection(Connection.STATE.Connected, "session", null, null, true));
+        }
+
+        @Override
+        protected void stop() {
+        }
+
+        @Override
+        protected void setListener(RemoteStorageListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        protected int subscribe(String subscriptionName, ExecutionRequest request) {
+            return 0;
+        }
+
+        @Override
+        protected void unsubscribe(ExecutionRequest request) {
+        }
+
+        @Override
+        protected void call(String method, Object[] arguments, String idSeed, ExecutionRequest request) {
+            calls.incrementAndGet();
+            listener.requestCompleted(request);
+        }
+
+        @Override
+        protected void applyChanges(DocumentChanges changes, ExecutionRequest request) {
+            appliedDocuments.addAndGet(changes.getAddedDocuments().size());
+            listener.requestCompleted(request);
+        }
+
+        @Override
+        public String getSessionState() {
+            return "";
+        }
+
+        @Override
+        protected IdGenerator getIdGenerator(String seed) {
+            return () -> "id" + ids.incrementAndGet();
+        }
+    }
+
+    private static final int PRODUCERS = 8;
+    private static final int EXECUTIONS = 200;
+    private static final int CALLS = 50;
+
+    public StorageStressTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageStressTest.class);
+    }
+
+    public void testManyProducers() throws Exception {
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("stress_");
+        storageSetup.addCollectionSetup("tasks", false, "text");
+        ConfirmingRemoteStorage remoteStorage = new ConfirmingRemoteStorage();
+        LocalStorage localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:");
+        Storage storage = new Storage(storageSetup, remoteStorage, localStorage);
+        storage.start();
+
+        TransactionRunnable insert = (context, transaction, arguments) -> {
+            Document document = new Document();
+            document.setContent("{\"text\":\"" + arguments[0] + "\"}");
+            try {
+                context.getCollection("tasks").create(document, transaction);
+            } catch (LocalStorageException e) {
+                e.printStackTrace();
+            }
+        };
+        storage.registerSpeculativeMethod("tasks.speculation", (context, transaction, arguments) -> {
+        });
+
+        List<Thread> producers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < EXECUTIONS; i++) {
+                        if (i % 2 == 0) {
+                            storage.execute(insert, producer + "-" + i);
+                        } else {
+                            storage.executeAsync(insert, producer + "-" + i);
+                        }
+                        if (i % (EXECUTIONS / CALLS) == 0) {
+                            storage.call("tasks.speculation");
+                            storage.call("tasks.noSpeculation");
+                        }
+                    }
+                } catch (Throwable t) {
+                    synchronized (errors) {
+                        errors.add(t);
+                    }
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : producers) {
+            thread.join(60000);
+            assertFalse("producer did not finish", thread.isAlive());
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        //asynchronous executions and sending to server can still run
+        int expected = PRODUCERS * EXECUTIONS;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline && (remoteStorage.appliedDocuments.get() < expected
+                || localStorage.find("tasks", null, null).size() < expected)) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, localStorage.find("tasks", null, null).size());
+        assertEquals(expected, remoteStorage.appliedDocuments.get());
+        assertEquals(PRODUCERS * CALLS * 2, remoteStorage.calls.get());
+        storage.stop();
+    }
+}
@@ -0,0 +1,114 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.jards.core.StorageFixture.create;
+import static net.jards.core.StorageFixture.find;
+import static net.jards.core.StorageFixture.memoryLocalStorage;
+import static net.jards.core.StorageFixture.setup;
+import static net.jards.core.StorageFixture.waitFor;
+
+/**
+ * Tests of local storage transaction of execution - writes of failed execution are rolled back and they are
+ * not sent to server, execute is in request log before it is sent to server.
+ */
+public class StorageTransactionTest extends TestCase {
+
+    private Storage storage;
+    private LocalStorage localStorage;
+    private LoopbackRemoteStorage remoteStorage;
+    /**
+     * sent executes, value is true if execute was in request log when it was sent
+     */
+    private final Map<String, Boolean> loggedWhenSent = new ConcurrentHashMap<>();
+
+    public StorageTransactionTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageTransactionTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        StorageSetup storageSetup = setup("transaction_", "tasks");
+        storageSetup.addCollectionSetup("drafts", true, "text");
+        localStorage = memoryLocalStorage(storageSetup);
+        remoteStorage = new LoopbackRemoteStorage(new LoopbackSettings()) {
+            @Override
+            protected void applyChanges(DocumentChanges changes, ExecutionRequest request) {
+                loggedWhenSent.put(request.getId(), isInRequestLog(request));
+                super.applyChanges(changes, request);
+            }
+        };
+        storage = StorageFixture.start(storageSetup, remoteStorage, localStorage);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        storage.stop();
+    }
+
+    public void testFailedExecuteIsRolledBack() throws Exception {
+        ResultSet resultSet = find(storage, "tasks", null);
+        ExecutionRequest failed = storage.executeAsync((context, transaction, arguments) -> {
+            create(context, transaction, "tasks", "partial");
+            throw new IllegalStateException("failing execute");
+        });
+        failed.await();
+        assertTrue(failed.getError() instanceof IllegalStateException);
+        assertTrue(failed.getTransaction().getLocalChanges().isEmpty());
+        storage.execute((context, transaction, arguments) -> create(context, transaction, "tasks", "whole"));
+        waitFor("execute was not sent", () -> remoteStorage.getServerDocumentCount("tasks") >= 1);
+        //only second execute was written and sent to server
+        Thread.sleep(100);
+        assertEquals(1, remoteStorage.getServerDocumentCount("tasks"));
+        assertEquals(1, localStorage.find("tasks", null, null).size());
+        assertEquals(1, resultSet.getDocuments().size());
+    }
+
+    public void testFailedLocalExecuteIsRolledBack() throws Exception {
+        ExecutionRequest failed = storage.executeLocallyAsync((context, transaction, arguments) -> {
+            create(context, transaction, "drafts", "first");
+            create(context, transaction, "drafts", "second");
+            throw new IllegalStateException("failing execute");
+        });
+        failed.await();
+        assertTrue(failed.getError() instanceof IllegalStateException);
+        assertEquals(0, localStorage.find("drafts", null, null).size());
+    }
+
+    public void testExecuteIsLoggedBeforeItIsSent() throws Exception {
+        ExecutionRequest[] requests = new ExecutionRequest[20];
+        for (int i = 0; i < requests.length; i++) {
+            int index = i;
+            requests[i] = storage.executeAsync((context, transaction, arguments) -> create(context, transaction,
+                    "tasks", "task " + index));
+        }
+        for (ExecutionRequest request : requests) {
+            request.await();
+        }
+        waitFor("executes were not sent", () -> loggedWhenSent.size() == requests.length);
+        for (ExecutionRequest request : requests) {
+            assertEquals(Boolean.TRUE, loggedWhenSent.get(request.getId()));
+        }
+    }
+
+    private boolean isInRequestLog(ExecutionRequest request) {
+        try {
+            return localStorage.readRequestLog().stream()
+                    .anyMatch(record -> record.getRequestId().equals(request.getId()));
+        } catch (LocalStorageException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
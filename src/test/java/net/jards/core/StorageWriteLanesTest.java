@@ -0,0 +1,200 @@
+package net.jards.core;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.errors.LocalStorageException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static net.jards.core.StorageFixture.create;
+import static net.jards.core.StorageFixture.find;
+import static net.jards.core.StorageFixture.memoryLocalStorage;
+import static net.jards.core.StorageFixture.setup;
+import static net.jards.core.StorageFixture.sleep;
+
+/**
+ * Tests of write lanes - transactions with disjoint collections run in parallel (user code before first write),
+ * transactions sharing collection keep their order, transactions without declared collections wait for all
+ * before them, every transaction of lane is rolled back alone.
+ */
+public class StorageWriteLanesTest extends TestCase {
+
+    private static final long SLOW_TRANSACTION_MILLIS = 500;
+
+    private Storage storage;
+
+    public StorageWriteLanesTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StorageWriteLanesTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        StorageSetup storageSetup = setup("lanes_", "tasks", "notes");
+        storageSetup.setWriteLanes(4);
+        storage = StorageFixture.start(storageSetup, memoryLocalStorage(storageSetup));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        storage.stop();
+    }
+
+    public void testDisjointCollectionsRunInParallel() {
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        //code before first write runs in parallel, writes hold writer until end of execution
+        ExecutionRequest slow = storage.executeAsync(collections("tasks"), (context, transaction, arguments) -> {
+            sleep(SLOW_TRANSACTION_MILLIS);
+            create(context, transaction, "tasks", "slow");
+            finished.add("tasks");
+        });
+        ExecutionRequest fast = storage.executeAsync(collections("notes"), (context, transaction, arguments) -> {
+            create(context, transaction, "notes", "fast");
+            finished.add("notes");
+        });
+        fast.await();
+        slow.await();
+        assertEquals(Arrays.asList("notes", "tasks"), finished);
+    }
+
+    public void testUserCodeBeforeFirstWriteRunsInParallel() {
+        long start = System.currentTimeMillis();
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (String collection : new String[]{"tasks", "notes"}) {
+            requests.add(storage.executeAsync(collections(collection), (context, transaction, arguments) -> {
+                sleep(SLOW_TRANSACTION_MILLIS);
+                create(context, transaction, collection, "slow");
+            }));
+        }
+        for (ExecutionRequest request:requests) {
+            request.await();
+            assertNull(request.getError());
+        }
+        //lanes slept together, only writes waited for each other
+        assertTrue(System.currentTimeMillis() - start < 2 * SLOW_TRANSACTION_MILLIS);
+    }
+
+    public void testFailedLaneRequestIsRolledBack() throws Exception {
+        ExecutionRequest failed = storage.executeAsync(collections("tasks"), (context, transaction, arguments) -> {
+            create(context, transaction, "tasks", "first");
+            create(context, transaction, "tasks", "second");
+            throw new IllegalStateException("failing transaction");
+        });
+        ExecutionRequest parallel = storage.executeAsync(collections("notes"),
+                (context, transaction, arguments) -> create(context, transaction, "notes", "note"));
+        failed.await();
+        parallel.await();
+        assertTrue(failed.getError() instanceof IllegalStateException);
+        assertNull(parallel.getError());
+        //writes of failed request are rolled back, request of other lane is kept
+        assertEquals(0, storage.getLocalStorage().find("tasks", null, null).size());
+        assertEquals(1, storage.getLocalStorage().find("notes", null, null).size());
+        //lane works after rollback
+        storage.execute(collections("tasks"), (context, transaction, arguments) ->
+                create(context, transaction, "tasks", "after"));
+        assertEquals(1, storage.getLocalStorage().find("tasks", null, null).size());
+    }
+
+    public void testSharedCollectionKeepsOrder() {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<ExecutionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            //every third transaction uses both collections, others only one of them
+            Set<String> collections = i % 3 == 0 ? collections("tasks", "notes")
+                    : collections(i % 3 == 1 ? "tasks" : "notes");
+            requests.add(storage.executeAsync(collections, (context, transaction, arguments) -> {
+                if (index % 3 != 2){
+                    create(context, transaction, "tasks", "task " + index);
+                    order.add(index);
+                }
+            }));
+        }
+        for (ExecutionRequest request:requests) {
+            request.await();
+        }
+        List<Integer> sorted = new ArrayList<>(order);
+        Collections.sort(sorted);
+        assertEquals(sorted, order);
+        assertEquals(67, order.size());
+    }
+
+    public void testUndeclaredTransactionWaitsForLanes() {
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        ExecutionRequest slow = storage.executeAsync(collections("tasks"), (context, transaction, arguments) -> {
+            sleep(SLOW_TRANSACTION_MILLIS);
+            finished.add("lane");
+        });
+        ExecutionRequest undeclared = storage.executeAsync((context, transaction, arguments) -> finished.add("all"));
+        ExecutionRequest after = storage.executeAsync(collections("notes"),
+                (context, transaction, arguments) -> finished.add("after"));
+        after.await();
+        undeclared.await();
+        slow.await();
+        assertEquals(Arrays.asList("lane", "all", "after"), finished);
+    }
+
+    public void testWriteToUndeclaredCollectionFails() {
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        storage.execute(collections("tasks"), (context, transaction, arguments) -> {
+            try {
+                context.getCollection("notes").create(new Document("{\"text\":\"note\"}"), transaction);
+            } catch (IllegalStateException | LocalStorageException e) {
+                errors.add(e);
+            }
+        });
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalStateException);
+    }
+
+    public void testLaneSurvivesFailedRequests() throws Exception {
+        ResultSet[] resultSet = {find(storage, "tasks", null)};
+        AtomicBoolean listenerFailed = new AtomicBoolean();
+        resultSet[0].addChangeListener(changes -> {
+            if (listenerFailed.compareAndSet(false, true)){
+                throw new IllegalStateException("failing listener");
+            }
+        });
+        List<ExecutionRequest> requests = new ArrayList<>();
+        requests.add(storage.executeAsync(collections("tasks"), (context, transaction, arguments) -> {
+            throw new IllegalStateException("failing transaction");
+        }));
+        //listener of result set fails in first request which changes it
+        for (int i = 0; i < 20; i++) {
+            String text = "task " + i;
+            requests.add(storage.executeAsync(collections("tasks"),
+                    (context, transaction, arguments) -> create(context, transaction, "tasks", text)));
+        }
+        for (ExecutionRequest request:requests) {
+            try {
+                request.getCompletion().get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                //failed request is done too
+            }
+        }
+        assertTrue(requests.get(0).getError() instanceof IllegalStateException);
+        assertTrue(requests.get(1).getError() instanceof IllegalStateException);
+        //following requests of same lane were executed
+        for (int i = 2; i < requests.size(); i++) {
+            assertTrue(requests.get(i).isDone());
+            assertNull(requests.get(i).getError());
+        }
+        assertEquals(20, resultSet[0].getDocuments().size());
+    }
+
+    private static Set<String> collections(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,109 @@
+package net.jards.local.sqlite;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.metrics.NoopMetricsRegistry;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of connections of SQLiteConnectionPool when pool is closed while they are used or awaited.
+ */
+public class SQLiteConnectionPoolTest extends TestCase {
+
+    private File databaseFile;
+    private SQLiteConnectionPool connectionPool;
+
+    public SQLiteConnectionPoolTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(SQLiteConnectionPoolTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        databaseFile = File.createTempFile("connection_pool", ".db");
+        connectionPool = new SQLiteConnectionPool("jdbc:sqlite:" + databaseFile.getAbsolutePath(), 1, 10,
+                NoopMetricsRegistry.INSTANCE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connectionPool.close();
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(databaseFile.getAbsolutePath() + suffix).delete();
+        }
+    }
+
+    public void testCloseWakesWaitingReader() throws Exception {
+        Connection reader = connectionPool.acquireReader();
+        CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return connectionPool.acquireReader();
+            } catch (SqliteException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+        connectionPool.close();
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("waiting reader got connection of closed pool");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof SqliteException);
+        }
+        connectionPool.releaseReader(reader);
+    }
+
+    public void testCloseWaitsForWriterStatement() throws Exception {
+        Connection writer = connectionPool.getWriter();
+        CompletableFuture<Void> statementStarted = new CompletableFuture<>();
+        CompletableFuture<Integer> running = CompletableFuture.supplyAsync(() -> {
+            synchronized (writer) {
+                statementStarted.complete(null);
+                try {
+                    Thread.sleep(200);
+                    try (Statement statement = writer.createStatement();
+                         ResultSet rs = statement.executeQuery("SELECT 1")) {
+                        rs.next();
+                        return rs.getInt(1);
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        statementStarted.get(5, TimeUnit.SECONDS);
+        connectionPool.close();
+        //statement finished on opened writer before it was closed
+        assertEquals(Integer.valueOf(1), running.get(5, TimeUnit.SECONDS));
+        assertTrue(writer.isClosed());
+    }
+
+    public void testBorrowedReaderClosedOnRelease() throws Exception {
+        Connection reader = connectionPool.acquireReader();
+        connectionPool.close();
+        //running read can finish
+        assertFalse(reader.isClosed());
+        try (Statement statement = reader.createStatement(); ResultSet rs = statement.executeQuery("SELECT 1")) {
+            assertTrue(rs.next());
+        }
+        connectionPool.releaseReader(reader);
+        assertTrue(reader.isClosed());
+        //pool opened again has its own read connection
+        Connection newReader = connectionPool.acquireReader();
+        assertNotSame(reader, newReader);
+        assertFalse(newReader.isClosed());
+        connectionPool.releaseReader(newReader);
+    }
+}
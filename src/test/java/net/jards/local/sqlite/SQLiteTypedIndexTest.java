@@ -0,0 +1,149 @@
+package net.jards.local.sqlite;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.core.CollectionSetup;
+import net.jards.core.Document;
+import net.jards.core.Predicate;
+import net.jards.core.ResultOptions;
+import net.jards.core.Storage;
+import net.jards.core.StorageSetup;
+import net.jards.errors.LocalStorageException;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of typed index columns - numbers and booleans are stored and bound with type of index, so sql compares
+ * them as predicates do, range predicates are done in sql as index searches.
+ */
+public class SQLiteTypedIndexTest extends TestCase {
+
+    private File databaseFile;
+    private Storage storage;
+    private SQLiteLocalStorage localStorage;
+    private CollectionSetup collectionSetup;
+
+    public SQLiteTypedIndexTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(SQLiteTypedIndexTest.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        databaseFile = File.createTempFile("typed_index", ".db");
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("typed_");
+        storageSetup.addCollectionSetup("items", false);
+        collectionSetup = storageSetup.getLocalCollections().get("items");
+        collectionSetup.addIntIndex("rank");
+        collectionSetup.addRealIndex("price");
+        collectionSetup.addBooleanIndex("done");
+        localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite:" + databaseFile.getAbsolutePath());
+        storage = new Storage(storageSetup, new LoopbackRemoteStorage(new LoopbackSettings()), localStorage);
+        storage.start();
+        storage.execute((context, transaction, arguments) -> {
+            //as text, 10 and 100 would be smaller than 2 and 9
+            int[] ranks = {2, 9, 10, 100};
+            double[] prices = {0.5, 1.25, 9.75, 10.5};
+            for (int i = 0; i < ranks.length; i++) {
+                try {
+                    context.getCollection("items").create(new Document("{\"rank\":" + ranks[i] + ",\"price\":"
+                            + prices[i] + ",\"done\":" + (i % 2 == 0) + "}"), transaction);
+                } catch (LocalStorageException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        storage.stop();
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            new File(databaseFile.getAbsolutePath() + suffix).delete();
+        }
+    }
+
+    public void testIntRangeComparesNumbers() throws Exception {
+        assertEquals(Collections.singletonList(100L),
+                values("rank", new Predicate.Compare("rank", Predicate.Operator.Bigger, 10)));
+        List<Object> ranks = values("rank", new Predicate.And(
+                new Predicate.Compare("rank", Predicate.Operator.BiggerOrEquals, 9),
+                new Predicate.Compare("rank", Predicate.Operator.Smaller, 100)));
+        Collections.sort(ranks, null);
+        assertEquals(2, ranks.size());
+        assertEquals(9L, ranks.get(0));
+        assertEquals(10L, ranks.get(1));
+        //real value compared with int column
+        assertEquals(Collections.singletonList(2L),
+                values("rank", new Predicate.Compare("rank", Predicate.Operator.Smaller, 2.5)));
+    }
+
+    public void testRealAndBooleanValues() throws Exception {
+        assertEquals(Collections.singletonList(10.5),
+                values("price", new Predicate.Compare("price", Predicate.Operator.Bigger, 10)));
+        assertEquals(2, localStorage.find("items", new Predicate.Equals("done", true), null).size());
+        assertEquals(Collections.singletonList(9L), values("rank", new Predicate.And(
+                new Predicate.Equals("done", false), new Predicate.Compare("price", Predicate.Operator.Smaller, 2))));
+    }
+
+    public void testComparablePredicatesAreDoneInSql() {
+        SQLiteQueryGenerator generator = new SQLiteQueryGenerator(collectionSetup);
+        assertTrue(generator.isSupported(new Predicate.Compare("rank", Predicate.Operator.Bigger, 10)));
+        assertTrue(generator.isSupported(new Predicate.Compare("price", Predicate.Operator.Smaller, 2)));
+        assertTrue(generator.isSupported(new Predicate.Equals("done", true)));
+        //string compared with number column or boolean with numbers gives other result than predicate
+        assertFalse(generator.isSupported(new Predicate.Compare("rank", Predicate.Operator.Bigger, "10")));
+        assertFalse(generator.isSupported(new Predicate.Equals("rank", true)));
+        //property without index
+        assertFalse(generator.isSupported(new Predicate.Compare("count", Predicate.Operator.Bigger, 10)));
+    }
+
+    public void testRangeUsesIndex() throws Exception {
+        SQLiteQueryGenerator generator = new SQLiteQueryGenerator(collectionSetup);
+        Predicate range = new Predicate.And(
+                new Predicate.Compare("rank", Predicate.Operator.Bigger, 2),
+                new Predicate.Compare("rank", Predicate.Operator.SmallerOrEquals, 10));
+        String sql = generator.generateFilterSql(range, new ResultOptions(), true);
+        String plan = queryPlan(sql, generator, range);
+        assertTrue(plan, plan.contains("SEARCH"));
+        assertTrue(plan, plan.contains("INDEX"));
+    }
+
+    private List<Object> values(String property, Predicate predicate) throws Exception {
+        List<Object> values = new ArrayList<>();
+        for (Map<String, String> document : localStorage.find("items", predicate, null)) {
+            Object value = new Document(document.get("jsondata")).getPropertyValue(property);
+            values.add(SQLiteIndexValues.toColumnValue(collectionSetup.getIndexType(property), value));
+        }
+        return values;
+    }
+
+    private String queryPlan(String sql, SQLiteQueryGenerator generator, Predicate predicate) throws Exception {
+        StringBuilder plan = new StringBuilder();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+             PreparedStatement statement = connection.prepareStatement("explain query plan " + sql)) {
+            generator.fillFilterParameters(statement, predicate);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.append(resultSet.getString("detail")).append('\n');
+                }
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package net.jards.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.core.Document;
+import net.jards.core.Storage;
+import net.jards.core.StorageSetup;
+import net.jards.core.TransactionRunnable;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+import net.jards.remote.loopback.LoopbackRemoteStorage;
+import net.jards.remote.loopback.LoopbackSettings;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Tests of metrics registry - counters, percentiles of histograms, JMX export and metrics recorded by Storage.
+ */
+public class MetricsRegistryTest extends TestCase {
+
+    private static final int EXECUTIONS = 100;
+
+    public MetricsRegistryTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(MetricsRegistryTest.class);
+    }
+
+    public void testCountersAndHistograms() {
+        MetricsRegistry registry = new DefaultMetricsRegistry();
+        Counter counter = registry.counter("requests");
+        counter.increment();
+        counter.add(4);
+        assertSame(counter, registry.counter("requests"));
+        Histogram histogram = registry.histogram("latency");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        registry.gauge("depth", () -> 7);
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(5, snapshot.getCounter("requests"));
+        assertEquals(7, snapshot.getGauge("depth"));
+        HistogramSnapshot latency = snapshot.getHistogram("latency");
+        assertEquals(1000, latency.getCount());
+        assertEquals(1000000, latency.getMax());
+        assertEquals(500500.0, latency.getMean(), 0.001);
+        //buckets are at most 12.5% wide
+        assertTrue(latency.getPercentile(50) >= 500000 && latency.getPercentile(50) <= 562500);
+        assertTrue(latency.getPercentile(99) >= 990000 && latency.getPercentile(99) <= 1000000);
+        assertEquals(1000000, latency.getPercentile(100));
+        assertEquals(1000L, snapshot.toMap().get("latency.count"));
+    }
+
+    public void testNoopRegistryRecordsNothing() {
+        MetricsRegistry registry = NoopMetricsRegistry.INSTANCE;
+        registry.counter("requests").increment();
+        registry.histogram("latency").record(10);
+        registry.gauge("depth", () -> 7);
+        assertFalse(registry.isEnabled());
+        assertTrue(registry.snapshot().toMap().isEmpty());
+    }
+
+    public void testJmxExport() throws Exception {
+        MetricsRegistry registry = new DefaultMetricsRegistry();
+        registry.counter("requests").add(3);
+        registry.histogram("latency").record(100);
+        JmxMetricsExporter exporter = new JmxMetricsExporter(registry, "test");
+        exporter.register();
+        try {
+            assertEquals(3L, ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(exporter.getObjectName(), "requests"));
+            assertEquals(100L, ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(exporter.getObjectName(), "latency.max"));
+        } finally {
+            exporter.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(exporter.getObjectName()));
+    }
+
+    public void testStorageMetrics() throws Exception {
+        LoopbackSettings settings = new LoopbackSettings();
+        settings.setLatency(1, 0);
+        LoopbackRemoteStorage remoteStorage = new LoopbackRemoteStorage(settings);
+        StorageSetup storageSetup = new StorageSetup();
+        storageSetup.setPrefix("metrics_");
+        storageSetup.addCollectionSetup("tasks", false, "text");
+        storageSetup.setMetricsRegistry(new DefaultMetricsRegistry());
+        Storage storage = new Storage(storageSetup, remoteStorage,
+                new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:"));
+        storage.start();
+        MetricsSnapshot snapshot;
+        try {
+            TransactionRunnable insert = (context, transaction, arguments) -> {
+                try {
+                    context.getCollection("tasks").create(new Document("{\"text\":\"" + arguments[0] + "\"}"),
+                            transaction);
+                } catch (LocalStorageException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            for (int i = 0; i < EXECUTIONS; i++) {
+                storage.executeAsync(insert, "task " + i);
+            }
+            long deadline = System.currentTimeMillis() + 30000;
+            while (System.currentTimeMillis() < deadline
+                    && storage.getMetricsSnapshot().getCounter("storage.confirmed") < EXECUTIONS) {
+                Thread.sleep(10);
+            }
+            snapshot = storage.getMetricsSnapshot();
+        } finally {
+            storage.stop();
+        }
+
+        assertEquals(EXECUTIONS, snapshot.getCounter("storage.transactions"));
+        assertEquals(EXECUTIONS, snapshot.getCounter("storage.confirmed"));
+        assertEquals(EXECUTIONS, snapshot.getHistogram("storage.pendingLocal.wait").getCount());
+        assertEquals(EXECUTIONS, snapshot.getHistogram("storage.pendingRemote.wait").getCount());
+        assertEquals(EXECUTIONS, snapshot.getHistogram("storage.unconfirmed.wait").getCount());
+        assertTrue(snapshot.getHistogram("sqlite.statement.write").getCount() >= EXECUTIONS);
+        //in memory database has only writer connection, its statements are cached
+        assertEquals(1, snapshot.getGauge("sqlite.connection.opened"));
+        assertEquals(1, snapshot.getHistogram("sqlite.connection.open").getCount());
+        assertTrue(snapshot.getCounter("sqlite.connection.writer.acquired") > 0);
+        assertTrue(snapshot.getCounter("sqlite.statementCache.hits") >= EXECUTIONS - 1);
+        assertEquals(0, snapshot.getGauge("storage.unconfirmed.depth"));
+    }
+}
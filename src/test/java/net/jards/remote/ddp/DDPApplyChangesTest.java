@@ -0,0 +1,86 @@
+package net.jards.remote.ddp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.core.Document;
+import net.jards.core.LocalStorage;
+import net.jards.core.Storage;
+import net.jards.core.StorageSetup;
+import net.jards.core.TransactionRunnable;
+import net.jards.errors.LocalStorageException;
+import net.jards.local.sqlite.SQLiteLocalStorage;
+
+/**
+ * Sends one transaction with many documents to local DDP test server in each apply changes mode and checks
+ * number of method calls it took.
+ */
+public class DDPApplyChangesTest extends TestCase {
+
+    private static final String APPLY_CHANGES_METHOD = "jards/applyChanges";
+    private static final int DOCUMENTS = 200;
+    private static final int CHUNK_SIZE = 50;
+
+    public DDPApplyChangesTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(DDPApplyChangesTest.class);
+    }
+
+    public void testPerDocument() throws Exception {
+        assertEquals(DOCUMENTS, applyTransaction(DDPConnectionSettings.ApplyChangesMode.PerDocument));
+    }
+
+    public void testBatched() throws Exception {
+        assertEquals(1, applyTransaction(DDPConnectionSettings.ApplyChangesMode.Batched));
+    }
+
+    public void testPipelined() throws Exception {
+        assertEquals(DOCUMENTS / CHUNK_SIZE, applyTransaction(DDPConnectionSettings.ApplyChangesMode.Pipelined));
+    }
+
+    /**
+     * Inserts documents in one transaction and waits until server has all of them.
+     * @param mode apply changes mode
+     * @return number of methods server handled
+     */
+    private int applyTransaction(DDPConnectionSettings.ApplyChangesMode mode) throws Exception {
+        DDPTestServer server = new DDPTestServer(APPLY_CHANGES_METHOD);
+        Storage storage = null;
+        try {
+            StorageSetup storageSetup = new StorageSetup();
+            storageSetup.setPrefix("ddp_");
+            storageSetup.addCollectionSetup("tasks", false, "text");
+            DDPConnectionSettings connectionSettings = new DDPConnectionSettings("localhost", server.getPort());
+            connectionSettings.setApplyChanges(mode, APPLY_CHANGES_METHOD, CHUNK_SIZE);
+            LocalStorage localStorage = new SQLiteLocalStorage(storageSetup, "jdbc:sqlite::memory:");
+            storage = new Storage(storageSetup, new DDPRemoteStorage(storageSetup, connectionSettings), localStorage);
+            storage.start();
+
+            TransactionRunnable insertAll = (context, transaction, arguments) -> {
+                try {
+                    for (int i = 0; i < DOCUMENTS; i++) {
+                        Document document = new Document("{\"text\":\"task " + i + "\"}");
+                        context.getCollection("tasks").create(document, transaction);
+                    }
+                } catch (LocalStorageException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            assertNull(storage.execute(insertAll).getError());
+            long deadline = System.currentTimeMillis() + 30000;
+            while (System.currentTimeMillis() < deadline && server.getDocumentCount() < DOCUMENTS) {
+                Thread.sleep(5);
+            }
+            assertEquals(DOCUMENTS, server.getDocumentCount());
+            return server.getMethodCalls();
+        } finally {
+            if (storage != null){
+                storage.stop();
+            }
+            server.close();
+        }
+    }
+}
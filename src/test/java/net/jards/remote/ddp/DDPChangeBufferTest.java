@@ -0,0 +1,127 @@
+package net.jards.remote.ddp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.jards.core.RemoteDocumentChange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests of DDPChangeBuffer - batches are delivered when threshold of changes is reached (threshold grows while
+ * batches are full) or when deadline passes (threshold shrinks after small batch), in order of changes.
+ */
+public class DDPChangeBufferTest extends TestCase {
+
+    private static final int MAX_BATCH = 64;
+    private static final long DEADLINE_MILLIS = 50;
+
+    private final List<RemoteDocumentChange[]> batches = Collections.synchronizedList(new ArrayList<>());
+    private int changeCount;
+
+    public DDPChangeBufferTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(DDPChangeBufferTest.class);
+    }
+
+    public void testThresholdGrowsWithFullBatches() {
+        DDPChangeBuffer buffer = new DDPChangeBuffer(MAX_BATCH, 60000, batches::add);
+        try {
+            add(buffer, 15);
+            assertEquals(0, batches.size());
+            add(buffer, 1);
+            assertEquals(1, batches.size());
+            assertEquals(16, batches.get(0).length);
+            //next batch is twice as big, up to max batch
+            add(buffer, 32);
+            assertEquals(2, batches.size());
+            assertEquals(32, batches.get(1).length);
+            add(buffer, 64);
+            add(buffer, 64);
+            assertEquals(4, batches.size());
+            assertEquals(MAX_BATCH, batches.get(3).length);
+            assertOrder();
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public void testDeadlineDeliversSmallBatch() throws Exception {
+        DDPChangeBuffer buffer = new DDPChangeBuffer(MAX_BATCH, DEADLINE_MILLIS, batches::add);
+        try {
+            add(buffer, 3);
+            assertEquals(0, batches.size());
+            awaitBatches(1);
+            assertEquals(3, batches.get(0).length);
+            assertOrder();
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public void testDeadlineShrinksThreshold() throws Exception {
+        DDPChangeBuffer buffer = new DDPChangeBuffer(MAX_BATCH, DEADLINE_MILLIS, batches::add);
+        try {
+            //threshold grows to 32
+            add(buffer, 16);
+            add(buffer, 1);
+            awaitBatches(2);
+            //small batch from deadline makes threshold 16 again
+            add(buffer, 16);
+            assertEquals(3, batches.size());
+            assertEquals(16, batches.get(2).length);
+            assertOrder();
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public void testCloseDeliversBufferedChanges() {
+        DDPChangeBuffer buffer = new DDPChangeBuffer(MAX_BATCH, 60000, batches::add);
+        add(buffer, 5);
+        buffer.close();
+        assertEquals(1, batches.size());
+        assertEquals(5, batches.get(0).length);
+        //buffer with max batch 1 delivers every change
+        DDPChangeBuffer unbuffered = new DDPChangeBuffer(1, 60000, batches::add);
+        add(unbuffered, 2);
+        unbuffered.close();
+        assertEquals(3, batches.size());
+        assertOrder();
+    }
+
+    private void add(DDPChangeBuffer buffer, int changes) {
+        for (int i = 0; i < changes; i++) {
+            buffer.add(new RemoteDocumentChange(RemoteDocumentChange.ChangeType.INSERT, "tasks",
+                    String.valueOf(changeCount++), "{}"));
+        }
+    }
+
+    private void awaitBatches(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (batches.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, batches.size());
+    }
+
+    /**
+     * Checks that changes came in order they were added (ids are their numbers).
+     */
+    private void assertOrder() {
+        int expected = 0;
+        synchronized (batches) {
+            for (RemoteDocumentChange[] batch : batches) {
+                for (RemoteDocumentChange change : batch) {
+                    assertEquals(String.valueOf(expected++), change.getId());
+                }
+            }
+        }
+        assertEquals(changeCount, expected);
+    }
+}
@@ -0,0 +1,337 @@
+package net.jards.remote.ddp;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local DDP server for tests. Speaks websocket (text frames only) and handles connect, ping, sub, unsub
+ * and methods - collection insert/update/remove and method applying list of changes (see
+ * DDPConnectionSettings.setApplyChanges). Documents are kept in memory, every method is answered with result
+ * and updated message.
+ */
+public class DDPTestServer {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ServerSocket serverSocket;
+    private final String applyChangesMethod;
+    private final Map<String, String> documents = new ConcurrentHashMap<>();
+    private final AtomicInteger methodCalls = new AtomicInteger();
+    private final List<Socket> clients = new ArrayList<>();
+    private volatile boolean running = true;
+
+    /**
+     * Starts server on free port of localhost.
+     * @param applyChangesMethod name of method applying list of changes
+     * @throws IOException if server socket can't be opened
+     */
+    public DDPTestServer(String applyChangesMethod) throws IOException {
+        this.applyChangesMethod = applyChangesMethod;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::acceptClients, "DDP test server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @return port of server
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return number of methods called by clients (without login)
+     */
+    public int getMethodCalls() {
+        return methodCalls.get();
+    }
+
+    /**
+     * @return number of stored documents
+     */
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * @param collection collection
+     * @param id id of document
+     * @return stored json of document, null if it is not stored
+     */
+    public String getDocument(String collection, String id) {
+        return documents.get(collection + "/" + id);
+    }
+
+    /**
+     * Stops server and closes connections.
+     */
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (clients){
+            for (Socket client:clients) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    //closing anyway
+                }
+            }
+        }
+    }
+
+    private void acceptClients() {
+        while (running){
+            try {
+                Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                synchronized (clients){
+                    clients.add(client);
+                }
+                Thread clientThread = new Thread(() -> handleClient(client), "DDP test server client");
+                clientThread.setDaemon(true);
+                clientThread.start();
+            } catch (IOException e) {
+                //server closed
+            }
+        }
+    }
+
+    private void handleClient(Socket client) {
+        try {
+            DataInputStream input = new DataInputStream(client.getInputStream());
+            OutputStream output = client.getOutputStream();
+            handshake(input, output);
+            String message;
+            while ((message = readMessage(input, output)) != null){
+                handleMessage(new JsonParser().parse(message).getAsJsonObject(), output);
+            }
+        } catch (IOException e) {
+            //client disconnected
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                //closing anyway
+            }
+        }
+    }
+
+    private void handshake(InputStream input, OutputStream output) throws IOException {
+        String key = null;
+        String line;
+        while (!(line = readLine(input)).isEmpty()){
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")){
+                key = line.substring(colon + 1).trim();
+            }
+        }
+        if (key == null){
+            throw new IOException("Not a websocket request");
+        }
+        String accept;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            accept = Base64.getEncoder().encodeToString(
+                    sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n";
+        output.write(response.getBytes(StandardCharsets.US_ASCII));
+        output.flush();
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = input.read()) != -1){
+            if (c == '\n'){
+                break;
+            }
+            if (c != '\r'){
+                line.append((char) c);
+            }
+        }
+        if (c == -1 && line.length() == 0){
+            throw new IOException("Connection closed");
+        }
+        return line.toString();
+    }
+
+    /**
+     * Reads next text message (fragments are joined, pings answered).
+     * @return message or null if client closed connection
+     */
+    private String readMessage(DataInputStream input, OutputStream output) throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        while (true){
+            int first = input.readUnsignedByte();
+            int second = input.readUnsignedByte();
+            boolean fin = (first & 0x80) != 0;
+            int opcode = first & 0x0F;
+            long length = second & 0x7F;
+            if (length == 126){
+                length = input.readUnsignedShort();
+            } else if (length == 127){
+                length = input.readLong();
+            }
+            byte[] mask = new byte[4];
+            if ((second & 0x80) != 0){
+                input.readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            input.readFully(payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+            if (opcode == 0x8){
+                writeFrame(output, 0x8, payload);
+                return null;
+            }
+            if (opcode == 0x9){
+                writeFrame(output, 0xA, payload);
+                continue;
+            }
+            if (opcode == 0xA){
+                continue;
+            }
+            message.write(payload);
+            if (fin){
+                return new String(message.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static void writeFrame(OutputStream output, int opcode, byte[] payload) throws IOException {
+        synchronized (output){
+            output.write(0x80 | opcode);
+            if (payload.length < 126){
+                output.write(payload.length);
+            } else if (payload.length < 65536){
+                output.write(126);
+                output.write(payload.length >>> 8);
+                output.write(payload.length & 0xFF);
+            } else {
+                output.write(127);
+                long length = payload.length;
+                for (int i = 7; i >= 0; i--) {
+                    output.write((int) (length >>> (8 * i)) & 0xFF);
+                }
+            }
+            output.write(payload);
+            output.flush();
+        }
+    }
+
+    private static void send(OutputStream output, JsonObject message) throws IOException {
+        writeFrame(output, 0x1, message.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handleMessage(JsonObject message, OutputStream output) throws IOException {
+        String msg = message.has("msg") ? message.get("msg").getAsString() : "";
+        JsonObject reply = new JsonObject();
+        switch (msg){
+            case "connect":
+                reply.addProperty("msg", "connected");
+                reply.addProperty("session", "test-session");
+                send(output, reply);
+                break;
+            case "ping":
+                reply.addProperty("msg", "pong");
+                if (message.has("id")){
+                    reply.add("id", message.get("id"));
+                }
+                send(output, reply);
+                break;
+            case "sub":
+                reply.addProperty("msg", "ready");
+                JsonArray subs = new JsonArray();
+                subs.add(message.get("id"));
+                reply.add("subs", subs);
+                send(output, reply);
+                break;
+            case "unsub":
+                reply.addProperty("msg", "nosub");
+                reply.add("id", message.get("id"));
+                send(output, reply);
+                break;
+            case "method":
+                handleMethod(message.get("method").getAsString(), message.getAsJsonArray("params"));
+                reply.addProperty("msg", "result");
+                reply.add("id", message.get("id"));
+                send(output, reply);
+                JsonObject updated = new JsonObject();
+                updated.addProperty("msg", "updated");
+                JsonArray methods = new JsonArray();
+                methods.add(message.get("id"));
+                updated.add("methods", methods);
+                send(output, updated);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handleMethod(String method, JsonArray params) {
+        if ("login".equals(method)){
+            return;
+        }
+        methodCalls.incrementAndGet();
+        if (method.equals(applyChangesMethod)){
+            for (JsonElement element:params.get(0).getAsJsonArray()) {
+                JsonObject operation = element.getAsJsonObject();
+                String key = operation.get("collection").getAsString() + "/" + operation.get("_id").getAsString();
+                if ("remove".equals(operation.get("op").getAsString())){
+                    documents.remove(key);
+                } else {
+                    documents.put(key, operation.get("jsondata").getAsString());
+                }
+            }
+            return;
+        }
+        int slash = method.lastIndexOf('/');
+        if (!method.startsWith("/") || slash <= 0){
+            return;
+        }
+        String collection = method.substring(1, slash);
+        String operation = method.substring(slash + 1);
+        JsonObject first = params.get(0).getAsJsonObject();
+        String key = collection + "/" + first.get("_id").getAsString();
+        if ("insert".equals(operation)){
+            documents.put(key, first.get("jsondata").getAsString());
+        } else if ("update".equals(operation)){
+            JsonObject set = params.get(1).getAsJsonObject().getAsJsonObject("$set");
+            documents.put(key, set.get("jsondata").getAsString());
+        } else if ("remove".equals(operation)){
+            documents.remove(key);
+        }
+    }
+}